@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks WSSecurityEngine.processSecurityHeader for messages secured with a single action.
+ * The secured message is created once per trial, and parsed by each invocation, as processing
+ * the security header modifies the document. The "parse" benchmark measures the parsing on its
+ * own, so that the processing of the security header is the difference between the two.
+ *
+ * Run with "java -jar target/benchmarks.jar DOMInboundBenchmark -prof gc", and pass
+ * "-p messageSize=52428800" to benchmark a large (50 MB) message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class DOMInboundBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    private int messageSize;
+
+    @Param({"Timestamp", "UsernameToken", "Signature", "Encrypt"})
+    private String action;
+
+    private final WSSecurityEngine secEngine = new WSSecurityEngine();
+    private final BenchmarkCallbackHandler callbackHandler = new BenchmarkCallbackHandler();
+    private Crypto crypto;
+    private byte[] securedMessage;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("wss40.properties");
+        Document unsecured = SoapMessages.toDocument(SoapMessages.createMessage(messageSize));
+        Document secured =
+            DOMOutboundBenchmark.secure(unsecured, action, crypto, KeyUtils.getKeyGenerator(WSConstants.AES_128));
+        securedMessage = SoapMessages.toBytes(secured);
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        return SoapMessages.toDocument(securedMessage);
+    }
+
+    @Benchmark
+    public WSHandlerResult processSecurityHeader() throws Exception {
+        Document document = SoapMessages.toDocument(securedMessage);
+        RequestData data = new RequestData();
+        data.setCallbackHandler(callbackHandler);
+        data.setSigVerCrypto(crypto);
+        data.setDecCrypto(crypto);
+        // The secured message is reused for the whole trial
+        data.setTimeStampTTL(3600);
+        data.setUtTTL(3600);
+        return secEngine.processSecurityHeader(document, data);
+    }
+}
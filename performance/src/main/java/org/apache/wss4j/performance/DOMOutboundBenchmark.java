@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+
+import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.message.WSSecTimestamp;
+import org.apache.wss4j.dom.message.WSSecUsernameToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks the DOM code that secures an outbound message, i.e. the WSSecTimestamp,
+ * WSSecUsernameToken, WSSecSignature and WSSecEncrypt builders. Each invocation parses the
+ * message, as the builders modify the document. The "parse" benchmark measures the parsing on
+ * its own, so that the work of a builder is the difference between the two (setting up a new
+ * document per invocation instead would add the JMH overhead of Level.Invocation to every
+ * measurement, which is significant for small messages).
+ *
+ * Build the benchmarks with "mvn package" in this module (or "mvn install -Pbenchmarks" from
+ * the root), and run them (with the allocation profile) with
+ * "java -jar target/benchmarks.jar DOMOutboundBenchmark -prof gc". Pass e.g.
+ * "-p messageSize=1024" to restrict the message sizes, or "-p messageSize=52428800" to
+ * benchmark a large (50 MB) message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class DOMOutboundBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    private int messageSize;
+
+    private Crypto crypto;
+    private KeyGenerator keyGenerator;
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("wss40.properties");
+        keyGenerator = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        message = SoapMessages.createMessage(messageSize);
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        return SoapMessages.toDocument(message);
+    }
+
+    @Benchmark
+    public Document timestamp() throws Exception {
+        return secure(SoapMessages.toDocument(message), ConfigurationConstants.TIMESTAMP, crypto, keyGenerator);
+    }
+
+    @Benchmark
+    public Document usernameToken() throws Exception {
+        return secure(SoapMessages.toDocument(message), ConfigurationConstants.USERNAME_TOKEN, crypto, keyGenerator);
+    }
+
+    @Benchmark
+    public Document signature() throws Exception {
+        return secure(SoapMessages.toDocument(message), ConfigurationConstants.SIGNATURE, crypto, keyGenerator);
+    }
+
+    @Benchmark
+    public Document encryption() throws Exception {
+        return secure(SoapMessages.toDocument(message), ConfigurationConstants.ENCRYPT, crypto, keyGenerator);
+    }
+
+    /**
+     * Secure the given document with a single action. This is shared with the inbound
+     * benchmarks, which process messages secured in the same way.
+     */
+    static Document secure(
+        Document document, String action, Crypto crypto, KeyGenerator keyGenerator
+    ) throws WSSecurityException {
+        WSSecHeader secHeader = new WSSecHeader(document);
+        secHeader.insertSecurityHeader();
+
+        switch (action) {
+        case ConfigurationConstants.TIMESTAMP:
+            WSSecTimestamp timestamp = new WSSecTimestamp(secHeader);
+            timestamp.setTimeToLive(3600);
+            return timestamp.build();
+        case ConfigurationConstants.USERNAME_TOKEN:
+            WSSecUsernameToken usernameToken = new WSSecUsernameToken(secHeader);
+            usernameToken.setUserInfo(BenchmarkCallbackHandler.USER, BenchmarkCallbackHandler.PASSWORD);
+            usernameToken.addNonce();
+            usernameToken.addCreated();
+            return usernameToken.build();
+        case ConfigurationConstants.SIGNATURE:
+            WSSecSignature signature = new WSSecSignature(secHeader);
+            signature.setUserInfo(BenchmarkCallbackHandler.USER, BenchmarkCallbackHandler.PASSWORD);
+            signature.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+            return signature.build(crypto);
+        case ConfigurationConstants.ENCRYPT:
+            WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+            encrypt.setUserInfo(BenchmarkCallbackHandler.USER);
+            encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            return encrypt.build(crypto, keyGenerator.generateKey());
+        default:
+            throw new IllegalArgumentException("Unsupported action: " + action);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.common.util.Loader;
+import org.apache.wss4j.policy.stax.enforcer.PolicyEnforcer;
+import org.apache.wss4j.policy.stax.enforcer.PolicyEnforcerFactory;
+import org.apache.wss4j.policy.stax.enforcer.PolicyInputProcessor;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.xml.security.stax.ext.SecurePart;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the streaming inbound processing of a signed and encrypted message, with and
+ * without enforcing the AsymmetricBinding policy in "wsdl/benchmark-policy.wsdl". The difference
+ * between the two benchmarks is the cost of the PolicyEnforcer, which (like in a web services
+ * stack) is created from a PolicyEnforcerFactory for every message.
+ *
+ * Run with "java -jar target/benchmarks.jar PolicyEnforcementBenchmark -prof gc".
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class PolicyEnforcementBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    private int messageSize;
+
+    private PolicyEnforcerFactory policyEnforcerFactory;
+    private WSSSecurityProperties inboundProperties;
+    private byte[] securedMessage;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        WSProviderConfig.init();
+        try (InputStream wsdl = Loader.getResourceAsStream("wsdl/benchmark-policy.wsdl")) {
+            policyEnforcerFactory = PolicyEnforcerFactory.newInstance(SoapMessages.toDocument(wsdl));
+        }
+
+        // Secure the message as required by the policy
+        WSSSecurityProperties outboundProperties =
+            StAXOutboundBenchmark.createOutboundProperties(ConfigurationConstants.TIMESTAMP,
+                                                           ConfigurationConstants.SIGNATURE,
+                                                           ConfigurationConstants.ENCRYPT);
+        outboundProperties.addSignaturePart(new SecurePart(WSSConstants.TAG_WSU_TIMESTAMP, SecurePart.Modifier.Element));
+        outboundProperties.addSignaturePart(new SecurePart(WSSConstants.TAG_SOAP11_BODY, SecurePart.Modifier.Element));
+        outboundProperties.addEncryptionPart(new SecurePart(WSSConstants.TAG_SOAP11_BODY, SecurePart.Modifier.Content));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StAXOutboundBenchmark.secure(WSSec.getOutboundWSSec(outboundProperties),
+                                     SoapMessages.createMessage(messageSize), output);
+        securedMessage = output.toByteArray();
+        inboundProperties = StAXInboundBenchmark.createInboundProperties();
+    }
+
+    @Benchmark
+    public int processInMessage() throws Exception {
+        return StAXInboundBenchmark.process(WSSec.getInboundWSSec(inboundProperties, false, true),
+                                            securedMessage, null);
+    }
+
+    @Benchmark
+    public int processInMessageWithPolicy() throws Exception {
+        PolicyEnforcer policyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", false, null, 0, false);
+        WSSSecurityProperties properties = new WSSSecurityProperties(inboundProperties);
+        properties.addInputProcessor(new PolicyInputProcessor(policyEnforcer, properties));
+        return StAXInboundBenchmark.process(WSSec.getInboundWSSec(properties, false, true),
+                                            securedMessage, policyEnforcer);
+    }
+}
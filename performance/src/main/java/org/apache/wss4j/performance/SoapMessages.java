@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+
+/**
+ * Creates the (unsecured) SOAP 1.1 messages the benchmarks operate on, and converts between their
+ * serialized and DOM forms. A message consists of an empty SOAP Header and a SOAP Body holding a
+ * payload of repeated elements, which is padded until the message has (at least) the requested size.
+ */
+public final class SoapMessages {
+
+    private static final String PREFIX =
+        "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<soapenv:Header/>"
+        + "<soapenv:Body><ns1:order xmlns:ns1=\"urn:org:apache:wss4j:performance\">";
+    private static final String SUFFIX = "</ns1:order></soapenv:Body></soapenv:Envelope>";
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY;
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+        try {
+            DOCUMENT_BUILDER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            DOCUMENT_BUILDER_FACTORY.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private SoapMessages() {
+        // complete
+    }
+
+    /**
+     * Create a serialized SOAP message of (at least) the given size in bytes.
+     * @param size the size of the message in bytes
+     * @return the UTF-8 encoded message
+     */
+    public static byte[] createMessage(int size) {
+        StringBuilder message = new StringBuilder(size + 128);
+        message.append(PREFIX);
+        for (int i = 0; message.length() + SUFFIX.length() < size; i++) {
+            message.append("<ns1:item ns1:line=\"").append(i)
+                .append("\"><ns1:sku>WSS4J-").append(i)
+                .append("</ns1:sku><ns1:description>Lorem ipsum dolor sit amet</ns1:description><ns1:quantity>")
+                .append(i % 100)
+                .append("</ns1:quantity></ns1:item>");
+        }
+        message.append(SUFFIX);
+        return message.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a serialized SOAP message into a (namespace aware) DOM Document.
+     */
+    public static Document toDocument(byte[] message) throws Exception {
+        return toDocument(new ByteArrayInputStream(message));
+    }
+
+    /**
+     * Parse an XML document (e.g. a WSDL) into a (namespace aware) DOM Document.
+     */
+    public static Document toDocument(InputStream input) throws Exception {
+        return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(input);
+    }
+
+    /**
+     * Serialize a DOM Document without adding any whitespace, so that signatures stay valid.
+     */
+    public static byte[] toBytes(Document document) throws Exception {
+        Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        transformer.transform(new DOMSource(document), new StreamResult(output));
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.common.util.Loader;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.InboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks InboundWSSec.processInMessage for messages secured with a single action. The
+ * secured message is created once per trial, and the returned XMLStreamReader is read to the
+ * end of the document, without building a DOM tree.
+ *
+ * Run with "java -jar target/benchmarks.jar StAXInboundBenchmark -prof gc".
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class StAXInboundBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    private int messageSize;
+
+    @Param({"Timestamp", "UsernameToken", "Signature", "Encrypt"})
+    private String action;
+
+    private InboundWSSec inboundWSSec;
+    private byte[] securedMessage;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        WSProviderConfig.init();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StAXOutboundBenchmark.secure(
+            WSSec.getOutboundWSSec(StAXOutboundBenchmark.createOutboundProperties(action)),
+            SoapMessages.createMessage(messageSize), output);
+        securedMessage = output.toByteArray();
+        inboundWSSec = WSSec.getInboundWSSec(createInboundProperties());
+    }
+
+    @Benchmark
+    public int processInMessage() throws Exception {
+        return process(inboundWSSec, securedMessage, null);
+    }
+
+    /**
+     * Create the inbound configuration that can process the messages secured by
+     * {@link StAXOutboundBenchmark#createOutboundProperties(String...)}.
+     */
+    static WSSSecurityProperties createInboundProperties() throws Exception {
+        WSSSecurityProperties properties = new WSSSecurityProperties();
+        properties.setCallbackHandler(new BenchmarkCallbackHandler());
+        // The secured message is reused for the whole trial
+        properties.setTimestampTTL(3600);
+        properties.setUtTTL(3600);
+
+        URL keyStore = Loader.getResource("keys/wss40.jks");
+        char[] keyStorePassword = BenchmarkCallbackHandler.PASSWORD.toCharArray();
+        properties.loadSignatureVerificationKeystore(keyStore, keyStorePassword);
+        properties.loadDecryptionKeystore(keyStore, keyStorePassword);
+        return properties;
+    }
+
+    /**
+     * Stream the given message through the inbound security chain, and read it to the end.
+     * @return the number of events read, so that the work can't be eliminated
+     */
+    static int process(
+        InboundWSSec inboundWSSec, byte[] message, SecurityEventListener securityEventListener
+    ) throws Exception {
+        XMLStreamReader xmlStreamReader =
+            inboundWSSec.processInMessage(
+                StAXOutboundBenchmark.XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(message)),
+                new ArrayList<>(), securityEventListener);
+        int events = 0;
+        while (xmlStreamReader.hasNext()) {
+            xmlStreamReader.next();
+            events++;
+        }
+        xmlStreamReader.close();
+        return events;
+    }
+}
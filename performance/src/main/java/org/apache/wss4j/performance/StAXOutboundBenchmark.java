@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.common.util.Loader;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.OutboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks OutboundWSSec.processOutMessage, streaming a message through the outbound security
+ * chain for a single action. The secured message is written to a discarding OutputStream.
+ *
+ * Run with "java -jar target/benchmarks.jar StAXOutboundBenchmark -prof gc".
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class StAXOutboundBenchmark {
+
+    static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    private int messageSize;
+
+    @Param({"Timestamp", "UsernameToken", "Signature", "Encrypt"})
+    private String action;
+
+    private OutboundWSSec outboundWSSec;
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        WSProviderConfig.init();
+        outboundWSSec = WSSec.getOutboundWSSec(createOutboundProperties(action));
+        message = SoapMessages.createMessage(messageSize);
+    }
+
+    @Benchmark
+    public void processOutMessage() throws Exception {
+        secure(outboundWSSec, message, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Create the outbound configuration for the given actions. This is shared with the inbound
+     * benchmarks, which process messages secured in the same way.
+     */
+    static WSSSecurityProperties createOutboundProperties(String... actions) throws Exception {
+        WSSSecurityProperties properties = new WSSSecurityProperties();
+        properties.setCallbackHandler(new BenchmarkCallbackHandler());
+        properties.setTimestampTTL(3600);
+
+        URL keyStore = Loader.getResource("keys/wss40.jks");
+        char[] keyStorePassword = BenchmarkCallbackHandler.PASSWORD.toCharArray();
+        for (String action : actions) {
+            switch (action) {
+            case ConfigurationConstants.TIMESTAMP:
+                properties.addAction(WSSConstants.TIMESTAMP);
+                break;
+            case ConfigurationConstants.USERNAME_TOKEN:
+                properties.addAction(WSSConstants.USERNAMETOKEN);
+                properties.setTokenUser(BenchmarkCallbackHandler.USER);
+                break;
+            case ConfigurationConstants.SIGNATURE:
+                properties.addAction(WSSConstants.SIGNATURE);
+                properties.loadSignatureKeyStore(keyStore, keyStorePassword);
+                properties.setSignatureUser(BenchmarkCallbackHandler.USER);
+                break;
+            case ConfigurationConstants.ENCRYPT:
+                properties.addAction(WSSConstants.ENCRYPTION);
+                properties.loadEncryptionKeystore(keyStore, keyStorePassword);
+                properties.setEncryptionUser(BenchmarkCallbackHandler.USER);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported action: " + action);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Stream the given message through the outbound security chain.
+     */
+    static void secure(OutboundWSSec outboundWSSec, byte[] message, OutputStream outputStream) throws Exception {
+        XMLStreamWriter xmlStreamWriter =
+            outboundWSSec.processOutMessage(outputStream, StandardCharsets.UTF_8.name(), new ArrayList<>());
+        XMLStreamReader xmlStreamReader =
+            XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(message));
+        XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+        xmlStreamWriter.close();
+        xmlStreamReader.close();
+    }
+}
@@ -570,6 +570,15 @@ public class ConfigurationConstants {
      */
     public static final String EXPAND_XOP_INCLUDE = "expandXOPInclude";
 
+    /**
+     * Whether to stream the security header on the outbound side, instead of buffering every element
+     * of the security header until it can be reordered. This only applies to the streaming (StAX) code.
+     * If set to true, the elements which are known to come first in the security header (given the
+     * configured actions) are written out as they are created, and only the other elements are
+     * buffered. The resulting security header is the same. The default is false.
+     */
+    public static final String STREAM_SECURITY_HEADER = "streamSecurityHeader";
+
     //
     // (Non-boolean) Configuration parameters for the actions/processors
     //
@@ -909,6 +918,72 @@ public class ConfigurationConstants {
      */
     public static final String SAML_ONE_TIME_USE_CACHE_INSTANCE = "samlOneTimeUseCacheInstance";
 
+    /**
+     * This holds a reference to a CertPathTrustCache instance, which is used to cache the
+     * certificate chains that were successfully validated when verifying trust in the
+     * certificate (chain) of a signature. There is no default instance, trust is verified on
+     * every request unless an instance is configured.
+     */
+    public static final String CERT_PATH_TRUST_CACHE_INSTANCE = "certPathTrustCacheInstance";
+
+    /**
+     * This holds a reference to a SamlAssertionCache instance, which is used to cache the signed
+     * SAML Assertions that were successfully validated, so that the signature verification and the
+     * trust validation of the signing key can be skipped when the same Assertion is received again.
+     * There is no default instance, signed Assertions are fully verified on every request unless an
+     * instance is configured.
+     */
+    public static final String SAML_ASSERTION_CACHE_INSTANCE = "samlAssertionCacheInstance";
+
+    /**
+     * This holds a reference to a SecureConversationCache instance, which is used to cache the
+     * secret of a SecurityContextToken and the keys derived from it for the lifetime of a
+     * WS-SecureConversation session. There is no default instance, the secret is retrieved from the
+     * CallbackHandler and keys are derived for every message unless an instance is configured.
+     */
+    public static final String SECURE_CONVERSATION_CACHE_INSTANCE = "secureConversationCacheInstance";
+
+    /**
+     * This holds a reference to a java.util.concurrent.Executor instance, which is used to decrypt
+     * the EncryptedData elements referenced by an EncryptedKey or ReferenceList in parallel. The
+     * decrypted data is still inserted into the message in order on the calling thread. There is no
+     * default instance, EncryptedData elements are decrypted one after the other on the calling
+     * thread unless an instance is configured. On Java 21 or later, an Executor that starts a
+     * virtual thread per task can be used. This only applies to the DOM code.
+     */
+    public static final String DECRYPTION_EXECUTOR_INSTANCE = "decryptionExecutorInstance";
+
+    /**
+     * This holds a reference to a java.util.concurrent.Executor instance, which is used to
+     * canonicalize and digest the same-document References of a Signature in parallel, while the
+     * SignatureValue is verified on the calling thread. Only References to an element by Id with a
+     * single (exclusive) canonicalization Transform are digested in parallel, all other References
+     * are validated on the calling thread as usual. There is no default instance, the References are
+     * validated one after the other unless an instance is configured. This only applies to the DOM
+     * code.
+     */
+    public static final String SIGNATURE_VERIFICATION_EXECUTOR_INSTANCE = "signatureVerificationExecutorInstance";
+
+    /**
+     * This holds a reference to a java.util.concurrent.Executor instance, which is used to
+     * canonicalize and digest the elements to sign in parallel when a Signature is created. Only
+     * References to an element by Id with a single canonicalization Transform are digested in
+     * parallel, all other References are digested on the calling thread as usual. There is no
+     * default instance, the References are digested one after the other unless an instance is
+     * configured. This only applies to the DOM code.
+     */
+    public static final String SIGNATURE_EXECUTOR_INSTANCE = "signatureExecutorInstance";
+
+    /**
+     * This holds a reference to a java.util.concurrent.Executor instance, which is used to
+     * serialize and encrypt the elements to encrypt in parallel. The EncryptedData elements are
+     * still inserted into the message in order on the calling thread. Elements are only encrypted
+     * in parallel if none of them contains another one, and xop:Include elements are not expanded.
+     * There is no default instance, the elements are encrypted one after the other unless an
+     * instance is configured. This only applies to the DOM code.
+     */
+    public static final String ENCRYPTION_EXECUTOR_INSTANCE = "encryptionExecutorInstance";
+
     /**
      * This holds a reference to a PasswordEncryptor instance, which is used to encrypt or
      * decrypt passwords in the Merlin Crypto implementation (or any custom Crypto implementations).
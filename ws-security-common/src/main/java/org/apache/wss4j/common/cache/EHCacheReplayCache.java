@@ -127,6 +127,22 @@ public class EHCacheReplayCache implements ReplayCache {
         cache.put(identifier, new EHCacheValue(identifier, expiry));
     }
 
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is
+     * already contained in the cache. The check and the addition are performed atomically.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier. Can be null in which case, the default expiry is used.
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || identifier.length() == 0) {
+            return true;
+        }
+
+        return cache.putIfAbsent(identifier, new EHCacheValue(identifier, expiry)) == null;
+    }
+
     /**
      * Return true if the given identifier is contained in the cache
      * @param identifier The identifier to check
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A bounded in-memory cache, in which every entry has its own expiry time. Lookups are lock-free.
+ *
+ * Besides the map of entries, the entries are kept ordered by their expiry time (and then by the
+ * order in which they were added). When an entry is added, the entries which have expired are
+ * removed from the head of this order, and if the cache is still full, the entries which expire
+ * first are removed until there is room. With the same time to live for every entry, these are
+ * the oldest entries. An expired entry which is looked up is removed as well.
+ *
+ * The number of hits, misses and evictions can be shared with other caches, see
+ * {@link Statistics}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ExpiringCache<K, V> {
+
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry<K, V>> expiryOrder = new ConcurrentSkipListSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int maxEntries;
+    private final Clock clock;
+    private final Statistics statistics;
+    private final BiConsumer<K, V> removalListener;
+
+    /**
+     * @param maxEntries the maximum number of entries
+     * @param clock the clock to check the expiry of the entries with
+     */
+    public ExpiringCache(int maxEntries, Clock clock) {
+        this(maxEntries, clock, new Statistics(), null);
+    }
+
+    /**
+     * @param maxEntries the maximum number of entries
+     * @param clock the clock to check the expiry of the entries with
+     * @param statistics the statistics to record the hits, misses and evictions in
+     * @param removalListener (optional) notified of every entry which is removed, as it has expired,
+     * to make room, by {@link #remove} or because it was replaced, but not by {@link #clear()}
+     */
+    public ExpiringCache(int maxEntries, Clock clock, Statistics statistics, BiConsumer<K, V> removalListener) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The max entries must be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.statistics = statistics;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Get the value of the given key, which is counted as a hit or a miss
+     *
+     * @param key the key (may be null)
+     * @return the value, or null if the key is not cached or has expired
+     */
+    public V get(K key) {
+        Entry<K, V> entry = key == null ? null : entries.get(key);
+        if (entry != null) {
+            if (entry.expiry.isAfter(clock.instant())) {
+                statistics.hits.incrementAndGet();
+                return entry.value;
+            }
+            evict(entry);
+        }
+        statistics.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add a value, or replace the value of a key. Nothing is added if the value has already expired.
+     *
+     * @param key the key
+     * @param value the value
+     * @param expiry the time at which the entry expires
+     */
+    public void put(K key, V value, Instant expiry) {
+        Instant now = clock.instant();
+        if (!expiry.isAfter(now)) {
+            return;
+        }
+
+        // First remove the expired entries, and then the entries which expire first until there is room
+        for (Entry<K, V> first = peekFirst(); first != null && !first.expiry.isAfter(now); first = peekFirst()) {
+            evict(first);
+        }
+        while (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            Entry<K, V> eldest = expiryOrder.pollFirst();
+            if (eldest == null) {
+                break;
+            }
+            evict(eldest);
+        }
+
+        // The entry is added to the map first, so that it cannot be evicted before it is cached
+        Entry<K, V> entry = new Entry<>(key, value, expiry, sequence.incrementAndGet());
+        Entry<K, V> previous = entries.put(key, entry);
+        expiryOrder.add(entry);
+        if (previous != null) {
+            expiryOrder.remove(previous);
+            notifyRemoval(previous);
+        }
+    }
+
+    /**
+     * Remove the entry of a key
+     *
+     * @param key the key
+     * @return the removed value (which may have expired), or null if the key was not cached
+     */
+    public V remove(K key) {
+        Entry<K, V> entry = key == null ? null : entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        expiryOrder.remove(entry);
+        notifyRemoval(entry);
+        return entry.value;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        entries.clear();
+        expiryOrder.clear();
+    }
+
+    /**
+     * @return the number of entries (including expired entries that have not been removed yet)
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if there are no entries
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the statistics of this cache
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    private Entry<K, V> peekFirst() {
+        Iterator<Entry<K, V>> iterator = expiryOrder.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private void evict(Entry<K, V> entry) {
+        expiryOrder.remove(entry);
+        if (entries.remove(entry.key, entry)) {
+            statistics.evictions.incrementAndGet();
+            notifyRemoval(entry);
+        }
+    }
+
+    private void notifyRemoval(Entry<K, V> entry) {
+        if (removalListener != null) {
+            removalListener.accept(entry.key, entry.value);
+        }
+    }
+
+    /**
+     * The number of hits, misses and evictions of one or more caches
+     */
+    public static final class Statistics {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+
+        /**
+         * @return the number of lookups of a key which was cached
+         */
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        /**
+         * @return the number of lookups of a key which was not cached, or had expired
+         */
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /**
+         * @return the number of entries which were removed as they had expired, or to keep the cache
+         * within its maximum number of entries
+         */
+        public long getEvictionCount() {
+            return evictions.get();
+        }
+    }
+
+    private static final class Entry<K, V> implements Comparable<Entry<K, V>> {
+        private final K key;
+        private final V value;
+        private final Instant expiry;
+        private final long sequence;
+
+        Entry(K key, V value, Instant expiry, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.expiry = expiry;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<K, V> other) {
+            int result = expiry.compareTo(other.expiry);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return this == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(sequence);
+        }
+    }
+}
@@ -20,38 +20,75 @@
 package org.apache.wss4j.common.cache;
 
 import java.io.IOException;
+import java.time.Clock;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * A simple in-memory HashSet based cache to prevent against replay attacks. The default TTL is 5 minutes
+ * A simple in-memory cache to prevent against replay attacks. The default TTL is 5 minutes
  * and the max TTL is 60 minutes.
+ *
+ * Identifiers are stored in a ConcurrentHashMap together with their expiry, and so lookups
+ * and additions do not contend on a global lock. In addition, each identifier is recorded in a
+ * bucket per second of its expiry time. Expired identifiers are removed by draining the buckets
+ * whose second has passed, which is done by (at most) one caller of add/contains per second.
+ *
+ * The number of cached identifiers can optionally be bounded. Identifiers are never removed
+ * before they expire, as a replayed message would then be accepted. Instead, when the cache is
+ * full, no further identifiers are added and every replay check fails until identifiers expire.
  */
 public class MemoryReplayCache implements ReplayCache {
 
     public static final long DEFAULT_TTL = 60L * 5L;
     public static final long MAX_TTL = DEFAULT_TTL * 12L;
-    private final SortedMap<Instant, List<String>> cache = new TreeMap<>();
-    private final Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(MemoryReplayCache.class);
+
+    private final Map<String, Instant> ids = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Queue<String>> buckets = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean expiring = new AtomicBoolean();
+    private final int maxEntries;
+    private final Clock clock;
+    private volatile long nextExpiry;
+
+    public MemoryReplayCache() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxEntries the maximum number of identifiers to cache. Once the cache is full, new
+     * identifiers are rejected (see {@link #addIfAbsent} and {@link #contains}) until cached
+     * identifiers expire.
+     */
+    public MemoryReplayCache(int maxEntries) {
+        this(maxEntries, Clock.systemUTC());
+    }
+
+    MemoryReplayCache(int maxEntries, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The max entries must be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
 
     /**
      * Add the given identifier to the cache. It will be cached for a default amount of time.
      * @param identifier The identifier to be added
      */
     public void add(String identifier) {
-        add(identifier, Instant.now().plusSeconds(DEFAULT_TTL));
+        add(identifier, null);
     }
 
     /**
-     * Add the given identifier to the cache to be cached for the given time
+     * Add the given identifier to the cache to be cached for the given time. If the cache is
+     * full, the identifier is not added.
      * @param identifier The identifier to be added
      * @param expiry A custom expiry time for the identifier
      */
@@ -60,57 +97,152 @@ public class MemoryReplayCache implements ReplayCache {
             return;
         }
 
-        Instant now = Instant.now();
-        Instant maxTTL = now.plusSeconds(MAX_TTL);
-        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
-            expiry = now.plusSeconds(DEFAULT_TTL);
+        Instant now = clock.instant();
+        Instant validExpiry = getExpiry(now, expiry);
+        expireIfDue(now);
+
+        if (!ids.containsKey(identifier) && isFull()) {
+            LOG.warn("The replay cache is full, the identifier is not cached");
+            return;
+        }
+        ids.merge(identifier, validExpiry, (previous, value) -> previous.isAfter(value) ? previous : value);
+        addToBucket(identifier, validExpiry);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is
+     * already contained in the cache. The check and the addition are performed atomically.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     * @return true if the identifier was added, false if it was already contained in the cache
+     * or if the cache is full
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || identifier.length() == 0) {
+            return true;
+        }
+
+        Instant now = clock.instant();
+        Instant validExpiry = getExpiry(now, expiry);
+        expireIfDue(now);
+
+        if (isFull()) {
+            LOG.warn("The replay cache is full, rejecting the identifier");
+            return false;
         }
 
-        synchronized (cache) {
-            List<String> list = cache.get(expiry);
-            if (list == null) {
-                list = new ArrayList<>(1);
-                cache.put(expiry, list);
+        while (true) {
+            Instant previous = ids.putIfAbsent(identifier, validExpiry);
+            if (previous == null || previous.isBefore(now) && ids.replace(identifier, previous, validExpiry)) {
+                break;
+            } else if (!previous.isBefore(now)) {
+                return false;
             }
-            list.add(identifier);
+            // The expired entry was concurrently replaced or removed, so try again
         }
-        ids.add(identifier);
+        addToBucket(identifier, validExpiry);
+        return true;
     }
 
     /**
-     * Return true if the given identifier is contained in the cache
+     * Return true if the given identifier is contained in the cache. If the cache is full, true
+     * is returned for any identifier, as it could not be added to the cache afterwards.
      * @param identifier The identifier to check
      */
     public boolean contains(String identifier) {
-        processTokenExpiry();
+        Instant now = clock.instant();
+        expireIfDue(now);
 
         if (identifier != null && identifier.length() != 0) {
-            return ids.contains(identifier);
+            Instant expiry = ids.get(identifier);
+            if (expiry != null && !expiry.isBefore(now)) {
+                return true;
+            }
+            if (isFull()) {
+                LOG.warn("The replay cache is full, rejecting the identifier");
+                return true;
+            }
         }
         return false;
     }
 
+    /**
+     * @return the number of identifiers in the cache (including expired identifiers that have
+     * not been removed yet)
+     */
+    public int size() {
+        return ids.size();
+    }
+
     protected void processTokenExpiry() {
-        Instant current = Instant.now();
-        synchronized (cache) {
-            Iterator<Entry<Instant, List<String>>> it = cache.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<Instant, List<String>> entry = it.next();
-                if (entry.getKey().isBefore(current)) {
-                    for (String id : entry.getValue()) {
-                        ids.remove(id);
-                    }
-                    it.remove();
-                } else {
-                    break;
+        Instant now = clock.instant();
+        if (expiring.compareAndSet(false, true)) {
+            try {
+                expire(now);
+            } finally {
+                expiring.set(false);
+            }
+        }
+    }
+
+    private void expireIfDue(Instant now) {
+        if (now.getEpochSecond() >= nextExpiry) {
+            processTokenExpiry();
+        }
+    }
+
+    private void expire(Instant now) {
+        nextExpiry = now.getEpochSecond() + 1L;
+        // All identifiers in a bucket before the current second have expired
+        Map.Entry<Long, Queue<String>> bucket = buckets.firstEntry();
+        while (bucket != null && bucket.getKey() < now.getEpochSecond()) {
+            if (buckets.remove(bucket.getKey(), bucket.getValue())) {
+                for (String identifier : bucket.getValue()) {
+                    ids.computeIfPresent(identifier, (key, expiry) -> expiry.isBefore(now) ? null : expiry);
                 }
             }
+            bucket = buckets.firstEntry();
+        }
+    }
+
+    private boolean isFull() {
+        if (ids.size() < maxEntries) {
+            return false;
+        }
+        // Remove the identifiers that have expired before giving up
+        processTokenExpiry();
+        return ids.size() >= maxEntries;
+    }
+
+    private void addToBucket(String identifier, Instant expiry) {
+        Long second = expiry.getEpochSecond();
+        while (true) {
+            Queue<String> bucket = buckets.computeIfAbsent(second, key -> new ConcurrentLinkedQueue<>());
+            bucket.add(identifier);
+            if (buckets.get(second) == bucket) {
+                return;
+            }
+            // The bucket was drained concurrently, so remove the identifier if it has expired
+            // in the meantime, or otherwise add it again to a new bucket
+            Instant now = clock.instant();
+            if (ids.computeIfPresent(identifier, (key, value) -> value.isBefore(now) ? null : value) == null) {
+                return;
+            }
+        }
+    }
+
+    private static Instant getExpiry(Instant now, Instant expiry) {
+        Instant maxTTL = now.plusSeconds(MAX_TTL);
+        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
+            return now.plusSeconds(DEFAULT_TTL);
         }
+        return expiry;
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        cache.clear();
+    public void close() throws IOException {
+        buckets.clear();
         ids.clear();
     }
 }
@@ -0,0 +1,372 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CRL;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An index of the serial numbers revoked by a set of X.509 CRLs, by CRL issuer, which is built
+ * once when the CRLs are loaded, so that the revocation status of a certificate can be looked up
+ * with a hash (or binary search) instead of scanning the CRLs. It is used by the
+ * {@link CRLRevocationChecker}.
+ *
+ * The signature of each CRL is verified when the index is built with the given issuer certificates
+ * (e.g. the trust anchors), which must allow their key to sign CRLs. A CRL which cannot be verified with any of them is verified against the
+ * public key of the issuer in the certificate path when it is first used. Only complete CRLs
+ * without critical extensions are supported, as the revocation status cannot be determined from
+ * an index of delta CRLs, indirect CRLs or partitioned CRLs.
+ *
+ * Optionally, the serial numbers of large CRLs which could be verified when the index was built
+ * are stored in a memory-mapped file (which is deleted again where the platform allows it), so that
+ * the index of these CRLs does not take up heap space.
+ */
+public final class CRLIndex {
+
+    public static final int DEFAULT_MAPPED_THRESHOLD = 10000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CRLIndex.class);
+
+    // The tolerance for the thisUpdate and nextUpdate times of a CRL, as used by X509CRLSelector
+    private static final long CLOCK_SKEW = 15L * 60L * 1000L;
+
+    private final Map<X500Principal, List<IndexedCRL>> crlsByIssuer;
+
+    private CRLIndex(Map<X500Principal, List<IndexedCRL>> crlsByIssuer) {
+        this.crlsByIssuer = crlsByIssuer;
+    }
+
+    /**
+     * Build an index of the given CRLs in memory
+     * @param crls the CRLs
+     * @param issuerCerts the certificates with which to verify the signature of the CRLs
+     * @return the index, or null if any of the CRLs is not supported
+     */
+    public static CRLIndex newInstance(Collection<? extends CRL> crls, Collection<X509Certificate> issuerCerts)
+        throws WSSecurityException {
+        return newInstance(crls, issuerCerts, null, DEFAULT_MAPPED_THRESHOLD);
+    }
+
+    /**
+     * Build an index of the given CRLs
+     * @param crls the CRLs
+     * @param issuerCerts the certificates with which to verify the signature of the CRLs
+     * @param mappedDirectory the directory in which to create memory-mapped files for large CRLs,
+     * or null to build the index in memory
+     * @param mappedThreshold the number of revoked certificates above which a CRL is memory-mapped
+     * @return the index, or null if any of the CRLs is not supported
+     */
+    public static CRLIndex newInstance(
+        Collection<? extends CRL> crls, Collection<X509Certificate> issuerCerts, Path mappedDirectory,
+        int mappedThreshold
+    ) throws WSSecurityException {
+        Map<X500Principal, List<IndexedCRL>> crlsByIssuer = new HashMap<>();
+        for (CRL crl : crls) {
+            if (!(crl instanceof X509CRL) || hasCriticalExtensions((X509CRL)crl)) {
+                LOG.debug("The CRL is not supported by the CRL index: {}", crl.getType());
+                return null;
+            }
+            X509CRL x509Crl = (X509CRL)crl;
+            Set<? extends X509CRLEntry> entries = x509Crl.getRevokedCertificates();
+            if (entries == null) {
+                entries = Collections.emptySet();
+            }
+            List<BigInteger> serials = new ArrayList<>(entries.size());
+            for (X509CRLEntry entry : entries) {
+                if (entry.getCriticalExtensionOIDs() != null && !entry.getCriticalExtensionOIDs().isEmpty()) {
+                    LOG.debug("The CRL entries of {} are not supported by the CRL index", x509Crl.getIssuerX500Principal());
+                    return null;
+                }
+                serials.add(entry.getSerialNumber());
+            }
+
+            PublicKey verifiedKey = verify(x509Crl, issuerCerts);
+            RevokedSerials revokedSerials = null;
+            if (verifiedKey != null && mappedDirectory != null && serials.size() >= mappedThreshold) {
+                revokedSerials = MappedRevokedSerials.newInstance(serials, mappedDirectory);
+            }
+            if (revokedSerials == null) {
+                revokedSerials = new HashRevokedSerials(serials);
+            }
+            // The CRL itself is only kept if its signature still has to be verified
+            IndexedCRL indexedCRL = new IndexedCRL(
+                x509Crl.getThisUpdate(), x509Crl.getNextUpdate(), revokedSerials, verifiedKey,
+                verifiedKey == null ? x509Crl : null
+            );
+            crlsByIssuer.computeIfAbsent(x509Crl.getIssuerX500Principal(), k -> new ArrayList<>()).add(indexedCRL);
+        }
+        return new CRLIndex(crlsByIssuer);
+    }
+
+    /**
+     * Get the CRLs of the given issuer, which are current at the given date and which are signed
+     * with one of the given public keys of the issuer
+     */
+    List<IndexedCRL> getCRLs(X500Principal issuer, Collection<PublicKey> issuerKeys, Date date) {
+        List<IndexedCRL> indexedCRLs = crlsByIssuer.get(issuer);
+        if (indexedCRLs == null) {
+            return Collections.emptyList();
+        }
+        List<IndexedCRL> validCRLs = new ArrayList<>(indexedCRLs.size());
+        for (IndexedCRL indexedCRL : indexedCRLs) {
+            if (indexedCRL.isCurrent(date) && indexedCRL.isSignedByAnyOf(issuerKeys)) {
+                validCRLs.add(indexedCRL);
+            }
+        }
+        return validCRLs;
+    }
+
+    /**
+     * Check that the key usage extension of the certificate, if any, allows its key to sign CRLs
+     */
+    static boolean canSignCRLs(X509Certificate cert) {
+        boolean[] keyUsage = cert.getKeyUsage();
+        // The cRLSign bit
+        return keyUsage == null || keyUsage.length > 6 && keyUsage[6];
+    }
+
+    private static boolean hasCriticalExtensions(X509CRL crl) {
+        return crl.getCriticalExtensionOIDs() != null && !crl.getCriticalExtensionOIDs().isEmpty();
+    }
+
+    private static PublicKey verify(X509CRL crl, Collection<X509Certificate> issuerCerts) {
+        if (issuerCerts != null) {
+            for (X509Certificate issuerCert : issuerCerts) {
+                if (crl.getIssuerX500Principal().equals(issuerCert.getSubjectX500Principal())
+                    && canSignCRLs(issuerCert) && verify(crl, issuerCert.getPublicKey())) {
+                    return issuerCert.getPublicKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean verify(X509CRL crl, PublicKey publicKey) {
+        try {
+            crl.verify(publicKey);
+            return true;
+        } catch (GeneralSecurityException ex) {
+            LOG.debug("The CRL of {} is not signed by the key: {}", crl.getIssuerX500Principal(), ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * A CRL in the index
+     */
+    static final class IndexedCRL {
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+        private final RevokedSerials revokedSerials;
+        private final PublicKey verifiedKey;
+        private final X509CRL crl;
+        private final Set<PublicKey> verifiedKeys = ConcurrentHashMap.newKeySet();
+
+        IndexedCRL(Date thisUpdate, Date nextUpdate, RevokedSerials revokedSerials, PublicKey verifiedKey,
+                   X509CRL crl) {
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+            this.revokedSerials = revokedSerials;
+            this.verifiedKey = verifiedKey;
+            this.crl = crl;
+        }
+
+        boolean isRevoked(BigInteger serialNumber) {
+            return revokedSerials.contains(serialNumber);
+        }
+
+        boolean isCurrent(Date date) {
+            return thisUpdate.getTime() - CLOCK_SKEW <= date.getTime()
+                && (nextUpdate == null || nextUpdate.getTime() + CLOCK_SKEW >= date.getTime());
+        }
+
+        boolean isSignedByAnyOf(Collection<PublicKey> issuerKeys) {
+            for (PublicKey issuerKey : issuerKeys) {
+                if (verifiedKey != null && Arrays.equals(verifiedKey.getEncoded(), issuerKey.getEncoded())
+                    || verifiedKeys.contains(issuerKey)) {
+                    return true;
+                }
+                if (crl != null && verify(crl, issuerKey)) {
+                    verifiedKeys.add(issuerKey);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The serial numbers revoked by a CRL
+     */
+    interface RevokedSerials {
+        boolean contains(BigInteger serialNumber);
+    }
+
+    private static final class HashRevokedSerials implements RevokedSerials {
+        private final Set<BigInteger> serials;
+
+        HashRevokedSerials(Collection<BigInteger> serials) {
+            this.serials = new HashSet<>(serials);
+        }
+
+        @Override
+        public boolean contains(BigInteger serialNumber) {
+            return serials.contains(serialNumber);
+        }
+    }
+
+    /**
+     * The (positive) revoked serial numbers of a CRL, stored in a memory-mapped file as sorted,
+     * fixed-width, unsigned big-endian numbers
+     */
+    private static final class MappedRevokedSerials implements RevokedSerials {
+        private final MappedByteBuffer buffer;
+        private final int width;
+        private final int count;
+
+        private MappedRevokedSerials(MappedByteBuffer buffer, int width, int count) {
+            this.buffer = buffer;
+            this.width = width;
+            this.count = count;
+        }
+
+        static RevokedSerials newInstance(List<BigInteger> serials, Path directory) throws WSSecurityException {
+            int width = 1;
+            for (BigInteger serial : serials) {
+                if (serial.signum() < 0) {
+                    return null;
+                }
+                width = Math.max(width, toUnsignedBytes(serial).length);
+            }
+            byte[][] encodedSerials = new byte[serials.size()][];
+            for (int i = 0; i < encodedSerials.length; i++) {
+                encodedSerials[i] = toFixedWidth(toUnsignedBytes(serials.get(i)), width);
+            }
+            Arrays.sort(encodedSerials, Arrays::compareUnsigned);
+
+            try {
+                Path file = Files.createTempFile(directory, "crl", ".idx");
+                MappedByteBuffer buffer;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer byteBuffer = ByteBuffer.allocate(encodedSerials.length * width);
+                    for (byte[] encodedSerial : encodedSerials) {
+                        byteBuffer.put(encodedSerial);
+                    }
+                    byteBuffer.flip();
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) encodedSerials.length * width);
+                }
+                try {
+                    // The mapping stays valid after the file has been deleted (except on Windows)
+                    Files.delete(file);
+                } catch (IOException ex) {
+                    file.toFile().deleteOnExit();
+                }
+                return new MappedRevokedSerials(buffer, width, encodedSerials.length);
+            } catch (IOException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "ioError00");
+            }
+        }
+
+        @Override
+        public boolean contains(BigInteger serialNumber) {
+            if (serialNumber.signum() < 0) {
+                return false;
+            }
+            byte[] bytes = toUnsignedBytes(serialNumber);
+            if (bytes.length > width) {
+                return false;
+            }
+            byte[] key = toFixedWidth(bytes, width);
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid * width, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int compare(int offset, byte[] key) {
+            // Absolute reads, as the buffer is shared between threads
+            for (int i = 0; i < width; i++) {
+                int cmp = Integer.compare(buffer.get(offset + i) & 0xff, key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        private static byte[] toUnsignedBytes(BigInteger serial) {
+            byte[] bytes = serial.toByteArray();
+            if (bytes.length > 1 && bytes[0] == 0) {
+                return Arrays.copyOfRange(bytes, 1, bytes.length);
+            }
+            return bytes;
+        }
+
+        private static byte[] toFixedWidth(byte[] bytes, int width) {
+            if (bytes.length == width) {
+                return bytes;
+            }
+            byte[] fixed = new byte[width];
+            System.arraycopy(bytes, 0, fixed, width - bytes.length, bytes.length);
+            return fixed;
+        }
+    }
+}
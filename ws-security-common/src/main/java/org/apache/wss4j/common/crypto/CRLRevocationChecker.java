@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A PKIXCertPathChecker which checks the revocation status of each certificate of a certificate
+ * path against a {@link CRLIndex}, instead of the PKIX validator searching a CertStore of CRLs.
+ * It is used (with revocation checking of the validator disabled) when revocation checking is
+ * enabled and the CRLs can be indexed.
+ *
+ * As with the revocation checking of the JDK, the validation fails if a certificate is revoked by
+ * a CRL of its issuer, or if there is no current CRL of its issuer which is signed by the public
+ * key of the issuer (the previous certificate in the path, or a trust anchor). The certificate of
+ * the issuer must allow the key to sign CRLs, if it has a key usage extension. A CRL is current if
+ * it is valid at the date set with {@link #setDate(Date)} (the date of the PKIXParameters), or at
+ * the current time if no date is set.
+ */
+public class CRLRevocationChecker extends PKIXCertPathChecker {
+
+    private final CRLIndex crlIndex;
+    private final Set<TrustAnchor> trustAnchors;
+    private Date date;
+    private X509Certificate previousCert;
+
+    /**
+     * @param crlIndex the index of the CRLs
+     * @param trustAnchors the trust anchors, which are the issuers of the first certificate of a path
+     */
+    public CRLRevocationChecker(CRLIndex crlIndex, Set<TrustAnchor> trustAnchors) {
+        this.crlIndex = crlIndex;
+        this.trustAnchors = trustAnchors;
+    }
+
+    @Override
+    public void init(boolean forward) throws CertPathValidatorException {
+        if (forward) {
+            throw new CertPathValidatorException("Forward checking is not supported");
+        }
+        previousCert = null;
+    }
+
+    /**
+     * Set the date at which the CRLs must be current, which should be the date of the PKIXParameters
+     * @param date the date, or null to use the current time
+     */
+    public void setDate(Date date) {
+        this.date = date == null ? null : new Date(date.getTime());
+    }
+
+    @Override
+    public boolean isForwardCheckingSupported() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getSupportedExtensions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void check(Certificate cert, Collection<String> unresolvedCritExts)
+        throws CertPathValidatorException {
+        X509Certificate x509Cert = (X509Certificate)cert;
+        X500Principal issuer = x509Cert.getIssuerX500Principal();
+
+        Collection<PublicKey> issuerKeys;
+        if (previousCert != null && issuer.equals(previousCert.getSubjectX500Principal())) {
+            issuerKeys = CRLIndex.canSignCRLs(previousCert)
+                ? Collections.singletonList(previousCert.getPublicKey()) : Collections.emptyList();
+        } else {
+            issuerKeys = getTrustAnchorKeys(issuer);
+        }
+        previousCert = x509Cert;
+
+        List<CRLIndex.IndexedCRL> crls =
+            crlIndex.getCRLs(issuer, issuerKeys, date != null ? date : new Date());
+        if (crls.isEmpty()) {
+            throw new CertPathValidatorException(
+                "Could not determine revocation status: no current CRL of " + issuer.getName(),
+                null, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+        for (CRLIndex.IndexedCRL crl : crls) {
+            if (crl.isRevoked(x509Cert.getSerialNumber())) {
+                throw new CertPathValidatorException(
+                    "Certificate has been revoked: " + x509Cert.getSerialNumber() + " of " + issuer.getName(),
+                    null, null, -1, BasicReason.REVOKED
+                );
+            }
+        }
+    }
+
+    private Collection<PublicKey> getTrustAnchorKeys(X500Principal issuer) {
+        List<PublicKey> keys = new ArrayList<>();
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            X509Certificate trustedCert = trustAnchor.getTrustedCert();
+            if (trustedCert != null) {
+                if (issuer.equals(trustedCert.getSubjectX500Principal()) && CRLIndex.canSignCRLs(trustedCert)) {
+                    keys.add(trustedCert.getPublicKey());
+                }
+            } else if (issuer.equals(trustAnchor.getCA())) {
+                keys.add(trustAnchor.getCAPublicKey());
+            }
+        }
+        return keys;
+    }
+}
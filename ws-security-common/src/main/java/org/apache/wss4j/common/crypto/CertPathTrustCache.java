@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.cache.ExpiringCache;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A bounded cache of positive certificate trust decisions. A certificate chain that was
+ * successfully validated by {@link Crypto#verifyTrust(X509Certificate[], boolean, Collection, Collection)}
+ * is remembered for a configurable time to live, so that the certificate path does not have to
+ * be built and validated again for every message signed with the same chain. Negative decisions
+ * are never cached.
+ *
+ * Entries are keyed on the Crypto instance, a SHA-256 digest over the certificates of the
+ * chain, the revocation flag and the Subject/Issuer DN constraints. An entry never outlives the
+ * validity period of any certificate in the chain. Note that changes to the trust material of a
+ * Crypto instance are only picked up for a chain once its entry has expired, or after calling
+ * {@link #clear()}. When the cache is full, the decisions which expire first are evicted.
+ */
+public class CertPathTrustCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CertPathTrustCache.class);
+
+    private final ExpiringCache<Key, Boolean> cache;
+    private final long ttl;
+    private final Clock clock;
+
+    public CertPathTrustCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of trusted chains to cache
+     * @param ttl the time in seconds for which a trust decision is cached
+     */
+    public CertPathTrustCache(int maxEntries, long ttl) {
+        this(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    CertPathTrustCache(int maxEntries, long ttl, Clock clock) {
+        if (maxEntries <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("The max entries and TTL must be greater than zero");
+        }
+        this.cache = new ExpiringCache<>(maxEntries, clock);
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    /**
+     * Evaluate whether a given certificate chain should be trusted, using a cached decision if
+     * one is available, and delegating to the Crypto instance otherwise.
+     *
+     * @param crypto the Crypto instance to verify trust with
+     * @param certs Certificate chain to validate
+     * @param enableRevocation whether to enable CRL verification or not
+     * @param subjectCertConstraints A set of constraints on the Subject DN of the certificates
+     * @param issuerCertConstraints A set of constraints on the Issuer DN of the certificates
+     * @throws WSSecurityException if the certificate chain is invalid
+     */
+    public void verifyTrust(
+        Crypto crypto,
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        Collection<Pattern> issuerCertConstraints
+    ) throws WSSecurityException {
+        Key key = createKey(crypto, certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        if (cache.get(key) != null) {
+            LOG.debug("Using cached trust decision for certificate with subject {}",
+                      certs[0].getSubjectX500Principal().getName());
+            return;
+        }
+
+        crypto.verifyTrust(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+
+        if (key != null) {
+            Instant expiry = clock.instant().plusSeconds(ttl);
+            for (X509Certificate cert : certs) {
+                Instant notAfter = cert.getNotAfter().toInstant();
+                if (notAfter.isBefore(expiry)) {
+                    expiry = notAfter;
+                }
+            }
+            cache.put(key, Boolean.TRUE, expiry);
+        }
+    }
+
+    /**
+     * Remove all cached trust decisions
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached trust decisions
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of trust verifications that were answered from the cache
+     */
+    public long getHitCount() {
+        return cache.getStatistics().getHitCount();
+    }
+
+    /**
+     * @return the number of trust verifications that were delegated to the Crypto instance
+     */
+    public long getMissCount() {
+        return cache.getStatistics().getMissCount();
+    }
+
+    /**
+     * @return the number of cached trust decisions that were removed as they had expired, or to
+     * keep the cache within its maximum number of entries
+     */
+    public long getEvictionCount() {
+        return cache.getStatistics().getEvictionCount();
+    }
+
+    private static Key createKey(
+        Crypto crypto,
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        Collection<Pattern> issuerCertConstraints
+    ) {
+        if (crypto == null || certs == null || certs.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            return new Key(crypto, digest.digest(), enableRevocation,
+                           toStrings(subjectCertConstraints), toStrings(issuerCertConstraints));
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            LOG.debug("Cannot compute the fingerprint of the certificate chain: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<String> toStrings(Collection<Pattern> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> strings = new ArrayList<>(patterns.size());
+        for (Pattern pattern : patterns) {
+            strings.add(pattern.flags() + ":" + pattern.pattern());
+        }
+        return strings;
+    }
+
+    private static final class Key {
+        private final Crypto crypto;
+        private final byte[] fingerprint;
+        private final boolean enableRevocation;
+        private final List<String> subjectCertConstraints;
+        private final List<String> issuerCertConstraints;
+        private final int hashCode;
+
+        Key(Crypto crypto, byte[] fingerprint, boolean enableRevocation,
+            List<String> subjectCertConstraints, List<String> issuerCertConstraints) {
+            this.crypto = crypto;
+            this.fingerprint = fingerprint;
+            this.enableRevocation = enableRevocation;
+            this.subjectCertConstraints = subjectCertConstraints;
+            this.issuerCertConstraints = issuerCertConstraints;
+            this.hashCode = Objects.hash(System.identityHashCode(crypto), Arrays.hashCode(fingerprint),
+                                         enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return crypto == other.crypto
+                && enableRevocation == other.enableRevocation
+                && Arrays.equals(fingerprint, other.fingerprint)
+                && subjectCertConstraints.equals(other.subjectCertConstraints)
+                && issuerCertConstraints.equals(other.issuerCertConstraints);
+        }
+    }
+}
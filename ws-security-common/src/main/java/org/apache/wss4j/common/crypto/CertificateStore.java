@@ -26,9 +26,12 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
+import java.security.cert.CertStore;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
@@ -52,6 +55,8 @@ public class CertificateStore extends CryptoBase {
         org.slf4j.LoggerFactory.getLogger(CertificateStore.class);
 
     private X509Certificate[] trustedCerts;
+    private Collection<X509CRL> crls;
+    private CRLIndex crlIndex;
 
     /**
      * Constructor
@@ -60,6 +65,24 @@ public class CertificateStore extends CryptoBase {
         this.trustedCerts = trustedCerts;
     }
 
+    /**
+     * Constructor
+     * @param trustedCerts the trusted certificates
+     * @param crls the CRLs to check the revocation status of certificates against, if revocation
+     * is enabled. They are indexed by issuer and serial number if possible, in which case the JDK
+     * does not fetch CRLs from the CRL distribution points or check the revocation status via OCSP.
+     */
+    public CertificateStore(X509Certificate[] trustedCerts, Collection<X509CRL> crls)
+        throws WSSecurityException {
+        this.trustedCerts = trustedCerts;
+        this.crls = crls;
+        if (crls != null) {
+            crlIndex = CRLIndex.newInstance(
+                crls, trustedCerts != null ? Arrays.asList(trustedCerts) : null
+            );
+        }
+    }
+
     /**
      * Get an X509Certificate (chain) corresponding to the CryptoType argument. The supported
      * types are as follows:
@@ -243,6 +266,14 @@ public class CertificateStore extends CryptoBase {
 
             PKIXParameters param = new PKIXParameters(set);
             param.setRevocationEnabled(enableRevocation);
+            if (enableRevocation && crlIndex != null) {
+                param.setRevocationEnabled(false);
+                param.addCertPathChecker(new CRLRevocationChecker(crlIndex, set));
+            } else if (enableRevocation && crls != null) {
+                param.addCertStore(
+                    CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls))
+                );
+            }
 
             if (foundCerts.length > 0) {
                 //
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An immutable index over the certificate entries of a KeyStore. It is built in a single pass
+ * over the aliases of the KeyStore, and allows the Merlin lookups by issuer/serial, SHA-1
+ * thumbprint, SKI bytes, subject DN, public key and certificate to be resolved without
+ * scanning the KeyStore each time. Where several aliases match the same key, the first alias
+ * returned by the KeyStore wins, which is the same result as a linear scan.
+ */
+final class KeyStoreIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(KeyStoreIndex.class);
+
+    private final KeyStore store;
+    private final int size;
+    private final List<Entry> entries;
+    private final Map<IssuerSerial, Entry> issuerSerialMap;
+    private final Map<ByteBuffer, Entry> thumbprintMap;
+    private final Map<ByteBuffer, Entry> skiMap;
+    private final Map<Object, List<Entry>> subjectMap;
+    private final Map<ByteBuffer, Entry> publicKeyMap;
+    private final Map<ByteBuffer, Entry> certificateMap;
+
+    private KeyStoreIndex(KeyStore store, int size, List<Entry> entries) {
+        this.store = store;
+        this.size = size;
+        this.entries = Collections.unmodifiableList(entries);
+
+        Map<IssuerSerial, Entry> issuerSerials = new HashMap<>();
+        Map<ByteBuffer, Entry> thumbprints = new HashMap<>();
+        Map<ByteBuffer, Entry> skis = new HashMap<>();
+        Map<Object, List<Entry>> subjects = new HashMap<>();
+        Map<ByteBuffer, Entry> publicKeys = new HashMap<>();
+        Map<ByteBuffer, Entry> certificates = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry.issuerSerial != null) {
+                issuerSerials.putIfAbsent(entry.issuerSerial, entry);
+            }
+            if (entry.thumbprint != null) {
+                thumbprints.putIfAbsent(entry.thumbprint, entry);
+            }
+            if (entry.ski != null) {
+                skis.putIfAbsent(entry.ski, entry);
+            }
+            if (entry.subjectName != null) {
+                subjects.computeIfAbsent(entry.subjectName, k -> new ArrayList<>(1)).add(entry);
+            }
+            if (entry.publicKey != null) {
+                publicKeys.putIfAbsent(entry.publicKey, entry);
+            }
+            if (entry.encoded != null) {
+                certificates.putIfAbsent(entry.encoded, entry);
+            }
+        }
+        subjects.replaceAll((k, v) -> Collections.unmodifiableList(v));
+
+        issuerSerialMap = Collections.unmodifiableMap(issuerSerials);
+        thumbprintMap = Collections.unmodifiableMap(thumbprints);
+        skiMap = Collections.unmodifiableMap(skis);
+        subjectMap = Collections.unmodifiableMap(subjects);
+        publicKeyMap = Collections.unmodifiableMap(publicKeys);
+        certificateMap = Collections.unmodifiableMap(certificates);
+    }
+
+    /**
+     * Build an index over the given KeyStore.
+     * @param store the KeyStore to index
+     * @param crypto the Merlin instance used to normalise DNs and compute SKI bytes
+     * @return the index
+     * @throws KeyStoreException if the KeyStore could not be read
+     */
+    static KeyStoreIndex build(KeyStore store, Merlin crypto) throws KeyStoreException {
+        MessageDigest sha = null;
+        try {
+            sha = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            LOG.debug("SHA-1 is not available, thumbprint lookups will not match: {}", e.getMessage());
+        }
+
+        int size = store.size();
+        List<Entry> entries = new ArrayList<>(size);
+        for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
+            String alias = e.nextElement();
+            Certificate[] certs = store.getCertificateChain(alias);
+            if (certs == null || certs.length == 0) {
+                // no cert chain, so lets check if getCertificate gives us a result.
+                Certificate cert = store.getCertificate(alias);
+                if (cert != null) {
+                    certs = new Certificate[]{cert};
+                }
+            }
+            if (certs != null && certs.length > 0 && certs[0] != null) {
+                entries.add(new Entry(alias, certs, sha, crypto));
+            }
+        }
+
+        LOG.debug("Indexed {} certificate entries of a KeyStore of type {}", entries.size(), store.getType());
+        return new KeyStoreIndex(store, size, entries);
+    }
+
+    /**
+     * @return true if this index was built from the given KeyStore, and no entries have been added
+     * to or removed from it since then. A certificate which is replaced under an existing alias is
+     * not detected, so Merlin rebuilds the index explicitly when its stores are set or reloaded.
+     */
+    boolean isIndexOf(KeyStore keyStore) throws KeyStoreException {
+        return store == keyStore && size == keyStore.size();
+    }
+
+    Certificate[] getByIssuerSerial(Object issuerName, BigInteger serialNumber) {
+        Entry entry = issuerSerialMap.get(new IssuerSerial(issuerName, serialNumber));
+        return entry != null ? entry.chain : null;
+    }
+
+    Certificate[] getByThumbprint(byte[] thumbprint) {
+        Entry entry = thumbprintMap.get(ByteBuffer.wrap(thumbprint));
+        return entry != null ? entry.chain : null;
+    }
+
+    Certificate[] getBySKI(byte[] skiBytes) {
+        Entry entry = skiMap.get(ByteBuffer.wrap(skiBytes));
+        return entry != null ? entry.chain : null;
+    }
+
+    List<Certificate[]> getBySubject(Object subjectName) {
+        List<Entry> found = subjectMap.get(subjectName);
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        List<Certificate[]> chains = new ArrayList<>(found.size());
+        for (Entry entry : found) {
+            chains.add(entry.chain);
+        }
+        return chains;
+    }
+
+    String getAlias(Certificate cert) {
+        try {
+            Entry entry = certificateMap.get(ByteBuffer.wrap(cert.getEncoded()));
+            return entry != null ? entry.alias : null;
+        } catch (CertificateEncodingException ex) {
+            // Fall back to comparing the certificates directly
+            for (Entry entry : entries) {
+                if (entry.chain[0].equals(cert)) {
+                    return entry.alias;
+                }
+            }
+            return null;
+        }
+    }
+
+    String getAlias(PublicKey publicKey) {
+        byte[] encoded = publicKey.getEncoded();
+        if (encoded != null) {
+            Entry entry = publicKeyMap.get(ByteBuffer.wrap(encoded));
+            if (entry != null) {
+                return entry.alias;
+            }
+        }
+        // Fall back to comparing the keys directly, in case they can't be compared by encoding
+        for (Entry entry : entries) {
+            if (entry.chain[0].getPublicKey().equals(publicKey)) {
+                return entry.alias;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A single certificate (chain) entry of the KeyStore, together with its precomputed lookup keys.
+     */
+    private static final class Entry {
+        private final String alias;
+        private final Certificate[] chain;
+        private IssuerSerial issuerSerial;
+        private ByteBuffer thumbprint;
+        private ByteBuffer ski;
+        private Object subjectName;
+        private ByteBuffer publicKey;
+        private ByteBuffer encoded;
+
+        Entry(String alias, Certificate[] chain, MessageDigest sha, Merlin crypto) {
+            this.alias = alias;
+            this.chain = chain;
+
+            Certificate cert = chain[0];
+            try {
+                byte[] encodedCert = cert.getEncoded();
+                encoded = ByteBuffer.wrap(encodedCert);
+                if (sha != null && cert instanceof X509Certificate) {
+                    thumbprint = ByteBuffer.wrap(sha.digest(encodedCert));
+                }
+            } catch (CertificateEncodingException ex) {
+                LOG.debug("Cannot encode the certificate of alias {}: {}", alias, ex.getMessage());
+            }
+
+            byte[] encodedKey = cert.getPublicKey() != null ? cert.getPublicKey().getEncoded() : null;
+            if (encodedKey != null) {
+                publicKey = ByteBuffer.wrap(encodedKey);
+            }
+
+            if (cert instanceof X509Certificate) {
+                X509Certificate x509cert = (X509Certificate) cert;
+                issuerSerial =
+                    new IssuerSerial(crypto.createBCX509Name(x509cert.getIssuerX500Principal().getName()),
+                                     x509cert.getSerialNumber());
+                subjectName = crypto.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+                try {
+                    ski = ByteBuffer.wrap(crypto.getSKIBytesFromCert(x509cert));
+                } catch (WSSecurityException ex) {
+                    LOG.debug("Cannot compute the SKI bytes of alias {}: {}", alias, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * The (normalised) issuer name and serial number of a certificate.
+     */
+    private static final class IssuerSerial {
+        private final Object issuerName;
+        private final BigInteger serialNumber;
+
+        IssuerSerial(Object issuerName, BigInteger serialNumber) {
+            this.issuerName = issuerName;
+            this.serialNumber = serialNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuerName, serialNumber);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof IssuerSerial)) {
+                return false;
+            }
+            IssuerSerial other = (IssuerSerial) object;
+            return Objects.equals(serialNumber, other.serialNumber)
+                && Objects.equals(issuerName, other.issuerName);
+        }
+    }
+}
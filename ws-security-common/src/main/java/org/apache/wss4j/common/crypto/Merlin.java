@@ -22,14 +22,16 @@ package org.apache.wss4j.common.crypto;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
@@ -38,20 +40,23 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertStore;
+import java.security.cert.CertStoreException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXCertPathChecker;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
+import java.security.cert.X509CRLSelector;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -118,6 +123,31 @@ public class Merlin extends CryptoBase {
      * CRL configuration
      */
     public static final String X509_CRL_FILE = "x509crl.file";
+    /**
+     * Whether the revocation status of certificates is checked against an index of the CRLs of the
+     * x509crl.file, rather than by the PKIX validator searching the CRLs. The default is false. Note
+     * that the revocation checking of the PKIX validator is disabled when the index is used, so that
+     * the JDK no longer fetches CRLs from the CRL distribution points of the certificates, or checks
+     * their revocation status via OCSP (see ocsp.enabled for the OCSP checking of WSS4J).
+     */
+    public static final String X509_CRL_INDEX = "x509crl.index";
+    /**
+     * The directory in which the revoked serial numbers of large CRLs are stored in memory-mapped
+     * files when the CRL index is used, rather than on the heap
+     */
+    public static final String X509_CRL_INDEX_DIR = "x509crl.index.dir";
+
+    /*
+     * OCSP configuration
+     */
+    public static final String OCSP_ENABLED = "ocsp.enabled";
+    public static final String OCSP_RESPONDER = "ocsp.responder";
+    public static final String OCSP_CONNECT_TIMEOUT = "ocsp.connect.timeout";
+    public static final String OCSP_READ_TIMEOUT = "ocsp.read.timeout";
+    public static final String OCSP_SOFT_FAIL = "ocsp.softfail";
+    public static final String OCSP_CACHE_SIZE = "ocsp.cache.size";
+    public static final String OCSP_CACHE_TIME = "ocsp.cache.time";
+    public static final String OCSP_MAX_RESPONSE_AGE = "ocsp.response.maxage";
 
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
@@ -133,7 +163,16 @@ public class Merlin extends CryptoBase {
 
     private boolean certProviderHandlesNameConstraints = false;
     private boolean enablePrivateKeyCaching = true;
+    private boolean enableCRLIndex;
+    private Path crlIndexDirectory;
+    private OCSPClient ocspClient;
+    private boolean ocspSoftFail;
     private Map<String, PrivateKey> privateKeyCache = new ConcurrentHashMap<>();
+    private final Map<String, String> decryptedPasswords = new ConcurrentHashMap<>();
+    private volatile KeyStoreIndex keyStoreIndex;
+    private volatile KeyStoreIndex trustStoreIndex;
+    private volatile PKIXTrustState pkixTrustState;
+    private final Map<String, CertPathValidator> certPathValidators = new ConcurrentHashMap<>();
 
     public Merlin() {
         // default constructor
@@ -171,6 +210,7 @@ public class Merlin extends CryptoBase {
         }
         this.properties = properties;
         this.passwordEncryptor = passwordEncryptor;
+        clearDecryptedPasswords();
 
         String prefix = PREFIX;
         for (Object key : properties.keySet()) {
@@ -346,6 +386,10 @@ public class Merlin extends CryptoBase {
             }
             LOG.debug("The CRL files {} have been loaded", crlLocations);
         }
+
+        loadRevocationProperties(prefix);
+
+        rebuildIndexes();
     }
 
     /**
@@ -389,7 +433,9 @@ public class Merlin extends CryptoBase {
     //
 
     /**
-     * Gets the Keystore that was loaded
+     * Gets the Keystore that was loaded. If the returned KeyStore is modified in place, then
+     * setKeyStore or clearCache must be called afterwards, so that the certificate lookups see
+     * the modified entries.
      *
      * @return the Keystore
      */
@@ -404,10 +450,14 @@ public class Merlin extends CryptoBase {
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        keyStoreIndex = createIndex(keyStore);
+        pkixTrustState = null;
     }
 
     /**
-     * Gets the trust store that was loaded by the underlying implementation
+     * Gets the trust store that was loaded by the underlying implementation. If the returned
+     * KeyStore is modified in place, then setTrustStore or clearCache must be called afterwards,
+     * so that the certificate lookups see the modified entries.
      *
      * @return the trust store
      */
@@ -422,6 +472,8 @@ public class Merlin extends CryptoBase {
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        trustStoreIndex = createIndex(trustStore);
+        pkixTrustState = null;
     }
 
     /**
@@ -432,6 +484,7 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        pkixTrustState = null;
     }
 
     /**
@@ -704,6 +757,13 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty",
                                               new Object[] {msg});
             }
+            if (enablePrivateKeyCaching) {
+                Key privateKey = privateKeyCache.get(identifier);
+                if (privateKey != null) {
+                    return (PrivateKey) privateKey;
+                }
+            }
+
             String pwd = password;
             if (pwd == null && privatePasswordSet) {
                 pwd = properties.getProperty(PREFIX + KEYSTORE_PRIVATE_PASSWORD);
@@ -715,12 +775,6 @@ public class Merlin extends CryptoBase {
                     pwd = decryptPassword(pwd, passwordEncryptor);
                 }
             }
-            if (enablePrivateKeyCaching) {
-                Key privateKey = privateKeyCache.get(identifier);
-                if (privateKey != null) {
-                    return (PrivateKey) privateKey;
-                }
-            }
 
             Key keyTmp = keystore.getKey(identifier, pwd == null
                                          ? new char[]{} : pwd.toCharArray());
@@ -828,30 +882,10 @@ public class Merlin extends CryptoBase {
         );
 
         try {
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                addTrustAnchors(set, truststore);
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                addTrustAnchors(set, keystore);
-            }
-
-            // Verify the trust path using the above settings
-            String provider = getCryptoProvider();
-            CertPathValidator validator = null;
-            if (provider == null || provider.length() == 0) {
-                validator = CertPathValidator.getInstance("PKIX");
-            } else {
-                validator = CertPathValidator.getInstance("PKIX", provider);
-            }
-
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
+            // Verify the trust path using the cached trust anchors of this Crypto instance
+            CertPathValidator validator = getCertPathValidator();
+            PKIXParameters param = getPKIXParameters(enableRevocation);
+            setRevocationCheckDate(param);
 
             // Generate cert path
             if (foundIssuingCertChains != null && !foundIssuingCertChains.isEmpty()) {
@@ -909,19 +943,200 @@ public class Merlin extends CryptoBase {
         }
     }
 
-    // Separated out to allow subclasses to override it
+    /**
+     * Get the PKIXParameters to validate a certificate path against the trust anchors of this
+     * Crypto instance. The trust anchors are taken from the truststore, and from the keystore
+     * if there is no truststore (or the truststore is the JDK CA certs). The anchors and the
+     * parameters built from them via {@link #createPKIXParameters} are cached, and are
+     * recomputed once the keystore, truststore or CRL CertStore changes.
+     *
+     * @param enableRevocation whether to enable CRL verification or not
+     * @return a copy of the cached PKIXParameters, which may be modified by the caller
+     */
+    protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+        throws KeyStoreException, WSSecurityException, InvalidAlgorithmParameterException {
+        KeyStoreIndex currentKeyStoreIndex = keystore != null ? getIndex(keystore) : null;
+        KeyStoreIndex currentTrustStoreIndex = truststore != null ? getIndex(truststore) : null;
+
+        PKIXTrustState state = pkixTrustState;
+        if (state == null
+            || !state.isStateOf(currentKeyStoreIndex, currentTrustStoreIndex, crlCertStore, loadCACerts)) {
+            Set<TrustAnchor> set = new HashSet<>();
+            if (truststore != null) {
+                addTrustAnchors(set, truststore);
+            }
+
+            //
+            // Add certificates from the keystore - only if there is no TrustStore, apart from
+            // the case that the truststore is the JDK CA certs. This behaviour is preserved
+            // for backwards compatibility reasons
+            //
+            if (keystore != null && (truststore == null || loadCACerts)) {
+                addTrustAnchors(set, keystore);
+            }
+
+            state = new PKIXTrustState(currentKeyStoreIndex, currentTrustStoreIndex, crlCertStore,
+                                       loadCACerts, Collections.unmodifiableSet(set));
+            pkixTrustState = state;
+        }
+
+        PKIXParameters param = state.getParameters(enableRevocation);
+        if (param == null) {
+            param = createPKIXParameters(state.trustAnchors, enableRevocation);
+            state.setParameters(enableRevocation, param);
+        }
+        // The cached parameters are shared by all threads, and PKIXParameters are mutable
+        return (PKIXParameters)param.clone();
+    }
+
+    /**
+     * Get the PKIX CertPathValidator of the configured crypto provider. The validator is
+     * created once per provider and then shared, as the PKIX validators of the JDK and
+     * BouncyCastle keep no state between calls to validate.
+     */
+    protected CertPathValidator getCertPathValidator()
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String provider = getCryptoProvider();
+        if (provider == null) {
+            provider = "";
+        }
+        CertPathValidator validator = certPathValidators.get(provider);
+        if (validator == null) {
+            if (provider.length() == 0) {
+                validator = CertPathValidator.getInstance("PKIX");
+            } else {
+                validator = CertPathValidator.getInstance("PKIX", provider);
+            }
+            certPathValidators.put(provider, validator);
+        }
+        return validator;
+    }
+
+    /**
+     * Check the revocation status against the CRL index at the date of the parameters (if any), as
+     * the PKIX validator does for the CRLs in a CertStore
+     */
+    private static void setRevocationCheckDate(PKIXParameters param) {
+        if (param.getDate() == null) {
+            return;
+        }
+        // The checkers are copies, which replace the checkers of the parameters
+        List<PKIXCertPathChecker> checkers = param.getCertPathCheckers();
+        for (PKIXCertPathChecker checker : checkers) {
+            if (checker instanceof CRLRevocationChecker) {
+                ((CRLRevocationChecker)checker).setDate(param.getDate());
+            }
+        }
+        param.setCertPathCheckers(checkers);
+    }
+
+    // Separated out to allow subclasses to override it. The returned parameters are cached,
+    // and only copies of them are handed out by getPKIXParameters.
     protected PKIXParameters createPKIXParameters(
         Set<TrustAnchor> trustAnchors, boolean enableRevocation
     ) throws InvalidAlgorithmParameterException {
         PKIXParameters param = new PKIXParameters(trustAnchors);
         param.setRevocationEnabled(enableRevocation);
         if (enableRevocation && crlCertStore != null) {
-            param.addCertStore(crlCertStore);
+            CRLIndex crlIndex = enableCRLIndex ? createCRLIndex(trustAnchors) : null;
+            if (crlIndex != null) {
+                // The revocation status is checked against the index instead of the CertStore
+                param.setRevocationEnabled(false);
+                param.addCertPathChecker(new CRLRevocationChecker(crlIndex, trustAnchors));
+            } else {
+                param.addCertStore(crlCertStore);
+            }
+        }
+
+        if (enableRevocation && ocspClient != null) {
+            param.addCertPathChecker(new OCSPRevocationChecker(ocspClient, trustAnchors, ocspSoftFail));
+            if (crlCertStore == null) {
+                // Otherwise the PKIX validator would also check the CRL distribution points
+                param.setRevocationEnabled(false);
+            }
         }
 
         return param;
     }
 
+    private void loadRevocationProperties(String prefix) throws WSSecurityException {
+        String crlIndexProp = properties.getProperty(prefix + X509_CRL_INDEX);
+        if (crlIndexProp != null) {
+            enableCRLIndex = Boolean.parseBoolean(crlIndexProp);
+        }
+        String crlIndexDir = properties.getProperty(prefix + X509_CRL_INDEX_DIR);
+        if (crlIndexDir != null && crlIndexDir.trim().length() > 0) {
+            crlIndexDirectory = Paths.get(crlIndexDir.trim());
+        }
+
+        if (Boolean.parseBoolean(properties.getProperty(prefix + OCSP_ENABLED))) {
+            ocspClient = createOCSPClient(prefix);
+            ocspSoftFail = Boolean.parseBoolean(properties.getProperty(prefix + OCSP_SOFT_FAIL));
+        }
+    }
+
+    private OCSPClient createOCSPClient(String prefix) throws WSSecurityException {
+        OCSPClient client = new OCSPClient(
+            (int)getNumberProperty(prefix + OCSP_CACHE_SIZE, OCSPClient.DEFAULT_MAX_ENTRIES),
+            getNumberProperty(prefix + OCSP_CACHE_TIME, OCSPClient.DEFAULT_CACHE_TIME)
+        );
+        client.setConnectTimeout(
+            (int)getNumberProperty(prefix + OCSP_CONNECT_TIMEOUT, OCSPClient.DEFAULT_CONNECT_TIMEOUT));
+        client.setReadTimeout((int)getNumberProperty(prefix + OCSP_READ_TIMEOUT, OCSPClient.DEFAULT_READ_TIMEOUT));
+        client.setMaxResponseAge(
+            getNumberProperty(prefix + OCSP_MAX_RESPONSE_AGE, OCSPClient.DEFAULT_MAX_RESPONSE_AGE));
+        String responder = properties.getProperty(prefix + OCSP_RESPONDER);
+        if (responder != null && responder.trim().length() > 0) {
+            try {
+                client.setResponderURI(new URI(responder.trim()));
+            } catch (URISyntaxException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+            }
+        }
+        LOG.debug("OCSP revocation checking has been enabled");
+        return client;
+    }
+
+    private long getNumberProperty(String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value {} of {}, using {}", value, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Build an index of the CRLs of the CRL CertStore, which is looked up by issuer and serial
+     * number when a certificate path is validated. As the PKIXParameters are cached, the index is
+     * only rebuilt once the trust anchors or the CRL CertStore change.
+     *
+     * @return the index, or null if the CRLs cannot be indexed (e.g. delta CRLs or CRLs with
+     * other critical extensions), in which case the CRL CertStore is searched by the validator
+     */
+    protected CRLIndex createCRLIndex(Set<TrustAnchor> trustAnchors) {
+        List<X509Certificate> issuerCerts = new ArrayList<>(trustAnchors.size());
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            if (trustAnchor.getTrustedCert() != null) {
+                issuerCerts.add(trustAnchor.getTrustedCert());
+            }
+        }
+        try {
+            return CRLIndex.newInstance(
+                crlCertStore.getCRLs(new X509CRLSelector()), issuerCerts, crlIndexDirectory,
+                CRLIndex.DEFAULT_MAPPED_THRESHOLD
+            );
+        } catch (CertStoreException | WSSecurityException ex) {
+            LOG.debug("The CRLs could not be indexed: {}", ex.getMessage(), ex);
+            return null;
+        }
+    }
+
     /**
      * Evaluate whether a given public key should be trusted.
      *
@@ -1009,30 +1224,10 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for cert with issuer {} and serial {}", keystore, issuerRDN, serialNumber);
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    LOG.debug("Keystore alias {} has issuer {} and serial {}", alias,
-                              x509cert.getIssuerX500Principal().getName(), x509cert.getSerialNumber());
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName =
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            LOG.debug("Issuer Serial match found using keystore alias {}", alias);
-                            return certs;
-                        }
-                    }
-                }
+            Certificate[] certs = getIndex(store).getByIssuerSerial(issuerRDN, serialNumber);
+            if (certs != null) {
+                LOG.debug("Issuer Serial match found in {}", keystore);
+                return certs;
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(
@@ -1052,23 +1247,14 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha, false);
+            certs = getCertificatesByThumbprint(thumbprint, keystore, false);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha, true);
+            certs = getCertificatesByThumbprint(thumbprint, truststore, true);
         }
 
         if (certs == null || certs.length == 0) {
@@ -1085,10 +1271,9 @@ public class Merlin extends CryptoBase {
      * @return an X509 Certificate (chain)
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(
+    private Certificate[] getCertificatesByThumbprint(
         byte[] thumbprint,
         KeyStore store,
-        MessageDigest sha,
         boolean truststore
     ) throws WSSecurityException {
         String keystore = "keystore";
@@ -1097,33 +1282,10 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for cert using a SHA-1 thumbprint", keystore);
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        LOG.debug("Thumbprint match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
+            Certificate[] certs = getIndex(store).getByThumbprint(thumbprint);
+            if (certs != null) {
+                LOG.debug("Thumbprint match found in {}", keystore);
+                return certs;
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(
@@ -1177,25 +1339,10 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for cert using Subject Key Identifier bytes", keystore);
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        LOG.debug("SKI match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
+            Certificate[] certs = getIndex(store).getBySKI(skiBytes);
+            if (certs != null) {
+                LOG.debug("SKI match found in {}", keystore);
+                return certs;
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(
@@ -1311,22 +1458,10 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for public key {}", keystore, publicKey);
         try {
-            for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = keyStoreToSearch.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = keyStoreToSearch.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate
-                    && publicKey.equals(((X509Certificate)certs[0]).getPublicKey())) {
-                    LOG.debug("PublicKey match found using keystore alias {}", alias);
-                    return true;
-                }
+            String alias = getIndex(keyStoreToSearch).getAlias(publicKey);
+            if (alias != null) {
+                LOG.debug("PublicKey match found using keystore alias {}", alias);
+                return true;
             }
         } catch (KeyStoreException e) {
             return false;
@@ -1351,28 +1486,9 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert with Subject {}", keystore, subjectRDN);
-        List<Certificate[]> foundCerts = new ArrayList<>();
+        List<Certificate[]> foundCerts = null;
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate)certs[0]).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        LOG.debug("Subject certificate match found using keystore alias {}", alias);
-                        foundCerts.add(certs);
-                    }
-                }
-            }
+            foundCerts = getIndex(store).getBySubject(subjectRDN);
         } catch (KeyStoreException e) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e, "keystore"
@@ -1449,51 +1565,63 @@ public class Merlin extends CryptoBase {
     private String getIdentifier(X509Certificate cert, KeyStore store)
         throws WSSecurityException {
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0].equals(cert)) {
-                    return alias;
-                }
-            }
+            return getIndex(store).getAlias(cert);
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
         }
-        return null;
     }
 
     private String getIdentifier(PublicKey publicKey, KeyStore store)
         throws WSSecurityException {
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
+            return getIndex(store).getAlias(publicKey);
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
+        }
+    }
 
-                if (certs != null && certs.length > 0 && certs[0].getPublicKey().equals(publicKey)) {
-                    return alias;
-                }
+    /**
+     * Get the lookup index of the given KeyStore (which is either the keystore or the truststore).
+     * The index is (re)built if it does not exist yet, or if the KeyStore has been replaced since it
+     * was built, e.g. by a subclass assigning the keystore field directly. Entries which are replaced
+     * in place are only seen once the index is rebuilt by the setters, loadProperties or clearCache.
+     */
+    private KeyStoreIndex getIndex(KeyStore store) throws KeyStoreException {
+        boolean isKeyStore = store == keystore;
+        KeyStoreIndex index = isKeyStore ? keyStoreIndex : trustStoreIndex;
+        if (index == null || !index.isIndexOf(store)) {
+            index = KeyStoreIndex.build(store, this);
+            if (isKeyStore) {
+                keyStoreIndex = index;
+            } else {
+                trustStoreIndex = index;
             }
+        }
+        return index;
+    }
+
+    /**
+     * Rebuild the lookup indexes of the keystore and truststore, e.g. because they were (re)loaded
+     * or may have been modified in place. The cached trust state depends on the indexes, and so is
+     * discarded as well.
+     */
+    private void rebuildIndexes() {
+        keyStoreIndex = createIndex(keystore);
+        trustStoreIndex = createIndex(truststore);
+        pkixTrustState = null;
+    }
+
+    private KeyStoreIndex createIndex(KeyStore store) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            return KeyStoreIndex.build(store, this);
         } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
+            // The index will be built on first use instead, which reports the error
+            LOG.debug("Could not index the KeyStore: {}", e.getMessage(), e);
+            return null;
         }
-        return null;
     }
 
     /**
@@ -1521,6 +1649,11 @@ public class Merlin extends CryptoBase {
         return pwCb.getPassword();
     }
 
+    /**
+     * Decrypt the given password if it is encrypted. Passwords that are decrypted with the
+     * PasswordEncryptor of this Crypto instance are cached, until the cache is cleared or
+     * the properties are (re)loaded.
+     */
     protected String decryptPassword(String password, PasswordEncryptor passwordEncryptor) {
         if (password.startsWith(ENCRYPTED_PASSWORD_PREFIX)
             && password.endsWith(ENCRYPTED_PASSWORD_SUFFIX)) {
@@ -1532,7 +1665,17 @@ public class Merlin extends CryptoBase {
             }
             String substring = password.substring(ENCRYPTED_PASSWORD_PREFIX.length(),
                                                   password.length() - 1);
-            return passwordEncryptor.decrypt(substring);
+            if (passwordEncryptor != this.passwordEncryptor) {
+                return passwordEncryptor.decrypt(substring);
+            }
+            String decryptedPassword = decryptedPasswords.get(substring);
+            if (decryptedPassword == null) {
+                decryptedPassword = passwordEncryptor.decrypt(substring);
+                if (decryptedPassword != null) {
+                    decryptedPasswords.put(substring, decryptedPassword);
+                }
+            }
+            return decryptedPassword;
         }
 
         return password;
@@ -1540,12 +1683,26 @@ public class Merlin extends CryptoBase {
 
     public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
         this.passwordEncryptor = passwordEncryptor;
+        clearDecryptedPasswords();
     }
 
+    /**
+     * Clear the cached private keys, decrypted passwords, OCSP responses and trust state, and
+     * rebuild the certificate lookup indexes of the keystore and truststore.
+     */
     public void clearCache() {
         if (enablePrivateKeyCaching) {
             privateKeyCache.clear();
         }
+        if (ocspClient != null) {
+            ocspClient.clear();
+        }
+        clearDecryptedPasswords();
+        rebuildIndexes();
+    }
+
+    void clearDecryptedPasswords() {
+        decryptedPasswords.clear();
     }
 
     public boolean isEnablePrivateKeyCaching() {
@@ -1555,4 +1712,98 @@ public class Merlin extends CryptoBase {
     public void setEnablePrivateKeyCaching(boolean enablePrivateKeyCaching) {
         this.enablePrivateKeyCaching = enablePrivateKeyCaching;
     }
+
+    public boolean isEnableCRLIndex() {
+        return enableCRLIndex;
+    }
+
+    /**
+     * Set whether the revocation status of certificates is checked against an index of the CRLs,
+     * or by the PKIX validator searching the CRL CertStore. The default is false. When the index
+     * is used, the revocation checking of the PKIX validator is disabled, and so the JDK no longer
+     * fetches CRLs from the CRL distribution points of the certificates, or checks their revocation
+     * status via OCSP (com.sun.security.enableCRLDP, ocsp.enable).
+     */
+    public void setEnableCRLIndex(boolean enableCRLIndex) {
+        this.enableCRLIndex = enableCRLIndex;
+        pkixTrustState = null;
+    }
+
+    /**
+     * Set the directory in which the revoked serial numbers of large CRLs are stored in
+     * memory-mapped files, rather than on the heap. The default is null (no memory-mapped files).
+     */
+    public void setCRLIndexDirectory(Path crlIndexDirectory) {
+        this.crlIndexDirectory = crlIndexDirectory;
+        pkixTrustState = null;
+    }
+
+    public OCSPClient getOCSPClient() {
+        return ocspClient;
+    }
+
+    /**
+     * Set the client with which the revocation status of certificates is obtained from an OCSP
+     * responder when revocation is enabled, in addition to any CRLs. The default is null (no OCSP),
+     * unless OCSP is enabled in the properties.
+     */
+    public void setOCSPClient(OCSPClient ocspClient) {
+        this.ocspClient = ocspClient;
+        pkixTrustState = null;
+    }
+
+    public boolean isOCSPSoftFail() {
+        return ocspSoftFail;
+    }
+
+    /**
+     * Set whether a certificate is accepted if its revocation status cannot be obtained from the
+     * OCSP responder, because of a network error or because the responder is unavailable.
+     * The default is false.
+     */
+    public void setOCSPSoftFail(boolean ocspSoftFail) {
+        this.ocspSoftFail = ocspSoftFail;
+        pkixTrustState = null;
+    }
+
+    /**
+     * The trust anchors computed from a given keystore, truststore and CRL CertStore, together with
+     * the PKIXParameters (with and without revocation enabled) that were built from them.
+     */
+    private static final class PKIXTrustState {
+        private final KeyStoreIndex keyStoreIndex;
+        private final KeyStoreIndex trustStoreIndex;
+        private final CertStore crlCertStore;
+        private final boolean loadCACerts;
+        private final Set<TrustAnchor> trustAnchors;
+        private volatile PKIXParameters parameters;
+        private volatile PKIXParameters revocationParameters;
+
+        PKIXTrustState(KeyStoreIndex keyStoreIndex, KeyStoreIndex trustStoreIndex,
+                       CertStore crlCertStore, boolean loadCACerts, Set<TrustAnchor> trustAnchors) {
+            this.keyStoreIndex = keyStoreIndex;
+            this.trustStoreIndex = trustStoreIndex;
+            this.crlCertStore = crlCertStore;
+            this.loadCACerts = loadCACerts;
+            this.trustAnchors = trustAnchors;
+        }
+
+        boolean isStateOf(KeyStoreIndex currentKeyStoreIndex, KeyStoreIndex currentTrustStoreIndex,
+                          CertStore currentCrlCertStore, boolean currentLoadCACerts) {
+            return keyStoreIndex == currentKeyStoreIndex && trustStoreIndex == currentTrustStoreIndex
+                && crlCertStore == currentCrlCertStore && loadCACerts == currentLoadCACerts;
+        }
+
+        PKIXParameters getParameters(boolean enableRevocation) {
+            return enableRevocation ? revocationParameters : parameters;
+        }
+
+        void setParameters(boolean enableRevocation, PKIXParameters param) {
+            if (enableRevocation) {
+                revocationParameters = param;
+            } else {
+                parameters = param;
+            }
+        }
+    }
 }
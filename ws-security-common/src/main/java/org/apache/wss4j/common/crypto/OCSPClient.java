@@ -0,0 +1,510 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.cache.ExpiringCache;
+import org.bouncycastle.asn1.ASN1IA5String;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * A client to obtain the revocation status of certificates from an OCSP responder, with a
+ * bounded cache of the responses. It requires the (optional) BouncyCastle PKIX dependency.
+ *
+ * A response is cached until its nextUpdate time, or for a configurable time if it has no
+ * nextUpdate time. As in the JDK, a response without a nextUpdate time is only accepted if its
+ * thisUpdate time is within the clock skew of the current time, or within a configurable maximum
+ * age, and it is not cached beyond that age. When the cache is full, the responses which expire
+ * first are evicted. Concurrent lookups of the status of the same certificate are coalesced, so
+ * that only one request is sent to the responder. Requests are sent without a nonce, so that
+ * responses which are pre-produced by the responder can be used.
+ *
+ * The responder is taken from the Authority Information Access extension of the certificate,
+ * unless a responder URI is configured. The response must be signed by the issuer of the
+ * certificate, or by a responder certificate which is issued by the issuer for OCSP signing.
+ */
+public class OCSPClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 5000;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_CACHE_TIME = 60L * 5L;
+    public static final long DEFAULT_MAX_RESPONSE_AGE = 0L;
+
+    /**
+     * The revocation status of a certificate
+     */
+    public enum Status {
+        GOOD, REVOKED, UNKNOWN
+    }
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(OCSPClient.class);
+
+    private static final long CLOCK_SKEW = 15L * 60L * 1000L;
+    private static final int MAX_RESPONSE_SIZE = 256 * 1024;
+    private static final String OCSP_SIGNING = "1.3.6.1.5.5.7.3.9";
+
+    private final ExpiringCache<Key, Status> cache;
+    private final Map<Key, CompletableFuture<Status>> pendingLookups = new ConcurrentHashMap<>();
+    private final long cacheTime;
+    private final Clock clock;
+    private final AtomicLong coalesced = new AtomicLong();
+    private URI responderURI;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private long maxResponseAge = DEFAULT_MAX_RESPONSE_AGE;
+
+    public OCSPClient() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_CACHE_TIME);
+    }
+
+    /**
+     * @param maxEntries the maximum number of responses to cache
+     * @param cacheTime the time in seconds for which a response without a nextUpdate time is cached
+     */
+    public OCSPClient(int maxEntries, long cacheTime) {
+        this(maxEntries, cacheTime, Clock.systemUTC());
+    }
+
+    OCSPClient(int maxEntries, long cacheTime, Clock clock) {
+        if (maxEntries <= 0 || cacheTime < 0) {
+            throw new IllegalArgumentException(
+                "The max entries must be greater than zero, and the cache time must not be negative"
+            );
+        }
+        this.cache = new ExpiringCache<>(maxEntries, clock);
+        this.cacheTime = cacheTime;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the revocation status of a certificate, using a cached response if one is available
+     *
+     * @param cert the certificate
+     * @param issuerCert the certificate of the issuer of the certificate
+     * @return the revocation status of the certificate
+     * @throws IOException if the status cannot be obtained from the responder, because of a network
+     * error or because the responder returned the "tryLater" or "internalError" status
+     * @throws CertPathValidatorException if the response is not valid
+     */
+    public Status getStatus(X509Certificate cert, X509Certificate issuerCert)
+        throws IOException, CertPathValidatorException {
+        Key key = new Key(issuerCert, cert.getSerialNumber());
+        Status cachedStatus = cache.get(key);
+        if (cachedStatus != null) {
+            return cachedStatus;
+        }
+
+        CompletableFuture<Status> lookup = new CompletableFuture<>();
+        CompletableFuture<Status> pendingLookup = pendingLookups.putIfAbsent(key, lookup);
+        if (pendingLookup != null) {
+            coalesced.incrementAndGet();
+            return await(pendingLookup);
+        }
+        try {
+            CachedStatus status = lookup(cert, issuerCert, clock.instant());
+            cache.put(key, status.status, status.expiry);
+            lookup.complete(status.status);
+            return status.status;
+        } catch (IOException | CertPathValidatorException | RuntimeException ex) {
+            lookup.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            pendingLookups.remove(key, lookup);
+        }
+    }
+
+    /**
+     * Remove all cached responses
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups that were answered from the cache
+     */
+    public long getHitCount() {
+        return cache.getStatistics().getHitCount();
+    }
+
+    /**
+     * @return the number of lookups that were not answered from the cache
+     */
+    public long getMissCount() {
+        return cache.getStatistics().getMissCount();
+    }
+
+    /**
+     * @return the number of cached responses that were removed as they had expired, or to keep
+     * the cache within its maximum number of entries
+     */
+    public long getEvictionCount() {
+        return cache.getStatistics().getEvictionCount();
+    }
+
+    /**
+     * @return the number of lookups that were not answered from the cache, and which waited for
+     * the response of a concurrent lookup of the same certificate
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public URI getResponderURI() {
+        return responderURI;
+    }
+
+    /**
+     * Set the URI of the responder to use for all certificates, instead of the responder in the
+     * Authority Information Access extension of the certificate
+     */
+    public void setResponderURI(URI responderURI) {
+        this.responderURI = responderURI;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the timeout in milliseconds to connect to the responder
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set the timeout in milliseconds to read the response of the responder
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getMaxResponseAge() {
+        return maxResponseAge;
+    }
+
+    /**
+     * Set the maximum age in seconds of the thisUpdate time of a response without a nextUpdate
+     * time. The default is 0, which means that the thisUpdate time must be within the clock skew
+     * of the current time.
+     */
+    public void setMaxResponseAge(long maxResponseAge) {
+        if (maxResponseAge < 0) {
+            throw new IllegalArgumentException("The max response age must not be negative");
+        }
+        this.maxResponseAge = maxResponseAge;
+    }
+
+    private CachedStatus lookup(X509Certificate cert, X509Certificate issuerCert, Instant now)
+        throws IOException, CertPathValidatorException {
+        URI uri = responderURI != null ? responderURI : getResponderURI(cert);
+        if (uri == null) {
+            throw new CertPathValidatorException(
+                "No OCSP responder is known for " + cert.getSubjectX500Principal().getName(),
+                null, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+
+        try {
+            CertificateID certId = new CertificateID(
+                new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder(issuerCert), cert.getSerialNumber()
+            );
+            byte[] request = new OCSPReqBuilder().addRequest(certId).build().getEncoded();
+            LOG.debug("Sending an OCSP request for {} to {}", cert.getSerialNumber(), uri);
+            byte[] responseBytes = post(uri, request);
+
+            OCSPResp response = parse(responseBytes);
+            if (response.getStatus() == OCSPResp.TRY_LATER
+                || response.getStatus() == OCSPResp.INTERNAL_ERROR) {
+                throw new IOException("The OCSP responder returned the status " + response.getStatus());
+            } else if (response.getStatus() != OCSPResp.SUCCESSFUL) {
+                throw invalidResponse("The OCSP responder returned the status " + response.getStatus(), null);
+            }
+            if (!(response.getResponseObject() instanceof BasicOCSPResp)) {
+                throw invalidResponse("The OCSP response is not a basic OCSP response", null);
+            }
+            BasicOCSPResp basicResponse = (BasicOCSPResp)response.getResponseObject();
+            verifySignature(basicResponse, issuerCert, now);
+
+            for (SingleResp singleResponse : basicResponse.getResponses()) {
+                if (certId.equals(singleResponse.getCertID())) {
+                    return getStatus(singleResponse, now);
+                }
+            }
+            throw invalidResponse("The OCSP response does not contain the status of the certificate", null);
+        } catch (OCSPException | OperatorCreationException | GeneralSecurityException ex) {
+            throw invalidResponse(ex.getMessage(), ex);
+        }
+    }
+
+    private CachedStatus getStatus(SingleResp singleResponse, Instant now) throws CertPathValidatorException {
+        Date thisUpdate = singleResponse.getThisUpdate();
+        Date nextUpdate = singleResponse.getNextUpdate();
+        if (thisUpdate.toInstant().isAfter(now.plusMillis(CLOCK_SKEW))) {
+            throw invalidResponse("The OCSP response is not yet valid", null);
+        }
+        if (nextUpdate != null && nextUpdate.toInstant().plusMillis(CLOCK_SKEW).isBefore(now)) {
+            throw invalidResponse("The OCSP response has expired", null);
+        }
+        Instant expiry;
+        if (nextUpdate != null) {
+            expiry = nextUpdate.toInstant();
+        } else {
+            // A (pre-produced) response without a nextUpdate time is only valid for a limited time
+            Instant maxAge = thisUpdate.toInstant().plusMillis(Math.max(CLOCK_SKEW, maxResponseAge * 1000L));
+            if (maxAge.isBefore(now)) {
+                throw invalidResponse("The OCSP response is too old", null);
+            }
+            expiry = now.plusSeconds(cacheTime);
+            if (maxAge.isBefore(expiry)) {
+                expiry = maxAge;
+            }
+        }
+
+        CertificateStatus certStatus = singleResponse.getCertStatus();
+        if (certStatus == CertificateStatus.GOOD) {
+            return new CachedStatus(Status.GOOD, expiry);
+        } else if (certStatus instanceof RevokedStatus) {
+            return new CachedStatus(Status.REVOKED, expiry);
+        }
+        return new CachedStatus(Status.UNKNOWN, expiry);
+    }
+
+    private static void verifySignature(BasicOCSPResp response, X509Certificate issuerCert, Instant now)
+        throws OperatorCreationException, CertPathValidatorException {
+        JcaContentVerifierProviderBuilder verifierBuilder = new JcaContentVerifierProviderBuilder();
+        if (isSignatureValid(response, verifierBuilder, issuerCert)) {
+            return;
+        }
+
+        // Otherwise the response must be signed by a responder which is authorized by the issuer
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+        for (X509CertificateHolder holder : response.getCerts()) {
+            try {
+                X509Certificate responderCert = converter.getCertificate(holder);
+                List<String> extendedKeyUsage = responderCert.getExtendedKeyUsage();
+                if (responderCert.getIssuerX500Principal().equals(issuerCert.getSubjectX500Principal())
+                    && extendedKeyUsage != null && extendedKeyUsage.contains(OCSP_SIGNING)) {
+                    responderCert.verify(issuerCert.getPublicKey());
+                    responderCert.checkValidity(Date.from(now));
+                    if (isSignatureValid(response, verifierBuilder, responderCert)) {
+                        return;
+                    }
+                }
+            } catch (GeneralSecurityException ex) {
+                LOG.debug("The OCSP responder certificate is not valid: {}", ex.getMessage());
+            }
+        }
+        throw invalidResponse("The OCSP response is not signed by the issuer or an authorized responder", null);
+    }
+
+    private static boolean isSignatureValid(
+        BasicOCSPResp response, JcaContentVerifierProviderBuilder verifierBuilder, X509Certificate cert
+    ) {
+        try {
+            return response.isSignatureValid(verifierBuilder.build(cert.getPublicKey()));
+        } catch (OCSPException | OperatorCreationException ex) {
+            LOG.debug("The OCSP response is not signed by {}: {}",
+                      cert.getSubjectX500Principal().getName(), ex.getMessage());
+            return false;
+        }
+    }
+
+    private byte[] post(URI uri, byte[] request) throws IOException, CertPathValidatorException {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            throw invalidResponse("The OCSP responder " + uri + " is not supported", null);
+        }
+        HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(request.length);
+        connection.setRequestProperty("Content-Type", "application/ocsp-request");
+        connection.setRequestProperty("Accept", "application/ocsp-response");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(request);
+        }
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("The OCSP responder " + uri + " returned the HTTP status " + responseCode);
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                if (outputStream.size() > MAX_RESPONSE_SIZE) {
+                    throw new IOException("The response of the OCSP responder " + uri + " is too large");
+                }
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static OCSPResp parse(byte[] responseBytes) throws CertPathValidatorException {
+        try {
+            return new OCSPResp(responseBytes);
+        } catch (IOException | RuntimeException ex) {
+            throw invalidResponse("The OCSP response cannot be parsed: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static URI getResponderURI(X509Certificate cert) {
+        byte[] extensionValue = cert.getExtensionValue(Extension.authorityInfoAccess.getId());
+        if (extensionValue == null) {
+            return null;
+        }
+        try {
+            AuthorityInformationAccess authorityInformationAccess =
+                AuthorityInformationAccess.getInstance(ASN1OctetString.getInstance(extensionValue).getOctets());
+            for (AccessDescription accessDescription : authorityInformationAccess.getAccessDescriptions()) {
+                GeneralName accessLocation = accessDescription.getAccessLocation();
+                if (AccessDescription.id_ad_ocsp.equals(accessDescription.getAccessMethod())
+                    && accessLocation.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                    return URI.create(ASN1IA5String.getInstance(accessLocation.getName()).getString());
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            LOG.debug("The Authority Information Access extension cannot be parsed: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private static Status await(CompletableFuture<Status> lookup)
+        throws IOException, CertPathValidatorException {
+        try {
+            return lookup.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            } else if (cause instanceof CertPathValidatorException) {
+                throw new CertPathValidatorException(
+                    cause.getMessage(), cause, null, -1, ((CertPathValidatorException)cause).getReason()
+                );
+            }
+            throw invalidResponse(cause.getMessage(), cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the OCSP response");
+        }
+    }
+
+    private static CertPathValidatorException invalidResponse(String message, Throwable cause) {
+        return new CertPathValidatorException(
+            message, cause, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+        );
+    }
+
+    private static final class CachedStatus {
+        private final Status status;
+        private final Instant expiry;
+
+        CachedStatus(Status status, Instant expiry) {
+            this.status = status;
+            this.expiry = expiry;
+        }
+    }
+
+    private static final class Key {
+        private final X509Certificate issuerCert;
+        private final BigInteger serialNumber;
+
+        Key(X509Certificate issuerCert, BigInteger serialNumber) {
+            this.issuerCert = issuerCert;
+            this.serialNumber = serialNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuerCert, serialNumber);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return serialNumber.equals(other.serialNumber) && issuerCert.equals(other.issuerCert);
+        }
+    }
+}
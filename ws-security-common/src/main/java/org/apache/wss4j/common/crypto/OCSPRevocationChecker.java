@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A PKIXCertPathChecker which checks the revocation status of each certificate of a certificate
+ * path with an {@link OCSPClient}. The issuer of the first certificate of the path must be a
+ * trust anchor with a certificate.
+ *
+ * With the soft-fail policy, a certificate is accepted if its revocation status cannot be obtained
+ * because of a network error, or because the responder returned the "tryLater" or "internalError"
+ * status (as with the soft-fail option of the PKIXRevocationChecker of the JDK). A certificate is
+ * always rejected if it is revoked, if its status is unknown, or if the response is not valid.
+ */
+public class OCSPRevocationChecker extends PKIXCertPathChecker {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(OCSPRevocationChecker.class);
+
+    private final OCSPClient ocspClient;
+    private final Set<TrustAnchor> trustAnchors;
+    private final Set<X509Certificate> trustedCerts = new HashSet<>();
+    private final boolean softFail;
+    private X509Certificate previousCert;
+
+    /**
+     * @param ocspClient the client to obtain the revocation status of certificates with
+     * @param trustAnchors the trust anchors, which are the issuers of the first certificate of a path
+     * @param softFail whether to accept a certificate if its revocation status cannot be obtained
+     */
+    public OCSPRevocationChecker(OCSPClient ocspClient, Set<TrustAnchor> trustAnchors, boolean softFail) {
+        this.ocspClient = ocspClient;
+        this.trustAnchors = trustAnchors;
+        this.softFail = softFail;
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            if (trustAnchor.getTrustedCert() != null) {
+                trustedCerts.add(trustAnchor.getTrustedCert());
+            }
+        }
+    }
+
+    @Override
+    public void init(boolean forward) throws CertPathValidatorException {
+        if (forward) {
+            throw new CertPathValidatorException("Forward checking is not supported");
+        }
+        previousCert = null;
+    }
+
+    @Override
+    public boolean isForwardCheckingSupported() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getSupportedExtensions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void check(Certificate cert, Collection<String> unresolvedCritExts)
+        throws CertPathValidatorException {
+        X509Certificate x509Cert = (X509Certificate)cert;
+        X500Principal issuer = x509Cert.getIssuerX500Principal();
+        if (trustedCerts.contains(x509Cert)) {
+            // The path may end with the certificate of the trust anchor, which is not checked
+            previousCert = x509Cert;
+            return;
+        }
+
+        X509Certificate issuerCert = previousCert;
+        if (issuerCert == null || !issuer.equals(issuerCert.getSubjectX500Principal())) {
+            issuerCert = getTrustAnchorCert(x509Cert);
+        }
+        previousCert = x509Cert;
+        if (issuerCert == null) {
+            throw new CertPathValidatorException(
+                "Could not determine revocation status: no issuer certificate of " + issuer.getName(),
+                null, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+
+        OCSPClient.Status status;
+        try {
+            status = ocspClient.getStatus(x509Cert, issuerCert);
+        } catch (IOException ex) {
+            if (softFail) {
+                LOG.debug("Could not obtain the revocation status of {}, accepting it as soft-fail is enabled: {}",
+                          x509Cert.getSubjectX500Principal().getName(), ex.getMessage());
+                return;
+            }
+            throw new CertPathValidatorException(
+                "Could not determine revocation status: " + ex.getMessage(),
+                ex, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+
+        if (status == OCSPClient.Status.REVOKED) {
+            throw new CertPathValidatorException(
+                "Certificate has been revoked: " + x509Cert.getSerialNumber() + " of " + issuer.getName(),
+                null, null, -1, BasicReason.REVOKED
+            );
+        } else if (status != OCSPClient.Status.GOOD) {
+            throw new CertPathValidatorException(
+                "Could not determine revocation status: the status of " + x509Cert.getSerialNumber()
+                    + " of " + issuer.getName() + " is unknown",
+                null, null, -1, BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+    }
+
+    private X509Certificate getTrustAnchorCert(X509Certificate cert) {
+        List<X509Certificate> issuerCerts = new ArrayList<>(1);
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            X509Certificate trustedCert = trustAnchor.getTrustedCert();
+            if (trustedCert != null
+                && cert.getIssuerX500Principal().equals(trustedCert.getSubjectX500Principal())) {
+                issuerCerts.add(trustedCert);
+            }
+        }
+        if (issuerCerts.size() == 1) {
+            return issuerCerts.get(0);
+        }
+        // Several trust anchors have the same subject, so find the one that signed the certificate
+        for (X509Certificate issuerCert : issuerCerts) {
+            try {
+                cert.verify(issuerCert.getPublicKey());
+                return issuerCert;
+            } catch (GeneralSecurityException ex) {
+                LOG.debug("The certificate is not signed by the trust anchor: {}", ex.getMessage());
+            }
+        }
+        return null;
+    }
+}
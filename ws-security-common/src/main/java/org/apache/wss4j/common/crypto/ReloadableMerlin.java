@@ -0,0 +1,565 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Merlin Crypto implementation which reloads its keystore, truststore and CRL files when they
+ * change, without the Crypto instance having to be replaced.
+ *
+ * The files configured via "keystore.file", "truststore.file" and "x509crl.file" are polled for
+ * changes to their size or modification time every "reload.interval" seconds (60 by default, or
+ * never if the interval is 0). When a change is detected, a new Merlin instance (the keystore,
+ * truststore, lookup indices, trust anchors and CRL CertStore) is loaded from the properties on a
+ * background thread, and then atomically replaces the current one. Each method call is delegated
+ * to the Merlin instance that is current when it is called, so it sees either the old or the new
+ * material, but never a mixture of both, and no locking is required. If the new material cannot be
+ * loaded, e.g. because a file is only partially written, the current Merlin instance is kept and
+ * loading is retried at the next poll.
+ *
+ * Files which are not on the file system (e.g. which are loaded from a jar) are not polled. The
+ * configuration that is changed through the setters (e.g. the providers, the CRL index or the
+ * OCSPClient) is applied to every Merlin instance that is loaded, whereas a keystore, truststore or
+ * CRL CertStore that is set directly is replaced by the files at the next reload. The OCSPClient
+ * that is created from the properties, and so its cache of responses, is kept across reloads.
+ * Note that trust decisions cached by a {@link CertPathTrustCache} are kept for their time to live
+ * after a reload.
+ *
+ * The files are polled on the Executor that is set with {@link #setReloadExecutor}, or otherwise on
+ * a daemon thread that is shared by all instances, and which is stopped once no instance polls its
+ * files any more. {@link #stopReloading()} should be called when the Crypto instance is no longer
+ * used, e.g. when an application is undeployed.
+ */
+public class ReloadableMerlin extends Merlin {
+
+    public static final String RELOAD_INTERVAL = "reload.interval";
+    public static final long DEFAULT_RELOAD_INTERVAL = 60L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReloadableMerlin.class);
+
+    private static ScheduledExecutorService defaultReloadExecutor;
+    private static int defaultReloadTasks;
+
+    private volatile Merlin current;
+    private ClassLoader loader;
+    private Map<Path, String> fileStates = Collections.emptyMap();
+    private final Map<String, Consumer<Merlin>> settings = new LinkedHashMap<>();
+    private ScheduledExecutorService reloadExecutor;
+    private ScheduledFuture<?> reloadTask;
+    private boolean defaultReloadTask;
+
+    public ReloadableMerlin() {
+        current = new Merlin();
+    }
+
+    public ReloadableMerlin(Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor)
+        throws WSSecurityException, IOException {
+        this();
+        loadProperties(properties, loader, passwordEncryptor);
+    }
+
+    /**
+     * Load the keystore, truststore and CRL files from the properties, and start polling the files
+     * for changes
+     */
+    @Override
+    public synchronized void loadProperties(
+        Properties properties,
+        ClassLoader loader,
+        PasswordEncryptor passwordEncryptor
+    ) throws WSSecurityException, IOException {
+        if (properties == null) {
+            return;
+        }
+        stopReloading();
+        this.properties = properties;
+        this.loader = loader;
+        this.passwordEncryptor = passwordEncryptor;
+
+        Map<Path, String> states = getFileStates();
+        Merlin previous = current;
+        current = newMerlin();
+        previous.clearDecryptedPasswords();
+        fileStates = states;
+
+        long interval = getReloadInterval(properties);
+        if (interval > 0 && !states.isEmpty()) {
+            WeakReference<ReloadableMerlin> reference = new WeakReference<>(this);
+            if (reloadExecutor != null) {
+                reloadTask = reloadExecutor.scheduleWithFixedDelay(
+                    () -> checkForUpdates(reference, false), interval, interval, TimeUnit.SECONDS
+                );
+            } else {
+                reloadTask = acquireDefaultReloadExecutor().scheduleWithFixedDelay(
+                    () -> checkForUpdates(reference, true), interval, interval, TimeUnit.SECONDS
+                );
+                defaultReloadTask = true;
+            }
+            LOG.debug("Polling {} for changes every {} seconds", states.keySet(), interval);
+        }
+    }
+
+    /**
+     * Reload the keystore, truststore and CRL files if any of them has changed since they were last
+     * loaded
+     * @return whether the files were reloaded
+     * @throws WSSecurityException if a file has changed, but could not be loaded
+     */
+    public synchronized boolean reloadIfModified() throws WSSecurityException {
+        if (properties == null) {
+            return false;
+        }
+        Map<Path, String> states = getFileStates();
+        if (states.equals(fileStates)) {
+            return false;
+        }
+        reload(states);
+        return true;
+    }
+
+    /**
+     * Reload the keystore, truststore and CRL files
+     * @throws WSSecurityException if a file could not be loaded
+     */
+    public synchronized void reload() throws WSSecurityException {
+        if (properties != null) {
+            reload(getFileStates());
+        }
+    }
+
+    /**
+     * Stop polling the files for changes
+     */
+    public synchronized void stopReloading() {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadTask = null;
+            if (defaultReloadTask) {
+                defaultReloadTask = false;
+                releaseDefaultReloadExecutor();
+            }
+        }
+    }
+
+    /**
+     * Set the Executor on which the files are polled for changes. The Executor is not shut down by
+     * this class. This only applies to polling that is started after it has been set.
+     * @param reloadExecutor the Executor, or null to use a thread that is shared by all instances
+     */
+    public synchronized void setReloadExecutor(ScheduledExecutorService reloadExecutor) {
+        this.reloadExecutor = reloadExecutor;
+    }
+
+    /**
+     * Get the Merlin instance that method calls are currently delegated to, which can be used to get
+     * a consistent view of the material across several method calls
+     * @return the current Merlin instance
+     */
+    public Merlin getCurrentCrypto() {
+        return current;
+    }
+
+    private void reload(Map<Path, String> states) throws WSSecurityException {
+        Merlin previous = current;
+        Merlin merlin;
+        try {
+            merlin = newMerlin();
+        } catch (IOException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+        }
+        // The properties are unchanged, so keep the OCSPClient (and its cache) created from them
+        if (!settings.containsKey("ocspClient") && merlin.getOCSPClient() != null
+            && previous.getOCSPClient() != null) {
+            merlin.setOCSPClient(previous.getOCSPClient());
+        }
+        current = merlin;
+        // Don't keep the decrypted passwords of the replaced instance in memory
+        previous.clearDecryptedPasswords();
+        // Only remember the states once the files were loaded, so that loading is retried otherwise
+        fileStates = states;
+        LOG.debug("The keystore, truststore and CRL files have been reloaded");
+    }
+
+    /**
+     * Load a new Merlin instance from the properties, with the configuration set through the setters
+     */
+    private Merlin newMerlin() throws WSSecurityException, IOException {
+        Merlin merlin = new Merlin(properties, loader, passwordEncryptor);
+        for (Consumer<Merlin> setting : settings.values()) {
+            setting.accept(merlin);
+        }
+        return merlin;
+    }
+
+    /**
+     * Apply a setting to the current Merlin instance, and remember it for the instances that are
+     * loaded later on
+     */
+    private synchronized void applySetting(String name, Consumer<Merlin> setting) {
+        settings.put(name, setting);
+        setting.accept(current);
+    }
+
+    private static synchronized ScheduledExecutorService acquireDefaultReloadExecutor() {
+        if (defaultReloadExecutor == null) {
+            defaultReloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wss4j-crypto-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        defaultReloadTasks++;
+        return defaultReloadExecutor;
+    }
+
+    private static synchronized void releaseDefaultReloadExecutor() {
+        defaultReloadTasks--;
+        if (defaultReloadTasks == 0) {
+            // Don't keep a thread (and the class loader of this class) alive when nothing is polled
+            defaultReloadExecutor.shutdown();
+            defaultReloadExecutor = null;
+        }
+    }
+
+    private static void checkForUpdates(WeakReference<ReloadableMerlin> reference, boolean defaultReloadTask) {
+        ReloadableMerlin crypto = reference.get();
+        if (crypto == null) {
+            // The Crypto instance is no longer used, so stop polling
+            if (defaultReloadTask) {
+                releaseDefaultReloadExecutor();
+            }
+            throw new IllegalStateException("The Crypto instance has been garbage collected");
+        }
+        try {
+            crypto.reloadIfModified();
+        } catch (WSSecurityException | RuntimeException e) {
+            LOG.warn("The keystore, truststore or CRL files could not be reloaded: {}", e.getMessage());
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    private static long getReloadInterval(Properties properties) {
+        String interval = properties.getProperty(PREFIX + RELOAD_INTERVAL);
+        if (interval == null) {
+            interval = properties.getProperty(OLD_PREFIX + RELOAD_INTERVAL);
+        }
+        if (interval == null) {
+            return DEFAULT_RELOAD_INTERVAL;
+        }
+        try {
+            return Long.parseLong(interval.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid reload interval {}, using {} seconds", interval, DEFAULT_RELOAD_INTERVAL);
+            return DEFAULT_RELOAD_INTERVAL;
+        }
+    }
+
+    /**
+     * Get the size and modification time of each file that is loaded from the properties
+     */
+    private Map<Path, String> getFileStates() {
+        List<String> locations = new ArrayList<>();
+        for (String prefix : new String[] {PREFIX, OLD_PREFIX}) {
+            addLocation(locations, properties.getProperty(prefix + KEYSTORE_FILE));
+            addLocation(locations, properties.getProperty(prefix + OLD_KEYSTORE_FILE));
+            addLocation(locations, properties.getProperty(prefix + TRUSTSTORE_FILE));
+            String crlLocations = properties.getProperty(prefix + X509_CRL_FILE);
+            if (crlLocations != null) {
+                for (String crlLocation : crlLocations.split(",")) {
+                    addLocation(locations, crlLocation);
+                }
+            }
+        }
+
+        Map<Path, String> states = new LinkedHashMap<>();
+        for (String location : locations) {
+            Path path = getPath(location);
+            if (path != null) {
+                String state = null;
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    state = attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+                } catch (IOException e) {
+                    LOG.debug(e.getMessage(), e);
+                }
+                states.put(path, Objects.toString(state));
+            }
+        }
+        return states;
+    }
+
+    private static void addLocation(List<String> locations, String location) {
+        if (location != null && location.trim().length() > 0) {
+            locations.add(location.trim());
+        }
+    }
+
+    /**
+     * Find the file of a location in the same way as Loader.loadInputStream
+     */
+    private Path getPath(String location) {
+        try {
+            URL url = null;
+            try {
+                url = new URL(location);
+            } catch (MalformedURLException ex) { //NOPMD
+                // skip
+            }
+            if (url == null) {
+                url = Loader.getResource(loader, location);
+            }
+            if (url != null) {
+                return "file".equals(url.getProtocol()) ? Paths.get(url.toURI()) : null;
+            }
+            return Paths.get(location);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            LOG.debug("Cannot poll {} for changes: {}", location, e.getMessage());
+            return null;
+        }
+    }
+
+    //
+    // The methods below are delegated to the current Merlin instance
+    //
+
+    @Override
+    public KeyStore getKeyStore() {
+        return current.getKeyStore();
+    }
+
+    @Override
+    public void setKeyStore(KeyStore keyStore) {
+        current.setKeyStore(keyStore);
+    }
+
+    @Override
+    public KeyStore getTrustStore() {
+        return current.getTrustStore();
+    }
+
+    @Override
+    public void setTrustStore(KeyStore trustStore) {
+        current.setTrustStore(trustStore);
+    }
+
+    @Override
+    public void setCRLCertStore(CertStore crlCertStore) {
+        current.setCRLCertStore(crlCertStore);
+    }
+
+    @Override
+    public CertStore getCRLCertStore() {
+        return current.getCRLCertStore();
+    }
+
+    @Override
+    public String getCryptoProvider() {
+        return current.getCryptoProvider();
+    }
+
+    @Override
+    public void setCryptoProvider(String provider) {
+        applySetting("cryptoProvider", merlin -> merlin.setCryptoProvider(provider));
+    }
+
+    @Override
+    public String getTrustProvider() {
+        return current.getTrustProvider();
+    }
+
+    @Override
+    public void setTrustProvider(String provider) {
+        applySetting("trustProvider", merlin -> merlin.setTrustProvider(provider));
+    }
+
+    @Override
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return current.getDefaultX509Identifier();
+    }
+
+    @Override
+    public void setDefaultX509Identifier(String identifier) {
+        applySetting("defaultX509Identifier", merlin -> merlin.setDefaultX509Identifier(identifier));
+    }
+
+    @Override
+    public void setCertificateFactory(CertificateFactory certFactory) {
+        applySetting("certificateFactory", merlin -> merlin.setCertificateFactory(certFactory));
+    }
+
+    @Override
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return current.getCertificateFactory();
+    }
+
+    @Override
+    public X509Certificate loadCertificate(InputStream in) throws WSSecurityException {
+        return current.loadCertificate(in);
+    }
+
+    @Override
+    public byte[] getSKIBytesFromCert(X509Certificate cert) throws WSSecurityException {
+        return current.getSKIBytesFromCert(cert);
+    }
+
+    @Override
+    public byte[] getBytesFromCertificates(X509Certificate[] certs) throws WSSecurityException {
+        return current.getBytesFromCertificates(certs);
+    }
+
+    @Override
+    public X509Certificate[] getCertificatesFromBytes(byte[] data) throws WSSecurityException {
+        return current.getCertificatesFromBytes(data);
+    }
+
+    @Override
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return current.getX509Certificates(cryptoType);
+    }
+
+    @Override
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return current.getX509Identifier(cert);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(
+        X509Certificate certificate, CallbackHandler callbackHandler
+    ) throws WSSecurityException {
+        return current.getPrivateKey(certificate, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(
+        PublicKey publicKey, CallbackHandler callbackHandler
+    ) throws WSSecurityException {
+        return current.getPrivateKey(publicKey, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String identifier, String password) throws WSSecurityException {
+        return current.getPrivateKey(identifier, password);
+    }
+
+    @Override
+    public void verifyTrust(
+        X509Certificate[] certs, boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints, Collection<Pattern> issuerCertConstraints
+    ) throws WSSecurityException {
+        current.verifyTrust(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        current.verifyTrust(publicKey);
+    }
+
+    @Override
+    public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
+        this.passwordEncryptor = passwordEncryptor;
+        current.setPasswordEncryptor(passwordEncryptor);
+    }
+
+    @Override
+    public void clearCache() {
+        current.clearCache();
+    }
+
+    @Override
+    public boolean isEnablePrivateKeyCaching() {
+        return current.isEnablePrivateKeyCaching();
+    }
+
+    @Override
+    public void setEnablePrivateKeyCaching(boolean enablePrivateKeyCaching) {
+        applySetting("enablePrivateKeyCaching", merlin -> merlin.setEnablePrivateKeyCaching(enablePrivateKeyCaching));
+    }
+
+    @Override
+    public boolean isEnableCRLIndex() {
+        return current.isEnableCRLIndex();
+    }
+
+    @Override
+    public void setEnableCRLIndex(boolean enableCRLIndex) {
+        applySetting("enableCRLIndex", merlin -> merlin.setEnableCRLIndex(enableCRLIndex));
+    }
+
+    @Override
+    public void setCRLIndexDirectory(Path crlIndexDirectory) {
+        applySetting("crlIndexDirectory", merlin -> merlin.setCRLIndexDirectory(crlIndexDirectory));
+    }
+
+    @Override
+    public OCSPClient getOCSPClient() {
+        return current.getOCSPClient();
+    }
+
+    @Override
+    public void setOCSPClient(OCSPClient ocspClient) {
+        applySetting("ocspClient", merlin -> merlin.setOCSPClient(ocspClient));
+    }
+
+    @Override
+    public boolean isOCSPSoftFail() {
+        return current.isOCSPSoftFail();
+    }
+
+    @Override
+    public void setOCSPSoftFail(boolean ocspSoftFail) {
+        applySetting("ocspSoftFail", merlin -> merlin.setOCSPSoftFail(ocspSoftFail));
+    }
+}
@@ -26,6 +26,7 @@ import java.security.PrivilegedExceptionAction;
 import java.security.Provider;
 import java.security.Security;
 
+import org.apache.wss4j.common.util.JCEInstanceFactory;
 import org.apache.wss4j.common.util.Loader;
 import org.apache.xml.security.utils.I18n;
 import org.apache.xml.security.utils.XMLUtils;
@@ -134,6 +135,7 @@ public final class WSProviderConfig {
                 Security.removeProvider("TLSP");
                 tlProviderAdded = false;
             }
+            JCEInstanceFactory.clear();
 
             staticallyInitialized = false;
         }
@@ -245,6 +247,7 @@ public final class WSProviderConfig {
         if (currentProvider == null) {
             try {
                 int ret = Security.addProvider(provider);
+                JCEInstanceFactory.clear();
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(
                         "The provider " + provider.getName() + " - "
@@ -285,6 +288,7 @@ public final class WSProviderConfig {
                 Provider provider = clazz.getDeclaredConstructor().newInstance();
 
                 int ret = Security.addProvider(provider);
+                JCEInstanceFactory.clear();
                 LOG.debug(
                     "The provider {} was added at position: {}",
                      provider.getName(), ret
@@ -318,6 +322,7 @@ public final class WSProviderConfig {
         if (currentProvider == null) {
             try {
                 int ret = Security.addProvider(provider);
+                JCEInstanceFactory.clear();
                 LOG.debug(
                     "The provider {} was added at position: {}",
                      provider.getName(), ret
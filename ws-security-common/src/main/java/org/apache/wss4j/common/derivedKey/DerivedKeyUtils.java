@@ -57,4 +57,20 @@ public final class DerivedKeyUtils {
         }
         return algo.createKey(secret, seed, offset, keyLength);
     }
+
+    /**
+     * Derive a key, using the keys cached for the WS-SecureConversation session of the secret (if any)
+     *
+     * @param secureConversationCache the cache of WS-SecureConversation sessions (may be null)
+     * @see SecureConversationCache#deriveKey(String, String, int, byte[], byte[], int)
+     */
+    public static byte[] deriveKey(
+        String algorithm, String label, int length, byte[] secret, byte[] nonce, int offset,
+        SecureConversationCache secureConversationCache
+    ) throws WSSecurityException {
+        if (secureConversationCache != null) {
+            return secureConversationCache.deriveKey(algorithm, label, length, secret, nonce, offset);
+        }
+        return deriveKey(algorithm, label, length, secret, nonce, offset);
+    }
 }
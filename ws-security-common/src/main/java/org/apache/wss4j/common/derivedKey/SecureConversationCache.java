@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.derivedKey;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.wss4j.common.cache.ExpiringCache;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceFactory;
+
+/**
+ * A bounded cache of WS-SecureConversation sessions. It holds the secret of a SecurityContextToken,
+ * so that it does not have to be retrieved from the CallbackHandler for every message of the
+ * session, and the keys derived from this secret by the DerivedKeyTokens of the session, so that
+ * a key is only derived once for the same algorithm, label, nonce, offset and length.
+ *
+ * A session is identified by the identifier with which its secret was obtained, i.e. the
+ * wsc:Identifier or the wsu:Id of the SecurityContextToken. It expires at the end of the lifetime
+ * of the SecurityContextToken, if known, and otherwise after a configurable time to live. WSS4J
+ * takes the lifetime from the wsu:Expires element of the SecurityContextToken, and removes the
+ * session when it receives a SecurityContextToken which has expired. An application which knows
+ * the lifetime from the wst:Lifetime of the RequestSecurityTokenResponse can add the secret with
+ * {@link #putSecret(String, byte[], Instant)}, and should call {@link #cancel(String)} when the
+ * session is cancelled. Keys are only cached for DerivedKeyTokens which are based on the secret of
+ * a cached session. Secrets are looked up by their SHA-256 digest, and compared in constant time.
+ * When the cache is full, the sessions which expire first are evicted, and the derived keys of a
+ * session are evicted in the order in which they were derived.
+ */
+public class SecureConversationCache {
+
+    public static final long DEFAULT_TTL = 60L * 60L;
+    public static final int DEFAULT_MAX_SESSIONS = 1000;
+    public static final int DEFAULT_MAX_DERIVED_KEYS = 100;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SecureConversationCache.class);
+
+    private final ExpiringCache.Statistics statistics = new ExpiringCache.Statistics();
+    private final Map<SecretDigest, Session> sessionsBySecret = new ConcurrentHashMap<>();
+    private final ExpiringCache<String, Session> sessions;
+    private final long ttl;
+    private final int maxDerivedKeys;
+    private final Clock clock;
+
+    public SecureConversationCache() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_DERIVED_KEYS, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSessions the maximum number of sessions to cache
+     * @param maxDerivedKeys the maximum number of derived keys to cache per session
+     * @param ttl the time in seconds for which a session is cached, if its lifetime is not known
+     */
+    public SecureConversationCache(int maxSessions, int maxDerivedKeys, long ttl) {
+        this(maxSessions, maxDerivedKeys, ttl, Clock.systemUTC());
+    }
+
+    SecureConversationCache(int maxSessions, int maxDerivedKeys, long ttl, Clock clock) {
+        if (maxSessions <= 0 || maxDerivedKeys < 0 || ttl <= 0) {
+            throw new IllegalArgumentException(
+                "The max sessions and TTL must be greater than zero, and the max derived keys must not be negative");
+        }
+        this.sessions = new ExpiringCache<>(maxSessions, clock, statistics,
+            (identifier, session) -> sessionsBySecret.remove(session.secretDigest, session));
+        this.maxDerivedKeys = maxDerivedKeys;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the secret of the session with the given identifier
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @return the secret, or null if the session is not cached or has expired
+     */
+    public byte[] getSecret(String identifier) {
+        Session session = sessions.get(identifier);
+        return session != null ? session.secret.clone() : null;
+    }
+
+    /**
+     * Add the secret of a session, which expires after the default time to live
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @param secret the secret of the SecurityContextToken
+     */
+    public void putSecret(String identifier, byte[] secret) {
+        putSecret(identifier, secret, null);
+    }
+
+    /**
+     * Add the secret of a session. Any keys derived for a previous secret with the same identifier
+     * are removed.
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @param secret the secret of the SecurityContextToken
+     * @param expires the end of the lifetime of the SecurityContextToken (if known)
+     */
+    public void putSecret(String identifier, byte[] secret, Instant expires) {
+        if (identifier == null || secret == null || secret.length == 0) {
+            return;
+        }
+        Instant now = clock.instant();
+        Instant expiry = expires == null ? now.plusSeconds(ttl) : expires;
+        if (!expiry.isAfter(now)) {
+            return;
+        }
+        ExpiringCache<DerivedKey, byte[]> derivedKeys =
+            maxDerivedKeys > 0 ? new ExpiringCache<>(maxDerivedKeys, clock, statistics, null) : null;
+        Session session = new Session(secret.clone(), new SecretDigest(secret), expiry, derivedKeys);
+        // A previous session with the same identifier is removed from sessionsBySecret by the listener
+        sessions.put(identifier, session, expiry);
+        sessionsBySecret.put(session.secretDigest, session);
+    }
+
+    /**
+     * Derive a key, using a cached key if the secret is the secret of a cached session, and the
+     * same key was derived before.
+     *
+     * @see DerivedKeyUtils#deriveKey(String, String, int, byte[], byte[], int)
+     */
+    public byte[] deriveKey(String algorithm, String label, int length, byte[] secret, byte[] nonce, int offset)
+        throws WSSecurityException {
+        Session session = null;
+        if (secret != null && nonce != null && maxDerivedKeys > 0 && !sessionsBySecret.isEmpty()) {
+            session = sessionsBySecret.get(new SecretDigest(secret));
+        }
+        if (session == null || !MessageDigest.isEqual(session.secret, secret)
+            || !session.expiry.isAfter(clock.instant())) {
+            return DerivedKeyUtils.deriveKey(algorithm, label, length, secret, nonce, offset);
+        }
+
+        DerivedKey derivedKey = new DerivedKey(algorithm, label, length, nonce, offset);
+        byte[] key = session.derivedKeys.get(derivedKey);
+        if (key != null) {
+            LOG.debug("Using a cached derived key");
+            return key.clone();
+        }
+        key = DerivedKeyUtils.deriveKey(algorithm, label, length, secret, nonce, offset);
+        session.derivedKeys.put(derivedKey, key.clone(), session.expiry);
+        return key;
+    }
+
+    /**
+     * Remove a session and the keys derived from its secret, e.g. when the session is cancelled
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     */
+    public void cancel(String identifier) {
+        sessions.remove(identifier);
+    }
+
+    /**
+     * Remove all sessions
+     */
+    public void clear() {
+        sessions.clear();
+        sessionsBySecret.clear();
+    }
+
+    /**
+     * @return the number of cached sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of secrets and derived keys that were found in the cache
+     */
+    public long getHitCount() {
+        return statistics.getHitCount();
+    }
+
+    /**
+     * @return the number of secrets and derived keys (of a cached session) that were not found in the cache
+     */
+    public long getMissCount() {
+        return statistics.getMissCount();
+    }
+
+    /**
+     * @return the number of sessions and derived keys that were removed as they had expired, or to
+     * keep the cache within its maximum number of entries
+     */
+    public long getEvictionCount() {
+        return statistics.getEvictionCount();
+    }
+
+    private static final class Session {
+        private final byte[] secret;
+        private final SecretDigest secretDigest;
+        private final Instant expiry;
+        private final ExpiringCache<DerivedKey, byte[]> derivedKeys;
+
+        Session(byte[] secret, SecretDigest secretDigest, Instant expiry,
+                ExpiringCache<DerivedKey, byte[]> derivedKeys) {
+            this.secret = secret;
+            this.secretDigest = secretDigest;
+            this.expiry = expiry;
+            this.derivedKeys = derivedKeys;
+        }
+    }
+
+    /**
+     * The SHA-256 digest of a secret, so that the secret itself is not hashed or compared in
+     * variable time
+     */
+    private static final class SecretDigest {
+        private final byte[] digest;
+        private final int hashCode;
+
+        SecretDigest(byte[] secret) {
+            MessageDigest messageDigest = null;
+            try {
+                messageDigest = JCEInstanceFactory.getMessageDigest("SHA-256");
+                digest = messageDigest.digest(secret);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                JCEInstanceFactory.releaseMessageDigest(messageDigest);
+            }
+            hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof SecretDigest && MessageDigest.isEqual(digest, ((SecretDigest) object).digest);
+        }
+    }
+
+    private static final class DerivedKey {
+        private final String algorithm;
+        private final String label;
+        private final int length;
+        private final byte[] nonce;
+        private final int offset;
+        private final int hashCode;
+
+        DerivedKey(String algorithm, String label, int length, byte[] nonce, int offset) {
+            this.algorithm = algorithm;
+            this.label = label;
+            this.length = length;
+            this.nonce = nonce.clone();
+            this.offset = offset;
+            this.hashCode = Objects.hash(algorithm, label, length, Arrays.hashCode(nonce), offset);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof DerivedKey)) {
+                return false;
+            }
+            DerivedKey other = (DerivedKey) object;
+            return length == other.length
+                && offset == other.offset
+                && Objects.equals(algorithm, other.algorithm)
+                && Objects.equals(label, other.label)
+                && Arrays.equals(nonce, other.nonce);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.saml;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.wss4j.common.cache.ExpiringCache;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.util.JCEInstanceFactory;
+
+/**
+ * A bounded cache of signed SAML Assertions that were successfully validated. The same Assertion
+ * is typically sent with every request during its lifetime. Once its signature has been verified
+ * and the signing key has been trusted, the signature verification and the trust validation can be
+ * skipped for the following requests, as long as the signed content has not changed.
+ *
+ * Entries are keyed on the Crypto instance used to verify trust, the ID of the Assertion, a
+ * SHA-256 digest over the canonicalized SignedInfo and the SignatureValue of its signature, and the
+ * key which verified the signature. The digests of the references in the SignedInfo must still be
+ * verified by the caller for a cached Assertion, as must the conditions, the subject confirmation
+ * and the OneTimeUse condition of the Assertion. An entry never outlives the NotOnOrAfter time of
+ * the Assertion, nor the validity period of the signing certificate. Assertions that must not be
+ * cached (OneTimeUse or DoNotCache) should not be added. When the cache is full, the Assertions
+ * which expire first are evicted.
+ *
+ * The cache is shared by the DOM and StAX code, an instance must only be shared between
+ * configurations with the same trust requirements for the signature of an Assertion.
+ */
+public class SamlAssertionCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SamlAssertionCache.class);
+
+    private final ExpiringCache<Key, Boolean> cache;
+    private final long ttl;
+    private final Clock clock;
+
+    public SamlAssertionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of Assertions to cache
+     * @param ttl the maximum time in seconds for which a validated Assertion is cached
+     */
+    public SamlAssertionCache(int maxEntries, long ttl) {
+        this(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    SamlAssertionCache(int maxEntries, long ttl, Clock clock) {
+        if (maxEntries <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("The max entries and TTL must be greater than zero");
+        }
+        this.cache = new ExpiringCache<>(maxEntries, clock);
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    /**
+     * Compute the digest over the canonicalized SignedInfo and the SignatureValue of the signature
+     * of an Assertion, which is used to look up the Assertion in the cache.
+     *
+     * @param canonicalizedSignedInfo the SignedInfo element, canonicalized with its
+     * CanonicalizationMethod
+     * @param signatureValue the decoded SignatureValue
+     * @return the digest, or null if it cannot be computed
+     */
+    public static byte[] getSignatureDigest(byte[] canonicalizedSignedInfo, byte[] signatureValue) {
+        byte[] signatureDigest = null;
+        if (canonicalizedSignedInfo != null && signatureValue != null && signatureValue.length > 0) {
+            MessageDigest digest = null;
+            try {
+                digest = JCEInstanceFactory.getMessageDigest("SHA-256");
+                digest.update(canonicalizedSignedInfo);
+                digest.update(signatureValue);
+                signatureDigest = digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                LOG.debug("Cannot compute the digest of the SAML signature: {}", e.getMessage());
+            } finally {
+                JCEInstanceFactory.releaseMessageDigest(digest);
+            }
+        }
+        return signatureDigest;
+    }
+
+    /**
+     * Check whether the Assertion with the given signature was previously validated, using the
+     * given key to verify its signature.
+     *
+     * @param crypto the Crypto instance used to verify trust in the signing key
+     * @param id the ID of the Assertion
+     * @param signatureDigest the digest returned by {@link #getSignatureDigest(byte[], byte[])}
+     * @param publicKey the key from the KeyInfo of the signature
+     * @return whether a (non-expired) cached entry exists
+     */
+    public boolean contains(Crypto crypto, String id, byte[] signatureDigest, PublicKey publicKey) {
+        if (crypto == null || id == null || signatureDigest == null || publicKey == null) {
+            return false;
+        }
+        if (cache.get(new Key(crypto, id, signatureDigest, publicKey)) != null) {
+            LOG.debug("Using the cached validation of SAML Assertion {}", id);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add an Assertion that was successfully validated to the cache.
+     *
+     * @param crypto the Crypto instance used to verify trust in the signing key
+     * @param id the ID of the Assertion
+     * @param signatureDigest the digest returned by {@link #getSignatureDigest(byte[], byte[])}
+     * @param publicKey the key used to verify the signature
+     * @param certs the certificate chain of the signing key (if any)
+     * @param notOnOrAfter the NotOnOrAfter time of the Assertion (if any)
+     */
+    public void add(
+        Crypto crypto,
+        String id,
+        byte[] signatureDigest,
+        PublicKey publicKey,
+        X509Certificate[] certs,
+        Instant notOnOrAfter
+    ) {
+        if (crypto == null || id == null || signatureDigest == null || publicKey == null) {
+            return;
+        }
+        Instant expiry = clock.instant().plusSeconds(ttl);
+        if (notOnOrAfter != null && notOnOrAfter.isBefore(expiry)) {
+            expiry = notOnOrAfter;
+        }
+        if (certs != null) {
+            for (X509Certificate cert : certs) {
+                Instant notAfter = cert.getNotAfter().toInstant();
+                if (notAfter.isBefore(expiry)) {
+                    expiry = notAfter;
+                }
+            }
+        }
+        cache.put(new Key(crypto, id, signatureDigest, publicKey), Boolean.TRUE, expiry);
+    }
+
+    /**
+     * Remove all cached Assertions
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached Assertions
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of signed Assertions that were found in the cache
+     */
+    public long getHitCount() {
+        return cache.getStatistics().getHitCount();
+    }
+
+    /**
+     * @return the number of signed Assertions that were not found in the cache
+     */
+    public long getMissCount() {
+        return cache.getStatistics().getMissCount();
+    }
+
+    /**
+     * @return the number of cached Assertions that were removed as they had expired, or to keep
+     * the cache within its maximum number of entries
+     */
+    public long getEvictionCount() {
+        return cache.getStatistics().getEvictionCount();
+    }
+
+    private static final class Key {
+        private final Crypto crypto;
+        private final String id;
+        private final byte[] signatureDigest;
+        private final PublicKey publicKey;
+        private final int hashCode;
+
+        Key(Crypto crypto, String id, byte[] signatureDigest, PublicKey publicKey) {
+            this.crypto = crypto;
+            this.id = id;
+            this.signatureDigest = signatureDigest;
+            this.publicKey = publicKey;
+            this.hashCode = Objects.hash(System.identityHashCode(crypto), id, Arrays.hashCode(signatureDigest),
+                                         publicKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return crypto == other.crypto
+                && id.equals(other.id)
+                && Arrays.equals(signatureDigest, other.signatureDigest)
+                && publicKey.equals(other.publicKey);
+        }
+    }
+}
@@ -19,7 +19,9 @@
 
 package org.apache.wss4j.common.saml;
 
+import java.io.IOException;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -32,6 +34,8 @@ import org.apache.wss4j.common.saml.builder.SAML1ComponentBuilder;
 import org.apache.wss4j.common.saml.builder.SAML2ComponentBuilder;
 import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.common.util.InetAddressUtils;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.SignedInfo;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
 import org.apache.xml.security.utils.XMLUtils;
 import org.opensaml.core.xml.XMLObject;
@@ -99,6 +103,16 @@ public class SamlAssertionWrapper {
      */
     private SAMLKeyInfo signatureKeyInfo;
 
+    /**
+     * The digest of the Signature on the Assertion, used to look it up in a SamlAssertionCache
+     */
+    private byte[] signatureDigest;
+
+    /**
+     * Whether the Signature on the Assertion was previously validated according to a SamlAssertionCache
+     */
+    private boolean signatureCached;
+
     /**
      * Default Canonicalization algorithm used for signing.
      */
@@ -643,6 +657,109 @@ public class SamlAssertionWrapper {
         }
     }
 
+    /**
+     * Verify the signature of this assertion, unless the assertion was previously validated with
+     * the same signing key according to the given cache. In that case only the references of the
+     * signature are verified, and {@link #isSignatureCached()} returns true so that the trust
+     * validation of the signing key can be skipped as well.
+     *
+     * @param samlKeyInfo the SAMLKeyInfo of the signature
+     * @param cache the cache of validated assertions (may be null)
+     * @param sigCrypto the Crypto instance used to verify trust in the signing key
+     * @throws WSSecurityException
+     */
+    public void verifySignature(
+        SAMLKeyInfo samlKeyInfo, SamlAssertionCache cache, Crypto sigCrypto
+    ) throws WSSecurityException {
+        Signature sig = getSignature();
+        if (cache != null && sig != null && sig.getDOM() != null && samlKeyInfo != null) {
+            Element signedInfoElement = XMLUtils.getNextElement(sig.getDOM().getFirstChild());
+            try {
+                SignedInfo signedInfo = new SignedInfo(signedInfoElement, "", true);
+                signatureDigest =
+                    SamlAssertionCache.getSignatureDigest(
+                        signedInfo.getCanonicalizedOctetStream(), getSignatureValue(sig)
+                    );
+                if (cache.contains(sigCrypto, getId(), signatureDigest, getPublicKey(samlKeyInfo))
+                    && signedInfo.verify(false)) {
+                    signatureKeyInfo = samlKeyInfo;
+                    signatureCached = true;
+                    return;
+                }
+            } catch (XMLSecurityException | IOException ex) {
+                LOG.debug("Cannot look up the SAML Assertion in the cache: {}", ex.getMessage());
+                signatureDigest = null;
+            }
+        }
+        verifySignature(samlKeyInfo);
+    }
+
+    /**
+     * Add this assertion to the given cache once it has been fully validated, using the signature
+     * that was verified by {@link #verifySignature(SAMLKeyInfo, SamlAssertionCache, Crypto)}.
+     *
+     * @param cache the cache of validated assertions
+     * @param sigCrypto the Crypto instance used to verify trust in the signing key
+     */
+    public void cacheSignature(SamlAssertionCache cache, Crypto sigCrypto) {
+        if (!signatureCached) {
+            cacheSignature(cache, sigCrypto, signatureDigest, signatureKeyInfo);
+        }
+    }
+
+    /**
+     * Add this assertion to the given cache once it has been fully validated. Nothing is added if
+     * the assertion has a OneTimeUse (SAML 2.0) or DoNotCache (SAML 1.1) condition. The entry does
+     * not outlive the NotOnOrAfter time of the assertion.
+     *
+     * @param cache the cache of validated assertions
+     * @param sigCrypto the Crypto instance used to verify trust in the signing key
+     * @param digest the digest of the signature, see {@link SamlAssertionCache#getSignatureDigest}
+     * @param samlKeyInfo the SAMLKeyInfo the signature was verified with
+     */
+    public void cacheSignature(
+        SamlAssertionCache cache, Crypto sigCrypto, byte[] digest, SAMLKeyInfo samlKeyInfo
+    ) {
+        if (cache == null || digest == null || samlKeyInfo == null) {
+            return;
+        }
+        Instant notOnOrAfter = null;
+        if (getSamlVersion().equals(SAMLVersion.VERSION_20)) {
+            org.opensaml.saml.saml2.core.Conditions conditions = getSaml2().getConditions();
+            if (conditions != null) {
+                if (conditions.getOneTimeUse() != null) {
+                    return;
+                }
+                notOnOrAfter = conditions.getNotOnOrAfter();
+            }
+        } else {
+            org.opensaml.saml.saml1.core.Conditions conditions = getSaml1().getConditions();
+            if (conditions != null) {
+                if (!conditions.getDoNotCacheConditions().isEmpty()) {
+                    return;
+                }
+                notOnOrAfter = conditions.getNotOnOrAfter();
+            }
+        }
+        cache.add(sigCrypto, getId(), digest, getPublicKey(samlKeyInfo), samlKeyInfo.getCerts(), notOnOrAfter);
+    }
+
+    /**
+     * Whether the signature of this assertion was previously validated according to the cache
+     * passed to {@link #verifySignature(SAMLKeyInfo, SamlAssertionCache, Crypto)}
+     * @return whether the signature of this assertion was found in the cache
+     */
+    public boolean isSignatureCached() {
+        return signatureCached;
+    }
+
+    private static PublicKey getPublicKey(SAMLKeyInfo samlKeyInfo) {
+        if (samlKeyInfo.getCerts() != null && samlKeyInfo.getCerts().length > 0) {
+            return samlKeyInfo.getCerts()[0].getPublicKey();
+        }
+        return samlKeyInfo.getPublicKey();
+    }
+
     /**
      * Validate the signature of the Assertion against the Profile. This does not actually
      * verify the signature itself (see the verifySignature method for this)
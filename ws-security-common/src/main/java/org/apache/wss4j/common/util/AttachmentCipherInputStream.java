@@ -0,0 +1,305 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.XMLCipherUtil;
+
+/**
+ * An InputStream which encrypts or decrypts an attachment in chunks of a configurable size.
+ *
+ * Unlike a CipherInputStream, which processes its input in chunks of 512 bytes, the underlying
+ * stream is read with bulk reads of the given buffer size, and the output of the Cipher is written
+ * directly into the array of the caller if it is large enough. A failure of the Cipher (such as an
+ * AEAD tag mismatch) is thrown as an IOException instead of being ignored, and the bytes read so
+ * far can be pushed back (see {@link #unread(byte[], int, int)}), which allows the MIME headers of
+ * a decrypted attachment to be parsed with bulk reads.
+ *
+ * Note that a JCE provider may buffer all of the cipher text of an AEAD algorithm (e.g. AES-GCM)
+ * until the tag has been verified, in which case the decrypted data is only available once the
+ * end of the stream has been reached.
+ */
+public class AttachmentCipherInputStream extends FilterInputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Cipher cipher;
+    private final String encAlgo;
+    private final Key key;
+    private final byte[] inputBuffer;
+    private byte[] outputBuffer;
+    private int outputPosition;
+    private int outputLength;
+    private byte[] pushbackBuffer;
+    private int pushbackPosition;
+    private int pushbackLength;
+    private boolean initialized;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create a stream which processes the underlying stream with a Cipher that is already initialized
+     * @param inputStream the underlying stream
+     * @param cipher the initialized Cipher
+     * @param bufferSize the number of bytes to read from the underlying stream at once
+     */
+    public AttachmentCipherInputStream(InputStream inputStream, Cipher cipher, int bufferSize) {
+        this(inputStream, cipher, null, null, bufferSize);
+    }
+
+    private AttachmentCipherInputStream(
+        InputStream inputStream, Cipher cipher, String encAlgo, Key key, int bufferSize
+    ) {
+        super(inputStream);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be greater than zero");
+        }
+        this.cipher = cipher;
+        this.encAlgo = encAlgo;
+        this.key = key;
+        this.inputBuffer = new byte[bufferSize];
+        this.initialized = encAlgo == null;
+    }
+
+    /**
+     * Create a stream which decrypts the underlying stream. The Cipher is initialized for decryption
+     * with the IV that is read from the start of the underlying stream when the stream is first read.
+     * @param encAlgo the encryption algorithm URI
+     * @param cipher the Cipher for the algorithm
+     * @param key the key to decrypt the attachment with
+     * @param inputStream the underlying stream, which starts with the IV
+     * @param bufferSize the number of bytes to read from the underlying stream at once
+     */
+    public static AttachmentCipherInputStream newDecryptionStream(
+        String encAlgo, Cipher cipher, Key key, InputStream inputStream, int bufferSize
+    ) {
+        return new AttachmentCipherInputStream(inputStream, cipher, encAlgo, key, bufferSize);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pushbackPosition < pushbackLength) {
+            int read = Math.min(len, pushbackLength - pushbackPosition);
+            System.arraycopy(pushbackBuffer, pushbackPosition, b, off, read);
+            pushbackPosition += read;
+            return read;
+        }
+        while (outputPosition >= outputLength) {
+            if (finished) {
+                return -1;
+            }
+            int read = process(b, off, len);
+            if (read > 0) {
+                return read;
+            }
+        }
+        int read = Math.min(len, outputLength - outputPosition);
+        System.arraycopy(outputBuffer, outputPosition, b, off, read);
+        outputPosition += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int)Math.min(n, inputBuffer.length)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(b, 0, (int)Math.min(n - skipped, b.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return pushbackLength - pushbackPosition + outputLength - outputPosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // mark is not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            finished = true;
+            outputPosition = outputLength;
+            pushbackPosition = pushbackLength;
+            in.close();
+        }
+    }
+
+    /**
+     * Push back bytes that were read from this stream, so that they are read again by the next read
+     * @param b the bytes
+     * @param off the offset of the first byte to push back
+     * @param len the number of bytes to push back
+     */
+    public void unread(byte[] b, int off, int len) {
+        if (len <= 0) {
+            return;
+        }
+        int remaining = pushbackLength - pushbackPosition;
+        byte[] buffer = new byte[len + remaining];
+        System.arraycopy(b, off, buffer, 0, len);
+        if (remaining > 0) {
+            System.arraycopy(pushbackBuffer, pushbackPosition, buffer, len, remaining);
+        }
+        pushbackBuffer = buffer;
+        pushbackPosition = 0;
+        pushbackLength = buffer.length;
+    }
+
+    /**
+     * Write the remaining (decrypted or encrypted) data of this stream to a channel, such as a
+     * FileChannel, without copying it into an intermediate array.
+     * @param channel the channel to write to
+     * @return the number of bytes written
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        long transferred = 0;
+        if (pushbackPosition < pushbackLength) {
+            transferred += write(channel, pushbackBuffer, pushbackPosition, pushbackLength - pushbackPosition);
+            pushbackPosition = pushbackLength;
+        }
+        while (true) {
+            if (outputPosition < outputLength) {
+                transferred += write(channel, outputBuffer, outputPosition, outputLength - outputPosition);
+                outputPosition = outputLength;
+            }
+            if (finished) {
+                return transferred;
+            }
+            process(null, 0, 0);
+        }
+    }
+
+    /**
+     * Read the next chunk of the underlying stream and process it with the Cipher. The output is
+     * written to the given array if it is large enough, and to the output buffer otherwise.
+     * @return the number of bytes that were written to the given array
+     */
+    private int process(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (!initialized) {
+            initCipher();
+            initialized = true;
+        }
+        outputPosition = 0;
+        outputLength = 0;
+        try {
+            int read = in.read(inputBuffer, 0, inputBuffer.length);
+            if (read == -1) {
+                finished = true;
+                int outputSize = cipher.getOutputSize(0);
+                if (b != null && outputSize <= len) {
+                    return cipher.doFinal(b, off);
+                }
+                ensureOutputBuffer(outputSize);
+                outputLength = cipher.doFinal(outputBuffer, 0);
+                return 0;
+            }
+            int outputSize = cipher.getOutputSize(read);
+            if (b != null && outputSize <= len) {
+                return cipher.update(inputBuffer, 0, read, b, off);
+            }
+            ensureOutputBuffer(outputSize);
+            outputLength = cipher.update(inputBuffer, 0, read, outputBuffer, 0);
+            return 0;
+        } catch (GeneralSecurityException e) {
+            finished = true;
+            throw new IOException(e);
+        }
+    }
+
+    private void initCipher() throws IOException {
+        int ivLen = JCEMapper.getIVLengthFromURI(encAlgo) / 8;
+        byte[] ivBytes = new byte[ivLen];
+        int read = 0;
+        while (read < ivLen) {
+            int n = in.read(ivBytes, read, ivLen - read);
+            if (n == -1) {
+                throw new IOException("The attachment is too short to contain an IV");
+            }
+            read += n;
+        }
+
+        AlgorithmParameterSpec paramSpec = XMLCipherUtil.constructBlockCipherParameters(encAlgo, ivBytes);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void ensureOutputBuffer(int size) {
+        if (outputBuffer == null || outputBuffer.length < size) {
+            outputBuffer = new byte[Math.max(size, inputBuffer.length)];
+        }
+    }
+
+    private static long write(WritableByteChannel channel, byte[] b, int off, int len) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(b, off, len);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        return len;
+    }
+}
@@ -31,7 +31,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import jakarta.mail.internet.MimeUtility;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -40,9 +39,11 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import java.io.*;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.*;
@@ -79,6 +80,8 @@ public final class AttachmentUtils {
 
     public static final Set<String> ALL_PARAMS = new HashSet<>();
 
+    private static final int HEADER_BUFFER_SIZE = 1024;
+
     static {
         ALL_PARAMS.add(PARAM_CHARSET);
         ALL_PARAMS.add(PARAM_CREATION_DATE);
@@ -441,39 +444,29 @@ public final class AttachmentUtils {
             Map<String, String> headers, InputStream attachmentInputStream) throws IOException, WSSecurityException {
 
         //read and replace headers
-        List<String> headerLines = new ArrayList<>();
-        StringBuilder stringBuilder = new StringBuilder();
-        boolean cr = false;
-        int ch;
-        int lineLength = 0;
-        while ((ch = attachmentInputStream.read()) != -1) {
-            if (ch == '\r') {
-                cr = true;
-            } else if (ch == '\n' && cr) {
-                cr = false;
-                if (lineLength == 1 && stringBuilder.charAt(0) == '\r') {
+        HeaderParser headerParser = new HeaderParser();
+        if (attachmentInputStream instanceof AttachmentCipherInputStream) {
+            //read the headers in bulk, and push back whatever was read after the headers
+            AttachmentCipherInputStream cipherInputStream = (AttachmentCipherInputStream) attachmentInputStream;
+            byte[] buffer = new byte[HEADER_BUFFER_SIZE];
+            int read;
+            while ((read = cipherInputStream.read(buffer, 0, buffer.length)) != -1) {
+                int end = headerParser.parse(buffer, 0, read);
+                if (end != -1) {
+                    cipherInputStream.unread(buffer, end, read - end);
                     break;
                 }
-                if (headerLines.size() > 100) {
-                    //so much headers? go away....
-                    throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.FAILED_CHECK);
-                }
-                headerLines.add(stringBuilder.substring(0, stringBuilder.length() - 1));
-                lineLength = 0;
-                stringBuilder.delete(0, stringBuilder.length());
-                continue;
             }
-            lineLength++;
-            //Lines in a message MUST be a maximum of 998 characters excluding the CRLF
-            if (lineLength >= 1000) {
-                throw new WSSecurityException(
-                        WSSecurityException.ErrorCode.FAILED_CHECK);
+        } else {
+            int ch;
+            while ((ch = attachmentInputStream.read()) != -1) {
+                if (headerParser.parse(ch)) {
+                    break;
+                }
             }
-            stringBuilder.append((char) ch);
         }
 
-        for (String s : headerLines) {
+        for (String s : headerParser.headerLines) {
             int idx = s.indexOf(':');
             if (idx == -1) {
                 throw new WSSecurityException(
@@ -486,82 +479,92 @@ public final class AttachmentUtils {
     public static InputStream setupAttachmentDecryptionStream(
             final String encAlgo, final Cipher cipher, final Key key, InputStream inputStream)
             throws WSSecurityException {
+        return setupAttachmentDecryptionStream(
+            encAlgo, cipher, key, inputStream, AttachmentCipherInputStream.DEFAULT_BUFFER_SIZE);
+    }
 
-        CipherInputStream cipherInputStream = new CipherInputStream(inputStream, cipher) {
-
-            private boolean firstRead = true;
-
-            private void initCipher() throws IOException {
-                int ivLen = JCEMapper.getIVLengthFromURI(encAlgo) / 8;
-                byte[] ivBytes = new byte[ivLen];
-
-                int read = super.in.read(ivBytes, 0, ivLen);
-                while (read != ivLen) {
-                    read += super.in.read(ivBytes, read, ivLen - read);
-                }
-
-                AlgorithmParameterSpec paramSpec =
-                    XMLCipherUtil.constructBlockCipherParameters(encAlgo, ivBytes);
-
-                try {
-                    cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
-                } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-                    throw new IOException(e);
-                }
-            }
-
-            @Override
-            public int read() throws IOException {
-                if (firstRead) {
-                    initCipher();
-                    firstRead = false;
-                }
-                return super.read();
-            }
+    /**
+     * Set up a stream which decrypts an attachment in chunks of the given size. The IV is read from
+     * the start of the attachment when the stream is first read.
+     */
+    public static InputStream setupAttachmentDecryptionStream(
+            final String encAlgo, final Cipher cipher, final Key key, InputStream inputStream, int bufferSize)
+            throws WSSecurityException {
+        return AttachmentCipherInputStream.newDecryptionStream(encAlgo, cipher, key, inputStream, bufferSize);
+    }
 
-            @Override
-            public int read(byte[] bytes) throws IOException {
-                if (firstRead) {
-                    initCipher();
-                    firstRead = false;
+    /**
+     * Decrypt an attachment from one channel to another (e.g. from one FileChannel to another),
+     * using direct ByteBuffers of the given size, so that the attachment is neither copied into
+     * the Java heap nor held in memory as a whole.
+     *
+     * @return the number of decrypted bytes that were written to the target channel
+     */
+    public static long decryptAttachment(
+            String encAlgo, Cipher cipher, Key key, ReadableByteChannel source, WritableByteChannel target,
+            int bufferSize) throws WSSecurityException {
+        try {
+            ByteBuffer ivBuffer = ByteBuffer.allocate(JCEMapper.getIVLengthFromURI(encAlgo) / 8);
+            while (ivBuffer.hasRemaining()) {
+                if (source.read(ivBuffer) == -1) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
                 }
-                return super.read(bytes);
             }
-
-            @Override
-            public int read(byte[] bytes, int i, int i2) throws IOException {
-                if (firstRead) {
-                    initCipher();
-                    firstRead = false;
-                }
-                return super.read(bytes, i, i2);
-            }
-
-            @Override
-            public long skip(long l) throws IOException {
-                if (firstRead) {
-                    initCipher();
-                    firstRead = false;
-                }
-                return super.skip(l);
+            AlgorithmParameterSpec paramSpec =
+                XMLCipherUtil.constructBlockCipherParameters(encAlgo, ivBuffer.array());
+            cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
+
+            ByteBuffer inputBuffer = ByteBuffer.allocateDirect(bufferSize);
+            ByteBuffer outputBuffer = ByteBuffer.allocateDirect(cipher.getOutputSize(bufferSize));
+            long written = 0;
+            while (source.read(inputBuffer) != -1) {
+                inputBuffer.flip();
+                outputBuffer = ensureCapacity(outputBuffer, cipher.getOutputSize(inputBuffer.remaining()));
+                cipher.update(inputBuffer, outputBuffer);
+                written += writeFully(outputBuffer, target);
+                inputBuffer.clear();
             }
+            inputBuffer.flip();
+            outputBuffer = ensureCapacity(outputBuffer, cipher.getOutputSize(inputBuffer.remaining()));
+            cipher.doFinal(inputBuffer, outputBuffer);
+            written += writeFully(outputBuffer, target);
+            return written;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, e);
+        }
+    }
 
-            @Override
-            public int available() throws IOException {
-                if (firstRead) {
-                    initCipher();
-                    firstRead = false;
-                }
-                return super.available();
-            }
-        };
+    private static ByteBuffer ensureCapacity(ByteBuffer byteBuffer, int capacity) {
+        if (byteBuffer.capacity() < capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        byteBuffer.clear();
+        return byteBuffer;
+    }
 
-        return cipherInputStream;
+    private static int writeFully(ByteBuffer byteBuffer, WritableByteChannel target) throws IOException {
+        byteBuffer.flip();
+        int written = byteBuffer.remaining();
+        while (byteBuffer.hasRemaining()) {
+            target.write(byteBuffer);
+        }
+        return written;
     }
 
     public static InputStream setupAttachmentEncryptionStream(
             Cipher cipher, boolean complete, Attachment attachment,
             Map<String, String> headers) throws WSSecurityException {
+        return setupAttachmentEncryptionStream(
+            cipher, complete, attachment, headers, AttachmentCipherInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Set up a stream which encrypts an attachment in chunks of the given size, preceded by the IV
+     * of the (initialized) Cipher.
+     */
+    public static InputStream setupAttachmentEncryptionStream(
+            Cipher cipher, boolean complete, Attachment attachment,
+            Map<String, String> headers, int bufferSize) throws WSSecurityException {
 
         final InputStream attachmentInputStream;    //NOPMD
 
@@ -606,7 +609,8 @@ public final class AttachmentUtils {
         }
 
         final ByteArrayInputStream ivInputStream = new ByteArrayInputStream(cipher.getIV());
-        final CipherInputStream cipherInputStream = new CipherInputStream(attachmentInputStream, cipher);   //NOPMD
+        final InputStream cipherInputStream =   //NOPMD
+            new AttachmentCipherInputStream(attachmentInputStream, cipher, bufferSize);
 
         return new MultiInputStream(ivInputStream, cipherInputStream);
     }
@@ -687,4 +691,55 @@ public final class AttachmentUtils {
         }
 
     }
+
+    /**
+     * Parses the (CRLF separated) MIME header lines at the start of a decrypted attachment, up to
+     * the empty line that ends the headers.
+     */
+    private static final class HeaderParser {
+
+        private final List<String> headerLines = new ArrayList<>();
+        private final StringBuilder stringBuilder = new StringBuilder(); //NOPMD
+        private boolean cr;
+
+        /**
+         * @return the offset after the empty line that ends the headers, or -1 if it was not found
+         */
+        int parse(byte[] bytes, int off, int len) throws WSSecurityException {
+            for (int i = off; i < off + len; i++) {
+                if (parse(bytes[i] & 0xff)) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return whether the byte completes the empty line that ends the headers
+         */
+        boolean parse(int ch) throws WSSecurityException {
+            if (ch == '\n' && cr) {
+                cr = false;
+                if (stringBuilder.length() == 1) {
+                    return true;
+                }
+                if (headerLines.size() > 100) {
+                    //so much headers? go away....
+                    throw new WSSecurityException(
+                            WSSecurityException.ErrorCode.FAILED_CHECK);
+                }
+                headerLines.add(stringBuilder.substring(0, stringBuilder.length() - 1));
+                stringBuilder.setLength(0);
+                return false;
+            }
+            cr = ch == '\r';
+            //Lines in a message MUST be a maximum of 998 characters excluding the CRLF
+            if (stringBuilder.length() + 1 >= 1000) {
+                throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.FAILED_CHECK);
+            }
+            stringBuilder.append((char) ch);
+            return false;
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A thread-safe pool of DocumentBuilders, so that a new DocumentBuilder does not have to be created
+ * by the DocumentBuilderFactory for every Document that is created or parsed.
+ *
+ * A DocumentBuilder is taken from the pool (or created if the pool is empty) for the duration of a
+ * single call, and is reset before it is returned to the pool. As DocumentBuilder.reset() restores
+ * the state the DocumentBuilder was created with, the features of the DocumentBuilderFactory (such
+ * as secure processing) apply to every use of a pooled DocumentBuilder. At most the given number of
+ * idle DocumentBuilders are kept.
+ */
+public class DocumentBuilderPool {
+
+    public static final int DEFAULT_MAX_IDLE = 20;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(DocumentBuilderPool.class);
+
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException exception) {
+            LOG.debug("Warning while parsing: {}", exception.getMessage());
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            LOG.debug("Error while parsing: {}", exception.getMessage());
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final BlockingQueue<DocumentBuilder> idleBuilders;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Create a pool of DocumentBuilders created by a namespace aware DocumentBuilderFactory, with
+     * secure processing enabled and DOCTYPE declarations disallowed
+     */
+    public DocumentBuilderPool() throws ParserConfigurationException {
+        this(newDocumentBuilderFactory(), DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * @param documentBuilderFactory the (configured) factory to create DocumentBuilders with. It
+     * must not be modified once the pool has been created.
+     * @param maxIdle the maximum number of idle DocumentBuilders to keep
+     */
+    public DocumentBuilderPool(DocumentBuilderFactory documentBuilderFactory, int maxIdle) {
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("The maximum number of idle DocumentBuilders must be greater than zero");
+        }
+        this.documentBuilderFactory = documentBuilderFactory;
+        this.idleBuilders = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Create a namespace aware DocumentBuilderFactory, with secure processing enabled and DOCTYPE
+     * declarations disallowed
+     */
+    public static DocumentBuilderFactory newDocumentBuilderFactory() throws ParserConfigurationException {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        documentBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        return documentBuilderFactory;
+    }
+
+    /**
+     * Create a new (empty) Document
+     */
+    public Document newDocument() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = borrow();
+        try {
+            return documentBuilder.newDocument();
+        } finally {
+            release(documentBuilder);
+        }
+    }
+
+    /**
+     * Parse a Document from the given InputStream. The stream is not closed.
+     */
+    public Document parse(InputStream inputStream)
+        throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilder documentBuilder = borrow();
+        try {
+            return documentBuilder.parse(inputStream);
+        } finally {
+            release(documentBuilder);
+        }
+    }
+
+    /**
+     * @return the number of DocumentBuilders that were created by the DocumentBuilderFactory
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of times a DocumentBuilder was taken from the pool instead of being created
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * @return the number of DocumentBuilders that were not returned to the pool, as the pool was
+     * full or as they could not be reset
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * @return the number of idle DocumentBuilders in the pool
+     */
+    public int getIdleCount() {
+        return idleBuilders.size();
+    }
+
+    private DocumentBuilder borrow() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = idleBuilders.poll();
+        if (documentBuilder != null) {
+            reused.incrementAndGet();
+            return documentBuilder;
+        }
+        // A DocumentBuilderFactory is not guaranteed to be thread-safe
+        synchronized (documentBuilderFactory) {
+            documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        }
+        created.incrementAndGet();
+        documentBuilder.setErrorHandler(ERROR_HANDLER);
+        return documentBuilder;
+    }
+
+    private void release(DocumentBuilder documentBuilder) {
+        try {
+            documentBuilder.reset();
+            documentBuilder.setErrorHandler(ERROR_HANDLER);
+        } catch (UnsupportedOperationException ex) {
+            LOG.debug("The DocumentBuilder cannot be reset: {}", ex.getMessage());
+            discarded.incrementAndGet();
+            return;
+        }
+        if (!idleBuilders.offer(documentBuilder)) {
+            discarded.incrementAndGet();
+        }
+    }
+}
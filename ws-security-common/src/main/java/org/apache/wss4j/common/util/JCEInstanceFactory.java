@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.common.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A factory for the MessageDigest instances that are used on the message processing path of both
+ * the DOM and StAX code.
+ *
+ * MessageDigest instances are kept in a bounded pool per algorithm and provider. An instance is
+ * taken from the pool (or created if the pool is empty) by {@link #getMessageDigest}, and should
+ * be given back with {@link #releaseMessageDigest} once the digest has been computed, after which
+ * the caller must no longer use it. An instance that is not given back is simply not reused. A
+ * released instance is reset before it is returned to the pool. At most MAX_IDLE idle instances
+ * are kept per algorithm and provider. When a provider name is given, the Provider is looked up
+ * once and the instance is requested from that Provider directly.
+ *
+ * Cipher, Mac and Signature instances are not pooled, as they are initialised with (secret) keys
+ * and a Cipher may be wrapped in a stream that is read later on.
+ *
+ * {@link #clear()} should be called if the installed providers are changed at runtime.
+ */
+public final class JCEInstanceFactory {
+
+    public static final int MAX_IDLE = 20;
+
+    private static final Map<String, Provider> PROVIDERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, DigestPool> DIGEST_POOLS = new ConcurrentHashMap<>();
+
+    private JCEInstanceFactory() {
+        // complete
+    }
+
+    /**
+     * Get a MessageDigest instance for the given algorithm from the default providers.
+     *
+     * @param algorithm the JCE name of the digest algorithm, e.g. "SHA-1"
+     * @return a reset MessageDigest instance
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        try {
+            return getMessageDigest(algorithm, null);
+        } catch (NoSuchProviderException e) {
+            // Can't happen without a provider name
+            throw new NoSuchAlgorithmException(e);
+        }
+    }
+
+    /**
+     * Get a MessageDigest instance for the given algorithm and provider.
+     *
+     * @param algorithm the JCE name of the digest algorithm, e.g. "SHA-1"
+     * @param provider the name of the provider, or null to use the default providers
+     * @return a reset MessageDigest instance
+     * @throws NoSuchAlgorithmException if the provider does not support the algorithm
+     * @throws NoSuchProviderException if the provider is not installed
+     */
+    public static MessageDigest getMessageDigest(String algorithm, String provider)
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String key = provider == null ? algorithm : algorithm + '#' + provider;
+        DigestPool pool = DIGEST_POOLS.get(key);
+        if (pool != null) {
+            MessageDigest digest = pool.idle.poll();
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        MessageDigest digest;
+        if (provider == null) {
+            digest = MessageDigest.getInstance(algorithm);
+        } else {
+            digest = MessageDigest.getInstance(algorithm, getProvider(provider));
+        }
+        if (pool == null) {
+            DIGEST_POOLS.putIfAbsent(key, new DigestPool(digest.getProvider()));
+        }
+        return digest;
+    }
+
+    /**
+     * Give back a MessageDigest instance that was obtained from {@link #getMessageDigest}, so that
+     * it can be reused.
+     *
+     * @param digest the MessageDigest instance (may be null)
+     */
+    public static void releaseMessageDigest(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        // The instance may have been requested with or without a provider name
+        DigestPool pool = DIGEST_POOLS.get(digest.getAlgorithm());
+        if (pool == null || pool.provider != digest.getProvider()) {
+            pool = DIGEST_POOLS.get(digest.getAlgorithm() + '#' + digest.getProvider().getName());
+        }
+        if (pool != null && pool.provider == digest.getProvider()) {
+            digest.reset();
+            pool.idle.offer(digest);
+        }
+    }
+
+    /**
+     * Forget the resolved providers and the pooled MessageDigest instances. This should be called
+     * after providers have been added or removed.
+     */
+    public static void clear() {
+        PROVIDERS.clear();
+        DIGEST_POOLS.clear();
+    }
+
+    private static Provider getProvider(String name) throws NoSuchProviderException {
+        Provider provider = PROVIDERS.get(name);
+        if (provider == null) {
+            provider = Security.getProvider(name);
+            if (provider == null) {
+                throw new NoSuchProviderException("No such provider: " + name);
+            }
+            PROVIDERS.put(name, provider);
+        }
+        return provider;
+    }
+
+    private static final class DigestPool {
+        private final Provider provider;
+        private final BlockingQueue<MessageDigest> idle = new ArrayBlockingQueue<>(MAX_IDLE);
+
+        DigestPool(Provider provider) {
+            this.provider = provider;
+        }
+    }
+}
@@ -18,10 +18,26 @@
  */
 package org.apache.wss4j.common.attachment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
 import org.junit.jupiter.api.Test;
+import org.apache.wss4j.common.WSS4JConstants;
+import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.xml.security.utils.JavaUtils;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class AttachmentTest {
@@ -227,4 +243,79 @@ public class AttachmentTest {
                 )
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamedAttachmentEncryption() throws Exception {
+        org.apache.xml.security.Init.init();
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        for (String encAlgo : new String[] {WSS4JConstants.AES_128, WSS4JConstants.AES_128_GCM}) {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(128);
+            SecretKey key = keyGenerator.generateKey();
+            Cipher cipher = Cipher.getInstance(encAlgo.endsWith("gcm") ? "AES/GCM/NoPadding" : "AES/CBC/ISO10126Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+
+            Attachment attachment = new Attachment();
+            attachment.setSourceStream(new ByteArrayInputStream(content));
+            Map<String, String> headers = new HashMap<>();
+            headers.put(AttachmentUtils.MIME_HEADER_CONTENT_TYPE, "application/octet-stream");
+            headers.put(AttachmentUtils.MIME_HEADER_CONTENT_ID, "<attachment@apache.org>");
+            byte[] encrypted;
+            try (InputStream inputStream =
+                AttachmentUtils.setupAttachmentEncryptionStream(cipher, true, attachment, headers, 1000)) {
+                encrypted = JavaUtils.getBytesFromStream(inputStream);
+            }
+
+            Cipher decryptionCipher = Cipher.getInstance(cipher.getAlgorithm());
+            Map<String, String> decryptedHeaders = new HashMap<>();
+            try (InputStream inputStream = AttachmentUtils.setupAttachmentDecryptionStream(
+                encAlgo, decryptionCipher, key, new ByteArrayInputStream(encrypted), 333)) {
+                AttachmentUtils.readAndReplaceEncryptedAttachmentHeaders(decryptedHeaders, inputStream);
+                assertArrayEquals(content, JavaUtils.getBytesFromStream(inputStream));
+            }
+            assertEquals(2, decryptedHeaders.size());
+            assertEquals("application/octet-stream", decryptedHeaders.get(AttachmentUtils.MIME_HEADER_CONTENT_TYPE));
+            assertEquals("<attachment@apache.org>", decryptedHeaders.get(AttachmentUtils.MIME_HEADER_CONTENT_ID));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            AttachmentUtils.decryptAttachment(
+                encAlgo, decryptionCipher, key, Channels.newChannel(new ByteArrayInputStream(encrypted)),
+                Channels.newChannel(outputStream), 512);
+            byte[] decrypted = outputStream.toByteArray();
+            InputStream inputStream = new ByteArrayInputStream(decrypted);
+            decryptedHeaders.clear();
+            AttachmentUtils.readAndReplaceEncryptedAttachmentHeaders(decryptedHeaders, inputStream);
+            assertEquals(2, decryptedHeaders.size());
+            assertArrayEquals(content, JavaUtils.getBytesFromStream(inputStream));
+        }
+    }
+
+    @Test
+    public void testStreamedAttachmentDecryptionTampered() throws Exception {
+        org.apache.xml.security.Init.init();
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        SecretKey key = keyGenerator.generateKey();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+
+        Attachment attachment = new Attachment();
+        attachment.setSourceStream(new ByteArrayInputStream(new byte[10000]));
+        byte[] encrypted;
+        try (InputStream inputStream =
+            AttachmentUtils.setupAttachmentEncryptionStream(cipher, false, attachment, new HashMap<>())) {
+            encrypted = JavaUtils.getBytesFromStream(inputStream);
+        }
+        encrypted[encrypted.length - 1] ^= 1;
+
+        try (InputStream inputStream = AttachmentUtils.setupAttachmentDecryptionStream(
+            WSS4JConstants.AES_128_GCM, Cipher.getInstance("AES/GCM/NoPadding"), key,
+            new ByteArrayInputStream(encrypted))) {
+            assertThrows(java.io.IOException.class, () -> JavaUtils.getBytesFromStream(inputStream));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some unit tests for the ExpiringCache
+ */
+public class ExpiringCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        MutableClock clock = new MutableClock();
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, clock);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get(null));
+        cache.put("a", "1", clock.instant.plusSeconds(60L));
+        assertEquals("1", cache.get("a"));
+        cache.put("a", "2", clock.instant.plusSeconds(60L));
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getStatistics().getHitCount());
+        assertEquals(2, cache.getStatistics().getMissCount());
+
+        // An expired value is not added
+        cache.put("b", "1", clock.instant);
+        assertEquals(1, cache.size());
+
+        assertEquals("2", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getStatistics().getEvictionCount());
+    }
+
+    @Test
+    public void testExpiry() {
+        MutableClock clock = new MutableClock();
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, clock);
+
+        cache.put("a", "1", clock.instant.plusSeconds(30L));
+        cache.put("b", "1", clock.instant.plusSeconds(60L));
+        cache.put("c", "1", clock.instant.plusSeconds(90L));
+        clock.instant = clock.instant.plusSeconds(30L);
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        // The expired entries are removed when an entry is added, although the cache is not full
+        clock.instant = clock.instant.plusSeconds(60L);
+        cache.put("d", "1", clock.instant.plusSeconds(60L));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getStatistics().getEvictionCount());
+    }
+
+    @Test
+    public void testEvictionOrder() {
+        MutableClock clock = new MutableClock();
+        List<String> removed = new ArrayList<>();
+        ExpiringCache<String, String> cache =
+            new ExpiringCache<>(3, clock, new ExpiringCache.Statistics(), (key, value) -> removed.add(key));
+
+        cache.put("a", "1", clock.instant.plusSeconds(60L));
+        cache.put("b", "1", clock.instant.plusSeconds(30L));
+        cache.put("c", "1", clock.instant.plusSeconds(60L));
+        assertEquals("1", cache.get("a"));
+
+        // The entries which expire first are evicted, and then the entries which were added first
+        cache.put("d", "1", clock.instant.plusSeconds(90L));
+        cache.put("e", "1", clock.instant.plusSeconds(90L));
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertNull(cache.get("a"));
+        assertEquals("1", cache.get("c"));
+        assertEquals(2, cache.getStatistics().getEvictionCount());
+
+        // Replacing the value of a cached key does not evict another entry
+        cache.put("c", "2", clock.instant.plusSeconds(120L));
+        assertEquals(3, cache.size());
+        cache.remove("d");
+        assertEquals(List.of("b", "a", "c", "d"), removed);
+    }
+
+    @Test
+    public void testSharedStatistics() {
+        MutableClock clock = new MutableClock();
+        ExpiringCache.Statistics statistics = new ExpiringCache.Statistics();
+        ExpiringCache<String, String> cache = new ExpiringCache<>(1, clock, statistics, null);
+        ExpiringCache<String, String> otherCache = new ExpiringCache<>(1, clock, statistics, null);
+
+        cache.put("a", "1", clock.instant.plusSeconds(60L));
+        otherCache.put("a", "1", clock.instant.plusSeconds(60L));
+        otherCache.put("b", "1", clock.instant.plusSeconds(60L));
+        cache.get("a");
+        otherCache.get("a");
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getEvictionCount());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -21,9 +21,18 @@ package org.apache.wss4j.common.cache;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -50,6 +59,74 @@ public class ReplayCacheTest {
         }
     }
 
+    @Test
+    public void testMemoryReplayCacheAddIfAbsent() throws Exception {
+        MutableClock clock = new MutableClock();
+        try (MemoryReplayCache replayCache = new MemoryReplayCache(10, clock)) {
+            String id = UUID.randomUUID().toString();
+            assertTrue(replayCache.addIfAbsent(id, clock.instant().plusSeconds(10L)));
+            assertFalse(replayCache.addIfAbsent(id, clock.instant().plusSeconds(10L)));
+            assertTrue(replayCache.contains(id));
+
+            // Once the identifier has expired it can be added again
+            clock.instant = clock.instant.plusSeconds(11L);
+            assertFalse(replayCache.contains(id));
+            assertEquals(0, replayCache.size());
+            assertTrue(replayCache.addIfAbsent(id, clock.instant().plusSeconds(10L)));
+        }
+    }
+
+    @Test
+    public void testMemoryReplayCacheMaxEntries() throws Exception {
+        MutableClock clock = new MutableClock();
+        try (MemoryReplayCache replayCache = new MemoryReplayCache(10, clock)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(replayCache.addIfAbsent(Integer.toString(i), clock.instant().plusSeconds(10L + i)));
+            }
+
+            // Cached identifiers are not removed to make room, instead new identifiers are rejected
+            assertFalse(replayCache.addIfAbsent("10", clock.instant().plusSeconds(10L)));
+            replayCache.add("11", clock.instant().plusSeconds(10L));
+            assertEquals(10, replayCache.size());
+            assertTrue(replayCache.contains("0"));
+            assertTrue(replayCache.contains("12"));
+
+            // Once identifiers have expired, new identifiers are accepted again
+            clock.instant = clock.instant.plusSeconds(11L);
+            assertFalse(replayCache.contains("0"));
+            assertFalse(replayCache.contains("12"));
+            assertTrue(replayCache.addIfAbsent("10", clock.instant().plusSeconds(10L)));
+            assertFalse(replayCache.addIfAbsent("9", clock.instant().plusSeconds(10L)));
+        }
+    }
+
+    @Test
+    public void testMemoryReplayCacheConcurrentAddIfAbsent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (MemoryReplayCache replayCache = new MemoryReplayCache()) {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    int added = 0;
+                    for (int j = 0; j < 1000; j++) {
+                        if (replayCache.addIfAbsent(Integer.toString(j), null)) {
+                            added++;
+                        }
+                    }
+                    return added;
+                });
+            }
+            int added = 0;
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                added += future.get();
+            }
+            // Every identifier is only added once
+            assertEquals(1000, added);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testEhCacheReplayCache() throws Exception {
         try (ReplayCache replayCache = new EHCacheReplayCache("xyz", tempDir)) {
@@ -192,6 +269,12 @@ public class ReplayCacheTest {
         replayCache.add(id, Instant.now().plusSeconds(100L));
         assertTrue(replayCache.contains(id));
 
+        // Test an identifier is only added once
+        id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+        assertFalse(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+        assertTrue(replayCache.contains(id));
+
         // Test expiration
         id = UUID.randomUUID().toString();
         replayCache.add(id, Instant.now().plusSeconds(1L));
@@ -199,4 +282,23 @@ public class ReplayCacheTest {
         assertFalse(replayCache.contains(id));
     }
 
-}
\ No newline at end of file
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+
+}
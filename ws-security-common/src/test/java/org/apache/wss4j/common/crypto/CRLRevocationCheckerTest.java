@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for checking the revocation status of certificates against an index of the CRLs
+ */
+public class CRLRevocationCheckerTest {
+
+    private static X509Certificate caCert;
+    private static X509Certificate validCert;
+    private static X509Certificate revokedCert;
+    private static X509CRL crl;
+
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        WSProviderConfig.init();
+        caCert = loadCertificate("keys/wss40CA.jks", "wss40CA");
+        validCert = loadCertificate("keys/wss40.jks", "wss40");
+        revokedCert = loadCertificate("keys/wss40rev.jks", "wss40rev");
+
+        try (InputStream inputStream = Loader.loadInputStream(null, "keys/wss40CACRL.pem")) {
+            crl = (X509CRL)CertificateFactory.getInstance("X.509").generateCRL(inputStream);
+        }
+    }
+
+    @Test
+    public void testMerlinRevocation() throws Exception {
+        Merlin crypto = (Merlin)CryptoFactory.getInstance("wss40CA.properties");
+        // The CRL index is not used by default
+        assertFalse(crypto.isEnableCRLIndex());
+        verifyRevocation(crypto);
+    }
+
+    @Test
+    public void testMerlinRevocationWithIndex() throws Exception {
+        Properties properties = new Properties();
+        properties.load(Loader.loadInputStream(null, "wss40CA.properties"));
+        properties.put(Merlin.PREFIX + Merlin.X509_CRL_INDEX, "true");
+        Merlin crypto = (Merlin)CryptoFactory.getInstance(properties);
+        assertTrue(crypto.isEnableCRLIndex());
+        verifyRevocation(crypto);
+    }
+
+    @Test
+    public void testCertificateStoreRevocation() throws Exception {
+        CertificateStore crypto =
+            new CertificateStore(new X509Certificate[] {caCert}, Collections.singletonList(crl));
+        verifyRevocation(crypto);
+    }
+
+    @Test
+    public void testIndexedCRL() throws Exception {
+        CRLIndex index = CRLIndex.newInstance(Collections.singletonList(crl), Collections.singletonList(caCert));
+        assertNotNull(index);
+        verifyIndex(index);
+    }
+
+    @Test
+    public void testMappedCRL() throws Exception {
+        CRLIndex index =
+            CRLIndex.newInstance(Collections.singletonList(crl), Collections.singletonList(caCert), tempDir, 1);
+        assertNotNull(index);
+        verifyIndex(index);
+    }
+
+    @Test
+    public void testUnverifiedCRL() throws Exception {
+        // The CRL is verified with the key of the issuer in the certificate path when it is used
+        CRLIndex index = CRLIndex.newInstance(Collections.singletonList(crl), null);
+        assertNotNull(index);
+        verifyIndex(index);
+
+        List<CRLIndex.IndexedCRL> crls = index.getCRLs(
+            crl.getIssuerX500Principal(), Collections.singletonList(validCert.getPublicKey()), new Date()
+        );
+        assertTrue(crls.isEmpty());
+    }
+
+    @Test
+    public void testRevocationCheckDate() throws Exception {
+        CRLIndex index = CRLIndex.newInstance(Collections.singletonList(crl), Collections.singletonList(caCert));
+        CRLRevocationChecker checker =
+            new CRLRevocationChecker(index, Collections.singleton(new TrustAnchor(caCert, null)));
+        checker.init(false);
+        checker.check(validCert, Collections.emptySet());
+
+        // The CRL is not current yet at the given date
+        checker.setDate(new Date(crl.getThisUpdate().getTime() - ONE_HOUR));
+        checker.init(false);
+        CertPathValidatorException ex =
+            assertThrows(CertPathValidatorException.class, () -> checker.check(validCert, Collections.emptySet()));
+        assertEquals(BasicReason.UNDETERMINED_REVOCATION_STATUS, ex.getReason());
+    }
+
+    @Test
+    public void testMerlinRevocationCheckDate() throws Exception {
+        Properties properties = new Properties();
+        properties.load(Loader.loadInputStream(null, "wss40CA.properties"));
+        properties.put(Merlin.PREFIX + Merlin.X509_CRL_INDEX, "true");
+        Date date = new Date(crl.getThisUpdate().getTime() - ONE_HOUR);
+        Merlin crypto = new Merlin(properties, null, null) {
+            @Override
+            protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+                throws KeyStoreException, WSSecurityException, InvalidAlgorithmParameterException {
+                PKIXParameters param = super.getPKIXParameters(enableRevocation);
+                param.setDate(date);
+                return param;
+            }
+        };
+        assertTrue(crypto.isEnableCRLIndex());
+
+        // The certificate is valid at the date, but the CRL is not current yet
+        crypto.verifyTrust(new X509Certificate[] {validCert}, false, null, null);
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {validCert}, true, null, null));
+    }
+
+    @Test
+    public void testCRLIssuerKeyUsage() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair caKeyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate certSigner =
+            createCertificate("CN=CRL Test CA", caKeyPair.getPublic(), caKeyPair, KeyUsage.keyCertSign);
+        X509Certificate crlSigner = createCertificate(
+            "CN=CRL Test CA", caKeyPair.getPublic(), caKeyPair, KeyUsage.keyCertSign | KeyUsage.cRLSign
+        );
+        X509Certificate cert =
+            createCertificate("CN=Test", keyPairGenerator.generateKeyPair().getPublic(), caKeyPair, 0);
+
+        Instant now = Instant.now();
+        X509v2CRLBuilder crlBuilder =
+            new X509v2CRLBuilder(new X500Name("CN=CRL Test CA"), Date.from(now.minus(1, ChronoUnit.DAYS)));
+        crlBuilder.setNextUpdate(Date.from(now.plus(1, ChronoUnit.DAYS)));
+        X509CRL testCrl = new JcaX509CRLConverter().getCRL(
+            crlBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate()))
+        );
+
+        CRLIndex index = CRLIndex.newInstance(Collections.singletonList(testCrl), Collections.singletonList(crlSigner));
+        CRLRevocationChecker checker =
+            new CRLRevocationChecker(index, Collections.singleton(new TrustAnchor(crlSigner, null)));
+        checker.init(false);
+        checker.check(cert, Collections.emptySet());
+
+        // The CRL is signed by the right key, but the certificate of the issuer does not allow it
+        index = CRLIndex.newInstance(Collections.singletonList(testCrl), Collections.singletonList(certSigner));
+        CRLRevocationChecker otherChecker =
+            new CRLRevocationChecker(index, Collections.singleton(new TrustAnchor(certSigner, null)));
+        otherChecker.init(false);
+        CertPathValidatorException ex =
+            assertThrows(CertPathValidatorException.class, () -> otherChecker.check(cert, Collections.emptySet()));
+        assertEquals(BasicReason.UNDETERMINED_REVOCATION_STATUS, ex.getReason());
+    }
+
+    private static X509Certificate createCertificate(
+        String subject, PublicKey publicKey, KeyPair caKeyPair, int keyUsage
+    ) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            new X500Name("CN=CRL Test CA"), BigInteger.valueOf(now.toEpochMilli()),
+            Date.from(now.minus(1, ChronoUnit.DAYS)), Date.from(now.plus(1, ChronoUnit.DAYS)),
+            new X500Name(subject), publicKey
+        );
+        if (keyUsage != 0) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            builder.addExtension(Extension.keyUsage, true, new KeyUsage(keyUsage));
+        }
+        X509CertificateHolder holder =
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate()));
+        return new JcaX509CertificateConverter().getCertificate(holder);
+    }
+
+    private static void verifyRevocation(Crypto crypto) throws Exception {
+        crypto.verifyTrust(new X509Certificate[] {validCert}, true, null, null);
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, false, null, null);
+
+        WSSecurityException ex = assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null));
+        assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+    }
+
+    private static void verifyIndex(CRLIndex index) {
+        List<CRLIndex.IndexedCRL> crls = index.getCRLs(
+            crl.getIssuerX500Principal(), Collections.singletonList(caCert.getPublicKey()), new Date()
+        );
+        assertEquals(1, crls.size());
+        assertTrue(crls.get(0).isRevoked(revokedCert.getSerialNumber()));
+        assertFalse(crls.get(0).isRevoked(validCert.getSerialNumber()));
+        assertFalse(crls.get(0).isRevoked(caCert.getSerialNumber()));
+    }
+
+    private static X509Certificate loadCertificate(String keyStoreLocation, String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream inputStream = Loader.loadInputStream(null, keyStoreLocation)) {
+            keyStore.load(inputStream, "security".toCharArray());
+        }
+        return (X509Certificate)keyStore.getCertificate(alias);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for the CertPathTrustCache
+ */
+public class CertPathTrustCacheTest {
+
+    private static final Collection<Pattern> CONSTRAINTS =
+        Collections.singletonList(Pattern.compile(".*"));
+
+    private static X509Certificate[] certs;
+    private static Merlin trustingCrypto = new Merlin();
+    private static Merlin untrustingCrypto = new Merlin();
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        WSProviderConfig.init();
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        certs = crypto.getX509Certificates(cryptoType);
+
+        trustingCrypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+        untrustingCrypto.setTrustStore(loadKeyStore("keys/wss40badcatrust.jks"));
+    }
+
+    @Test
+    public void testTrustedChainIsCached() throws Exception {
+        CertPathTrustCache cache = new CertPathTrustCache();
+
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS);
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // A different revocation flag or set of constraints is a different entry
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, null);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testUntrustedChainIsNotCached() throws Exception {
+        CertPathTrustCache cache = new CertPathTrustCache();
+
+        assertThrows(WSSecurityException.class,
+            () -> cache.verifyTrust(untrustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS));
+        assertThrows(WSSecurityException.class,
+            () -> cache.verifyTrust(untrustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+
+        // A decision cached for one Crypto does not apply to another
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS);
+        assertThrows(WSSecurityException.class,
+            () -> cache.verifyTrust(untrustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS));
+    }
+
+    @Test
+    public void testExpiryAndEviction() throws Exception {
+        MutableClock clock = new MutableClock();
+        CertPathTrustCache cache = new CertPathTrustCache(1, 60L, clock);
+
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS);
+        clock.instant = clock.instant.plusSeconds(61L);
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, CONSTRAINTS);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.verifyTrust(trustingCrypto, certs, false, CONSTRAINTS, null);
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    private static KeyStore loadKeyStore(String path) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        ClassLoader loader = Loader.getClassLoader(CertPathTrustCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, path)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -21,13 +21,28 @@ package org.apache.wss4j.common.crypto;
 
 import java.io.InputStream;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.PKIXParameters;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Some tests for the Merlin Crypto provider
@@ -77,6 +92,139 @@ public class MerlinTest {
         assertNotNull(pkcs12Crypto.getX509Certificates(cryptoType));
     }
 
+    @Test
+    public void testIndexedCertificateLookups() throws Exception {
+        X509Certificate cert = getCertificate(jksCrypto, "wss40");
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, jksCrypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, jksCrypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(jksCrypto.getSKIBytesFromCert(cert));
+        assertEquals(cert, jksCrypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        assertEquals(cert.getSubjectX500Principal(),
+                     jksCrypto.getX509Certificates(cryptoType)[0].getSubjectX500Principal());
+
+        assertEquals("wss40", jksCrypto.getX509Identifier(cert));
+        jksCrypto.verifyTrust(cert.getPublicKey());
+    }
+
+    @Test
+    public void testIndexFollowsKeyStoreChanges() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks", "security"));
+        X509Certificate cert = getCertificate(crypto, "wss40");
+
+        crypto.setKeyStore(loadKeyStore("keys/wss40_server.jks", "security"));
+        assertNull(crypto.getX509Identifier(cert));
+
+        crypto.setTrustStore(loadKeyStore("keys/wss40.jks", "security"));
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+    }
+
+    @Test
+    public void testIndexFollowsReplacedCertificate() throws Exception {
+        X509Certificate cert = getCertificate(jksCrypto, "wss40");
+        X509Certificate serverCert =
+            (X509Certificate) loadKeyStore("keys/wss40_server.jks", "security").getCertificate("wss40_server");
+
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("cert", cert);
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(trustStore);
+        assertEquals("cert", crypto.getX509Identifier(cert));
+
+        // Replace the certificate under the same alias, so that the size of the truststore is unchanged
+        trustStore.setCertificateEntry("cert", serverCert);
+        crypto.setTrustStore(trustStore);
+        assertNull(crypto.getX509Identifier(cert));
+        assertEquals("cert", crypto.getX509Identifier(serverCert));
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(0, crypto.getX509Certificates(cryptoType).length);
+
+        // The same when the store is modified in place, and the cache is cleared
+        trustStore.setCertificateEntry("cert", cert);
+        crypto.clearCache();
+        assertEquals("cert", crypto.getX509Identifier(cert));
+        assertNull(crypto.getX509Identifier(serverCert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+    }
+
+    @Test
+    public void testTrustAnchorsFollowTrustStoreChanges() throws Exception {
+        X509Certificate[] certs = new X509Certificate[] {getCertificate(jksCrypto, "wss40")};
+        Collection<Pattern> constraints = Collections.singletonList(Pattern.compile(".*"));
+
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks", "security"));
+        crypto.verifyTrust(certs, false, constraints, constraints);
+        crypto.verifyTrust(certs, false, constraints, constraints);
+
+        crypto.setTrustStore(loadKeyStore("keys/wss40badcatrust.jks", "security"));
+        assertThrows(WSSecurityException.class,
+            () -> crypto.verifyTrust(certs, false, constraints, constraints));
+    }
+
+    @Test
+    public void testCachedPKIXParametersAreNotShared() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks", "security"));
+
+        PKIXParameters param = crypto.getPKIXParameters(false);
+        assertNotSame(param, crypto.getPKIXParameters(false));
+
+        // Modifying the returned parameters does not affect the cached parameters
+        param.setRevocationEnabled(true);
+        param.setDate(new Date(0L));
+        PKIXParameters cachedParam = crypto.getPKIXParameters(false);
+        assertFalse(cachedParam.isRevocationEnabled());
+        assertNull(cachedParam.getDate());
+        assertEquals(param.getTrustAnchors(), cachedParam.getTrustAnchors());
+    }
+
+    @Test
+    public void testDecryptedPasswordsAreCached() throws Exception {
+        AtomicInteger decryptions = new AtomicInteger();
+        PasswordEncryptor passwordEncryptor = new PasswordEncryptor() {
+            @Override
+            public String encrypt(String password) {
+                return password;
+            }
+
+            @Override
+            public String decrypt(String encryptedPassword) {
+                decryptions.incrementAndGet();
+                return "decrypted-" + encryptedPassword;
+            }
+        };
+        Merlin crypto = new Merlin();
+        crypto.setPasswordEncryptor(passwordEncryptor);
+
+        assertEquals("decrypted-password", crypto.decryptPassword("ENC(password)", passwordEncryptor));
+        assertEquals("decrypted-password", crypto.decryptPassword("ENC(password)", passwordEncryptor));
+        assertEquals(1, decryptions.get());
+
+        crypto.clearCache();
+        assertEquals("decrypted-password", crypto.decryptPassword("ENC(password)", passwordEncryptor));
+        assertEquals(2, decryptions.get());
+    }
+
+    private static X509Certificate getCertificate(Merlin crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+
     private static KeyStore loadKeyStore(String path, String password) throws Exception {
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         ClassLoader loader = Loader.getClassLoader(MerlinTest.class);
@@ -0,0 +1,450 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.cert.ocsp.jcajce.JcaBasicOCSPRespBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for checking the revocation status of certificates with OCSP, against a responder
+ * which is started locally.
+ */
+public class OCSPRevocationCheckerTest {
+
+    private static KeyPair caKeyPair;
+    private static X509Certificate caCert;
+    private static X509Certificate goodCert;
+    private static X509Certificate revokedCert;
+    private static X509Certificate unknownCert;
+    private static KeyStore trustStore;
+
+    private TestClock clock;
+    private Responder responder;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        WSProviderConfig.init();
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        caKeyPair = keyPairGenerator.generateKeyPair();
+        caCert = createCertificate("CN=OCSP Test CA", BigInteger.ONE, caKeyPair.getPublic(), true);
+
+        PublicKey publicKey = keyPairGenerator.generateKeyPair().getPublic();
+        goodCert = createCertificate("CN=Good", BigInteger.valueOf(2), publicKey, false);
+        revokedCert = createCertificate("CN=Revoked", BigInteger.valueOf(3), publicKey, false);
+        unknownCert = createCertificate("CN=Unknown", BigInteger.valueOf(4), publicKey, false);
+
+        trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", caCert);
+    }
+
+    @BeforeEach
+    public void startResponder() throws Exception {
+        clock = new TestClock(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        responder = new Responder(clock, caKeyPair.getPrivate());
+        responder.statuses.put(revokedCert.getSerialNumber(),
+                               new RevokedStatus(Date.from(clock.instant()), CRLReason.keyCompromise));
+        responder.statuses.put(unknownCert.getSerialNumber(), new UnknownStatus());
+    }
+
+    @AfterEach
+    public void stopResponder() {
+        responder.stop();
+    }
+
+    @Test
+    public void testMerlinRevocation() throws Exception {
+        Merlin crypto = createCrypto(new OCSPClient(10, 60L, clock), false);
+
+        crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null);
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, false, null, null);
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null));
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {unknownCert}, true, null, null));
+        assertEquals(3, responder.requests.get());
+
+        // The responses are cached
+        crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null);
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null));
+        assertEquals(3, responder.requests.get());
+        assertEquals(2, crypto.getOCSPClient().getHitCount());
+    }
+
+    @Test
+    public void testNextUpdate() throws Exception {
+        responder.nextUpdate = 3600L;
+        OCSPClient client = new OCSPClient(10, 60L, clock);
+        client.setResponderURI(responder.getURI());
+
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        clock.advance(3000L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(1, responder.requests.get());
+
+        // The response is only cached until its nextUpdate time
+        clock.advance(1000L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(2, responder.requests.get());
+
+        // Without a nextUpdate time, the response is cached for the configured time
+        responder.nextUpdate = 0L;
+        clock.advance(4000L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        clock.advance(59L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(3, responder.requests.get());
+        clock.advance(1L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(4, responder.requests.get());
+    }
+
+    @Test
+    public void testMaxResponseAge() throws Exception {
+        OCSPClient client = new OCSPClient(10, 3600L, clock);
+        client.setResponderURI(responder.getURI());
+
+        // Without a nextUpdate time, the thisUpdate time must be within the clock skew
+        responder.thisUpdateAge = 1800L;
+        CertPathValidatorException ex =
+            assertThrows(CertPathValidatorException.class, () -> client.getStatus(goodCert, caCert));
+        assertEquals(CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS, ex.getReason());
+        assertEquals(0, client.size());
+
+        // ... or within the max response age, and the response is not cached beyond that age
+        client.setMaxResponseAge(2000L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        clock.advance(199L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(2, responder.requests.get());
+        clock.advance(1L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+        assertEquals(3, responder.requests.get());
+
+        // A response with a nextUpdate time may be older
+        responder.nextUpdate = 3600L;
+        responder.thisUpdateAge = 86400L;
+        clock.advance(3600L);
+        assertEquals(OCSPClient.Status.GOOD, client.getStatus(goodCert, caCert));
+    }
+
+    @Test
+    public void testBoundedCache() throws Exception {
+        OCSPClient client = new OCSPClient(2, 60L, clock);
+        client.setResponderURI(responder.getURI());
+        client.getStatus(goodCert, caCert);
+        client.getStatus(revokedCert, caCert);
+        client.getStatus(unknownCert, caCert);
+        assertEquals(2, client.size());
+    }
+
+    @Test
+    public void testCoalescedLookups() throws Exception {
+        OCSPClient client = new OCSPClient(10, 60L, clock);
+        client.setResponderURI(responder.getURI());
+        responder.received = new CountDownLatch(1);
+        responder.release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<OCSPClient.Status>> statuses = new ArrayList<>();
+            statuses.add(executor.submit(() -> client.getStatus(goodCert, caCert)));
+            assertTrue(responder.received.await(10L, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                statuses.add(executor.submit(() -> client.getStatus(goodCert, caCert)));
+            }
+            long timeout = System.currentTimeMillis() + 10000L;
+            while (client.getCoalescedCount() < 3 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10L);
+            }
+            responder.release.countDown();
+
+            for (Future<OCSPClient.Status> status : statuses) {
+                assertEquals(OCSPClient.Status.GOOD, status.get(10L, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(3, client.getCoalescedCount());
+        assertEquals(1, responder.requests.get());
+    }
+
+    @Test
+    public void testSoftFail() throws Exception {
+        responder.responseStatus = OCSPRespBuilder.TRY_LATER;
+        Merlin crypto = createCrypto(new OCSPClient(10, 60L, clock), false);
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null));
+
+        crypto.setOCSPSoftFail(true);
+        crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null);
+
+        // A revoked certificate is rejected, and an invalid response is never accepted
+        responder.responseStatus = OCSPRespBuilder.SUCCESSFUL;
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null));
+        responder.responseStatus = OCSPRespBuilder.UNAUTHORIZED;
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {unknownCert}, true, null, null));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        responder.release = new CountDownLatch(1);
+        OCSPClient client = new OCSPClient(10, 60L, clock);
+        client.setReadTimeout(200);
+        Merlin crypto = createCrypto(client, false);
+        try {
+            assertThrows(WSSecurityException.class, () ->
+                crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null));
+            crypto.setOCSPSoftFail(true);
+            crypto.verifyTrust(new X509Certificate[] {goodCert}, true, null, null);
+        } finally {
+            responder.release.countDown();
+        }
+    }
+
+    @Test
+    public void testUntrustedResponder() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        responder.signingKey = keyPairGenerator.generateKeyPair().getPrivate();
+
+        OCSPClient client = new OCSPClient(10, 60L, clock);
+        client.setResponderURI(responder.getURI());
+        CertPathValidatorException ex =
+            assertThrows(CertPathValidatorException.class, () -> client.getStatus(goodCert, caCert));
+        assertEquals(CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS, ex.getReason());
+    }
+
+    @Test
+    public void testOCSPProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.Merlin");
+        properties.put(Merlin.PREFIX + Merlin.OCSP_ENABLED, "true");
+        properties.put(Merlin.PREFIX + Merlin.OCSP_RESPONDER, responder.getURI().toString());
+        properties.put(Merlin.PREFIX + Merlin.OCSP_READ_TIMEOUT, "2000");
+        properties.put(Merlin.PREFIX + Merlin.OCSP_MAX_RESPONSE_AGE, "3600");
+        properties.put(Merlin.PREFIX + Merlin.OCSP_SOFT_FAIL, "true");
+        Merlin crypto = (Merlin)CryptoFactory.getInstance(properties);
+        crypto.setTrustStore(trustStore);
+
+        assertEquals(responder.getURI(), crypto.getOCSPClient().getResponderURI());
+        assertEquals(2000, crypto.getOCSPClient().getReadTimeout());
+        assertEquals(3600L, crypto.getOCSPClient().getMaxResponseAge());
+        assertTrue(crypto.isOCSPSoftFail());
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null));
+    }
+
+    private Merlin createCrypto(OCSPClient client, boolean softFail) throws Exception {
+        client.setResponderURI(responder.getURI());
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(trustStore);
+        crypto.setOCSPClient(client);
+        crypto.setOCSPSoftFail(softFail);
+        return crypto;
+    }
+
+    private static X509Certificate createCertificate(
+        String subject, BigInteger serialNumber, PublicKey publicKey, boolean ca
+    ) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            new X500Name("CN=OCSP Test CA"), serialNumber, Date.from(now.minus(1, ChronoUnit.DAYS)),
+            Date.from(now.plus(365, ChronoUnit.DAYS)), new X500Name(subject), publicKey
+        );
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        X509CertificateHolder holder =
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate()));
+        return new JcaX509CertificateConverter().getCertificate(holder);
+    }
+
+    /**
+     * A stand-in OCSP responder
+     */
+    private static final class Responder {
+        private final HttpServer server;
+        private final Clock clock;
+        // The status of certificates which are not good (CertificateStatus.GOOD is null)
+        private final Map<BigInteger, CertificateStatus> statuses = new ConcurrentHashMap<>();
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile PrivateKey signingKey;
+        private volatile int responseStatus = OCSPRespBuilder.SUCCESSFUL;
+        private volatile long nextUpdate;
+        // The age in seconds of the thisUpdate time of the responses
+        private volatile long thisUpdateAge;
+        private volatile CountDownLatch received;
+        private volatile CountDownLatch release;
+
+        Responder(Clock clock, PrivateKey signingKey) throws Exception {
+            this.clock = clock;
+            this.signingKey = signingKey;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/ocsp", this::handle);
+            server.start();
+        }
+
+        URI getURI() {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ocsp");
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                requests.incrementAndGet();
+                OCSPReq request = new OCSPReq(inputStream.readAllBytes());
+                if (received != null) {
+                    received.countDown();
+                }
+                if (release != null) {
+                    release.await(10L, TimeUnit.SECONDS);
+                }
+
+                OCSPResp response;
+                if (responseStatus == OCSPRespBuilder.SUCCESSFUL) {
+                    Date now = Date.from(clock.instant());
+                    JcaBasicOCSPRespBuilder builder = new JcaBasicOCSPRespBuilder(
+                        caCert.getPublicKey(),
+                        new JcaDigestCalculatorProviderBuilder().build().get(RespID.HASH_SHA1)
+                    );
+                    for (Req req : request.getRequestList()) {
+                        CertificateStatus status = statuses.get(req.getCertID().getSerialNumber());
+                        builder.addResponse(
+                            req.getCertID(), status, Date.from(clock.instant().minusSeconds(thisUpdateAge)),
+                            nextUpdate > 0 ? Date.from(clock.instant().plusSeconds(nextUpdate)) : null
+                        );
+                    }
+                    BasicOCSPResp basicResponse = builder.build(
+                        new JcaContentSignerBuilder("SHA256withRSA").build(signingKey),
+                        new X509CertificateHolder[] {new JcaX509CertificateHolder(caCert)}, now
+                    );
+                    response = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResponse);
+                } else {
+                    response = new OCSPRespBuilder().build(responseStatus, null);
+                }
+
+                byte[] responseBytes = response.getEncoded();
+                exchange.getResponseHeaders().add("Content-Type", "application/ocsp-response");
+                exchange.sendResponseHeaders(200, responseBytes.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(responseBytes);
+                }
+            } catch (Exception ex) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * A Clock which is advanced by the tests
+     */
+    private static final class TestClock extends Clock {
+        private volatile Instant instant;
+
+        TestClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void advance(long seconds) {
+            instant = instant.plusSeconds(seconds);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for the ReloadableMerlin Crypto provider
+ */
+public class ReloadableMerlinTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReloadKeyStore() throws Exception {
+        WSProviderConfig.init();
+        Path keyStoreFile = tempDir.resolve("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", ReloadableMerlin.class.getName());
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.type", "jks");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", keyStoreFile.toString());
+        properties.put("org.apache.wss4j.crypto.merlin.reload.interval", "0");
+
+        Crypto crypto = CryptoFactory.getInstance(properties);
+        assertTrue(crypto instanceof ReloadableMerlin);
+        ReloadableMerlin reloadableMerlin = (ReloadableMerlin) crypto;
+        assertNotNull(crypto.getPrivateKey("wss40", "security"));
+        assertFalse(reloadableMerlin.reloadIfModified());
+
+        // Replace the keystore
+        Merlin previous = reloadableMerlin.getCurrentCrypto();
+        copy("keys/wss40_server.jks", keyStoreFile);
+        assertTrue(reloadableMerlin.reloadIfModified());
+        assertFalse(reloadableMerlin.reloadIfModified());
+        assertNotNull(crypto.getPrivateKey("wss40_server", "security"));
+        assertThrows(WSSecurityException.class, () -> crypto.getPrivateKey("wss40", "security"));
+
+        // The previous material is unchanged
+        assertNotNull(previous.getPrivateKey("wss40", "security"));
+        assertNull(previous.getKeyStore().getCertificate("wss40_server"));
+
+        // A keystore which cannot be loaded does not replace the current material
+        Merlin current = reloadableMerlin.getCurrentCrypto();
+        Files.write(keyStoreFile, new byte[] {1, 2, 3});
+        assertThrows(WSSecurityException.class, reloadableMerlin::reloadIfModified);
+        assertSame(current, reloadableMerlin.getCurrentCrypto());
+        assertNotNull(crypto.getPrivateKey("wss40_server", "security"));
+
+        copy("keys/wss40.jks", keyStoreFile);
+        assertTrue(reloadableMerlin.reloadIfModified());
+        assertNotNull(crypto.getPrivateKey("wss40", "security"));
+        X509Certificate certificate = (X509Certificate) previous.getKeyStore().getCertificate("wss40");
+        assertEquals("wss40", crypto.getX509Identifier(certificate));
+    }
+
+    @Test
+    public void testSettingsAreKeptAcrossReloads() throws Exception {
+        Path keyStoreFile = tempDir.resolve("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+        Properties properties = getProperties(keyStoreFile, "0");
+        properties.put("org.apache.wss4j.crypto.merlin.ocsp.enabled", "true");
+
+        ReloadableMerlin crypto = new ReloadableMerlin(properties, null, null);
+        OCSPClient ocspClient = crypto.getOCSPClient();
+        assertNotNull(ocspClient);
+        crypto.setEnableCRLIndex(true);
+        crypto.setEnablePrivateKeyCaching(false);
+        crypto.setOCSPSoftFail(true);
+
+        copy("keys/wss40_server.jks", keyStoreFile);
+        assertTrue(crypto.reloadIfModified());
+        assertNotNull(crypto.getPrivateKey("wss40_server", "security"));
+        assertTrue(crypto.isEnableCRLIndex());
+        assertFalse(crypto.isEnablePrivateKeyCaching());
+        assertTrue(crypto.isOCSPSoftFail());
+        // The OCSPClient created from the properties (and its cache) is kept
+        assertSame(ocspClient, crypto.getOCSPClient());
+
+        OCSPClient otherOCSPClient = new OCSPClient();
+        crypto.setOCSPClient(otherOCSPClient);
+        crypto.reload();
+        assertSame(otherOCSPClient, crypto.getOCSPClient());
+    }
+
+    @Test
+    public void testReloadExecutor() throws Exception {
+        Path keyStoreFile = tempDir.resolve("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        try {
+            ReloadableMerlin crypto = new ReloadableMerlin();
+            crypto.setReloadExecutor(executor);
+            crypto.loadProperties(getProperties(keyStoreFile, "60"), null, null);
+            assertEquals(1, executor.getQueue().size());
+
+            crypto.stopReloading();
+            assertTrue(executor.getQueue().isEmpty());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Properties getProperties(Path keyStoreFile, String reloadInterval) {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.type", "jks");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", keyStoreFile.toString());
+        properties.put("org.apache.wss4j.crypto.merlin.reload.interval", reloadInterval);
+        return properties;
+    }
+
+    private static void copy(String resource, Path target) throws Exception {
+        try (InputStream inputStream = Loader.loadInputStream(ReloadableMerlinTest.class.getClassLoader(), resource)) {
+            Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
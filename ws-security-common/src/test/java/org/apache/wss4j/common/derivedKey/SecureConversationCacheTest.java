@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.derivedKey;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some tests for the SecureConversationCache
+ */
+public class SecureConversationCacheTest {
+
+    private static final String P_SHA_1 = ConversationConstants.DerivationAlgorithm.P_SHA_1;
+    private static final String LABEL = "WS-SecureConversationWS-SecureConversation";
+    private static final byte[] SECRET = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+    private static final byte[] NONCE = new byte[] {16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    @Test
+    public void testSecretIsCached() throws Exception {
+        SecureConversationCache cache = new SecureConversationCache();
+        assertNull(cache.getSecret("urn:uuid:1"));
+
+        cache.putSecret("urn:uuid:1", SECRET);
+        assertArrayEquals(SECRET, cache.getSecret("urn:uuid:1"));
+        assertNull(cache.getSecret("urn:uuid:2"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // Empty secrets are not cached
+        cache.putSecret("urn:uuid:2", new byte[0]);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testDerivedKeyIsCached() throws Exception {
+        SecureConversationCache cache = new SecureConversationCache();
+        byte[] expected = DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0);
+
+        // The secret does not belong to a cached session
+        assertArrayEquals(expected, cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0));
+        assertEquals(0, cache.getMissCount());
+
+        cache.putSecret("urn:uuid:1", SECRET);
+        assertArrayEquals(expected, cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0));
+        assertArrayEquals(expected, cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different length, offset or nonce is derived again
+        assertArrayEquals(DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 16, SECRET, NONCE, 0),
+            cache.deriveKey(P_SHA_1, LABEL, 16, SECRET, NONCE, 0));
+        assertArrayEquals(DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 32),
+            cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 32));
+        assertArrayEquals(DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, SECRET, 0),
+            cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, SECRET, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testDerivedKeyUtils() throws Exception {
+        SecureConversationCache cache = new SecureConversationCache();
+        cache.putSecret("urn:uuid:1", SECRET);
+        byte[] expected = DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0);
+
+        assertArrayEquals(expected, DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0, null));
+        assertArrayEquals(expected, DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0, cache));
+        assertArrayEquals(expected, DerivedKeyUtils.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0, cache));
+        assertEquals(1, cache.getHitCount());
+
+        // Keys are not cached for a different secret
+        byte[] otherSecret = SECRET.clone();
+        otherSecret[15]++;
+        cache.deriveKey(P_SHA_1, LABEL, 32, otherSecret, NONCE, 0);
+        cache.deriveKey(P_SHA_1, LABEL, 32, otherSecret, NONCE, 0);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        SecureConversationCache cache = new SecureConversationCache();
+        cache.putSecret("urn:uuid:1", SECRET);
+        cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0);
+
+        cache.cancel("urn:uuid:1");
+        assertEquals(0, cache.size());
+        assertNull(cache.getSecret("urn:uuid:1"));
+
+        // Keys are no longer cached for the secret of the cancelled session
+        long misses = cache.getMissCount();
+        cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0);
+        cache.deriveKey(P_SHA_1, LABEL, 32, SECRET, NONCE, 0);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test
+    public void testLifetime() throws Exception {
+        MutableClock clock = new MutableClock();
+        SecureConversationCache cache = new SecureConversationCache(10, 10, 300L, clock);
+
+        cache.putSecret("urn:uuid:1", SECRET, clock.instant.plusSeconds(30L));
+        cache.putSecret("urn:uuid:2", NONCE);
+        clock.instant = clock.instant.plusSeconds(30L);
+        assertNull(cache.getSecret("urn:uuid:1"));
+        assertArrayEquals(NONCE, cache.getSecret("urn:uuid:2"));
+        assertEquals(1, cache.getEvictionCount());
+
+        clock.instant = clock.instant.plusSeconds(300L);
+        assertNull(cache.getSecret("urn:uuid:2"));
+        assertEquals(0, cache.size());
+
+        // An expired session is not added
+        cache.putSecret("urn:uuid:3", SECRET, clock.instant.minusSeconds(1L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        SecureConversationCache cache = new SecureConversationCache(1, 1, 60L);
+        cache.putSecret("urn:uuid:1", SECRET);
+        cache.putSecret("urn:uuid:2", NONCE);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertArrayEquals(NONCE, cache.getSecret("urn:uuid:2"));
+
+        cache.deriveKey(P_SHA_1, LABEL, 32, NONCE, NONCE, 0);
+        cache.deriveKey(P_SHA_1, LABEL, 32, NONCE, SECRET, 0);
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
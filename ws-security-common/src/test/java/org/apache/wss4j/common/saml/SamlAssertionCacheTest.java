@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.saml;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.apache.wss4j.common.crypto.Merlin;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for the SamlAssertionCache
+ */
+public class SamlAssertionCacheTest {
+
+    private static final byte[] SIGNED_INFO = "<ds:SignedInfo/>".getBytes(StandardCharsets.UTF_8);
+
+    private static PublicKey publicKey;
+    private static PublicKey otherPublicKey;
+    private final Merlin crypto = new Merlin();
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        publicKey = keyPairGenerator.generateKeyPair().getPublic();
+        otherPublicKey = keyPairGenerator.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void testValidatedAssertionIsCached() throws Exception {
+        SamlAssertionCache cache = new SamlAssertionCache();
+        byte[] digest = SamlAssertionCache.getSignatureDigest(SIGNED_INFO, new byte[] {1, 2, 3});
+
+        assertFalse(cache.contains(crypto, "_1", digest, publicKey));
+        cache.add(crypto, "_1", digest, publicKey, null, null);
+        assertTrue(cache.contains(crypto, "_1", digest, publicKey));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different key, ID, Crypto, signature value or SignedInfo does not match the entry
+        assertFalse(cache.contains(crypto, "_1", digest, otherPublicKey));
+        assertFalse(cache.contains(crypto, "_2", digest, publicKey));
+        assertFalse(cache.contains(new Merlin(), "_1", digest, publicKey));
+        assertFalse(cache.contains(crypto, "_1",
+            SamlAssertionCache.getSignatureDigest(SIGNED_INFO, new byte[] {1, 2, 4}), publicKey));
+        assertFalse(cache.contains(crypto, "_1",
+            SamlAssertionCache.getSignatureDigest(new byte[0], new byte[] {1, 2, 3}), publicKey));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testMissingSignature() throws Exception {
+        assertNull(SamlAssertionCache.getSignatureDigest(SIGNED_INFO, new byte[0]));
+
+        SamlAssertionCache cache = new SamlAssertionCache();
+        cache.add(crypto, "_1", null, publicKey, null, null);
+        cache.add(null, "_1", new byte[] {1}, publicKey, null, null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNotOnOrAfter() throws Exception {
+        MutableClock clock = new MutableClock();
+        SamlAssertionCache cache = new SamlAssertionCache(10, 300L, clock);
+        byte[] digest = SamlAssertionCache.getSignatureDigest(SIGNED_INFO, new byte[] {1, 2, 3});
+
+        cache.add(crypto, "_1", digest, publicKey, null, clock.instant.plusSeconds(30L));
+        assertTrue(cache.contains(crypto, "_1", digest, publicKey));
+        clock.instant = clock.instant.plusSeconds(30L);
+        assertFalse(cache.contains(crypto, "_1", digest, publicKey));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.size());
+
+        // An expired Assertion is not added
+        cache.add(crypto, "_2", digest, publicKey, null, clock.instant.minusSeconds(1L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        MutableClock clock = new MutableClock();
+        SamlAssertionCache cache = new SamlAssertionCache(1, 60L, clock);
+        byte[] digest = SamlAssertionCache.getSignatureDigest(SIGNED_INFO, new byte[] {1, 2, 3});
+
+        cache.add(crypto, "_1", digest, publicKey, null, null);
+        cache.add(crypto, "_2", digest, publicKey, null, null);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.contains(crypto, "_2", digest, publicKey));
+
+        clock.instant = clock.instant.plusSeconds(61L);
+        assertFalse(cache.contains(crypto, "_2", digest, publicKey));
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for the DocumentBuilderPool
+ */
+public class DocumentBuilderPoolTest {
+
+    private static final String XML = "<ns:a xmlns:ns=\"urn:test\"><ns:b>text</ns:b></ns:a>";
+    private static final String DOCTYPE_XML =
+        "<!DOCTYPE a [<!ENTITY e \"entity\">]><a>&e;</a>";
+
+    @Test
+    public void testDocumentBuildersAreReused() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool();
+
+        Document document = pool.newDocument();
+        assertNotSame(document, pool.newDocument());
+        Document parsedDocument = parse(pool, XML);
+        assertEquals("urn:test", parsedDocument.getDocumentElement().getNamespaceURI());
+
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(2, pool.getReusedCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSecureProcessingIsKeptAfterReset() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool();
+
+        assertThrows(SAXException.class, () -> parse(pool, DOCTYPE_XML));
+        // A failed parse does not affect the next use of the DocumentBuilder
+        parse(pool, XML);
+        assertThrows(SAXException.class, () -> parse(pool, DOCTYPE_XML));
+        assertThrows(SAXException.class, () -> parse(pool, "<a><b></a>"));
+
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(3, pool.getReusedCount());
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception {
+        DocumentBuilderPool pool =
+            new DocumentBuilderPool(DocumentBuilderPool.newDocumentBuilderFactory(), 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Document>> documents = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                documents.add(executor.submit(() -> parse(pool, XML)));
+            }
+            for (Future<Document> document : documents) {
+                assertEquals("a", document.get().getDocumentElement().getLocalName());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(pool.getIdleCount() <= 2);
+        assertTrue(pool.getCreatedCount() <= 4);
+        assertEquals(100, pool.getCreatedCount() + pool.getReusedCount());
+        assertEquals(pool.getCreatedCount() - pool.getIdleCount(), pool.getDiscardedCount());
+    }
+
+    private static Document parse(DocumentBuilderPool pool, String xml) throws Exception {
+        return pool.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
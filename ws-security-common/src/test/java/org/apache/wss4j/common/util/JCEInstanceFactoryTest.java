@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchProviderException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for the JCEInstanceFactory
+ */
+public class JCEInstanceFactoryTest {
+
+    private static final byte[] DATA = "some data to digest".getBytes(StandardCharsets.UTF_8);
+
+    @BeforeEach
+    public void clearPool() {
+        JCEInstanceFactory.clear();
+    }
+
+    @Test
+    public void testReleasedMessageDigestIsReusedAndReset() throws Exception {
+        MessageDigest digest = JCEInstanceFactory.getMessageDigest("SHA-256");
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(DATA);
+
+        // Leave some state behind, which must be reset for the next caller
+        digest.update(DATA);
+        JCEInstanceFactory.releaseMessageDigest(digest);
+        MessageDigest pooledDigest = JCEInstanceFactory.getMessageDigest("SHA-256");
+        assertSame(digest, pooledDigest);
+        assertArrayEquals(expected, pooledDigest.digest(DATA));
+    }
+
+    @Test
+    public void testMessageDigestIsNotSharedUntilReleased() throws Exception {
+        MessageDigest digest = JCEInstanceFactory.getMessageDigest("SHA-1");
+        MessageDigest otherDigest = JCEInstanceFactory.getMessageDigest("SHA-1");
+        assertNotSame(digest, otherDigest);
+
+        JCEInstanceFactory.releaseMessageDigest(otherDigest);
+        assertSame(otherDigest, JCEInstanceFactory.getMessageDigest("SHA-1"));
+        assertNotSame(digest, JCEInstanceFactory.getMessageDigest("SHA-1"));
+
+        // Releasing null is a no-op
+        JCEInstanceFactory.releaseMessageDigest(null);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        MessageDigest digest = JCEInstanceFactory.getMessageDigest("SHA-256");
+        JCEInstanceFactory.releaseMessageDigest(digest);
+        JCEInstanceFactory.clear();
+        assertNotSame(digest, JCEInstanceFactory.getMessageDigest("SHA-256"));
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        MessageDigest[] digests = new MessageDigest[JCEInstanceFactory.MAX_IDLE + 1];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = JCEInstanceFactory.getMessageDigest("SHA-256");
+        }
+        for (MessageDigest digest : digests) {
+            JCEInstanceFactory.releaseMessageDigest(digest);
+        }
+        for (int i = 0; i < JCEInstanceFactory.MAX_IDLE; i++) {
+            assertSame(digests[i], JCEInstanceFactory.getMessageDigest("SHA-256"));
+        }
+        // The last instance was dropped
+        assertNotSame(digests[JCEInstanceFactory.MAX_IDLE], JCEInstanceFactory.getMessageDigest("SHA-256"));
+    }
+
+    @Test
+    public void testProviders() throws Exception {
+        String providerName = MessageDigest.getInstance("SHA-1").getProvider().getName();
+        MessageDigest digest = JCEInstanceFactory.getMessageDigest("SHA-1", providerName);
+        assertEquals(providerName, digest.getProvider().getName());
+
+        JCEInstanceFactory.releaseMessageDigest(digest);
+        assertSame(digest, JCEInstanceFactory.getMessageDigest("SHA-1", providerName));
+
+        assertThrows(NoSuchProviderException.class,
+            () -> JCEInstanceFactory.getMessageDigest("SHA-1", "UnknownProvider"));
+    }
+}
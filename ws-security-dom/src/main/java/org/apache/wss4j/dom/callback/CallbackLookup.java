@@ -78,4 +78,13 @@ public interface CallbackLookup {
      * Get the SOAP Body
      */
     Element getSOAPBody();
+
+    /**
+     * Notify the CallbackLookup that the document has been modified, for example because an
+     * EncryptedData element has been replaced by its decrypted content. Implementations that
+     * cache Element lookups must discard them.
+     */
+    default void invalidate() {
+        // nothing to discard by default
+    }
 }
@@ -33,10 +33,17 @@ import org.w3c.dom.Element;
 
 /**
  * This class uses a DOM-based approach to locate Elements that are referenced via an Id.
+ * The Elements are looked up in an index of the document, which is built on the first lookup
+ * and kept until {@link #invalidate()} is called.
  */
 public class DOMCallbackLookup implements CallbackLookup {
 
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(DOMCallbackLookup.class);
+
     private Document doc;
+    private ElementIdIndex idIndex;
+    private int indexBuildCount;
 
     public DOMCallbackLookup(Document doc) {
         this.doc = doc;
@@ -49,8 +56,8 @@ public class DOMCallbackLookup implements CallbackLookup {
      *
      * @param id The id of the element to locate
      * @param valueType The ValueType attribute of the element to locate (can be null)
-     * @param checkMultipleElements If true then go through the entire tree and return
-     *        null if there are multiple elements with the same Id
+     * @param checkMultipleElements If true then return null if there are multiple elements
+     *        with the same Id
      * @return the located element
      * @throws WSSecurityException
      */
@@ -68,8 +75,8 @@ public class DOMCallbackLookup implements CallbackLookup {
      *
      * @param id The id of the element to locate
      * @param valueType The ValueType attribute of the element to locate (can be null)
-     * @param checkMultipleElements If true then go through the entire tree and return
-     *        null if there are multiple elements with the same Id
+     * @param checkMultipleElements If true then return null if there are multiple elements
+     *        with the same Id
      * @param context The DOMCryptoContext to store the Element in
      * @return the located element
      * @throws WSSecurityException
@@ -92,10 +99,36 @@ public class DOMCallbackLookup implements CallbackLookup {
                 return bodyElement;
             }
         }
-        // Otherwise do a general search
-        Element foundElement =
-            XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, checkMultipleElements);
-        if (foundElement != null) {
+        if (idToMatch == null) {
+            return null;
+        }
+
+        // Otherwise look the Id up in the index, which is built once for the document and kept
+        // until it is invalidated. It is only built again here if the document root has changed,
+        // or if an Element that it returns has since lost the Id or been removed from the document
+        boolean samlValueType = WSConstants.WSS_SAML_KI_VALUE_TYPE.equals(valueType)
+            || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
+            || valueType == null || valueType.length() == 0;
+        boolean newIndex = idIndex == null || !idIndex.isIndexOf(doc.getDocumentElement());
+        if (newIndex) {
+            buildIndex();
+        }
+        List<Element> foundElements = idIndex.getElementsById(idToMatch);
+        List<Element> foundSAMLElements =
+            samlValueType ? idIndex.getElementsBySAMLId(idToMatch) : Collections.emptyList();
+        if (!newIndex
+            && (!idIndex.isCurrent(foundElements, idToMatch)
+                || !idIndex.isCurrent(foundSAMLElements, idToMatch))) {
+            buildIndex();
+            foundElements = idIndex.getElementsById(idToMatch);
+            foundSAMLElements =
+                samlValueType ? idIndex.getElementsBySAMLId(idToMatch) : Collections.emptyList();
+        }
+
+        if (checkMultipleElements && idIndex.isDuplicateId(idToMatch)) {
+            LOG.warn("Multiple elements with the same 'Id' attribute value!");
+        } else if (!foundElements.isEmpty()) {
+            Element foundElement = foundElements.get(0);
             if (context != null) {
                 if (foundElement.hasAttributeNS(WSConstants.WSU_NS, "Id")
                     && idToMatch.equals(foundElement.getAttributeNS(WSConstants.WSU_NS, "Id"))) {
@@ -113,26 +146,21 @@ public class DOMCallbackLookup implements CallbackLookup {
         // Try to find a SAML Assertion Element if the ValueType corresponds to a SAML Assertion
         // (or is empty)
         //
-        if (WSConstants.WSS_SAML_KI_VALUE_TYPE.equals(valueType)
-            || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
-            || valueType == null || valueType.length() == 0) {
-            foundElement =
-                XMLUtils.findSAMLAssertionElementById(
-                    doc.getDocumentElement(), idToMatch
-                );
-            if (foundElement != null) {
-                if (context != null) {
-                    if (foundElement.hasAttributeNS(null, "ID")
-                        && idToMatch.equals(foundElement.getAttributeNS(null, "ID"))) {
-                        context.setIdAttributeNS(foundElement, null, "ID");
-                    }
-                    if (foundElement.hasAttributeNS(null, "AssertionID")
-                        && idToMatch.equals(foundElement.getAttributeNS(null, "AssertionID"))) {
-                        context.setIdAttributeNS(foundElement, null, "AssertionID");
-                    }
+        if (samlValueType && idIndex.isDuplicateSAMLId(idToMatch)) {
+            LOG.warn("Multiple elements with the same 'ID' attribute value!");
+        } else if (!foundSAMLElements.isEmpty()) {
+            Element foundElement = foundSAMLElements.get(0);
+            if (context != null) {
+                if (foundElement.hasAttributeNS(null, "ID")
+                    && idToMatch.equals(foundElement.getAttributeNS(null, "ID"))) {
+                    context.setIdAttributeNS(foundElement, null, "ID");
+                }
+                if (foundElement.hasAttributeNS(null, "AssertionID")
+                    && idToMatch.equals(foundElement.getAttributeNS(null, "AssertionID"))) {
+                    context.setIdAttributeNS(foundElement, null, "AssertionID");
                 }
-                return foundElement;
             }
+            return foundElement;
         }
 
         return null;
@@ -165,4 +193,26 @@ public class DOMCallbackLookup implements CallbackLookup {
     public Element getSOAPBody() {
         return WSSecurityUtil.findBodyElement(doc);
     }
+
+    /**
+     * Discard the index of the Elements of the document by Id, so that it is built again
+     * on the next lookup. This must be called once Elements with an Id have been added to the
+     * document, as they are not found (or detected as duplicates) until the index is built again.
+     */
+    @Override
+    public void invalidate() {
+        idIndex = null;
+    }
+
+    /**
+     * @return the number of times that the index of the Elements of the document by Id was built
+     */
+    int getIndexBuildCount() {
+        return indexBuildCount;
+    }
+
+    private void buildIndex() {
+        idIndex = new ElementIdIndex(doc.getDocumentElement());
+        indexBuildCount++;
+    }
 }
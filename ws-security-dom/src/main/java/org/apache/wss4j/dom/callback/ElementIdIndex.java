@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.callback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * An index of the Elements of a document by their Id, which is built in a single pass over
+ * the document. Elements are indexed by their wsu:Id and Id attributes, and separately by
+ * their SAML ID and AssertionID attributes. The Elements for a given Id are stored in document
+ * order, and the Ids which are carried by more than one Element are recorded while the index is
+ * built, so that duplicates can be detected without going through the document again.
+ *
+ * The index is a snapshot of the document at the time it was built. Callers must check that
+ * the Elements that are returned are still current, and build a new index when the document
+ * has been modified.
+ */
+final class ElementIdIndex {
+
+    private final Element root;
+    private final Map<String, List<Element>> ids = new HashMap<>();
+    private final Map<String, List<Element>> samlIds = new HashMap<>();
+    private final Set<String> duplicateIds = new HashSet<>();
+    private final Set<String> duplicateSAMLIds = new HashSet<>();
+
+    ElementIdIndex(Element root) {
+        this.root = root;
+        if (root == null) {
+            return;
+        }
+
+        // Same depth-first-loop traversal as XMLUtils.findElementById
+        Node startParent = root.getParentNode();
+        Node processedNode = null;
+        Node startNode = root;
+        while (startNode != null) {
+            if (startNode.getNodeType() == Node.ELEMENT_NODE && startNode.hasAttributes()) {
+                index((Element) startNode);
+            }
+
+            processedNode = startNode;
+            startNode = startNode.getFirstChild();
+
+            // no child, this node is done.
+            if (startNode == null) {
+                // close node processing, get sibling
+                startNode = processedNode.getNextSibling();
+            }
+            // no more siblings, get parent, all children
+            // of parent are processed.
+            while (startNode == null) {
+                processedNode = processedNode.getParentNode();
+                if (processedNode == startParent) {
+                    return;
+                }
+                // close parent node processing (processed node now)
+                startNode = processedNode.getNextSibling();
+            }
+        }
+    }
+
+    private void index(Element element) {
+        String wsuId = element.getAttributeNS(WSConstants.WSU_NS, "Id");
+        String id = element.getAttributeNS(null, "Id");
+        add(ids, duplicateIds, wsuId, element);
+        if (!id.equals(wsuId)) {
+            add(ids, duplicateIds, id, element);
+        }
+
+        String samlId = element.getAttributeNS(null, "ID");
+        String assertionId = element.getAttributeNS(null, "AssertionID");
+        add(samlIds, duplicateSAMLIds, samlId, element);
+        if (!assertionId.equals(samlId)) {
+            add(samlIds, duplicateSAMLIds, assertionId, element);
+        }
+    }
+
+    private static void add(
+        Map<String, List<Element>> map, Set<String> duplicates, String id, Element element
+    ) {
+        if (id.length() != 0) {
+            List<Element> elements = map.computeIfAbsent(id, k -> new ArrayList<>(1));
+            if (!elements.isEmpty()) {
+                duplicates.add(id);
+            }
+            elements.add(element);
+        }
+    }
+
+    /**
+     * @return the Elements with the given wsu:Id or Id, in document order
+     */
+    List<Element> getElementsById(String id) {
+        return ids.getOrDefault(id, Collections.emptyList());
+    }
+
+    /**
+     * @return the Elements with the given SAML ID or AssertionID, in document order
+     */
+    List<Element> getElementsBySAMLId(String id) {
+        return samlIds.getOrDefault(id, Collections.emptyList());
+    }
+
+    /**
+     * @return true if more than one Element carried the given wsu:Id or Id when the index was built
+     */
+    boolean isDuplicateId(String id) {
+        return duplicateIds.contains(id);
+    }
+
+    /**
+     * @return true if more than one Element carried the given SAML ID or AssertionID when the
+     * index was built
+     */
+    boolean isDuplicateSAMLId(String id) {
+        return duplicateSAMLIds.contains(id);
+    }
+
+    /**
+     * @return true if this index was built from the given root Element
+     */
+    boolean isIndexOf(Element element) {
+        return root == element;
+    }
+
+    /**
+     * Check that the given Elements (as returned by this index for the given Id) still carry
+     * the Id, and are still part of the document.
+     */
+    boolean isCurrent(List<Element> elements, String id) {
+        for (Element element : elements) {
+            if (!hasId(element, id) || !isAttached(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasId(Element element, String id) {
+        return id.equals(element.getAttributeNS(WSConstants.WSU_NS, "Id"))
+            || id.equals(element.getAttributeNS(null, "Id"))
+            || id.equals(element.getAttributeNS(null, "ID"))
+            || id.equals(element.getAttributeNS(null, "AssertionID"));
+    }
+
+    private boolean isAttached(Element element) {
+        Node node = element;
+        while (node != null && node != root) {
+            node = node.getParentNode();
+        }
+        return node != null;
+    }
+
+}
@@ -24,6 +24,7 @@ import java.security.PrivilegedAction;
 import java.security.Security;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -37,10 +38,12 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.WSCurrentTimeSource;
 import org.apache.wss4j.common.util.WSTimeSource;
 import org.apache.wss4j.dom.processor.Processor;
+import org.apache.wss4j.dom.processor.StatefulProcessor;
 import org.apache.wss4j.dom.resolvers.ResolverAttachment;
 import org.apache.wss4j.dom.transform.AttachmentCiphertextTransform;
 import org.apache.wss4j.dom.transform.AttachmentCompleteSignatureTransformProvider;
 import org.apache.wss4j.dom.transform.AttachmentContentSignatureTransformProvider;
+import org.apache.wss4j.dom.validate.StatefulValidator;
 import org.apache.wss4j.dom.validate.Validator;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
 import org.apache.xml.security.transforms.Transform;
@@ -298,6 +301,13 @@ public final class WSSConfig {
      */
     private final Map<QName, Object> validatorMap = new HashMap<>(DEFAULT_VALIDATORS);
 
+    /**
+     * The shared Processor and Validator instances of the classes registered in the processor
+     * and validator maps, which are created the first time they are requested. Classes that
+     * implement StatefulProcessor or StatefulValidator are instantiated on every request instead.
+     */
+    private final Map<Class<?>, Object> sharedInstances = new ConcurrentHashMap<>();
+
     static {
         try {
             Transform.register(WSConstants.SWA_ATTACHMENT_CIPHERTEXT_TRANS,
@@ -458,6 +468,9 @@ public final class WSSConfig {
      * Associate a SOAP processor name with a specified SOAP Security header
      * element QName.  Processors registered under this QName will be
      * called when processing header elements with the specified type.
+     *
+     * The class is instantiated once, and the instance is then shared between all messages
+     * that are processed with this WSSConfig, unless it implements StatefulProcessor.
      */
     public Class<?> setProcessor(QName el, Class<?> clazz) {
         Object result = processorMap.put(el, clazz);
@@ -491,6 +504,9 @@ public final class WSSConfig {
      * Associate a SOAP validator name with a specified SOAP Security header
      * element QName.  validator registered under this QName will be
      * called when processing header elements with the specified type.
+     *
+     * The class is instantiated once, and the instance is then shared between all messages
+     * that are processed with this WSSConfig, unless it implements StatefulValidator.
      */
     public Class<?> setValidator(QName el, Class<?> clazz) {
         Object result = validatorMap.put(el, clazz);
@@ -513,13 +529,8 @@ public final class WSSConfig {
         final Object validatorObject = validatorMap.get(el);
 
         if (validatorObject instanceof Class<?>) {
-            try {
-                return (Validator)((Class<?>)validatorObject).getDeclaredConstructor().newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                    "unableToLoadClass", new Object[] {((Class<?>)validatorObject).getName()});
-            }
+            Class<?> validatorClass = (Class<?>)validatorObject;
+            return (Validator)getInstance(validatorClass, !StatefulValidator.class.isAssignableFrom(validatorClass));
         } else if (validatorObject instanceof Validator) {
             return (Validator)validatorObject;
         }
@@ -537,17 +548,32 @@ public final class WSSConfig {
         final Object processorObject = processorMap.get(el);
 
         if (processorObject instanceof Class<?>) {
+            Class<?> processorClass = (Class<?>)processorObject;
+            return (Processor)getInstance(processorClass, !StatefulProcessor.class.isAssignableFrom(processorClass));
+        } else if (processorObject instanceof Processor) {
+            return (Processor)processorObject;
+        }
+        return null;
+    }
+
+    private Object getInstance(Class<?> clazz, boolean shared) throws WSSecurityException {
+        Object instance = shared ? sharedInstances.get(clazz) : null;
+        if (instance == null) {
             try {
-                return (Processor)((Class<?>)processorObject).getDeclaredConstructor().newInstance();
+                instance = clazz.getDeclaredConstructor().newInstance();
             } catch (Exception ex) {
                 LOG.debug(ex.getMessage(), ex);
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)processorObject).getName()});
+                        "unableToLoadClass", new Object[] {clazz.getName()});
+            }
+            if (shared) {
+                Object existing = sharedInstances.putIfAbsent(clazz, instance);
+                if (existing != null) {
+                    instance = existing;
+                }
             }
-        } else if (processorObject instanceof Processor) {
-            return (Processor)processorObject;
         }
-        return null;
+        return instance;
     }
 
     public WSTimeSource getCurrentTime() {
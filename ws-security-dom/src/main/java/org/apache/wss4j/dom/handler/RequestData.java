@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -38,9 +39,12 @@ import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
@@ -75,6 +79,13 @@ public class RequestData {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private CertPathTrustCache certPathTrustCache;
+    private SamlAssertionCache samlAssertionCache;
+    private SecureConversationCache secureConversationCache;
+    private Executor decryptionExecutor;
+    private Executor signatureVerificationExecutor;
+    private Executor signatureExecutor;
+    private Executor encryptionExecutor;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
     private final List<BSPRule> ignoredBSPRules = new LinkedList<>();
@@ -336,6 +347,111 @@ public class RequestData {
         return enableRevocation;
     }
 
+    /**
+     * Set the cache of validated certificate paths used when verifying trust in the
+     * certificate (chain) of a signature. Trust is verified on every request if it is not set.
+     */
+    public void setCertPathTrustCache(CertPathTrustCache certPathTrustCache) {
+        this.certPathTrustCache = certPathTrustCache;
+    }
+
+    /**
+     * Get the cache of validated certificate paths
+     */
+    public CertPathTrustCache getCertPathTrustCache() {
+        return certPathTrustCache;
+    }
+
+    /**
+     * Set the cache of validated SAML Assertions. Signed Assertions are fully verified on every
+     * request if it is not set.
+     */
+    public void setSamlAssertionCache(SamlAssertionCache samlAssertionCache) {
+        this.samlAssertionCache = samlAssertionCache;
+    }
+
+    /**
+     * Get the cache of validated SAML Assertions
+     */
+    public SamlAssertionCache getSamlAssertionCache() {
+        return samlAssertionCache;
+    }
+
+    /**
+     * Set the cache of WS-SecureConversation sessions. The secret of a SecurityContextToken is
+     * retrieved from the CallbackHandler, and keys are derived, for every message if it is not set.
+     */
+    public void setSecureConversationCache(SecureConversationCache secureConversationCache) {
+        this.secureConversationCache = secureConversationCache;
+    }
+
+    /**
+     * Get the cache of WS-SecureConversation sessions
+     */
+    public SecureConversationCache getSecureConversationCache() {
+        return secureConversationCache;
+    }
+
+    /**
+     * Set the Executor used to decrypt the EncryptedData elements of a message in parallel. The
+     * EncryptedData elements are decrypted one after the other on the calling thread if it is not set.
+     */
+    public void setDecryptionExecutor(Executor decryptionExecutor) {
+        this.decryptionExecutor = decryptionExecutor;
+    }
+
+    /**
+     * Get the Executor used to decrypt the EncryptedData elements of a message in parallel
+     */
+    public Executor getDecryptionExecutor() {
+        return decryptionExecutor;
+    }
+
+    /**
+     * Set the Executor used to digest the References of a Signature in parallel. The References
+     * are validated one after the other on the calling thread if it is not set.
+     */
+    public void setSignatureVerificationExecutor(Executor signatureVerificationExecutor) {
+        this.signatureVerificationExecutor = signatureVerificationExecutor;
+    }
+
+    /**
+     * Get the Executor used to digest the References of a Signature in parallel
+     */
+    public Executor getSignatureVerificationExecutor() {
+        return signatureVerificationExecutor;
+    }
+
+    /**
+     * Set the Executor used to digest the elements to sign in parallel when creating a Signature.
+     * The elements are digested one after the other on the calling thread if it is not set.
+     */
+    public void setSignatureExecutor(Executor signatureExecutor) {
+        this.signatureExecutor = signatureExecutor;
+    }
+
+    /**
+     * Get the Executor used to digest the elements to sign in parallel
+     */
+    public Executor getSignatureExecutor() {
+        return signatureExecutor;
+    }
+
+    /**
+     * Set the Executor used to serialize and encrypt the elements to encrypt in parallel. The
+     * elements are encrypted one after the other on the calling thread if it is not set.
+     */
+    public void setEncryptionExecutor(Executor encryptionExecutor) {
+        this.encryptionExecutor = encryptionExecutor;
+    }
+
+    /**
+     * Get the Executor used to serialize and encrypt the elements to encrypt in parallel
+     */
+    public Executor getEncryptionExecutor() {
+        return encryptionExecutor;
+    }
+
     /**
      * @return whether EncryptedData elements are required to be signed
      */
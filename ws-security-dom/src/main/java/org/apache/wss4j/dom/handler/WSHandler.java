@@ -22,6 +22,7 @@ package org.apache.wss4j.dom.handler;
 import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -37,12 +38,15 @@ import org.apache.wss4j.common.SignatureActionToken;
 import org.apache.wss4j.common.SignatureEncryptionActionToken;
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.JasyptPasswordEncryptor;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
 import org.apache.wss4j.common.util.Loader;
 import org.apache.wss4j.dom.message.WSSecHeader;
 import org.apache.wss4j.dom.message.token.SignatureConfirmation;
@@ -58,6 +62,45 @@ public abstract class WSHandler {
         org.slf4j.LoggerFactory.getLogger(WSHandler.class);
     protected Map<String, Crypto> cryptos = new ConcurrentHashMap<>();
 
+    static final int DEFAULT_TIME_TO_LIVE = 300;
+    static final int DEFAULT_FUTURE_TIME_TO_LIVE = 60;
+
+    private volatile WSHandlerConfig handlerConfig;
+
+    /**
+     * Compile the current options of this handler into a WSHandlerConfig, and use it for all
+     * subsequent messages. The options are parsed and validated once, rather than for every
+     * message. This should be called again if the options of the handler are changed.
+     *
+     * A CallbackHandler configured via the PW_CALLBACK_CLASS option is only loaded once, but a
+     * new instance of it is still created for each message. Only a CallbackHandler instance
+     * configured via the PW_CALLBACK_REF option is shared between messages (and threads).
+     *
+     * @return the compiled configuration
+     * @throws WSSecurityException if one of the options is invalid
+     */
+    public WSHandlerConfig compileHandlerConfig() throws WSSecurityException {
+        WSHandlerConfig config = new WSHandlerConfig(this);
+        handlerConfig = config;
+        return config;
+    }
+
+    /**
+     * @return the compiled configuration of this handler, or null if the options are decoded
+     * for each message
+     */
+    public WSHandlerConfig getHandlerConfig() {
+        return handlerConfig;
+    }
+
+    /**
+     * Set a (possibly shared) compiled configuration for this handler. Set it to null to decode
+     * the options for each message again.
+     */
+    public void setHandlerConfig(WSHandlerConfig handlerConfig) {
+        this.handlerConfig = handlerConfig;
+    }
+
     /**
      * Performs all defined security actions to set-up the SOAP request.
      *
@@ -549,30 +592,17 @@ public abstract class WSHandler {
             actionToken.setUser(reqData.getUsername());
         }
 
-        String keyId = getString(WSHandlerConstants.SIG_KEY_ID, mc);
-        if (keyId != null) {
-            Integer id = WSHandlerConstants.getKeyIdentifier(keyId);
-            if (id == null) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty",
-                        new Object[] {"WSHandler: Signature: unknown key identification"}
-                );
+        WSHandlerConfig config = handlerConfig;
+        Integer keyIdentifier =
+            config == null ? null : config.getKeyIdentifier(WSHandlerConstants.SIG_KEY_ID);
+        if (keyIdentifier == null) {
+            String keyId = getString(WSHandlerConstants.SIG_KEY_ID, mc);
+            if (keyId != null) {
+                keyIdentifier = decodeSignatureKeyIdentifier(keyId);
             }
-            int tmp = id;
-            if (!(tmp == WSConstants.ISSUER_SERIAL
-                    || tmp == WSConstants.ISSUER_SERIAL_QUOTE_FORMAT
-                    || tmp == WSConstants.BST_DIRECT_REFERENCE
-                    || tmp == WSConstants.X509_KEY_IDENTIFIER
-                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
-                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
-                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER
-                    || tmp == WSConstants.KEY_VALUE)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty",
-                        new Object[] {"WSHandler: Signature: illegal key identification"}
-                );
-            }
-            actionToken.setKeyIdentifierId(tmp);
+        }
+        if (keyIdentifier != null) {
+            actionToken.setKeyIdentifierId(keyIdentifier);
         }
         String algo = getString(WSHandlerConstants.SIG_ALGO, mc);
         actionToken.setSignatureAlgorithm(algo);
@@ -608,14 +638,8 @@ public abstract class WSHandler {
             decodeBooleanConfigValue(mc, WSHandlerConstants.USE_2005_12_NAMESPACE, true);
         reqData.setUse200512Namespace(use200512Namespace);
 
-        String parts = getString(WSHandlerConstants.SIGNATURE_PARTS, mc);
-        if (parts != null) {
-            splitEncParts(true, parts, actionToken.getParts(), reqData);
-        }
-        parts = getString(WSHandlerConstants.OPTIONAL_SIGNATURE_PARTS, mc);
-        if (parts != null) {
-            splitEncParts(false, parts, actionToken.getParts(), reqData);
-        }
+        addParts(WSHandlerConstants.SIGNATURE_PARTS, true, actionToken.getParts(), reqData);
+        addParts(WSHandlerConstants.OPTIONAL_SIGNATURE_PARTS, false, actionToken.getParts(), reqData);
 
         boolean useSingleCert =
             decodeBooleanConfigValue(mc, WSHandlerConstants.USE_SINGLE_CERTIFICATE, true);
@@ -632,6 +656,16 @@ public abstract class WSHandler {
             );
             reqData.setExpandXopInclude(expandXOP);
         }
+
+        if (reqData.getSignatureExecutor() == null) {
+            Object o = getOption(WSHandlerConstants.SIGNATURE_EXECUTOR_INSTANCE);
+            if (!(o instanceof Executor)) {
+                o = getProperty(mc, WSHandlerConstants.SIGNATURE_EXECUTOR_INSTANCE);
+            }
+            if (o instanceof Executor) {
+                reqData.setSignatureExecutor((Executor) o);
+            }
+        }
     }
 
     protected void decodeAlgorithmSuite(RequestData reqData) throws WSSecurityException {
@@ -640,6 +674,12 @@ public abstract class WSHandler {
             return;
         }
 
+        WSHandlerConfig config = handlerConfig;
+        if (config != null && !hasMessageContextAlgorithms(mc)) {
+            reqData.setAlgorithmSuite(config.getAlgorithmSuite());
+            return;
+        }
+
         AlgorithmSuite algorithmSuite = new AlgorithmSuite();
 
         String signatureAlgorithm = getString(WSHandlerConstants.SIG_ALGO, mc);
@@ -663,6 +703,15 @@ public abstract class WSHandler {
         reqData.setAlgorithmSuite(algorithmSuite);
     }
 
+    private boolean hasMessageContextAlgorithms(Object mc) {
+        for (String key : WSHandlerConfig.ALGORITHM_SUITE_KEYS) {
+            if (getStringOption(key) == null && getProperty(mc, key) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Convert various Encryption configuration into a single EncryptionActionToken to be set on
     // the RequestData object
     protected void decodeEncryptionParameter(RequestData reqData)
@@ -678,30 +727,18 @@ public abstract class WSHandler {
         // If the following parameters are no used (they return null) then the
         // default values of WSS4J are used.
         //
-        String encKeyId = getString(WSHandlerConstants.ENC_KEY_ID, mc);
-        if (encKeyId != null) {
-            Integer id = WSHandlerConstants.getKeyIdentifier(encKeyId);
-            if (id == null) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty",
-                        new Object[] {"WSHandler: Encryption: unknown key identification"}
-                );
-            }
-            int tmp = id;
-            actionToken.setKeyIdentifierId(tmp);
-            if (!(tmp == WSConstants.ISSUER_SERIAL
-                    || tmp == WSConstants.ISSUER_SERIAL_QUOTE_FORMAT
-                    || tmp == WSConstants.X509_KEY_IDENTIFIER
-                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
-                    || tmp == WSConstants.BST_DIRECT_REFERENCE
-                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
-                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty",
-                        new Object[] {"WSHandler: Encryption: illegal key identification"}
-                );
+        WSHandlerConfig config = handlerConfig;
+        Integer keyIdentifier =
+            config == null ? null : config.getKeyIdentifier(WSHandlerConstants.ENC_KEY_ID);
+        if (keyIdentifier == null) {
+            String encKeyId = getString(WSHandlerConstants.ENC_KEY_ID, mc);
+            if (encKeyId != null) {
+                keyIdentifier = decodeEncryptionKeyIdentifier(encKeyId);
             }
         }
+        if (keyIdentifier != null) {
+            actionToken.setKeyIdentifierId(keyIdentifier);
+        }
         String encSymAlgo = getString(WSHandlerConstants.ENC_SYM_ALGO, mc);
         actionToken.setSymmetricAlgorithm(encSymAlgo);
 
@@ -764,18 +801,22 @@ public abstract class WSHandler {
 
         handleSpecialUser(reqData);
 
-        String encParts = getString(WSHandlerConstants.ENCRYPTION_PARTS, mc);
-        if (encParts != null) {
-            splitEncParts(true, encParts, actionToken.getParts(), reqData);
-        }
-        encParts = getString(WSHandlerConstants.OPTIONAL_ENCRYPTION_PARTS, mc);
-        if (encParts != null) {
-            splitEncParts(false, encParts, actionToken.getParts(), reqData);
-        }
+        addParts(WSHandlerConstants.ENCRYPTION_PARTS, true, actionToken.getParts(), reqData);
+        addParts(WSHandlerConstants.OPTIONAL_ENCRYPTION_PARTS, false, actionToken.getParts(), reqData);
 
         boolean includeToken =
             decodeBooleanConfigValue(mc, WSHandlerConstants.INCLUDE_ENCRYPTION_TOKEN, false);
         actionToken.setIncludeToken(includeToken);
+
+        if (reqData.getEncryptionExecutor() == null) {
+            Object o = getOption(WSHandlerConstants.ENCRYPTION_EXECUTOR_INSTANCE);
+            if (!(o instanceof Executor)) {
+                o = getProperty(mc, WSHandlerConstants.ENCRYPTION_EXECUTOR_INSTANCE);
+            }
+            if (o instanceof Executor) {
+                reqData.setEncryptionExecutor((Executor) o);
+            }
+        }
     }
 
     /**
@@ -787,20 +828,13 @@ public abstract class WSHandler {
         if (!timestamp) {
             tag = WSHandlerConstants.TTL_USERNAMETOKEN;
         }
-        String ttl = getString(tag, reqData.getMsgContext());
-        int defaultTimeToLive = 300;
-        if (ttl != null) {
-            try {
-                int ttlI = Integer.parseInt(ttl);
-                if (ttlI < 0) {
-                    return defaultTimeToLive;
-                }
-                return ttlI;
-            } catch (NumberFormatException e) {
-                return defaultTimeToLive;
-            }
+        WSHandlerConfig config = handlerConfig;
+        Integer compiledTimeToLive = config == null ? null : config.getTimeToLive(tag);
+        if (compiledTimeToLive != null) {
+            return compiledTimeToLive;
         }
-        return defaultTimeToLive;
+        String ttl = getString(tag, reqData.getMsgContext());
+        return parseTimeToLive(ttl, DEFAULT_TIME_TO_LIVE);
     }
 
     /**
@@ -812,20 +846,28 @@ public abstract class WSHandler {
         if (!timestamp) {
             tag = WSHandlerConstants.TTL_FUTURE_USERNAMETOKEN;
         }
+        WSHandlerConfig config = handlerConfig;
+        Integer compiledTimeToLive = config == null ? null : config.getTimeToLive(tag);
+        if (compiledTimeToLive != null) {
+            return compiledTimeToLive;
+        }
         String ttl = getString(tag, reqData.getMsgContext());
-        int defaultFutureTimeToLive = 60;
+        return parseTimeToLive(ttl, DEFAULT_FUTURE_TIME_TO_LIVE);
+    }
+
+    static int parseTimeToLive(String ttl, int defaultTimeToLive) {
         if (ttl != null) {
             try {
                 int ttlI = Integer.parseInt(ttl);
                 if (ttlI < 0) {
-                    return defaultFutureTimeToLive;
+                    return defaultTimeToLive;
                 }
                 return ttlI;
             } catch (NumberFormatException e) {
-                return defaultFutureTimeToLive;
+                return defaultTimeToLive;
             }
         }
-        return defaultFutureTimeToLive;
+        return defaultTimeToLive;
     }
 
     protected String decodePasswordType(RequestData reqData) throws WSSecurityException {
@@ -844,16 +886,28 @@ public abstract class WSHandler {
         Object messageContext, String configTag, boolean defaultToTrue
     ) throws WSSecurityException {
 
-        String value = getString(configTag, messageContext);
+        WSHandlerConfig config = handlerConfig;
+        Boolean compiledValue = config == null ? null : config.getBoolean(configTag);
+        if (compiledValue != null) {
+            return compiledValue;
+        }
 
+        Boolean value = parseBoolean(configTag, getString(configTag, messageContext));
         if (value == null) {
             return defaultToTrue;
         }
+        return value;
+    }
+
+    static Boolean parseBoolean(String configTag, String value) throws WSSecurityException {
+        if (value == null) {
+            return null;
+        }
         if ("0".equals(value) || "false".equals(value)) {
-            return false;
+            return Boolean.FALSE;
         }
         if ("1".equals(value) || "true".equals(value)) {
-            return true;
+            return Boolean.TRUE;
         }
 
         throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
@@ -862,6 +916,55 @@ public abstract class WSHandler {
         );
     }
 
+    static int decodeSignatureKeyIdentifier(String keyId) throws WSSecurityException {
+        Integer id = WSHandlerConstants.getKeyIdentifier(keyId);
+        if (id == null) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty",
+                    new Object[] {"WSHandler: Signature: unknown key identification"}
+            );
+        }
+        int tmp = id;
+        if (!(tmp == WSConstants.ISSUER_SERIAL
+                || tmp == WSConstants.ISSUER_SERIAL_QUOTE_FORMAT
+                || tmp == WSConstants.BST_DIRECT_REFERENCE
+                || tmp == WSConstants.X509_KEY_IDENTIFIER
+                || tmp == WSConstants.SKI_KEY_IDENTIFIER
+                || tmp == WSConstants.THUMBPRINT_IDENTIFIER
+                || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER
+                || tmp == WSConstants.KEY_VALUE)) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty",
+                    new Object[] {"WSHandler: Signature: illegal key identification"}
+            );
+        }
+        return tmp;
+    }
+
+    static int decodeEncryptionKeyIdentifier(String encKeyId) throws WSSecurityException {
+        Integer id = WSHandlerConstants.getKeyIdentifier(encKeyId);
+        if (id == null) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty",
+                    new Object[] {"WSHandler: Encryption: unknown key identification"}
+            );
+        }
+        int tmp = id;
+        if (!(tmp == WSConstants.ISSUER_SERIAL
+                || tmp == WSConstants.ISSUER_SERIAL_QUOTE_FORMAT
+                || tmp == WSConstants.X509_KEY_IDENTIFIER
+                || tmp == WSConstants.SKI_KEY_IDENTIFIER
+                || tmp == WSConstants.BST_DIRECT_REFERENCE
+                || tmp == WSConstants.THUMBPRINT_IDENTIFIER
+                || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty",
+                    new Object[] {"WSHandler: Encryption: illegal key identification"}
+            );
+        }
+        return tmp;
+    }
+
     /**
      * Hook to allow subclasses to load their Signature creation Crypto however they see
      * fit.
@@ -1048,6 +1151,21 @@ public abstract class WSHandler {
      */
     public CallbackHandler getPasswordCallbackHandler(RequestData reqData)
         throws WSSecurityException {
+        WSHandlerConfig config = handlerConfig;
+        if (config != null) {
+            if (config.getPasswordCallbackRef() != null) {
+                return config.getPasswordCallbackRef();
+            }
+            Object mc = reqData.getMsgContext();
+            CallbackHandler cbHandler =
+                (CallbackHandler) getProperty(mc, WSHandlerConstants.PW_CALLBACK_REF);
+            if (cbHandler == null && config.getPasswordCallbackClass() != null) {
+                cbHandler = newCallbackHandler(config.getPasswordCallbackClass());
+            }
+            if (cbHandler != null) {
+                return cbHandler;
+            }
+        }
         return
             getCallbackHandler(
                 WSHandlerConstants.PW_CALLBACK_CLASS,
@@ -1062,14 +1180,23 @@ public abstract class WSHandler {
      * @return a CallbackHandler instance
      * @throws WSSecurityException
      */
-    private CallbackHandler loadCallbackHandler(
+    CallbackHandler loadCallbackHandler(
         String callbackHandlerClass
     ) throws WSSecurityException {
+        return newCallbackHandler(loadCallbackHandlerClass(callbackHandlerClass));
+    }
 
-        Class<? extends CallbackHandler> cbClass = null;
-        CallbackHandler cbHandler = null;
+    /**
+     * Load a CallbackHandler class.
+     * @param callbackHandlerClass The class name of the CallbackHandler
+     * @return the CallbackHandler class
+     * @throws WSSecurityException
+     */
+    Class<? extends CallbackHandler> loadCallbackHandlerClass(
+        String callbackHandlerClass
+    ) throws WSSecurityException {
         try {
-            cbClass =
+            return
                 Loader.loadClass(getClassLoader(),
                                  callbackHandlerClass,
                                  CallbackHandler.class);
@@ -1080,17 +1207,27 @@ public abstract class WSHandler {
                     + callbackHandlerClass}
             );
         }
+    }
+
+    /**
+     * Create a new instance of a CallbackHandler class.
+     * @param cbClass The CallbackHandler class
+     * @return a CallbackHandler instance
+     * @throws WSSecurityException
+     */
+    static CallbackHandler newCallbackHandler(
+        Class<? extends CallbackHandler> cbClass
+    ) throws WSSecurityException {
         try {
-            cbHandler = cbClass.getDeclaredConstructor().newInstance();
+            return cbClass.getDeclaredConstructor().newInstance();
         } catch (Exception e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e,
                     "empty",
                     new Object[] {"WSHandler: cannot create instance of callback handler: "
-                    + callbackHandlerClass
+                    + cbClass.getName()
                     }
             );
         }
-        return cbHandler;
     }
 
     protected PasswordEncryptor getPasswordEncryptor(RequestData requestData) {
@@ -1221,55 +1358,21 @@ public abstract class WSHandler {
         return new WSPasswordCallback(username, reason);
     }
 
-    private void splitEncParts(boolean required, String tmpS,
-                               List<WSEncryptionPart> parts, RequestData reqData)
+    private void addParts(String key, boolean required,
+                          List<WSEncryptionPart> parts, RequestData reqData)
         throws WSSecurityException {
-        WSEncryptionPart encPart = null;
-        String[] rawParts = tmpS.split(";");
-
-        for (String rawPart : rawParts) {
-            String[] partDef = rawPart.split("}");
-
-            if (partDef.length == 1) {
-                LOG.debug("single partDef: '{}'", partDef[0]);
-                encPart =
-                    new WSEncryptionPart(partDef[0].trim(),
-                            reqData.getSoapConstants().getEnvelopeURI(),
-                            "Content");
-            } else if (partDef.length == 2) {
-                String mode = partDef[0].trim().substring(1);
-                String element = partDef[1].trim();
-                encPart = new WSEncryptionPart(element, mode);
-            } else if (partDef.length == 3) {
-                String mode = partDef[0].trim();
-                if (mode.length() <= 1) {
-                    mode = "Content";
-                } else {
-                    mode = mode.substring(1);
-                }
-                String nmSpace = partDef[1].trim();
-                if (nmSpace.length() <= 1) {
-                    nmSpace = reqData.getSoapConstants().getEnvelopeURI();
-                } else {
-                    nmSpace = nmSpace.substring(1);
-                    if (nmSpace.equals(WSConstants.NULL_NS)) {
-                        nmSpace = null;
-                    }
-                }
-                String element = partDef[2].trim();
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(
-                        "partDefs: '" + mode + "' ,'" + nmSpace + "' ,'" + element + "'"
-                    );
-                }
-                encPart = new WSEncryptionPart(element, nmSpace, mode);
-            } else {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty",
-                        new Object[] {"WSHandler: wrong part definition: " + tmpS});
+        WSHandlerConfig config = handlerConfig;
+        List<WSHandlerConfig.PartDefinition> definitions =
+            config == null ? null : config.getPartDefinitions(key);
+        if (definitions == null) {
+            String value = getString(key, reqData.getMsgContext());
+            if (value == null) {
+                return;
             }
-            encPart.setRequired(required);
-            parts.add(encPart);
+            definitions = WSHandlerConfig.parsePartDefinitions(required, value);
+        }
+        for (WSHandlerConfig.PartDefinition definition : definitions) {
+            parts.add(definition.toPart(reqData.getSoapConstants()));
         }
     }
 
@@ -1329,27 +1432,64 @@ public abstract class WSHandler {
             );
         reqData.setEnableRevocation(enableRevocation);
 
-        String certConstraints =
-            getString(WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS, reqData.getMsgContext());
-        if (certConstraints != null) {
-            String certConstraintsSeparator =
-                getString(WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR, reqData.getMsgContext());
-            if (certConstraintsSeparator == null || certConstraintsSeparator.isEmpty()) {
-                certConstraintsSeparator = ",";
+        if (reqData.getCertPathTrustCache() == null) {
+            Object o = getOption(WSHandlerConstants.CERT_PATH_TRUST_CACHE_INSTANCE);
+            if (!(o instanceof CertPathTrustCache)) {
+                o = getProperty(reqData.getMsgContext(), WSHandlerConstants.CERT_PATH_TRUST_CACHE_INSTANCE);
+            }
+            if (o instanceof CertPathTrustCache) {
+                reqData.setCertPathTrustCache((CertPathTrustCache) o);
             }
-            Collection<Pattern> subjectCertConstraints = getCertConstraints(certConstraints, certConstraintsSeparator);
-            reqData.setSubjectCertConstraints(subjectCertConstraints);
         }
-        String issuerCertConstraintsStringValue =
-            getString(WSHandlerConstants.SIG_ISSUER_CERT_CONSTRAINTS, reqData.getMsgContext());
-        if (issuerCertConstraintsStringValue != null) {
-            String certConstraintsSeparator =
-                getString(WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR, reqData.getMsgContext());
-            if (certConstraintsSeparator == null || certConstraintsSeparator.isEmpty()) {
-                certConstraintsSeparator = ",";
+
+        if (reqData.getSamlAssertionCache() == null) {
+            Object o = getOption(WSHandlerConstants.SAML_ASSERTION_CACHE_INSTANCE);
+            if (!(o instanceof SamlAssertionCache)) {
+                o = getProperty(reqData.getMsgContext(), WSHandlerConstants.SAML_ASSERTION_CACHE_INSTANCE);
+            }
+            if (o instanceof SamlAssertionCache) {
+                reqData.setSamlAssertionCache((SamlAssertionCache) o);
+            }
+        }
+
+        if (reqData.getSecureConversationCache() == null) {
+            Object o = getOption(WSHandlerConstants.SECURE_CONVERSATION_CACHE_INSTANCE);
+            if (!(o instanceof SecureConversationCache)) {
+                o = getProperty(reqData.getMsgContext(), WSHandlerConstants.SECURE_CONVERSATION_CACHE_INSTANCE);
+            }
+            if (o instanceof SecureConversationCache) {
+                reqData.setSecureConversationCache((SecureConversationCache) o);
             }
-            Collection<Pattern> issuerCertConstraints =
-                getCertConstraints(issuerCertConstraintsStringValue, certConstraintsSeparator);
+        }
+
+        if (reqData.getDecryptionExecutor() == null) {
+            Object o = getOption(WSHandlerConstants.DECRYPTION_EXECUTOR_INSTANCE);
+            if (!(o instanceof Executor)) {
+                o = getProperty(reqData.getMsgContext(), WSHandlerConstants.DECRYPTION_EXECUTOR_INSTANCE);
+            }
+            if (o instanceof Executor) {
+                reqData.setDecryptionExecutor((Executor) o);
+            }
+        }
+
+        if (reqData.getSignatureVerificationExecutor() == null) {
+            Object o = getOption(WSHandlerConstants.SIGNATURE_VERIFICATION_EXECUTOR_INSTANCE);
+            if (!(o instanceof Executor)) {
+                o = getProperty(reqData.getMsgContext(), WSHandlerConstants.SIGNATURE_VERIFICATION_EXECUTOR_INSTANCE);
+            }
+            if (o instanceof Executor) {
+                reqData.setSignatureVerificationExecutor((Executor) o);
+            }
+        }
+
+        Collection<Pattern> subjectCertConstraints =
+            decodeCertConstraints(WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS, reqData.getMsgContext());
+        if (!subjectCertConstraints.isEmpty()) {
+            reqData.setSubjectCertConstraints(subjectCertConstraints);
+        }
+        Collection<Pattern> issuerCertConstraints =
+            decodeCertConstraints(WSHandlerConstants.SIG_ISSUER_CERT_CONSTRAINTS, reqData.getMsgContext());
+        if (!issuerCertConstraints.isEmpty()) {
             reqData.setIssuerDNPatterns(issuerCertConstraints);
         }
 
@@ -1369,7 +1509,28 @@ public abstract class WSHandler {
         reqData.setExpandXopInclude(expandXOP);
     }
 
-    private Collection<Pattern> getCertConstraints(String certConstraints, String separator) throws WSSecurityException {
+    private Collection<Pattern> decodeCertConstraints(String key, Object mc) throws WSSecurityException {
+        WSHandlerConfig config = handlerConfig;
+        Collection<Pattern> compiledConstraints = config == null ? null : config.getCertConstraints(key);
+        // A separator on the message context applies to constraints that are configured as options
+        if (compiledConstraints != null
+            && (getStringOption(WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR) != null
+                || getProperty(mc, WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR) == null)) {
+            return compiledConstraints;
+        }
+
+        String certConstraints = getString(key, mc);
+        if (certConstraints == null) {
+            return Collections.emptyList();
+        }
+        String certConstraintsSeparator = getString(WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR, mc);
+        if (certConstraintsSeparator == null || certConstraintsSeparator.isEmpty()) {
+            certConstraintsSeparator = ",";
+        }
+        return getCertConstraints(certConstraints, certConstraintsSeparator);
+    }
+
+    static Collection<Pattern> getCertConstraints(String certConstraints, String separator) throws WSSecurityException {
         String[] certConstraintsList = certConstraints.split(separator);
         if (certConstraintsList != null && certConstraintsList.length > 0) {
             Collection<Pattern> certConstraintsCollection =
@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.AlgorithmSuite;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.SOAPConstants;
+import org.apache.wss4j.dom.WSConstants;
+
+/**
+ * An immutable, "compiled" form of the options of a WSHandler. The String options that the
+ * WSHandler consults are read once via {@link WSHandler#getOption(String)}, and then parsed and
+ * validated up front: boolean flags, time to live values, key identifiers, signature and
+ * encryption parts, certificate constraints, the algorithm suite and the password
+ * CallbackHandler class. When a WSHandler has a compiled configuration, the per-message decoding of
+ * these options becomes a simple lookup. Values that are not configured as options are still
+ * taken from the message context for each message, as before.
+ *
+ * A compiled configuration is a snapshot, and so it must be compiled again (see
+ * {@link WSHandler#compileHandlerConfig()}) if the options of the handler change. Note that a
+ * password CallbackHandler configured by class name is only loaded once, and a new instance of
+ * it is created for each message, as before.
+ */
+public final class WSHandlerConfig {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(WSHandlerConfig.class);
+
+    private static final String[] STRING_KEYS = {
+        WSHandlerConstants.ACTOR,
+        WSHandlerConstants.PASSWORD_TYPE,
+        WSHandlerConstants.USE_DERIVED_KEY_FOR_MAC,
+        WSHandlerConstants.DERIVED_KEY_ITERATIONS,
+        WSHandlerConstants.SIGNATURE_USER,
+        WSHandlerConstants.SIG_KEY_ID,
+        WSHandlerConstants.SIG_ALGO,
+        WSHandlerConstants.SIG_DIGEST_ALGO,
+        WSHandlerConstants.SIG_C14N_ALGO,
+        WSHandlerConstants.SIGNATURE_PARTS,
+        WSHandlerConstants.OPTIONAL_SIGNATURE_PARTS,
+        WSHandlerConstants.DERIVED_TOKEN_REFERENCE,
+        WSHandlerConstants.DERIVED_TOKEN_KEY_ID,
+        WSHandlerConstants.DERIVED_SIGNATURE_KEY_LENGTH,
+        WSHandlerConstants.DERIVED_ENCRYPTION_KEY_LENGTH,
+        WSHandlerConstants.ENCRYPTION_USER,
+        WSHandlerConstants.ENC_KEY_ID,
+        WSHandlerConstants.ENC_SYM_ALGO,
+        WSHandlerConstants.ENC_KEY_TRANSPORT,
+        WSHandlerConstants.ENC_DIGEST_ALGO,
+        WSHandlerConstants.ENC_MGF_ALGO,
+        WSHandlerConstants.ENC_SYM_ENC_KEY,
+        WSHandlerConstants.ENCRYPTION_PARTS,
+        WSHandlerConstants.OPTIONAL_ENCRYPTION_PARTS,
+        WSHandlerConstants.TTL_TIMESTAMP,
+        WSHandlerConstants.TTL_FUTURE_TIMESTAMP,
+        WSHandlerConstants.TTL_USERNAMETOKEN,
+        WSHandlerConstants.TTL_FUTURE_USERNAMETOKEN,
+        WSHandlerConstants.SIG_PROP_FILE,
+        WSHandlerConstants.SIG_PROP_REF_ID,
+        WSHandlerConstants.SIG_VER_PROP_FILE,
+        WSHandlerConstants.SIG_VER_PROP_REF_ID,
+        WSHandlerConstants.ENC_PROP_FILE,
+        WSHandlerConstants.ENC_PROP_REF_ID,
+        WSHandlerConstants.DEC_PROP_FILE,
+        WSHandlerConstants.DEC_PROP_REF_ID,
+        WSHandlerConstants.PW_CALLBACK_CLASS,
+        WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS,
+        WSHandlerConstants.SIG_ISSUER_CERT_CONSTRAINTS,
+        WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR,
+        WSHandlerConstants.EXPAND_XOP_INCLUDE_FOR_SIGNATURE,
+    };
+
+    private static final String[] BOOLEAN_KEYS = {
+        WSHandlerConstants.MUST_UNDERSTAND,
+        WSHandlerConstants.USE_ENCODED_PASSWORDS,
+        WSHandlerConstants.TIMESTAMP_PRECISION,
+        WSHandlerConstants.TIMESTAMP_STRICT,
+        WSHandlerConstants.ADD_INCLUSIVE_PREFIXES,
+        WSHandlerConstants.ENABLE_SIGNATURE_CONFIRMATION,
+        WSHandlerConstants.STORE_BYTES_IN_ATTACHMENT,
+        WSHandlerConstants.ADD_USERNAMETOKEN_NONCE,
+        WSHandlerConstants.ADD_USERNAMETOKEN_CREATED,
+        WSHandlerConstants.HANDLE_CUSTOM_PASSWORD_TYPES,
+        WSHandlerConstants.ALLOW_NAMESPACE_QUALIFIED_PASSWORD_TYPES,
+        WSHandlerConstants.ALLOW_USERNAMETOKEN_NOPASSWORD,
+        WSHandlerConstants.VALIDATE_SAML_SUBJECT_CONFIRMATION,
+        WSHandlerConstants.IS_BSP_COMPLIANT,
+        WSHandlerConstants.REQUIRE_SIGNED_ENCRYPTED_DATA_ELEMENTS,
+        WSHandlerConstants.REQUIRE_TIMESTAMP_EXPIRES,
+        WSHandlerConstants.USE_2005_12_NAMESPACE,
+        WSHandlerConstants.USE_SINGLE_CERTIFICATE,
+        WSHandlerConstants.INCLUDE_SIGNATURE_TOKEN,
+        WSHandlerConstants.INCLUDE_ENCRYPTION_TOKEN,
+        WSHandlerConstants.GET_SECRET_KEY_FROM_CALLBACK_HANDLER,
+        WSHandlerConstants.EXPAND_XOP_INCLUDE,
+        WSHandlerConstants.EXPAND_XOP_INCLUDE_FOR_SIGNATURE,
+        WSHandlerConstants.ENABLE_REVOCATION,
+        WSHandlerConstants.ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM,
+    };
+
+    static final String[] ALGORITHM_SUITE_KEYS = {
+        WSHandlerConstants.SIG_ALGO,
+        WSHandlerConstants.SIG_DIGEST_ALGO,
+        WSHandlerConstants.ENC_SYM_ALGO,
+        WSHandlerConstants.ENC_KEY_TRANSPORT,
+    };
+
+    private final Map<String, String> strings;
+    private final Map<String, Boolean> booleans;
+    private final Map<String, Integer> timeToLives;
+    private final Map<String, Integer> keyIdentifiers;
+    private final Map<String, List<PartDefinition>> parts;
+    private final Map<String, Collection<Pattern>> certConstraints;
+    private final CallbackHandler passwordCallbackRef;
+    private final Class<? extends CallbackHandler> passwordCallbackClass;
+    private final AlgorithmSuite algorithmSuite;
+
+    WSHandlerConfig(WSHandler handler) throws WSSecurityException {
+        Map<String, String> stringOptions = new HashMap<>();
+        for (String key : STRING_KEYS) {
+            String value = handler.getStringOption(key);
+            if (value != null) {
+                stringOptions.put(key, value);
+            }
+        }
+        strings = Collections.unmodifiableMap(stringOptions);
+
+        Map<String, Boolean> booleanOptions = new HashMap<>();
+        for (String key : BOOLEAN_KEYS) {
+            Boolean value = WSHandler.parseBoolean(key, handler.getStringOption(key));
+            if (value != null) {
+                booleanOptions.put(key, value);
+            }
+        }
+        booleans = Collections.unmodifiableMap(booleanOptions);
+
+        Map<String, Integer> ttls = new HashMap<>();
+        putTimeToLive(ttls, WSHandlerConstants.TTL_TIMESTAMP, WSHandler.DEFAULT_TIME_TO_LIVE);
+        putTimeToLive(ttls, WSHandlerConstants.TTL_USERNAMETOKEN, WSHandler.DEFAULT_TIME_TO_LIVE);
+        putTimeToLive(ttls, WSHandlerConstants.TTL_FUTURE_TIMESTAMP, WSHandler.DEFAULT_FUTURE_TIME_TO_LIVE);
+        putTimeToLive(ttls, WSHandlerConstants.TTL_FUTURE_USERNAMETOKEN, WSHandler.DEFAULT_FUTURE_TIME_TO_LIVE);
+        timeToLives = Collections.unmodifiableMap(ttls);
+
+        Map<String, Integer> ids = new HashMap<>();
+        String keyId = strings.get(WSHandlerConstants.SIG_KEY_ID);
+        if (keyId != null) {
+            ids.put(WSHandlerConstants.SIG_KEY_ID, WSHandler.decodeSignatureKeyIdentifier(keyId));
+        }
+        keyId = strings.get(WSHandlerConstants.ENC_KEY_ID);
+        if (keyId != null) {
+            ids.put(WSHandlerConstants.ENC_KEY_ID, WSHandler.decodeEncryptionKeyIdentifier(keyId));
+        }
+        keyIdentifiers = Collections.unmodifiableMap(ids);
+
+        Map<String, List<PartDefinition>> partDefinitions = new HashMap<>();
+        putParts(partDefinitions, WSHandlerConstants.SIGNATURE_PARTS, true);
+        putParts(partDefinitions, WSHandlerConstants.OPTIONAL_SIGNATURE_PARTS, false);
+        putParts(partDefinitions, WSHandlerConstants.ENCRYPTION_PARTS, true);
+        putParts(partDefinitions, WSHandlerConstants.OPTIONAL_ENCRYPTION_PARTS, false);
+        parts = Collections.unmodifiableMap(partDefinitions);
+
+        Map<String, Collection<Pattern>> constraints = new HashMap<>();
+        putCertConstraints(constraints, WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS);
+        putCertConstraints(constraints, WSHandlerConstants.SIG_ISSUER_CERT_CONSTRAINTS);
+        certConstraints = Collections.unmodifiableMap(constraints);
+
+        passwordCallbackRef = (CallbackHandler) handler.getOption(WSHandlerConstants.PW_CALLBACK_REF);
+        String callbackClass = strings.get(WSHandlerConstants.PW_CALLBACK_CLASS);
+        if (passwordCallbackRef == null && callbackClass != null) {
+            passwordCallbackClass = handler.loadCallbackHandlerClass(callbackClass);
+        } else {
+            passwordCallbackClass = null;
+        }
+
+        algorithmSuite = new AlgorithmSuite();
+        addAlgorithm(WSHandlerConstants.SIG_ALGO, algorithmSuite::addSignatureMethod);
+        addAlgorithm(WSHandlerConstants.SIG_DIGEST_ALGO, algorithmSuite::addDigestAlgorithm);
+        addAlgorithm(WSHandlerConstants.ENC_SYM_ALGO, algorithmSuite::addEncryptionMethod);
+        addAlgorithm(WSHandlerConstants.ENC_KEY_TRANSPORT, algorithmSuite::addKeyWrapAlgorithm);
+
+        LOG.debug("Compiled {} String and {} boolean handler options", strings.size(), booleans.size());
+    }
+
+    /**
+     * @return the value of the given String option, or null if it is not configured as an option
+     */
+    public String getString(String key) {
+        return strings.get(key);
+    }
+
+    /**
+     * @return the (validated) value of the given boolean option, or null if it is not configured
+     * as an option
+     */
+    public Boolean getBoolean(String key) {
+        return booleans.get(key);
+    }
+
+    /**
+     * @return the time to live in seconds for the given TTL option, or null if it is not
+     * configured as an option
+     */
+    public Integer getTimeToLive(String key) {
+        return timeToLives.get(key);
+    }
+
+    /**
+     * @return the (validated) key identifier for the SIG_KEY_ID or ENC_KEY_ID option, or null if
+     * it is not configured as an option
+     */
+    public Integer getKeyIdentifier(String key) {
+        return keyIdentifiers.get(key);
+    }
+
+    /**
+     * @return the compiled subject or issuer certificate constraints, or null if they are not
+     * configured as an option
+     */
+    public Collection<Pattern> getCertConstraints(String key) {
+        return certConstraints.get(key);
+    }
+
+    /**
+     * @return the CallbackHandler instance configured via the PW_CALLBACK_REF option, if any
+     */
+    public CallbackHandler getPasswordCallbackRef() {
+        return passwordCallbackRef;
+    }
+
+    /**
+     * @return the CallbackHandler class loaded from the PW_CALLBACK_CLASS option, if any. A new
+     * instance of it is created for each message.
+     */
+    public Class<? extends CallbackHandler> getPasswordCallbackClass() {
+        return passwordCallbackClass;
+    }
+
+    /**
+     * @return the AlgorithmSuite built from the algorithm options. It only applies to a message
+     * if none of the algorithms that are not configured as options are set on the message context.
+     */
+    public AlgorithmSuite getAlgorithmSuite() {
+        return algorithmSuite;
+    }
+
+    List<PartDefinition> getPartDefinitions(String key) {
+        return parts.get(key);
+    }
+
+    private void putTimeToLive(Map<String, Integer> ttls, String key, int defaultTimeToLive) {
+        String value = strings.get(key);
+        if (value != null) {
+            ttls.put(key, WSHandler.parseTimeToLive(value, defaultTimeToLive));
+        }
+    }
+
+    private void putParts(Map<String, List<PartDefinition>> partDefinitions, String key, boolean required)
+        throws WSSecurityException {
+        String value = strings.get(key);
+        if (value != null) {
+            partDefinitions.put(key, parsePartDefinitions(required, value));
+        }
+    }
+
+    private void putCertConstraints(Map<String, Collection<Pattern>> constraints, String key)
+        throws WSSecurityException {
+        String value = strings.get(key);
+        if (value != null) {
+            String separator = strings.get(WSHandlerConstants.SIG_CERT_CONSTRAINTS_SEPARATOR);
+            if (separator == null || separator.isEmpty()) {
+                separator = ",";
+            }
+            constraints.put(key, Collections.unmodifiableCollection(WSHandler.getCertConstraints(value, separator)));
+        }
+    }
+
+    private void addAlgorithm(String key, java.util.function.Consumer<String> algorithms) {
+        String value = strings.get(key);
+        if (value != null && value.length() != 0) {
+            algorithms.accept(value);
+        }
+    }
+
+    /**
+     * Parse a list of signature or encryption parts, e.g. "{Content}{http://example.org}Body;Token"
+     */
+    static List<PartDefinition> parsePartDefinitions(boolean required, String value)
+        throws WSSecurityException {
+        String[] rawParts = value.split(";");
+        List<PartDefinition> definitions = new ArrayList<>(rawParts.length);
+
+        for (String rawPart : rawParts) {
+            String[] partDef = rawPart.split("}");
+
+            if (partDef.length == 1) {
+                LOG.debug("single partDef: '{}'", partDef[0]);
+                definitions.add(new PartDefinition(partDef[0].trim(), null, true, "Content", false, required));
+            } else if (partDef.length == 2) {
+                String mode = partDef[0].trim().substring(1);
+                String element = partDef[1].trim();
+                definitions.add(new PartDefinition(element, null, false, mode, true, required));
+            } else if (partDef.length == 3) {
+                String mode = partDef[0].trim();
+                if (mode.length() <= 1) {
+                    mode = "Content";
+                } else {
+                    mode = mode.substring(1);
+                }
+                String nmSpace = partDef[1].trim();
+                boolean soapNamespace = false;
+                if (nmSpace.length() <= 1) {
+                    soapNamespace = true;
+                    nmSpace = null;
+                } else {
+                    nmSpace = nmSpace.substring(1);
+                    if (nmSpace.equals(WSConstants.NULL_NS)) {
+                        nmSpace = null;
+                    }
+                }
+                String element = partDef[2].trim();
+                LOG.debug("partDefs: '{}' ,'{}' ,'{}'", mode, nmSpace, element);
+                definitions.add(new PartDefinition(element, nmSpace, soapNamespace, mode, false, required));
+            } else {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                        "empty",
+                        new Object[] {"WSHandler: wrong part definition: " + value});
+            }
+        }
+        return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * A parsed signature or encryption part. A new (mutable) WSEncryptionPart is created from it
+     * for each message, as the namespace of a part may depend on the SOAP version of the message.
+     */
+    static final class PartDefinition {
+        private final String name;
+        private final String namespace;
+        private final boolean soapNamespace;
+        private final String encModifier;
+        private final boolean id;
+        private final boolean required;
+
+        PartDefinition(String name, String namespace, boolean soapNamespace,
+                       String encModifier, boolean id, boolean required) {
+            this.name = name;
+            this.namespace = namespace;
+            this.soapNamespace = soapNamespace;
+            this.encModifier = encModifier;
+            this.id = id;
+            this.required = required;
+        }
+
+        WSEncryptionPart toPart(SOAPConstants soapConstants) {
+            WSEncryptionPart encPart;
+            if (id) {
+                encPart = new WSEncryptionPart(name, encModifier);
+            } else if (soapNamespace) {
+                encPart = new WSEncryptionPart(name, soapConstants.getEnvelopeURI(), encModifier);
+            } else {
+                encPart = new WSEncryptionPart(name, namespace, encModifier);
+            }
+            encPart.setRequired(required);
+            return encPart;
+        }
+    }
+}
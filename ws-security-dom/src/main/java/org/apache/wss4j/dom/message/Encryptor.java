@@ -19,12 +19,20 @@
 
 package org.apache.wss4j.dom.message;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -67,9 +75,18 @@ import org.w3c.dom.NodeList;
 
 /**
  * A class to encrypt references.
+ *
+ * If an Executor is configured, the elements to encrypt are encrypted in parallel on the Executor,
+ * as long as none of them contains another one. The DOM is only accessed on the calling thread: all
+ * of the elements are serialized before any of them is replaced, and only the serialized octets are
+ * handed to the Executor. Ids are allocated and the EncryptedData elements are inserted in the same
+ * order as when the elements are encrypted one after the other.
  */
 public class Encryptor {
 
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(Encryptor.class);
+
     private Document doc;
     private WSSecHeader securityHeader;
     private WsuIdAllocator idAllocator;
@@ -79,6 +96,7 @@ public class Encryptor {
     private Serializer encryptionSerializer;
     private boolean expandXopInclude;
     private WSDocInfo wsDocInfo;
+    private Executor executor;
 
     public List<String> doEncryption(
         KeyInfo keyInfo,
@@ -87,6 +105,28 @@ public class Encryptor {
         List<WSEncryptionPart> references,
         List<Element> attachmentEncryptedDataElements
     ) throws WSSecurityException {
+        Map<Element, EncryptionTask> encryptionTasks =
+            startEncryption(secretKey, encryptionAlgorithm, references);
+        try {
+            return doEncryption(
+                keyInfo, secretKey, encryptionAlgorithm, references, attachmentEncryptedDataElements, encryptionTasks
+            );
+        } finally {
+            // Don't encrypt anything that is no longer needed, e.g. after an error
+            for (EncryptionTask encryptionTask : encryptionTasks.values()) {
+                encryptionTask.cancel();
+            }
+        }
+    }
+
+    private List<String> doEncryption(
+        KeyInfo keyInfo,
+        SecretKey secretKey,
+        String encryptionAlgorithm,
+        List<WSEncryptionPart> references,
+        List<Element> attachmentEncryptedDataElements,
+        Map<Element, EncryptionTask> encryptionTasks
+    ) throws WSSecurityException {
 
         XMLCipher xmlCipher = null;
         try {
@@ -167,7 +207,7 @@ public class Encryptor {
                     if (storeBytesInAttachment) {
                         try {
                             String id =
-                                encryptElementInAttachment(keyInfo, secretKey, encryptionAlgorithm, encPart, encrElement);
+                                encryptElementInAttachment(keyInfo, secretKey, encryptionAlgorithm, encPart, encrElement, null);
                             encPart.setEncId(id);
                             encDataRef.add("#" + id);
                         } catch (Exception ex) {
@@ -175,7 +215,7 @@ public class Encryptor {
                         }
                     } else {
                         String id =
-                            encryptElement(encrElement, encPart.getEncModifier(), xmlCipher, secretKey, keyInfo);
+                            encryptElement(encrElement, encPart.getEncModifier(), xmlCipher, secretKey, keyInfo, null);
                         encPart.setEncId(id);
                         encDataRef.add("#" + id);
                     }
@@ -184,7 +224,10 @@ public class Encryptor {
                 for (Element elementToEncrypt : elementsToEncrypt) {
                     try {
                         String id =
-                            encryptElementInAttachment(keyInfo, secretKey, encryptionAlgorithm, encPart, elementToEncrypt);
+                            encryptElementInAttachment(
+                                keyInfo, secretKey, encryptionAlgorithm, encPart, elementToEncrypt,
+                                encryptionTasks.get(elementToEncrypt)
+                            );
                         encPart.setEncId(id);
                         encDataRef.add("#" + id);
                     } catch (Exception ex) {
@@ -196,7 +239,10 @@ public class Encryptor {
             } else {
                 for (Element elementToEncrypt : elementsToEncrypt) {
                     String id =
-                        encryptElement(elementToEncrypt, encPart.getEncModifier(), xmlCipher, secretKey, keyInfo);
+                        encryptElement(
+                            elementToEncrypt, encPart.getEncModifier(), xmlCipher, secretKey, keyInfo,
+                            encryptionTasks.get(elementToEncrypt)
+                        );
                     encPart.setEncId(id);
                     encDataRef.add("#" + id);
                 }
@@ -211,6 +257,93 @@ public class Encryptor {
         return encDataRef;
     }
 
+    /**
+     * Serialize the elements to encrypt and start encrypting them on the Executor, if one is
+     * configured and none of the elements to encrypt contains another one. All of the elements are
+     * serialized on the calling thread before the DOM is modified. The elements are then found again
+     * when they are encrypted, and the result of the task for an element is only used if it was
+     * encrypted in the same way.
+     *
+     * @return the tasks by element to encrypt
+     */
+    private Map<Element, EncryptionTask> startEncryption(
+        SecretKey secretKey,
+        String encryptionAlgorithm,
+        List<WSEncryptionPart> references
+    ) throws WSSecurityException {
+        if (executor == null || expandXopInclude || !storeBytesInAttachment && encryptionSerializer != null) {
+            return Collections.emptyMap();
+        }
+
+        List<Element> elements = new ArrayList<>();
+        Map<Element, Boolean> contentModes = new IdentityHashMap<>();
+        for (WSEncryptionPart encPart : references) {
+            if (encPart.getId() != null && encPart.getId().startsWith("cid:")) {
+                continue;
+            }
+            if (callbackLookup == null) {
+                callbackLookup = new DOMCallbackLookup(doc);
+            }
+            List<Element> elementsToEncrypt = WSSecurityUtil.findElements(encPart, callbackLookup);
+            if (elementsToEncrypt != null) {
+                for (Element elementToEncrypt : elementsToEncrypt) {
+                    if (elementToEncrypt == null) {
+                        continue;
+                    }
+                    if (contentModes.containsKey(elementToEncrypt)) {
+                        return Collections.emptyMap();
+                    }
+                    elements.add(elementToEncrypt);
+                    contentModes.put(elementToEncrypt, "Content".equals(encPart.getEncModifier()));
+                }
+            }
+        }
+        if (elements.size() < 2) {
+            return Collections.emptyMap();
+        }
+        // Encrypting an element would change the data of another element to encrypt which contains it
+        for (Element element : elements) {
+            for (Node parent = element.getParentNode(); parent != null; parent = parent.getParentNode()) {
+                if (contentModes.containsKey(parent)) {
+                    return Collections.emptyMap();
+                }
+            }
+        }
+
+        Map<Element, EncryptionTask> encryptionTasks = new IdentityHashMap<>();
+        try {
+            for (Element element : elements) {
+                boolean content = contentModes.get(element);
+                String type = content ? EncryptionConstants.TYPE_CONTENT : EncryptionConstants.TYPE_ELEMENT;
+                // The Executor must not read the DOM, which is modified while the elements are encrypted
+                byte[] serializedOctets = serialize(element, type);
+                Callable<?> callable = null;
+                if (storeBytesInAttachment) {
+                    callable = () -> encryptToBytes(serializedOctets, encryptionAlgorithm, secretKey);
+                } else {
+                    // The same as XMLCipher.encryptData(Document, Element, boolean), which serializes the element
+                    XMLCipher xmlCipher = XMLCipher.getInstance(encryptionAlgorithm);
+                    xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
+                    callable = () -> xmlCipher.encryptData(doc, type, new ByteArrayInputStream(serializedOctets));
+                }
+                encryptionTasks.put(element, new EncryptionTask(content, callable));
+            }
+        } catch (Exception ex) {
+            // The error is reported when the elements are encrypted one after the other
+            LOG.debug("Cannot encrypt the elements in parallel", ex);
+            return Collections.emptyMap();
+        }
+
+        for (Element element : elements) {
+            try {
+                executor.execute(encryptionTasks.get(element));
+            } catch (RejectedExecutionException ex) {
+                LOG.debug("The encryption of {} was rejected by the Executor", element.getLocalName());
+            }
+        }
+        return encryptionTasks;
+    }
+
     private Element findMatchingExpandedElement(Element element) {
         Element matchingElement = null;
 
@@ -238,7 +371,8 @@ public class Encryptor {
         SecretKey secretKey,
         String encryptionAlgorithm,
         WSEncryptionPart encryptionPart,
-        Element elementToEncrypt
+        Element elementToEncrypt,
+        EncryptionTask encryptionTask
    ) throws Exception {
 
         String type = EncryptionConstants.TYPE_ELEMENT;
@@ -273,23 +407,70 @@ public class Encryptor {
         cipherData.appendChild(cipherValue);
         encryptedData.appendChild(cipherData);
 
-        Cipher cipher = createCipher(encryptionAlgorithm, secretKey);
+        byte[] finalEncryptedBytes = null;
+        if (encryptionTask != null && encryptionTask.isContent() == EncryptionConstants.TYPE_CONTENT.equals(type)) {
+            finalEncryptedBytes = (byte[])encryptionTask.getResult();
+        } else {
+            finalEncryptedBytes = encryptToBytes(elementToEncrypt, type, encryptionAlgorithm, secretKey);
+        }
+
+        if ("Content".equals(encryptionPart.getEncModifier())) {
+            Node child = elementToEncrypt.getFirstChild();
+            while (child != null) {
+                Node sibling = child.getNextSibling();
+                elementToEncrypt.removeChild(child);
+                child = sibling;
+            }
+            elementToEncrypt.appendChild(encryptedData);
+        } else {
+            elementToEncrypt.getParentNode().replaceChild(encryptedData, elementToEncrypt);
+        }
 
-        // Serialize and encrypt the element
+        AttachmentUtils.storeBytesInAttachment(cipherValue, doc, attachmentId,
+                                              finalEncryptedBytes, attachmentCallbackHandler);
+
+        return encEncryptedDataId;
+    }
+
+    /**
+     * Serialize and encrypt an element (or its content), returning the IV followed by the cipher text
+     */
+    private static byte[] encryptToBytes(
+        Element elementToEncrypt,
+        String type,
+        String encryptionAlgorithm,
+        SecretKey secretKey
+    ) throws Exception {
+        return encryptToBytes(serialize(elementToEncrypt, type), encryptionAlgorithm, secretKey);
+    }
+
+    /**
+     * Serialize an element (or its content) in the same way as XMLCipher does by default
+     */
+    private static byte[] serialize(Element elementToEncrypt, String type) throws Exception {
         AbstractSerializer serializer = new TransformSerializer(true);
 
-        byte[] serializedOctets = null;
         if (type.equals(EncryptionConstants.TYPE_CONTENT)) {
             NodeList children = elementToEncrypt.getChildNodes();
             if (null != children) {
-                serializedOctets = serializer.serializeToByteArray(children);
+                return serializer.serializeToByteArray(children);
             } else {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION,
                                               "Element has no content.");
             }
-        } else {
-            serializedOctets = serializer.serializeToByteArray(elementToEncrypt);
         }
+        return serializer.serializeToByteArray(elementToEncrypt);
+    }
+
+    /**
+     * Encrypt serialized octets, returning the IV followed by the cipher text
+     */
+    private static byte[] encryptToBytes(
+        byte[] serializedOctets,
+        String encryptionAlgorithm,
+        SecretKey secretKey
+    ) throws WSSecurityException {
+        Cipher cipher = createCipher(encryptionAlgorithm, secretKey);
 
         byte[] encryptedBytes = null;
         try {
@@ -305,23 +486,7 @@ public class Encryptor {
         byte[] finalEncryptedBytes = new byte[iv.length + encryptedBytes.length];
         System.arraycopy(iv, 0, finalEncryptedBytes, 0, iv.length);
         System.arraycopy(encryptedBytes, 0, finalEncryptedBytes, iv.length, encryptedBytes.length);
-
-        if ("Content".equals(encryptionPart.getEncModifier())) {
-            Node child = elementToEncrypt.getFirstChild();
-            while (child != null) {
-                Node sibling = child.getNextSibling();
-                elementToEncrypt.removeChild(child);
-                child = sibling;
-            }
-            elementToEncrypt.appendChild(encryptedData);
-        } else {
-            elementToEncrypt.getParentNode().replaceChild(encryptedData, elementToEncrypt);
-        }
-
-        AttachmentUtils.storeBytesInAttachment(cipherValue, doc, attachmentId,
-                                              finalEncryptedBytes, attachmentCallbackHandler);
-
-        return encEncryptedDataId;
+        return finalEncryptedBytes;
     }
 
     private void encryptAttachment(
@@ -416,7 +581,7 @@ public class Encryptor {
         }
     }
 
-    private Cipher createCipher(String encryptionAlgorithm, SecretKey secretKey)
+    private static Cipher createCipher(String encryptionAlgorithm, SecretKey secretKey)
         throws WSSecurityException {
         String jceAlgorithm = JCEMapper.translateURItoJCEID(encryptionAlgorithm);
         try {
@@ -442,7 +607,8 @@ public class Encryptor {
         String modifier,
         XMLCipher xmlCipher,
         SecretKey secretKey,
-        KeyInfo keyInfo
+        KeyInfo keyInfo,
+        EncryptionTask encryptionTask
     ) throws WSSecurityException {
 
         boolean content = "Content".equals(modifier);
@@ -459,6 +625,26 @@ public class Encryptor {
                 }
             }
 
+            if (encryptionTask != null && encryptionTask.isContent() == content) {
+                // The element has already been encrypted, in the same way as XMLCipher.doFinal does
+                EncryptedData encData = (EncryptedData)encryptionTask.getResult();
+                encData.setId(xencEncryptedDataId);
+                encData.setKeyInfo(keyInfo);
+                Element encDataElement = xmlCipher.martial(doc, encData);
+                if (content) {
+                    Node child = elementToEncrypt.getFirstChild();
+                    while (child != null) {
+                        Node sibling = child.getNextSibling();
+                        elementToEncrypt.removeChild(child);
+                        child = sibling;
+                    }
+                    elementToEncrypt.appendChild(encDataElement);
+                } else {
+                    elementToEncrypt.getParentNode().replaceChild(encDataElement, elementToEncrypt);
+                }
+                return xencEncryptedDataId;
+            }
+
             xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
             EncryptedData encData = xmlCipher.getEncryptedData();
             encData.setId(xencEncryptedDataId);
@@ -591,4 +777,55 @@ public class Encryptor {
         this.wsDocInfo = wsDocInfo;
     }
 
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * The encryption of the serialized octets of an element on the Executor. The result is the
+     * EncryptedData, or the encrypted octets if they are stored in an attachment.
+     */
+    private static final class EncryptionTask implements Runnable {
+        private final boolean content;
+        private final FutureTask<Object> task;
+
+        EncryptionTask(boolean content, Callable<?> callable) {
+            this.content = content;
+            task = new FutureTask<>(callable::call);
+        }
+
+        boolean isContent() {
+            return content;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        Object getResult() throws WSSecurityException {
+            // The element is encrypted on the calling thread if the Executor has not started the task
+            task.run();
+            try {
+                return task.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof WSSecurityException) {
+                    throw (WSSecurityException)ex.getCause();
+                }
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, ex);
+            }
+        }
+
+        void cancel() {
+            task.cancel(false);
+        }
+    }
+
 }
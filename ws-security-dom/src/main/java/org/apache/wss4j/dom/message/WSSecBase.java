@@ -34,6 +34,7 @@ import javax.security.auth.callback.CallbackHandler;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * This is the base class for WS Security messages. It provides common functions
@@ -55,6 +56,7 @@ public class WSSecBase {
     private final WSSecHeader securityHeader;
     private final Document doc;
     private WSDocInfo wsDocInfo;
+    private Executor executor;
 
     public WSSecBase(WSSecHeader securityHeader) {
         this.securityHeader = securityHeader;
@@ -242,6 +244,22 @@ public class WSSecBase {
         this.wsDocInfo = wsDocInfo;
     }
 
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the Executor on which the parts of the message are digested (when signing) or
+     * serialized and encrypted (when encrypting) in parallel. By default the parts are
+     * processed one after the other on the calling thread. The DOM is only modified on
+     * the calling thread, and in the same order as without an Executor.
+     *
+     * @param executor the Executor to use, or null to process the parts on the calling thread
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public void clean() {
         user = null;
         password = null;
@@ -140,6 +140,7 @@ public class WSSecDKEncrypt extends WSSecDerivedKeyBase {
         encryptor.setStoreBytesInAttachment(storeBytesInAttachment);
         encryptor.setEncryptionSerializer(encryptionSerializer);
         encryptor.setWsDocInfo(getWsDocInfo());
+        encryptor.setExecutor(getExecutor());
         List<String> encDataRefs =
             encryptor.doEncryption(keyInfo, key, symEncAlgo, references, attachmentEncryptedDataElements);
 
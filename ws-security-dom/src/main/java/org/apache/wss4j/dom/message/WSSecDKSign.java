@@ -245,7 +245,9 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
             SignatureMethod signatureMethod =
                 signatureFactory.newSignatureMethod(sigAlgo, null);
             SignedInfo signedInfo =
-                signatureFactory.newSignedInfo(c14nMethod, signatureMethod, referenceList);
+                signatureFactory.newSignedInfo(
+                    c14nMethod, signatureMethod, digestReferences(referenceList, signatureFactory, wsDocInfo)
+                );
 
             sig = signatureFactory.newXMLSignature(
                     signedInfo,
@@ -280,6 +282,10 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
                 );
             }
             signContext.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
+            if (callbackLookup != null) {
+                // Tokens have been added to the security header since the references were looked up
+                callbackLookup.invalidate();
+            }
             wsDocInfo.setCallbackLookup(callbackLookup);
 
             // Add the elements to sign to the Signature Context
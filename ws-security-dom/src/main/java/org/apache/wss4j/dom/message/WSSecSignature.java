@@ -575,7 +575,9 @@ public class WSSecSignature extends WSSecSignatureBase {
             SignatureMethod signatureMethod =
                 signatureFactory.newSignatureMethod(sigAlgo, null);
             SignedInfo signedInfo =
-                signatureFactory.newSignedInfo(c14nMethod, signatureMethod, referenceList);
+                signatureFactory.newSignedInfo(
+                    c14nMethod, signatureMethod, digestReferences(referenceList, signatureFactory, getWsDocInfo())
+                );
 
             sig = signatureFactory.newXMLSignature(
                     signedInfo,
@@ -617,6 +619,10 @@ public class WSSecSignature extends WSSecSignatureBase {
                 );
             }
             signContext.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, getWsDocInfo());
+            if (callbackLookup != null) {
+                // Tokens have been added to the security header since the references were looked up
+                callbackLookup.invalidate();
+            }
             getWsDocInfo().setCallbackLookup(callbackLookup);
 
             // Add the elements to sign to the Signature Context
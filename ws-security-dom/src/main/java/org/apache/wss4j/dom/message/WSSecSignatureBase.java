@@ -24,12 +24,15 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.security.auth.callback.Callback;
 import javax.xml.crypto.XMLStructure;
 import javax.xml.crypto.dom.DOMStructure;
 import javax.xml.crypto.dsig.DigestMethod;
 import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.spec.ExcC14NParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
@@ -46,10 +49,12 @@ import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.callback.DOMCallbackLookup;
 import org.apache.wss4j.dom.transform.AttachmentTransformParameterSpec;
 import org.apache.wss4j.dom.transform.STRTransform;
+import org.apache.wss4j.dom.util.ReferenceDigestTask;
 import org.apache.wss4j.dom.util.SignatureUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * This is the base class for WS Security messages that are used for signature generation or
@@ -230,6 +235,102 @@ public class WSSecSignatureBase extends WSSecBase {
         return referenceList;
     }
 
+    /**
+     * Digest the References to elements of the message in parallel, if an Executor is configured.
+     *
+     * The References to an element by Id with a single canonicalization Transform are digested on
+     * the Executor, in exactly the same way as JSR-105 would digest them when signing. They are
+     * replaced by References which contain the calculated digest value, so that JSR-105 only has
+     * to digest the remaining References (STR Transforms, attachments etc.). Elements which
+     * contain the security header are not digested in advance, as the Signature element is only
+     * inserted into the security header when signing.
+     *
+     * @param referenceList The list of references to sign
+     * @param signatureFactory The XMLSignatureFactory to create the References with
+     * @param wsDocInfo The WSDocInfo object which holds the elements to sign
+     * @return the list of references to sign
+     * @throws XMLSignatureException if a Reference could not be digested
+     */
+    protected List<javax.xml.crypto.dsig.Reference> digestReferences(
+        List<javax.xml.crypto.dsig.Reference> referenceList,
+        XMLSignatureFactory signatureFactory,
+        WSDocInfo wsDocInfo
+    ) throws XMLSignatureException {
+        Executor executor = getExecutor();
+        if (executor == null || referenceList.size() < 2 || wsDocInfo == null) {
+            return referenceList;
+        }
+
+        Element securityHeaderElement = getSecurityHeader().getSecurityHeaderElement();
+        List<ReferenceDigestTask> tasks = new ArrayList<>(referenceList.size());
+        int digestCount = 0;
+        for (javax.xml.crypto.dsig.Reference reference : referenceList) {
+            ReferenceDigestTask task = null;
+            String uri = reference.getURI();
+            if (uri != null && uri.length() > 1 && uri.charAt(0) == '#' && !uri.startsWith("#xpointer(")) {
+                // This is the element that JSR-105 finds through the Id attributes set on the context
+                Element element = wsDocInfo.getTokenElement(uri);
+                if (element != null && !isAncestorOrSelf(element, securityHeaderElement)) {
+                    task = ReferenceDigestTask.newInstance(reference, element);
+                }
+            }
+            if (task != null) {
+                digestCount++;
+            }
+            tasks.add(task);
+        }
+        if (digestCount < 2) {
+            return referenceList;
+        }
+
+        try {
+            for (ReferenceDigestTask task : tasks) {
+                if (task != null) {
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException ex) {
+                        LOG.debug("Digesting Reference {} was rejected by the Executor", task.getReference().getURI());
+                    }
+                }
+            }
+
+            List<javax.xml.crypto.dsig.Reference> digestedReferences = new ArrayList<>(referenceList.size());
+            for (int i = 0; i < referenceList.size(); i++) {
+                javax.xml.crypto.dsig.Reference reference = referenceList.get(i);
+                ReferenceDigestTask task = tasks.get(i);
+                if (task != null) {
+                    reference =
+                        signatureFactory.newReference(
+                            reference.getURI(),
+                            reference.getDigestMethod(),
+                            reference.getTransforms(),
+                            reference.getType(),
+                            reference.getId(),
+                            task.getDigest()
+                        );
+                }
+                digestedReferences.add(reference);
+            }
+            return digestedReferences;
+        } finally {
+            // Wait for any digests that are still running, so that the DOM is not modified concurrently
+            for (ReferenceDigestTask task : tasks) {
+                if (task != null) {
+                    task.abandon();
+                }
+            }
+        }
+    }
+
+    private static boolean isAncestorOrSelf(Element element, Node node) {
+        for (Node current = node; current != null; current = current.getParentNode()) {
+            if (current == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void cloneElement(Element element) throws WSSecurityException {
         if (expandXopInclude) {
             // Look for xop:Include Nodes
@@ -32,6 +32,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
 import org.apache.wss4j.common.derivedKey.DerivedKeyUtils;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.principal.WSDerivedKeyTokenPrincipal;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.util.DOM2Writer;
@@ -566,9 +567,25 @@ public class DerivedKeyToken {
      * @throws WSSecurityException
      */
     public byte[] deriveKey(int length, byte[] secret) throws WSSecurityException {
+        return deriveKey(length, secret, null);
+    }
+
+    /**
+     * Derive a key from this DerivedKeyToken instance, using the keys cached for the
+     * WS-SecureConversation session of the secret (if any)
+     * @param length
+     * @param secret
+     * @param secureConversationCache the cache of WS-SecureConversation sessions (may be null)
+     * @throws WSSecurityException
+     */
+    public byte[] deriveKey(
+        int length, byte[] secret, SecureConversationCache secureConversationCache
+    ) throws WSSecurityException {
         try {
             byte[] nonce = org.apache.xml.security.utils.XMLUtils.decode(getNonce());
-            return DerivedKeyUtils.deriveKey(getAlgorithm(), getLabel(), length, secret, nonce, getOffset());
+            return DerivedKeyUtils.deriveKey(
+                getAlgorithm(), getLabel(), length, secret, nonce, getOffset(), secureConversationCache
+            );
         } catch (Exception e) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e
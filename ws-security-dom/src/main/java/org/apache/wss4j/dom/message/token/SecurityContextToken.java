@@ -19,6 +19,10 @@
 
 package org.apache.wss4j.dom.message.token;
 
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.dom.WSConstants;
@@ -218,6 +222,29 @@ public class SecurityContextToken {
         return null;
     }
 
+    /**
+     * Get the end of the lifetime of this token.
+     *
+     * @return the value of the (optional) wsu:Expires element, or null if there is none
+     * @throws WSSecurityException if the value is not a valid date
+     */
+    public Instant getExpires() throws WSSecurityException {
+        Element elementExpires =
+            XMLUtils.getDirectChildElement(element, WSConstants.EXPIRES_LN, WSConstants.WSU_NS);
+        if (elementExpires == null) {
+            return null;
+        }
+        String expires = XMLUtils.getElementText(elementExpires);
+        if (expires == null) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN);
+        }
+        try {
+            return ZonedDateTime.parse(expires.trim()).toInstant();
+        } catch (DateTimeParseException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
+        }
+    }
+
     /**
      * Get the WS-Trust tokenType String associated with this token
      */
@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.SecretKey;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.callback.CallbackLookup;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.util.EncryptionUtils;
+import org.apache.wss4j.dom.util.SignatureUtils;
+import org.apache.wss4j.dom.util.X509Util;
+
+/**
+ * Decrypts the EncryptedData elements referenced by the DataReferences of an EncryptedKey or
+ * ReferenceList.
+ *
+ * The EncryptedData elements are looked up, checked and read before any of them is decrypted, and
+ * they are replaced by the decrypted data afterwards in the order of the DataReferences. An
+ * EncryptedData element is only looked up again before it is replaced if a preceding decryption
+ * may have changed it, that is if it was not found, if a sibling of it was replaced or if it is
+ * no longer part of the document, and it is decrypted as usual if it is not the Element that was
+ * prepared. The results are therefore identical to decrypting the EncryptedData elements one after
+ * the other, while the Elements are only looked up by Id again where the document has changed. If
+ * the check of an EncryptedData element failed, that failure is reported when the element is
+ * reached, unless a preceding decryption has changed the element that is referenced.
+ *
+ * If a decryption Executor is configured, the CipherValues of the EncryptedData elements are
+ * decrypted in parallel on the Executor. All access to the DOM stays on the calling thread.
+ * Attachments, xop:Include references and anything else that XMLCipher does not decrypt from an
+ * inline CipherValue are decrypted on the calling thread.
+ */
+final class DataRefDecryptor {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(DataRefDecryptor.class);
+
+    /**
+     * Get the SecretKey with which to decrypt an EncryptedData element, checking the EncryptedData
+     * element and the key against the configuration.
+     */
+    @FunctionalInterface
+    interface SecretKeyResolver {
+        SecretKey getSecretKey(Element encryptedDataElement, String symEncAlgo) throws WSSecurityException;
+    }
+
+    private final Document doc;
+    private final RequestData data;
+    private final SecretKeyResolver secretKeyResolver;
+
+    DataRefDecryptor(Document doc, RequestData data, SecretKeyResolver secretKeyResolver) {
+        this.doc = doc;
+        this.data = data;
+        this.secretKeyResolver = secretKeyResolver;
+    }
+
+    /**
+     * Decrypt the EncryptedData elements referenced by the given URIs
+     */
+    List<WSDataRef> decrypt(List<String> dataRefURIs) throws WSSecurityException {
+        Executor executor = dataRefURIs.size() < 2 ? null : data.getDecryptionExecutor();
+        CallbackLookup callbackLookup = data.getWsDocInfo().getCallbackLookup();
+        List<PreparedDataRef> preparedDataRefs = new ArrayList<>(dataRefURIs.size());
+        Set<Node> modifiedParents = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            for (String dataRefURI : dataRefURIs) {
+                Element encryptedDataElement = null;
+                PreparedDataRef preparedDataRef;
+                try {
+                    encryptedDataElement = EncryptionUtils.findEncryptedDataElement(data.getWsDocInfo(), dataRefURI);
+                    preparedDataRef = prepare(dataRefURI, encryptedDataElement);
+                    if (executor != null) {
+                        submit(preparedDataRef, executor);
+                    }
+                } catch (WSSecurityException ex) {
+                    // The EncryptedData element may only be valid once the preceding EncryptedData
+                    // elements have been decrypted, so the failure is only reported when it is reached
+                    preparedDataRef = new PreparedDataRef(dataRefURI, encryptedDataElement, null, null);
+                    preparedDataRef.failure = ex;
+                }
+                preparedDataRefs.add(preparedDataRef);
+            }
+
+            List<WSDataRef> dataRefs = new ArrayList<>(dataRefURIs.size());
+            for (PreparedDataRef preparedDataRef : preparedDataRefs) {
+                Element encryptedDataElement = preparedDataRef.encryptedDataElement;
+                if (isModified(encryptedDataElement, modifiedParents)) {
+                    // The decryption of a preceding EncryptedData element may have changed the reference.
+                    // The Elements looked up by Id only need to be discarded if the element may now be
+                    // found in decrypted data, as replacing a sibling leaves the element in place
+                    if (encryptedDataElement == null || !isAttached(encryptedDataElement)) {
+                        callbackLookup.invalidate();
+                    }
+                    encryptedDataElement =
+                        EncryptionUtils.findEncryptedDataElement(data.getWsDocInfo(), preparedDataRef.dataRefURI);
+                }
+                if (encryptedDataElement != preparedDataRef.encryptedDataElement) {
+                    PreparedDataRef changedDataRef = prepare(preparedDataRef.dataRefURI, encryptedDataElement);
+                    modifiedParents.add(encryptedDataElement.getParentNode());
+                    dataRefs.add(decrypt(changedDataRef, null));
+                } else if (preparedDataRef.failure != null) {
+                    throw preparedDataRef.failure;
+                } else {
+                    byte[] decryptedOctets =
+                        preparedDataRef.task == null ? null : getDecryptedOctets(preparedDataRef.task);
+                    modifiedParents.add(encryptedDataElement.getParentNode());
+                    dataRefs.add(decrypt(preparedDataRef, decryptedOctets));
+                }
+            }
+            return dataRefs;
+        } finally {
+            for (PreparedDataRef preparedDataRef : preparedDataRefs) {
+                if (preparedDataRef.task != null) {
+                    preparedDataRef.task.cancel(false);
+                }
+            }
+            if (!modifiedParents.isEmpty()) {
+                // The EncryptedData elements have been replaced, so any Elements looked up by Id are stale
+                callbackLookup.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Check whether the decryption of a preceding EncryptedData element may have changed the given
+     * EncryptedData element, that is if the element was not found, if one of its siblings was
+     * replaced, or if it is no longer part of the document as one of its ancestors was replaced.
+     */
+    private static boolean isModified(Element encryptedDataElement, Set<Node> modifiedParents) {
+        if (modifiedParents.isEmpty()) {
+            return false;
+        }
+        return encryptedDataElement == null
+            || modifiedParents.contains(encryptedDataElement.getParentNode())
+            || !isAttached(encryptedDataElement);
+    }
+
+    private static boolean isAttached(Element element) {
+        Node node = element;
+        while (node != null && Node.DOCUMENT_NODE != node.getNodeType()) {
+            node = node.getParentNode();
+        }
+        return node != null;
+    }
+
+    /**
+     * Check the EncryptedData element referenced by dataRefURI, and get the key to decrypt it
+     */
+    private PreparedDataRef prepare(String dataRefURI, Element encryptedDataElement) throws WSSecurityException {
+        LOG.debug("Found data reference: {}", dataRefURI);
+        WSDocInfo docInfo = data.getWsDocInfo();
+        if (encryptedDataElement != null && data.isRequireSignedEncryptedDataElements()) {
+            List<WSSecurityEngineResult> signedResults =
+                docInfo.getResultsByTag(WSConstants.SIGN);
+            SignatureUtils.verifySignedElement(encryptedDataElement, signedResults);
+        }
+        //
+        // Prepare the SecretKey object to decrypt EncryptedData
+        //
+        String symEncAlgo = X509Util.getEncAlgo(encryptedDataElement);
+        SecretKey symmetricKey = secretKeyResolver.getSecretKey(encryptedDataElement, symEncAlgo);
+
+        return new PreparedDataRef(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
+    }
+
+    private WSDataRef decrypt(PreparedDataRef preparedDataRef, byte[] decryptedOctets) throws WSSecurityException {
+        return EncryptionUtils.decryptEncryptedData(
+            doc, preparedDataRef.dataRefURI, preparedDataRef.encryptedDataElement, preparedDataRef.symmetricKey,
+            preparedDataRef.symEncAlgo, data.getAttachmentCallbackHandler(), data.getEncryptionSerializer(),
+            decryptedOctets
+        );
+    }
+
+    /**
+     * Start decrypting the CipherValue of the EncryptedData element on the Executor, if it can
+     * be decrypted without accessing the DOM.
+     */
+    private static void submit(PreparedDataRef preparedDataRef, Executor executor) {
+        Element encryptedDataElement = preparedDataRef.encryptedDataElement;
+        String type = encryptedDataElement.getAttributeNS(null, "Type");
+        if (WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_CONTENT_ONLY.equals(type)
+            || WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_COMPLETE.equals(type)) {
+            return;
+        }
+
+        Element cipherValue = EncryptionUtils.getCipherValueFromEncryptedData(encryptedDataElement);
+        if (cipherValue == null || EncryptionUtils.getXOPURIFromCipherValue(cipherValue) != null) {
+            return;
+        }
+
+        // XMLCipher decrypts the first EncryptedData child of the parent if the content is encrypted
+        Node parent = encryptedDataElement.getParentNode();
+        if (parent == null || Node.ELEMENT_NODE != parent.getNodeType()
+            || X509Util.isContent(encryptedDataElement)
+                && ((Element)parent).getElementsByTagNameNS(WSConstants.ENC_NS, "EncryptedData").item(0)
+                    != encryptedDataElement) {
+            return;
+        }
+
+        String cipherText = XMLUtils.getElementText(cipherValue);
+        if (cipherText == null) {
+            return;
+        }
+        SecretKey symmetricKey = preparedDataRef.symmetricKey;
+        String symEncAlgo = preparedDataRef.symEncAlgo;
+        FutureTask<byte[]> task =
+            new FutureTask<>(() -> EncryptionUtils.decryptCipherValue(cipherText, symmetricKey, symEncAlgo));
+        try {
+            executor.execute(task);
+            preparedDataRef.task = task;
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("The decryption of {} was rejected by the Executor", preparedDataRef.dataRefURI);
+        }
+    }
+
+    private static byte[] getDecryptedOctets(FutureTask<byte[]> task) throws WSSecurityException {
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof WSSecurityException) {
+                throw (WSSecurityException)ex.getCause();
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex);
+        }
+    }
+
+    private static final class PreparedDataRef {
+        private final String dataRefURI;
+        private final Element encryptedDataElement;
+        private final SecretKey symmetricKey;
+        private final String symEncAlgo;
+        private FutureTask<byte[]> task;
+        private WSSecurityException failure;
+
+        PreparedDataRef(String dataRefURI, Element encryptedDataElement, SecretKey symmetricKey, String symEncAlgo) {
+            this.dataRefURI = dataRefURI;
+            this.encryptedDataElement = encryptedDataElement;
+            this.symmetricKey = symmetricKey;
+            this.symEncAlgo = symEncAlgo;
+        }
+    }
+}
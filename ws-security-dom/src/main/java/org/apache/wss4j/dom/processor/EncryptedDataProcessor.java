@@ -167,6 +167,10 @@ public class EncryptedDataProcessor implements Processor {
         WSDataRef dataRef = EncryptionUtils.decryptEncryptedData(
                 elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo,
                 data.getAttachmentCallbackHandler(), data.getEncryptionSerializer());
+        // The EncryptedData element has been replaced, so any Elements looked up by Id are stale
+        if (data.getWsDocInfo().getCallbackLookup() != null) {
+            data.getWsDocInfo().getCallbackLookup().invalidate();
+        }
 
         WSSecurityEngineResult result =
                 new WSSecurityEngineResult(WSConstants.ENCR, Collections.singletonList(dataRef));
@@ -40,7 +40,6 @@ import javax.crypto.spec.OAEPParameterSpec;
 import javax.crypto.spec.PSource;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
@@ -63,7 +62,6 @@ import org.apache.wss4j.dom.str.STRParser;
 import org.apache.wss4j.dom.str.STRParserParameters;
 import org.apache.wss4j.dom.str.STRParserResult;
 import org.apache.wss4j.dom.util.EncryptionUtils;
-import org.apache.wss4j.dom.util.SignatureUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.apache.wss4j.dom.util.X509Util;
 import org.apache.xml.security.algorithms.JCEMapper;
@@ -228,7 +226,7 @@ public class EncryptedKeyProcessor implements Processor {
                                                          elem, privateKey);
         }
 
-        List<WSDataRef> dataRefs = decryptDataRefs(refList, data.getWsDocInfo(), decryptedBytes, data);
+        List<WSDataRef> dataRefs = decryptDataRefs(refList, decryptedBytes, data);
 
         WSSecurityEngineResult result = new WSSecurityEngineResult(
                 WSConstants.ENCR,
@@ -505,8 +503,7 @@ public class EncryptedKeyProcessor implements Processor {
     /**
      * Decrypt all data references
      */
-    private List<WSDataRef> decryptDataRefs(Element refList, WSDocInfo docInfo,
-                                            byte[] decryptedBytes, RequestData data
+    private List<WSDataRef> decryptDataRefs(Element refList, byte[] decryptedBytes, RequestData data
     ) throws WSSecurityException {
         //
         // At this point we have the decrypted session (symmetric) key. According
@@ -516,49 +513,30 @@ public class EncryptedKeyProcessor implements Processor {
             return Collections.emptyList();
         }
 
-        List<WSDataRef> dataRefs = new ArrayList<>();
+        List<String> dataRefURIs = new ArrayList<>();
         for (Node node = refList.getFirstChild(); node != null; node = node.getNextSibling()) {
             if (Node.ELEMENT_NODE == node.getNodeType()
                     && WSConstants.ENC_NS.equals(node.getNamespaceURI())
                     && "DataReference".equals(node.getLocalName())) {
                 String dataRefURI = ((Element) node).getAttributeNS(null, "URI");
-                dataRefURI = XMLUtils.getIDFromReference(dataRefURI);
-
-                WSDataRef dataRef =
-                    decryptDataRef(refList.getOwnerDocument(), dataRefURI, docInfo, decryptedBytes, data);
-                dataRefs.add(dataRef);
+                dataRefURIs.add(XMLUtils.getIDFromReference(dataRefURI));
             }
         }
 
-        return dataRefs;
+        DataRefDecryptor decryptor =
+            new DataRefDecryptor(refList.getOwnerDocument(), data,
+                (encryptedDataElement, symEncAlgo) -> getSymmetricKey(symEncAlgo, decryptedBytes, data));
+        return decryptor.decrypt(dataRefURIs);
     }
 
     /**
-     * Decrypt an EncryptedData element referenced by dataRefURI
+     * Prepare the SecretKey object to decrypt an EncryptedData element referenced by the EncryptedKey
      */
-    private WSDataRef decryptDataRef(
-        Document doc,
-        String dataRefURI,
-        WSDocInfo docInfo,
+    private static SecretKey getSymmetricKey(
+        String symEncAlgo,
         byte[] decryptedData,
         RequestData data
     ) throws WSSecurityException {
-        LOG.debug("found data reference: {}", dataRefURI);
-        //
-        // Find the encrypted data element referenced by dataRefURI
-        //
-        Element encryptedDataElement =
-            EncryptionUtils.findEncryptedDataElement(docInfo, dataRefURI);
-        if (encryptedDataElement != null && data.isRequireSignedEncryptedDataElements()) {
-            List<WSSecurityEngineResult> signedResults =
-                docInfo.getResultsByTag(WSConstants.SIGN);
-            SignatureUtils.verifySignedElement(encryptedDataElement, signedResults);
-        }
-        //
-        // Prepare the SecretKey object to decrypt EncryptedData
-        //
-        String symEncAlgo = X509Util.getEncAlgo(encryptedDataElement);
-
         // EncryptionAlgorithm cannot be null
         if (symEncAlgo == null) {
             LOG.warn("No encryption algorithm was specified in the request");
@@ -594,10 +572,7 @@ public class EncryptedKeyProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return EncryptionUtils.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-            data.getEncryptionSerializer()
-        );
+        return symmetricKey;
     }
 
     /**
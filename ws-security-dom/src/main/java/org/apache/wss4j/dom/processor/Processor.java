@@ -26,6 +26,10 @@ import org.w3c.dom.Element;
 
 import java.util.List;
 
+/**
+ * A Processor handles a single child element of the security header. Processor instances are
+ * shared between messages, and so must be thread-safe - see StatefulProcessor.
+ */
 public interface Processor {
 
     List<WSSecurityEngineResult> handleToken(
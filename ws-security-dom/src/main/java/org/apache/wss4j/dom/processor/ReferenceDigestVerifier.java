@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+
+import org.apache.wss4j.dom.util.ReferenceDigestTask;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Element;
+
+/**
+ * Validates an XMLSignature, digesting the References to elements of the message in parallel.
+ *
+ * JSR-105 validates the SignatureValue, and then canonicalizes and digests each Reference in turn.
+ * If a signature verification Executor is configured, the References to an element by Id which
+ * have a single canonicalization Transform (without comments) are instead canonicalized and
+ * digested on the Executor, in exactly the same way as JSR-105 would, while the SignatureValue is
+ * validated on the calling thread. All other References (STR Transforms, attachments etc.) are
+ * then validated through JSR-105 on the calling thread. The DOM is only read while the References
+ * are digested, and the referenced elements are traversed on the calling thread beforehand, so
+ * that a DOM implementation which builds its nodes lazily (such as Xerces) can be read
+ * concurrently.
+ */
+final class ReferenceDigestVerifier {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReferenceDigestVerifier.class);
+
+    private final XMLSignature xmlSignature;
+    private final DOMValidateContext context;
+    private final Executor executor;
+    private final Map<Reference, Element> digestedElements = new IdentityHashMap<>();
+
+    ReferenceDigestVerifier(XMLSignature xmlSignature, DOMValidateContext context, Executor executor) {
+        this.xmlSignature = xmlSignature;
+        this.context = context;
+        this.executor = executor;
+    }
+
+    /**
+     * Validate the SignatureValue and the References of the XMLSignature
+     * @return whether the SignatureValue and all References are valid
+     */
+    boolean validate() throws XMLSignatureException {
+        List<ReferenceDigestTask> tasks = new ArrayList<>();
+        List<Reference> otherReferences = new ArrayList<>();
+        for (Object object : xmlSignature.getSignedInfo().getReferences()) {
+            Reference reference = (Reference)object;
+            ReferenceDigestTask task = ReferenceDigestTask.newInstance(reference, getReferencedElement(reference));
+            if (task != null) {
+                tasks.add(task);
+            } else {
+                otherReferences.add(reference);
+            }
+        }
+        if (tasks.size() < 2) {
+            return xmlSignature.validate(context);
+        }
+
+        // The SignatureValue is validated concurrently, so the SignedInfo must be traversed as well
+        WSSecurityUtil.expandDeferredNodes(context.getNode());
+
+        try {
+            for (ReferenceDigestTask task : tasks) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Digesting Reference {} was rejected by the Executor", task.getReference().getURI());
+                }
+            }
+
+            if (!xmlSignature.getSignatureValue().validate(context)) {
+                LOG.debug("The SignatureValue is invalid");
+                return false;
+            }
+            for (ReferenceDigestTask task : tasks) {
+                if (!MessageDigest.isEqual(task.getReference().getDigestValue(), task.getDigest())) {
+                    LOG.debug("The digest of Reference {} is invalid", task.getReference().getURI());
+                    return false;
+                }
+                digestedElements.put(task.getReference(), task.getElement());
+            }
+            for (Reference reference : otherReferences) {
+                if (!reference.validate(context)) {
+                    LOG.debug("The digest of Reference {} is invalid", reference.getURI());
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // Wait for any digests that are still running, so that the DOM is not read after returning
+            for (ReferenceDigestTask task : tasks) {
+                task.abandon();
+            }
+        }
+    }
+
+    /**
+     * Get the elements that were digested for the References that were not validated by JSR-105,
+     * as the dereferenced data of JSR-105 is not available for these References
+     */
+    Map<Reference, Element> getDigestedElements() {
+        return digestedElements;
+    }
+
+    /**
+     * Find the element referenced by a same-document Reference in the same way as the JSR-105
+     * URIDereferencer, if it can be digested without JSR-105.
+     */
+    private Element getReferencedElement(Reference reference) {
+        String uri = reference.getURI();
+        if (context.getURIDereferencer() != null || uri == null || uri.length() < 2 || uri.charAt(0) != '#'
+            || uri.startsWith("#xpointer(")) {
+            return null;
+        }
+
+        String id = uri.substring(1);
+        Element element = context.getElementById(id);
+        if (element == null || !org.apache.xml.security.utils.XMLUtils.protectAgainstWrappingAttack(
+                element.getOwnerDocument().getDocumentElement(), element, id)) {
+            // Leave it to JSR-105 to report the error
+            return null;
+        }
+        return element;
+    }
+}
@@ -26,7 +26,6 @@ import java.util.List;
 
 import javax.crypto.SecretKey;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -47,8 +46,6 @@ import org.apache.wss4j.dom.str.STRParser;
 import org.apache.wss4j.dom.str.STRParserParameters;
 import org.apache.wss4j.dom.str.STRParserResult;
 import org.apache.wss4j.dom.str.SecurityTokenRefSTRParser;
-import org.apache.wss4j.dom.util.EncryptionUtils;
-import org.apache.wss4j.dom.util.SignatureUtils;
 import org.apache.wss4j.dom.util.X509Util;
 
 public class ReferenceListProcessor implements Processor {
@@ -82,7 +79,7 @@ public class ReferenceListProcessor implements Processor {
         Element elem,
         RequestData data
     ) throws WSSecurityException {
-        List<WSDataRef> dataRefs = new ArrayList<>();
+        List<String> dataRefURIs = new ArrayList<>();
         for (Node node = elem.getFirstChild();
             node != null;
             node = node.getNextSibling()
@@ -95,41 +92,26 @@ public class ReferenceListProcessor implements Processor {
 
                 // See whether we have already processed the encrypted node
                 if (!data.getWsDocInfo().hasResult(WSConstants.ENCR, dataRefURI)) {
-                    WSDataRef dataRef =
-                        decryptDataRefEmbedded(elem.getOwnerDocument(), dataRefURI, data);
-                    dataRefs.add(dataRef);
+                    dataRefURIs.add(dataRefURI);
                 }
             }
         }
 
-        return dataRefs;
+        DataRefDecryptor decryptor =
+            new DataRefDecryptor(elem.getOwnerDocument(), data,
+                (encryptedDataElement, symEncAlgo) -> getSymmetricKey(encryptedDataElement, symEncAlgo, data));
+        return decryptor.decrypt(dataRefURIs);
     }
 
 
     /**
-     * Decrypt an (embedded) EncryptedData element referenced by dataRefURI.
+     * Prepare the SecretKey object to decrypt an (embedded) EncryptedData element.
      */
-    private WSDataRef decryptDataRefEmbedded(
-        Document doc,
-        String dataRefURI,
+    private static SecretKey getSymmetricKey(
+        Element encryptedDataElement,
+        String symEncAlgo,
         RequestData data
     ) throws WSSecurityException {
-        LOG.debug("Found data reference: {}", dataRefURI);
-        //
-        // Find the encrypted data element referenced by dataRefURI
-        //
-        Element encryptedDataElement =
-            EncryptionUtils.findEncryptedDataElement(data.getWsDocInfo(), dataRefURI);
-
-        if (encryptedDataElement != null && data.isRequireSignedEncryptedDataElements()) {
-            List<WSSecurityEngineResult> signedResults =
-                data.getWsDocInfo().getResultsByTag(WSConstants.SIGN);
-            SignatureUtils.verifySignedElement(encryptedDataElement, signedResults);
-        }
-        //
-        // Prepare the SecretKey object to decrypt EncryptedData
-        //
-        String symEncAlgo = X509Util.getEncAlgo(encryptedDataElement);
         Element keyInfoElement =
             XMLUtils.getDirectChildElement(
                     encryptedDataElement, "KeyInfo", WSConstants.SIG_NS
@@ -189,11 +171,7 @@ public class ReferenceListProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return
-            EncryptionUtils.decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-                data.getEncryptionSerializer()
-            );
+        return symmetricKey;
     }
 
     /**
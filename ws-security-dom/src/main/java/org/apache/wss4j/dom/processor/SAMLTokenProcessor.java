@@ -58,25 +58,23 @@ import org.w3c.dom.Element;
 public class SAMLTokenProcessor implements Processor {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(SAMLTokenProcessor.class);
-    private XMLSignatureFactory signatureFactory;
+    private final XMLSignatureFactory signatureFactory;
 
     public SAMLTokenProcessor() {
-        init(null);
+        this(null);
     }
 
     public SAMLTokenProcessor(Provider provider) {
-        init(provider);
-    }
-
-    private void init(Provider provider) {
         if (provider == null) {
             // Try to install the Santuario Provider - fall back to the JDK provider if this does
             // not work
+            XMLSignatureFactory factory;
             try {
-                signatureFactory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
+                factory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
             } catch (NoSuchProviderException ex) {
-                signatureFactory = XMLSignatureFactory.getInstance("DOM");
+                factory = XMLSignatureFactory.getInstance("DOM");
             }
+            signatureFactory = factory;
         } else {
             signatureFactory = XMLSignatureFactory.getInstance("DOM", provider);
         }
@@ -96,6 +94,9 @@ public class SAMLTokenProcessor implements Processor {
         List<WSDataRef> dataRefs = createDataRefs(elem, samlAssertion, xmlSignature);
 
         Credential credential = handleSAMLToken(samlAssertion, data, validator);
+        if (validator != null && data.getSamlAssertionCache() != null) {
+            samlAssertion.cacheSignature(data.getSamlAssertionCache(), data.getSigVerCrypto());
+        }
         samlAssertion = credential.getSamlAssertion();
         if (LOG.isDebugEnabled()) {
             LOG.debug("SAML Assertion issuer " + samlAssertion.getIssuerString());
@@ -234,7 +235,7 @@ public class SAMLTokenProcessor implements Processor {
                 }
             }
 
-            samlAssertion.verifySignature(samlKeyInfo);
+            samlAssertion.verifySignature(samlKeyInfo, data.getSamlAssertionCache(), data.getSigVerCrypto());
 
             return xmlSignature;
         }
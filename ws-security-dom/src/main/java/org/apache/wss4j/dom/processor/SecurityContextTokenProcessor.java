@@ -21,6 +21,7 @@ package org.apache.wss4j.dom.processor;
 
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
@@ -37,6 +38,7 @@ import javax.xml.namespace.QName;
 
 import java.util.List;
 import java.io.IOException;
+import java.time.Instant;
 
 /**
  * The processor to process <code>wsc:SecurityContextToken</code>.
@@ -70,14 +72,40 @@ public class SecurityContextTokenProcessor implements Processor {
             String id = sct.getID();
             id = XMLUtils.getIDFromReference(id);
 
+            // The secret of the session might be cached from a previous message
+            SecureConversationCache secureConversationCache = data.getSecureConversationCache();
+            Instant expires = null;
+            if (secureConversationCache != null) {
+                expires = sct.getExpires();
+                if (expires != null && !expires.isAfter(Instant.now())) {
+                    // The session has expired
+                    secureConversationCache.cancel(sct.getIdentifier());
+                    secureConversationCache.cancel(id);
+                    secureConversationCache = null;
+                }
+            }
             byte[] secret = null;
-            try {
-                secret = getSecret(data.getCallbackHandler(), sct.getIdentifier());
-            } catch (WSSecurityException ex) {
-                secret = getSecret(data.getCallbackHandler(), id);
+            if (secureConversationCache != null) {
+                secret = secureConversationCache.getSecret(sct.getIdentifier());
+                if (secret == null && id.length() != 0) {
+                    secret = secureConversationCache.getSecret(id);
+                }
             }
-            if (secret == null || secret.length == 0) {
-                secret = getSecret(data.getCallbackHandler(), id);
+            if (secret == null) {
+                String identifier = sct.getIdentifier();
+                try {
+                    secret = getSecret(data.getCallbackHandler(), identifier);
+                } catch (WSSecurityException ex) {
+                    secret = null;
+                }
+                if (secret == null || secret.length == 0) {
+                    identifier = id;
+                    secret = getSecret(data.getCallbackHandler(), identifier);
+                }
+                if (secureConversationCache != null) {
+                    // Cache the secret under the identifier with which it was obtained
+                    secureConversationCache.putSecret(identifier, secret, expires);
+                }
             }
             result.put(WSSecurityEngineResult.TAG_ID, sct.getID());
             result.put(WSSecurityEngineResult.TAG_SECRET, secret);
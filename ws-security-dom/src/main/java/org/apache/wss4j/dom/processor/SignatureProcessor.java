@@ -28,6 +28,7 @@ import java.security.cert.X509Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -89,25 +90,23 @@ public class SignatureProcessor implements Processor {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(SignatureProcessor.class);
 
-    private XMLSignatureFactory signatureFactory;
+    private final XMLSignatureFactory signatureFactory;
 
     public SignatureProcessor() {
-        init(null);
+        this(null);
     }
 
     public SignatureProcessor(Provider provider) {
-        init(provider);
-    }
-
-    private void init(Provider provider) {
         if (provider == null) {
             // Try to install the Santuario Provider - fall back to the JDK provider if this does
             // not work
+            XMLSignatureFactory factory;
             try {
-                signatureFactory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
+                factory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
             } catch (NoSuchProviderException ex) {
-                signatureFactory = XMLSignatureFactory.getInstance("DOM");
+                factory = XMLSignatureFactory.getInstance("DOM");
             }
+            signatureFactory = factory;
         } else {
             signatureFactory = XMLSignatureFactory.getInstance("DOM", provider);
         }
@@ -226,14 +225,17 @@ public class SignatureProcessor implements Processor {
             }
         }
 
+        Map<Reference, Element> digestedElements = new IdentityHashMap<>();
         XMLSignature xmlSignature =
-            verifyXMLSignature(elem, certs, publicKey, secretKey, signatureMethod, data, data.getWsDocInfo());
+            verifyXMLSignature(
+                elem, certs, publicKey, secretKey, signatureMethod, data, data.getWsDocInfo(), digestedElements
+            );
         byte[] signatureValue = xmlSignature.getSignatureValue().getValue();
         String c14nMethod = xmlSignature.getSignedInfo().getCanonicalizationMethod().getAlgorithm();
 
         List<WSDataRef> dataRefs =
             buildProtectedRefs(
-                elem.getOwnerDocument(), xmlSignature.getSignedInfo(), data, data.getWsDocInfo()
+                elem.getOwnerDocument(), xmlSignature.getSignedInfo(), data, data.getWsDocInfo(), digestedElements
             );
         if (dataRefs.isEmpty()) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
@@ -313,6 +315,8 @@ public class SignatureProcessor implements Processor {
      * </ul>
      *
      * @param elem        the XMLSignature DOM Element.
+     * @param digestedElements the elements of the References that were digested in parallel are
+     *                    added to this Map
      * @return the subject principal of the validated X509 certificate (the
      *         authenticated subject). The calling function may use this
      *         principal for further authentication or authorization.
@@ -325,7 +329,8 @@ public class SignatureProcessor implements Processor {
         byte[] secretKey,
         String signatureMethod,
         final RequestData data,
-        WSDocInfo wsDocInfo
+        WSDocInfo wsDocInfo,
+        Map<Reference, Element> digestedElements
     ) throws WSSecurityException {
         LOG.debug("Verify XML Signature");
 
@@ -378,7 +383,17 @@ public class SignatureProcessor implements Processor {
 
             setElementsOnContext(xmlSignature, (DOMValidateContext)context, data, wsDocInfo);
 
-            boolean signatureOk = xmlSignature.validate(context);
+            boolean signatureOk;
+            if (data.getSignatureVerificationExecutor() != null) {
+                ReferenceDigestVerifier referenceDigestVerifier =
+                    new ReferenceDigestVerifier(
+                        xmlSignature, (DOMValidateContext)context, data.getSignatureVerificationExecutor()
+                    );
+                signatureOk = referenceDigestVerifier.validate();
+                digestedElements.putAll(referenceDigestVerifier.getDigestedElements());
+            } else {
+                signatureOk = xmlSignature.validate(context);
+            }
             if (signatureOk) {
                 return xmlSignature;
             }
@@ -513,6 +528,7 @@ public class SignatureProcessor implements Processor {
      * @param doc The owning document
      * @param signedInfo The SignedInfo object
      * @param requestData A RequestData instance
+     * @param digestedElements The elements of the References that were digested in parallel
      * @return A list of protected references
      * @throws WSSecurityException
      */
@@ -520,7 +536,8 @@ public class SignatureProcessor implements Processor {
         Document doc,
         SignedInfo signedInfo,
         RequestData requestData,
-        WSDocInfo wsDocInfo
+        WSDocInfo wsDocInfo,
+        Map<Reference, Element> digestedElements
     ) throws WSSecurityException {
         List<WSDataRef> protectedRefs = new ArrayList<>(signedInfo.getReferences().size());
         for (Object reference : signedInfo.getReferences()) {
@@ -531,6 +548,9 @@ public class SignatureProcessor implements Processor {
                 Element se = dereferenceSTR(doc, siRef, requestData, wsDocInfo);
                 // If an STR Transform is not used then just find the cached element
                 boolean attachment = false;
+                if (se == null) {
+                    se = digestedElements.get(siRef);
+                }
                 if (se == null) {
                     Data dereferencedData = siRef.getDereferencedData();
                     if (dereferencedData instanceof NodeSetData) {
@@ -672,19 +692,13 @@ public class SignatureProcessor implements Processor {
         String identifier = timeStamp.getCreatedString() + "" + Arrays.hashCode(signatureValue)
             + "" + Arrays.hashCode(key.getEncoded());
 
-        if (replayCache.contains(identifier)) {
+        // Store the Timestamp/SignatureValue/Key combination in the cache, unless it is already there
+        if (!replayCache.addIfAbsent(identifier, timeStamp.getExpires())) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.INVALID_SECURITY,
                 "invalidTimestamp",
                 new Object[] {"A replay attack has been detected"});
         }
-
-        // Store the Timestamp/SignatureValue/Key combination in the cache
-        if (timeStamp.getExpires() != null) {
-            replayCache.add(identifier, timeStamp.getExpires());
-        } else {
-            replayCache.add(identifier);
-        }
     }
 
     /**
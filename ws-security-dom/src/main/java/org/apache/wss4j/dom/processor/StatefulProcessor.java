@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+/**
+ * A marker interface for Processor implementations that keep per-message state. The default
+ * Processors are stateless, and so a Processor class that is registered via
+ * WSSConfig.setProcessor(QName, Class) is only instantiated once per WSSConfig instance, and
+ * then shared between all messages that are processed with that WSSConfig. A Processor
+ * class that implements this interface is instead instantiated for every security header
+ * element that it processes.
+ */
+public interface StatefulProcessor extends Processor {
+
+}
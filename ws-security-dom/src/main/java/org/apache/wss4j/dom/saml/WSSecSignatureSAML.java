@@ -498,7 +498,9 @@ public class WSSecSignatureSAML extends WSSecSignature {
             SignatureMethod signatureMethod =
                 signatureFactory.newSignatureMethod(getSignatureAlgorithm(), null);
             SignedInfo signedInfo =
-                signatureFactory.newSignedInfo(c14nMethod, signatureMethod, referenceList);
+                signatureFactory.newSignedInfo(
+                    c14nMethod, signatureMethod, digestReferences(referenceList, signatureFactory, getWsDocInfo())
+                );
 
             sig = signatureFactory.newXMLSignature(
                     signedInfo,
@@ -530,6 +532,10 @@ public class WSSecSignatureSAML extends WSSecSignature {
                 );
             }
             signContext.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, getWsDocInfo());
+            if (callbackLookup != null) {
+                // Tokens have been added to the security header since the references were looked up
+                callbackLookup.invalidate();
+            }
             getWsDocInfo().setCallbackLookup(callbackLookup);
 
             // Add the elements to sign to the Signature Context
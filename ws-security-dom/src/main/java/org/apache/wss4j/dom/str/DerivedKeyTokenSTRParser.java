@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
@@ -133,13 +134,23 @@ public class DerivedKeyTokenSTRParser implements STRParser {
         RequestData data = parameters.getData();
 
         if (secRef.containsReference()) {
-            // Now use the callback and get it
-            byte[] secretKey =
-                STRParserUtil.getSecretKeyFromToken(uri, null, WSPasswordCallback.SECURITY_CONTEXT_TOKEN, data);
-            if (secretKey == null || secretKey.length == 0) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.FAILED_CHECK, "unsupportedKeyId",
-                    new Object[] {uri});
+            // Use the cached secret of the session, or else use the callback and get it
+            SecureConversationCache secureConversationCache = data.getSecureConversationCache();
+            byte[] secretKey = null;
+            if (secureConversationCache != null) {
+                secretKey = secureConversationCache.getSecret(uri);
+            }
+            if (secretKey == null) {
+                secretKey =
+                    STRParserUtil.getSecretKeyFromToken(uri, null, WSPasswordCallback.SECURITY_CONTEXT_TOKEN, data);
+                if (secretKey == null || secretKey.length == 0) {
+                    throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.FAILED_CHECK, "unsupportedKeyId",
+                        new Object[] {uri});
+                }
+                if (secureConversationCache != null) {
+                    secureConversationCache.putSecret(uri, secretKey);
+                }
             }
             parserResult.setSecretKey(secretKey);
         } else if (secRef.containsKeyIdentifier()) {
@@ -31,7 +31,9 @@ import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.callback.CallbackLookup;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.encryption.Serializer;
+import org.apache.xml.security.encryption.TransformSerializer;
 import org.apache.xml.security.encryption.XMLCipher;
+import org.apache.xml.security.encryption.XMLCipherUtil;
 import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.apache.xml.security.parser.XMLParserException;
 import org.apache.xml.security.utils.JavaUtils;
@@ -52,7 +54,9 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
 
 public final class EncryptionUtils {
@@ -138,6 +142,34 @@ public final class EncryptionUtils {
         CallbackHandler attachmentCallbackHandler,
         Serializer encryptionSerializer
     ) throws WSSecurityException {
+        return decryptEncryptedData(doc, dataRefURI, encData, symmetricKey, symEncAlgo,
+                                    attachmentCallbackHandler, encryptionSerializer, null);
+    }
+
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param attachmentCallbackHandler The CallbackHandler from which to get attachments
+     * @param encryptionSerializer The Serializer used to parse the decrypted data (may be null)
+     * @param decryptedOctets The octets already decrypted from the CipherValue of EncryptedData
+     * via {@link #decryptCipherValue(String, SecretKey, String)}, or null to decrypt EncryptedData here
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        CallbackHandler attachmentCallbackHandler,
+        Serializer encryptionSerializer,
+        byte[] decryptedOctets
+    ) throws WSSecurityException {
 
         // See if it is an attachment, and handle that differently
         String typeStr = encData.getAttributeNS(null, "Type");
@@ -176,23 +208,34 @@ public final class EncryptionUtils {
         }
 
         XMLCipher xmlCipher = null;
-        try {
-            if (encryptionSerializer != null) {
-                xmlCipher = XMLCipher.getInstance(encryptionSerializer, symEncAlgo);
-            } else {
-                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+        if (decryptedOctets == null) {
+            try {
+                if (encryptionSerializer != null) {
+                    xmlCipher = XMLCipher.getInstance(encryptionSerializer, symEncAlgo);
+                } else {
+                    xmlCipher = XMLCipher.getInstance(symEncAlgo);
+                }
+                xmlCipher.setSecureValidation(true);
+                xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
+            } catch (XMLEncryptionException ex) {
+                throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+                );
             }
-            xmlCipher.setSecureValidation(true);
-            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
-        } catch (XMLEncryptionException ex) {
-            throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
-            );
         }
 
         Node decryptedNode = null;
         try {
-            if (xopURI != null) {
+            if (decryptedOctets != null) {
+                // The CipherValue has already been decrypted, replace the EncryptedData element
+                // as XMLCipher does
+                Serializer serializer = encryptionSerializer;
+                if (serializer == null) {
+                    serializer = new TransformSerializer(true);
+                }
+                Node encDataParent = encDataOrig.getParentNode();
+                encDataParent.replaceChild(serializer.deserialize(decryptedOctets, encDataParent), encDataOrig);
+            } else if (xopURI != null) {
                 Element tempEncData;
 
                 //if content == true, use encDataOrig (i.e., actual EncryptedData element instead of parent)
@@ -244,6 +287,44 @@ public final class EncryptionUtils {
         return dataRef;
     }
 
+    /**
+     * Decrypt the (base64 encoded) content of a CipherValue element. This method does not access
+     * the DOM, and so it can be used to decrypt several EncryptedData elements in parallel.
+     * @param cipherValue The text content of the CipherValue element
+     * @param symmetricKey The SecretKey with which to decrypt the CipherValue
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @return the decrypted octets
+     * @throws WSSecurityException
+     */
+    public static byte[] decryptCipherValue(
+        String cipherValue,
+        SecretKey symmetricKey,
+        String symEncAlgo
+    ) throws WSSecurityException {
+        String jceAlgorithm = JCEMapper.translateURItoJCEID(symEncAlgo);
+        if (jceAlgorithm == null) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, "badEncAlgo", new Object[] {symEncAlgo});
+        }
+
+        try {
+            byte[] encryptedBytes = org.apache.xml.security.utils.XMLUtils.decode(cipherValue);
+            int ivLength = JCEMapper.getIVLengthFromURI(symEncAlgo) / 8;
+            if (encryptedBytes.length < ivLength) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
+            }
+            // Use the same provider as XMLCipher
+            String provider = JCEMapper.getProviderId();
+            Cipher cipher = provider == null
+                ? Cipher.getInstance(jceAlgorithm) : Cipher.getInstance(jceAlgorithm, provider);
+            byte[] iv = Arrays.copyOf(encryptedBytes, ivLength);
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey, XMLCipherUtil.constructBlockCipherParameters(symEncAlgo, iv));
+            return cipher.doFinal(encryptedBytes, ivLength, encryptedBytes.length - ivLength);
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        }
+    }
+
     private static String getXOPURIFromEncryptedData(Element encData) {
         Element cipherValue = getCipherValueFromEncryptedData(encData);
         if (cipherValue != null) {
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.spec.ExcC14NParameterSpec;
+
+import org.apache.wss4j.common.util.JCEInstanceFactory;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.c14n.CanonicalizationException;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.c14n.InvalidCanonicalizerException;
+import org.w3c.dom.Element;
+
+/**
+ * Canonicalizes and digests the element referenced by a (same-document) Reference, in exactly
+ * the same way as JSR-105 would, so that the digest can be calculated on an Executor.
+ *
+ * Only References with a single canonicalization Transform (without comments) are supported. The
+ * referenced element (and its ancestors) is traversed when the task is created, so that a DOM
+ * implementation which builds its nodes lazily (such as Xerces) can be read concurrently. All tasks
+ * for a message must therefore be created before any of them is started, and the DOM must not be
+ * modified until they have finished.
+ */
+public final class ReferenceDigestTask implements Runnable {
+
+    private final Reference reference;
+    private final Element element;
+    private final String c14nAlgorithm;
+    private final String inclusiveNamespaces;
+    private final String digestAlgorithm;
+    private final FutureTask<byte[]> task;
+    private volatile boolean abandoned;
+
+    private ReferenceDigestTask(
+        Reference reference, Element element, String c14nAlgorithm, String inclusiveNamespaces,
+        String digestAlgorithm
+    ) {
+        this.reference = reference;
+        this.element = element;
+        this.c14nAlgorithm = c14nAlgorithm;
+        this.inclusiveNamespaces = inclusiveNamespaces;
+        this.digestAlgorithm = digestAlgorithm;
+        task = new FutureTask<>(() -> abandoned ? null : digest());
+    }
+
+    /**
+     * Create a task to digest the given element for the given Reference
+     * @param reference the Reference to the element
+     * @param element the element that is referenced by the Reference
+     * @return the task, or null if the Reference must be digested by JSR-105
+     */
+    public static ReferenceDigestTask newInstance(Reference reference, Element element) {
+        if (element == null || reference.getTransforms().size() != 1) {
+            return null;
+        }
+
+        Transform transform = (Transform)reference.getTransforms().get(0);
+        String c14nAlgorithm = transform.getAlgorithm();
+        String inclusiveNamespaces = null;
+        if (CanonicalizationMethod.EXCLUSIVE.equals(c14nAlgorithm)) {
+            if (transform.getParameterSpec() instanceof ExcC14NParameterSpec) {
+                List<?> prefixList = ((ExcC14NParameterSpec)transform.getParameterSpec()).getPrefixList();
+                if (!prefixList.isEmpty()) {
+                    StringBuilder prefixes = new StringBuilder();
+                    for (Object prefix : prefixList) {
+                        prefixes.append(prefix).append(' ');
+                    }
+                    inclusiveNamespaces = prefixes.toString().trim();
+                }
+            }
+        } else if (!CanonicalizationMethod.INCLUSIVE.equals(c14nAlgorithm)
+            && !CanonicalizationMethod.INCLUSIVE_11.equals(c14nAlgorithm)) {
+            return null;
+        }
+
+        String digestAlgorithm = JCEMapper.translateURItoJCEID(reference.getDigestMethod().getAlgorithm());
+        if (digestAlgorithm == null) {
+            return null;
+        }
+
+        WSSecurityUtil.expandDeferredNodes(element);
+        return new ReferenceDigestTask(reference, element, c14nAlgorithm, inclusiveNamespaces, digestAlgorithm);
+    }
+
+    public Reference getReference() {
+        return reference;
+    }
+
+    public Element getElement() {
+        return element;
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+
+    /**
+     * Get the digest of the element. The element is digested on the calling thread if the
+     * Executor has not started the task (e.g. because it was rejected).
+     */
+    public byte[] getDigest() throws XMLSignatureException {
+        // This is a no-op if the task has already been started
+        task.run();
+        try {
+            byte[] digest = task.get();
+            if (digest == null) {
+                throw new XMLSignatureException("The digest of Reference " + reference.getURI() + " was abandoned");
+            }
+            return digest;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof XMLSignatureException) {
+                throw (XMLSignatureException)ex.getCause();
+            }
+            throw new XMLSignatureException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XMLSignatureException(ex);
+        }
+    }
+
+    /**
+     * Make sure that the DOM is no longer read by this task: the element is not digested if the
+     * task has not started yet, and otherwise this method waits for the digest to finish.
+     */
+    public void abandon() {
+        abandoned = true;
+        task.run();
+        try {
+            task.get();
+        } catch (ExecutionException ex) { //NOPMD
+            // The digest is not needed
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] digest() throws XMLSignatureException {
+        MessageDigest messageDigest = null;
+        try {
+            Canonicalizer canonicalizer = Canonicalizer.getInstance(c14nAlgorithm);
+            messageDigest = JCEInstanceFactory.getMessageDigest(digestAlgorithm);
+            try (OutputStream outputStream =
+                new BufferedOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest))) {
+                if (inclusiveNamespaces == null) {
+                    canonicalizer.canonicalizeSubtree(element, outputStream);
+                } else {
+                    canonicalizer.canonicalizeSubtree(element, inclusiveNamespaces, outputStream);
+                }
+            }
+            return messageDigest.digest();
+        } catch (InvalidCanonicalizerException | CanonicalizationException
+            | NoSuchAlgorithmException | IOException ex) {
+            throw new XMLSignatureException(ex);
+        } finally {
+            JCEInstanceFactory.releaseMessageDigest(messageDigest);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.wss4j.dom.handler.WSHandlerConstants;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
@@ -703,4 +704,39 @@ public final class WSSecurityUtil {
         return AttachmentUtils.getAttachmentId(xopUri);
     }
 
+    /**
+     * Read every node of the subtree of the given node, and its ancestors. A DOM implementation
+     * which builds its nodes lazily (such as Xerces) can only be read by several threads at the
+     * same time once the nodes have been built.
+     */
+    public static void expandDeferredNodes(Node node) {
+        for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            readNode(parent);
+        }
+        Node current = node;
+        while (current != null) {
+            readNode(current);
+            Node next = current.getFirstChild();
+            while (next == null && current != node) {
+                next = current.getNextSibling();
+                current = current.getParentNode();
+            }
+            current = next;
+        }
+    }
+
+    private static void readNode(Node node) {
+        node.getNodeName();
+        node.getNamespaceURI();
+        node.getNodeValue();
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                attribute.getNamespaceURI();
+                attribute.getNodeValue();
+            }
+        }
+    }
+
 }
@@ -24,6 +24,7 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.regex.Pattern;
 
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.RequestData;
@@ -109,7 +110,14 @@ public class SignatureTrustValidator implements Validator {
         //
         Collection<Pattern> subjectCertConstraints = data.getSubjectCertConstraints();
         Collection<Pattern> issuerCertConstraints = data.getIssuerDNPatterns();
-        crypto.verifyTrust(certificates, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        CertPathTrustCache certPathTrustCache = data.getCertPathTrustCache();
+        if (certPathTrustCache != null) {
+            certPathTrustCache.verifyTrust(
+                crypto, certificates, enableRevocation, subjectCertConstraints, issuerCertConstraints
+            );
+        } else {
+            crypto.verifyTrust(certificates, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        }
         String subjectString = certificates[0].getSubjectX500Principal().getName();
         LOG.debug(
             "Certificate path has been verified for certificate with subject {}", subjectString
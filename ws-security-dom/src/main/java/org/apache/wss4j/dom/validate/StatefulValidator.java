@@ -0,0 +1,31 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.validate;
+
+/**
+ * A marker interface for Validator implementations that keep per-message state. The default
+ * Validators are stateless, and so a Validator class that is registered via
+ * WSSConfig.setValidator(QName, Class) is only instantiated once per WSSConfig instance, and
+ * then shared between all messages that are processed with that WSSConfig. A Validator
+ * class that implements this interface is instead instantiated every time it is requested.
+ */
+public interface StatefulValidator extends Validator {
+
+}
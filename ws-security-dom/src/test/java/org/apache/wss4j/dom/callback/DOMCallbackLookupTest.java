@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.callback;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.common.util.SOAPUtil;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Some tests for looking up Elements by Id via the DOMCallbackLookup.
+ */
+public class DOMCallbackLookupTest {
+
+    public DOMCallbackLookupTest() {
+        WSSConfig.init();
+    }
+
+    private static final String SOAP_MSG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        + "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+        + "<SOAP-ENV:Header>"
+        + "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_saml2\"/>"
+        + "<saml1:Assertion xmlns:saml1=\"urn:oasis:names:tc:SAML:1.0:assertion\" AssertionID=\"_saml1\"/>"
+        + "</SOAP-ENV:Header>"
+        + "<SOAP-ENV:Body wsu:Id=\"body\">"
+        + "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\" wsu:Id=\"add\">"
+        + "<value Id=\"value\">15</value>"
+        + "<value Id=\"dup\">16</value>"
+        + "<value wsu:Id=\"dup\">17</value>"
+        + "</add>"
+        + "</SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    @Test
+    public void testLookupById() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(doc);
+
+        assertEquals("Body", callbackLookup.getElement("#body", null, true).getLocalName());
+        assertEquals("add", callbackLookup.getElement("#add", null, true).getLocalName());
+        assertEquals("15", callbackLookup.getElement("value", null, true).getTextContent());
+        assertNull(callbackLookup.getElement("#unknown", null, true));
+
+        // Duplicates are only rejected when checking for multiple elements
+        assertNull(callbackLookup.getElement("#dup", null, true));
+        assertEquals("16", callbackLookup.getElement("#dup", null, false).getTextContent());
+
+        // SAML Ids are only matched for a SAML (or empty) ValueType
+        assertEquals("Assertion", callbackLookup.getElement("#_saml2", null, true).getLocalName());
+        assertEquals("Assertion",
+                     callbackLookup.getElement("#_saml1", WSConstants.WSS_SAML_KI_VALUE_TYPE, true).getLocalName());
+        assertNull(callbackLookup.getElement("#_saml2", WSConstants.X509TOKEN_NS + "#X509v3", true));
+    }
+
+    @Test
+    public void testLookupAfterModification() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(doc);
+
+        Element add = callbackLookup.getElement("#add", null, true);
+        Element value = callbackLookup.getElement("#value", null, true);
+
+        // A new Element is found once the index has been invalidated
+        Element newValue = doc.createElementNS(null, "value");
+        newValue.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "newValue");
+        add.appendChild(newValue);
+        assertNull(callbackLookup.getElement("#newValue", null, true));
+        callbackLookup.invalidate();
+        assertSame(newValue, callbackLookup.getElement("#newValue", null, true));
+
+        // A removed Element is no longer found, even without invalidating the index
+        add.removeChild(value);
+        assertNull(callbackLookup.getElement("#value", null, true));
+
+        // A duplicate is detected once the index has been invalidated
+        Element duplicate = doc.createElementNS(null, "value");
+        duplicate.setAttributeNS(null, "Id", "add");
+        add.appendChild(duplicate);
+        callbackLookup.invalidate();
+        assertNull(callbackLookup.getElement("#add", null, true));
+    }
+
+    @Test
+    public void testDuplicateAddedAfterLookup() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(doc);
+
+        Element add = callbackLookup.getElement("#add", null, false);
+        assertSame(add, callbackLookup.getElement("#add", null, true));
+
+        // A duplicate is detected once the index has been invalidated
+        Element duplicate = doc.createElementNS(null, "value");
+        duplicate.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "add");
+        doc.getDocumentElement().getFirstChild().appendChild(duplicate);
+        callbackLookup.invalidate();
+        assertNull(callbackLookup.getElement("#add", null, true));
+
+        // The same applies to SAML Ids
+        Element samlDuplicate = doc.createElementNS(null, "value");
+        samlDuplicate.setAttributeNS(null, "ID", "_saml2");
+        assertEquals("Assertion", callbackLookup.getElement("#_saml2", null, false).getLocalName());
+        add.appendChild(samlDuplicate);
+        callbackLookup.invalidate();
+        assertNull(callbackLookup.getElement("#_saml2", null, true));
+    }
+
+    @Test
+    public void testIndexIsBuiltOnce() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(doc);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("add", callbackLookup.getElement("#add", null, true).getLocalName());
+            assertNull(callbackLookup.getElement("#dup", null, true));
+            assertNull(callbackLookup.getElement("#unknown", null, true));
+            assertEquals("Assertion", callbackLookup.getElement("#_saml1", null, true).getLocalName());
+        }
+        assertEquals(1, callbackLookup.getIndexBuildCount());
+
+        callbackLookup.invalidate();
+        assertEquals("add", callbackLookup.getElement("#add", null, true).getLocalName());
+        assertEquals(2, callbackLookup.getIndexBuildCount());
+    }
+
+    /**
+     * The index is built once to find the EncryptedData element, and once more to verify the
+     * Signature, as the document has changed on decryption.
+     */
+    @Test
+    public void testIndexBuildsPerMessage() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("wss40.properties");
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("wss40", "security");
+        sign.getParts().add(new WSEncryptionPart("add", "http://ws.apache.org/counter/counter_port_type", ""));
+        sign.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+        sign.build(crypto);
+
+        WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+        encrypt.setUserInfo("wss40");
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        SecretKey symmetricKey = keyGen.generateKey();
+        Document encryptedSignedDoc = encrypt.build(crypto, symmetricKey);
+
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(encryptedSignedDoc);
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        secEngine.setCallbackLookup(callbackLookup);
+        WSHandlerResult results =
+            secEngine.processSecurityHeader(encryptedSignedDoc, null, new KeystoreCallbackHandler(), crypto);
+
+        assertEquals(1, results.getActionResults().get(WSConstants.ENCR).size());
+        assertEquals(1, results.getActionResults().get(WSConstants.SIGN).size());
+        assertEquals(2, callbackLookup.getIndexBuildCount());
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.common;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WsuIdAllocator;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that securing or processing a message on an Executor gives the same results as doing it
+ * on the calling thread.
+ */
+public final class ParallelProcessingUtil {
+
+    /**
+     * Secures or processes a message, and returns the WSDataRefs of the result
+     */
+    @FunctionalInterface
+    public interface MessageProcessor {
+
+        /**
+         * @param executor the Executor to use, or null to do everything on the calling thread
+         */
+        List<WSDataRef> process(Executor executor) throws Exception;
+    }
+
+    private ParallelProcessingUtil() {
+        // complete
+    }
+
+    /**
+     * Process a message on the calling thread, and then on an Executor with two threads
+     * @return the WSDataRefs of the message processed on the Executor
+     */
+    public static List<WSDataRef> processSerialAndParallel(MessageProcessor processor) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            return processSerialAndParallel(processor, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Process a message on the calling thread, and then on the given Executor
+     * @return the WSDataRefs of the message processed on the Executor
+     */
+    public static List<WSDataRef> processSerialAndParallel(
+        MessageProcessor processor, Executor executor
+    ) throws Exception {
+        List<WSDataRef> serialRefs = processor.process(null);
+        List<WSDataRef> parallelRefs = processor.process(executor);
+
+        assertEquals(serialRefs.size(), parallelRefs.size());
+        for (int i = 0; i < serialRefs.size(); i++) {
+            assertEquals(serialRefs.get(i).getWsuId(), parallelRefs.get(i).getWsuId());
+            assertEquals(serialRefs.get(i).getName(), parallelRefs.get(i).getName());
+            assertEquals(serialRefs.get(i).getXpath(), parallelRefs.get(i).getXpath());
+            assertEquals(serialRefs.get(i).isContent(), parallelRefs.get(i).isContent());
+            assertArrayEquals(serialRefs.get(i).getDigestValue(), parallelRefs.get(i).getDigestValue());
+        }
+        return parallelRefs;
+    }
+
+    /**
+     * @return an Executor which rejects every task, like a saturated bounded Executor
+     */
+    public static Executor newRejectingExecutor() {
+        return command -> {
+            throw new RejectedExecutionException("The Executor is saturated");
+        };
+    }
+
+    /**
+     * @return a WsuIdAllocator with predictable Ids, so that the Ids (and digests) are the same
+     * for every message that is secured in the same way
+     */
+    public static WsuIdAllocator newIdAllocator() {
+        return new WsuIdAllocator() {
+            private int count;
+
+            @Override
+            public String createId(String prefix, Object o) {
+                return prefix + "id-" + ++count;
+            }
+
+            @Override
+            public String createSecureId(String prefix, Object o) {
+                return createId(prefix, o);
+            }
+        };
+    }
+
+    /**
+     * @return the WSDataRefs of the first result of the given action
+     */
+    @SuppressWarnings("unchecked")
+    public static List<WSDataRef> getDataRefs(WSHandlerResult results, int action) {
+        WSSecurityEngineResult actionResult = results.getActionResults().get(action).get(0);
+        return (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+    }
+}
@@ -20,13 +20,24 @@
 package org.apache.wss4j.dom.components.crypto;
 
 import java.security.Security;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.processor.StatefulProcessor;
+import org.apache.wss4j.dom.validate.Credential;
+import org.apache.wss4j.dom.validate.StatefulValidator;
 import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * Test loading and removing security providers via WSSConfig
@@ -78,4 +89,35 @@ public class WSSConfigTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSharedProcessorsAndValidators() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+
+        // The default processors and validators are created once per WSSConfig
+        assertSame(config.getProcessor(WSConstants.SIGNATURE), config.getProcessor(WSConstants.SIGNATURE));
+        assertSame(config.getValidator(WSConstants.TIMESTAMP), config.getValidator(WSConstants.TIMESTAMP));
+        assertNotSame(config.getProcessor(WSConstants.SIGNATURE),
+                      WSSConfig.getNewInstance().getProcessor(WSConstants.SIGNATURE));
+
+        // Stateful processors and validators are created every time
+        config.setProcessor(WSConstants.SIGNATURE, PerMessageProcessor.class);
+        assertNotSame(config.getProcessor(WSConstants.SIGNATURE), config.getProcessor(WSConstants.SIGNATURE));
+        config.setValidator(WSConstants.TIMESTAMP, PerMessageValidator.class);
+        assertNotSame(config.getValidator(WSConstants.TIMESTAMP), config.getValidator(WSConstants.TIMESTAMP));
+    }
+
+    public static class PerMessageProcessor implements StatefulProcessor {
+        @Override
+        public List<WSSecurityEngineResult> handleToken(Element elem, RequestData request) {
+            return Collections.emptyList();
+        }
+    }
+
+    public static class PerMessageValidator implements StatefulValidator {
+        @Override
+        public Credential validate(Credential credential, RequestData data) {
+            return credential;
+        }
+    }
+
+}
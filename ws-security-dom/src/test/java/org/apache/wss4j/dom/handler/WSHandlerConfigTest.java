@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.SOAPUtil;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.CustomHandler;
+import org.apache.wss4j.dom.common.UsernamePasswordCallbackHandler;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for the compiled WSHandlerConfig.
+ */
+public class WSHandlerConfigTest {
+
+    @Test
+    public void testCompiledOptions() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.TTL_TIMESTAMP, "600");
+        handler.setOption(WSHandlerConstants.TTL_FUTURE_TIMESTAMP, "-1");
+        handler.setOption(WSHandlerConstants.TIMESTAMP_STRICT, "false");
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CLASS, UsernamePasswordCallbackHandler.class.getName());
+        handler.setOption(WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS, ".*CN=Colm.*");
+
+        WSHandlerConfig config = handler.compileHandlerConfig();
+        assertSame(config, handler.getHandlerConfig());
+        assertEquals(Integer.valueOf(600), config.getTimeToLive(WSHandlerConstants.TTL_TIMESTAMP));
+        assertEquals(Integer.valueOf(60), config.getTimeToLive(WSHandlerConstants.TTL_FUTURE_TIMESTAMP));
+        assertNull(config.getTimeToLive(WSHandlerConstants.TTL_USERNAMETOKEN));
+        assertEquals(Boolean.FALSE, config.getBoolean(WSHandlerConstants.TIMESTAMP_STRICT));
+        assertEquals(UsernamePasswordCallbackHandler.class, config.getPasswordCallbackClass());
+        assertEquals(1, config.getCertConstraints(WSHandlerConstants.SIG_SUBJECT_CERT_CONSTRAINTS).size());
+
+        // Values that are not configured as options are still taken from the message context
+        Map<String, Object> messageContext = new HashMap<>();
+        messageContext.put(WSHandlerConstants.TTL_USERNAMETOKEN, "120");
+        messageContext.put(WSHandlerConstants.TIMESTAMP_STRICT, "true");
+
+        RequestData reqData = receive(handler, messageContext);
+        assertEquals(600, reqData.getTimeStampTTL());
+        assertEquals(60, reqData.getTimeStampFutureTTL());
+        assertEquals(120, reqData.getUtTTL());
+        assertFalse(reqData.isTimeStampStrict());
+        assertTrue(reqData.getCallbackHandler() instanceof UsernamePasswordCallbackHandler);
+        assertEquals(".*CN=Colm.*", reqData.getSubjectCertConstraints().iterator().next().pattern());
+
+        // A new CallbackHandler is created per message, as it may not be thread-safe
+        RequestData reqData2 = receive(handler, new HashMap<>());
+        assertTrue(reqData2.getCallbackHandler() instanceof UsernamePasswordCallbackHandler);
+        assertNotSame(reqData.getCallbackHandler(), reqData2.getCallbackHandler());
+        assertEquals(300, reqData2.getUtTTL());
+
+        // The same without the compiled configuration
+        handler.setHandlerConfig(null);
+        RequestData reqData3 = receive(handler, messageContext);
+        assertNotSame(reqData.getCallbackHandler(), reqData3.getCallbackHandler());
+        assertEquals(600, reqData3.getTimeStampTTL());
+    }
+
+    @Test
+    public void testPasswordCallbackRef() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        CallbackHandler callbackHandler = new UsernamePasswordCallbackHandler();
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_REF, callbackHandler);
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CLASS, UsernamePasswordCallbackHandler.class.getName());
+
+        WSHandlerConfig config = handler.compileHandlerConfig();
+        assertSame(callbackHandler, config.getPasswordCallbackRef());
+        assertNull(config.getPasswordCallbackClass());
+
+        // A CallbackHandler instance configured via PW_CALLBACK_REF is shared between messages
+        assertSame(callbackHandler, receive(handler, new HashMap<>()).getCallbackHandler());
+        assertSame(callbackHandler, receive(handler, new HashMap<>()).getCallbackHandler());
+
+        // An unknown CallbackHandler class is rejected when the configuration is compiled
+        CustomHandler invalidHandler = new CustomHandler();
+        invalidHandler.setOption(WSHandlerConstants.PW_CALLBACK_CLASS, "org.apache.wss4j.UnknownCallbackHandler");
+        assertThrows(WSSecurityException.class, invalidHandler::compileHandlerConfig);
+    }
+
+    @Test
+    public void testInvalidOptions() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.MUST_UNDERSTAND, "yes");
+        assertThrows(WSSecurityException.class, handler::compileHandlerConfig);
+
+        handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.SIG_KEY_ID, "UnknownKeyIdentifier");
+        assertThrows(WSSecurityException.class, handler::compileHandlerConfig);
+
+        handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.SIGNATURE_PARTS, "{a}{b}{c}d");
+        assertThrows(WSSecurityException.class, handler::compileHandlerConfig);
+        assertNull(handler.getHandlerConfig());
+    }
+
+    @Test
+    public void testCompiledParts() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.SIGNATURE_PARTS,
+                          "{}{" + WSConstants.WSU_NS + "}Timestamp;{Element}{}Body;Token");
+        handler.setOption(WSHandlerConstants.OPTIONAL_SIGNATURE_PARTS, "{Element}SomeId");
+        handler.compileHandlerConfig();
+
+        List<WSEncryptionPart> parts = decodeSignatureParameter(handler).getSignatureToken().getParts();
+        assertEquals(4, parts.size());
+        assertEquals("Timestamp", parts.get(0).getName());
+        assertEquals(WSConstants.WSU_NS, parts.get(0).getNamespace());
+        assertEquals("Content", parts.get(0).getEncModifier());
+        assertEquals("Body", parts.get(1).getName());
+        assertEquals(WSConstants.URI_SOAP11_ENV, parts.get(1).getNamespace());
+        assertEquals("Element", parts.get(1).getEncModifier());
+        assertEquals(WSConstants.URI_SOAP11_ENV, parts.get(2).getNamespace());
+        assertTrue(parts.get(2).isRequired());
+        assertEquals("SomeId", parts.get(3).getId());
+        assertFalse(parts.get(3).isRequired());
+
+        // Each message gets its own (mutable) parts
+        List<WSEncryptionPart> parts2 = decodeSignatureParameter(handler).getSignatureToken().getParts();
+        assertNotSame(parts.get(0), parts2.get(0));
+    }
+
+    private static RequestData receive(CustomHandler handler, Map<String, Object> messageContext)
+        throws WSSecurityException {
+        RequestData reqData = new RequestData();
+        reqData.setWssConfig(WSSConfig.getNewInstance());
+        reqData.setMsgContext(messageContext);
+        handler.receive(Collections.singletonList(WSConstants.SIGN), reqData);
+        return reqData;
+    }
+
+    private static RequestData decodeSignatureParameter(CustomHandler handler) throws Exception {
+        RequestData reqData = new RequestData();
+        reqData.setUsername("alice");
+        reqData.setMsgContext(new HashMap<>());
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        reqData.setSoapConstants(WSSecurityUtil.getSOAPConstants(doc.getDocumentElement()));
+        handler.decodeSignatureParameter(reqData);
+        return reqData;
+    }
+}
@@ -23,11 +23,15 @@ import org.apache.wss4j.common.util.SOAPUtil;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.callback.CallbackLookup;
+import org.apache.wss4j.dom.callback.DOMCallbackLookup;
 import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.ParallelProcessingUtil;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -46,7 +50,9 @@ import javax.crypto.SecretKey;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -587,6 +593,178 @@ public class EncryptionPartsTest {
     }
 
 
+    /**
+     * Test decrypting several EncryptedData elements in parallel, which must give the same
+     * results as decrypting them one after the other.
+     */
+    @Test
+    public void testParallelDecryption() throws Exception {
+        String encryptedString = XMLUtils.prettyDocumentToString(encryptMultiple(null));
+
+        List<Document> decryptedDocs = new ArrayList<>();
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(executor -> {
+            Document decryptedDoc = SOAPUtil.toSOAPPart(encryptedString);
+            decryptedDocs.add(decryptedDoc);
+            return ParallelProcessingUtil.getDataRefs(verify(decryptedDoc, executor), WSConstants.ENCR);
+        });
+
+        assertEquals(4, dataRefs.size());
+        assertEquals(XMLUtils.prettyDocumentToString(decryptedDocs.get(0)),
+                     XMLUtils.prettyDocumentToString(decryptedDocs.get(1)));
+    }
+
+    /**
+     * Test decrypting with an Executor which rejects the decryptions, which must then be done on
+     * the calling thread.
+     */
+    @Test
+    public void testRejectedParallelDecryption() throws Exception {
+        String encryptedString = XMLUtils.prettyDocumentToString(encryptMultiple(null));
+
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(
+                verify(SOAPUtil.toSOAPPart(encryptedString), executor), WSConstants.ENCR
+            ),
+            ParallelProcessingUtil.newRejectingExecutor()
+        );
+        assertEquals(4, dataRefs.size());
+    }
+
+    /**
+     * Test that the EncryptedData elements are only looked up again if a preceding decryption
+     * has replaced a sibling, and that the Elements looked up by Id are only discarded once.
+     */
+    @Test
+    public void testDecryptionLookups() throws Exception {
+        String encryptedString = XMLUtils.prettyDocumentToString(encryptMultiple(null));
+        ParallelProcessingUtil.processSerialAndParallel(executor -> {
+            Document doc = SOAPUtil.toSOAPPart(encryptedString);
+            CountingCallbackLookup callbackLookup = new CountingCallbackLookup(doc);
+            List<WSDataRef> dataRefs =
+                ParallelProcessingUtil.getDataRefs(verify(doc, executor, callbackLookup), WSConstants.ENCR);
+            assertEquals(4, callbackLookup.lookups);
+            assertEquals(1, callbackLookup.invalidations);
+            return dataRefs;
+        });
+
+        // Two EncryptedData elements in the SOAP Body
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG_MULTIPLE);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.getParts().add(
+            new WSEncryptionPart("testMethod", "http://axis/service/security/test6/LogTestService8", "Element"));
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        String multipleString = XMLUtils.prettyDocumentToString(encrypt.build(crypto, keyGen.generateKey()));
+
+        ParallelProcessingUtil.processSerialAndParallel(executor -> {
+            Document encryptedDoc = SOAPUtil.toSOAPPart(multipleString);
+            CountingCallbackLookup callbackLookup = new CountingCallbackLookup(encryptedDoc);
+            List<WSDataRef> dataRefs =
+                ParallelProcessingUtil.getDataRefs(verify(encryptedDoc, executor, callbackLookup), WSConstants.ENCR);
+            assertEquals(3, callbackLookup.lookups);
+            assertEquals(1, callbackLookup.invalidations);
+            return dataRefs;
+        });
+    }
+
+    @Test
+    public void testParallelEncryption() throws Exception {
+        List<Document> encryptedDocs = new ArrayList<>();
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(executor -> {
+            Document encryptedDoc = encryptMultiple(executor);
+            encryptedDocs.add(encryptedDoc);
+
+            String outputString = XMLUtils.prettyDocumentToString(encryptedDoc);
+            assertFalse(outputString.contains("baz1"));
+            assertFalse(outputString.contains("baz2"));
+            assertFalse(outputString.contains("testMethod"));
+            assertTrue(outputString.contains(WSConstants.ENCRYPTED_HEADER));
+
+            return ParallelProcessingUtil.getDataRefs(verify(encryptedDoc), WSConstants.ENCR);
+        });
+
+        assertEquals(4, dataRefs.size());
+        assertEquals(new QName("urn:foo.bar", "bar1"), dataRefs.get(0).getName());
+        assertFalse(dataRefs.get(0).isContent());
+        assertEquals(new QName("urn:foo.bar", "foobar"), dataRefs.get(1).getName());
+        assertFalse(dataRefs.get(1).isContent());
+        assertEquals(new QName("urn:foo.bar", "bar2"), dataRefs.get(2).getName());
+        assertTrue(dataRefs.get(2).isContent());
+        assertEquals(new QName(WSConstants.URI_SOAP11_ENV, "Body"), dataRefs.get(3).getName());
+        assertTrue(dataRefs.get(3).isContent());
+
+        Document encryptedDoc = encryptedDocs.get(1);
+        assertEquals("baz1", encryptedDoc.getElementsByTagNameNS("urn:foo.bar", "bar1").item(0).getTextContent());
+        assertEquals("baz", encryptedDoc.getElementsByTagNameNS("urn:foo.bar", "foobar").item(0).getTextContent());
+        assertEquals("baz2", encryptedDoc.getElementsByTagNameNS("urn:foo.bar", "bar2").item(0).getTextContent());
+        assertEquals(
+            1,
+            encryptedDoc.getElementsByTagNameNS("http://axis/service/security/test6/LogTestService8", "testMethod")
+                .getLength()
+        );
+    }
+
+    /**
+     * Test encrypting with an Executor which rejects the encryptions, which must then be done on
+     * the calling thread.
+     */
+    @Test
+    public void testRejectedParallelEncryption() throws Exception {
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(verify(encryptMultiple(executor)), WSConstants.ENCR),
+            ParallelProcessingUtil.newRejectingExecutor()
+        );
+        assertEquals(4, dataRefs.size());
+    }
+
+    /**
+     * Encrypt four parts of SOAPMSG with predictable Ids, so that the Ids are the same for every message
+     */
+    private Document encryptMultiple(Executor executor) throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setSymmetricEncAlgorithm(WSConstants.AES_128_GCM);
+        encrypt.getParts().add(new WSEncryptionPart("bar1", "urn:foo.bar", "Element"));
+        encrypt.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", "Header"));
+        encrypt.getParts().add(new WSEncryptionPart("bar2", "urn:foo.bar", "Content"));
+        encrypt.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "Content"));
+        encrypt.setIdAllocator(ParallelProcessingUtil.newIdAllocator());
+        encrypt.setExecutor(executor);
+
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128_GCM);
+        SecretKey symmetricKey = keyGen.generateKey();
+        return encrypt.build(crypto, symmetricKey);
+    }
+
+    private WSHandlerResult verify(Document doc, Executor decryptionExecutor) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setCallbackHandler(callbackHandler);
+        requestData.setDecCrypto(crypto);
+        requestData.setDecryptionExecutor(decryptionExecutor);
+        return secEngine.processSecurityHeader(doc, requestData);
+    }
+
+    private WSHandlerResult verify(
+        Document doc, Executor decryptionExecutor, CallbackLookup callbackLookup
+    ) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setCallbackHandler(callbackHandler);
+        requestData.setDecCrypto(crypto);
+        requestData.setDecryptionExecutor(decryptionExecutor);
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setCallbackLookup(callbackLookup);
+        return engine.processSecurityHeader(doc, requestData);
+    }
+
     /**
      * Verifies the soap envelope
      * <p/>
@@ -606,4 +784,29 @@ public class EncryptionPartsTest {
         return results;
     }
 
-}
\ No newline at end of file
+    /**
+     * Counts the Elements that are looked up by Id, and how often the lookups are invalidated
+     */
+    private static class CountingCallbackLookup extends DOMCallbackLookup {
+        private int lookups;
+        private int invalidations;
+
+        CountingCallbackLookup(Document doc) {
+            super(doc);
+        }
+
+        @Override
+        public Element getElement(
+            String id, String valueType, boolean checkMultipleElements
+        ) throws WSSecurityException {
+            lookups++;
+            return super.getElement(id, valueType, checkMultipleElements);
+        }
+
+        @Override
+        public void invalidate() {
+            invalidations++;
+            super.invalidate();
+        }
+    }
+}
@@ -27,20 +27,27 @@ import org.apache.wss4j.dom.common.SecretKeyCallbackHandler;
 
 import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.message.token.SecurityContextToken;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import java.time.Instant;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -377,6 +384,67 @@ public class SecurityContextTokenTest {
         }
     }
 
+    /**
+     * The secret of a SecurityContextToken is cached under the identifier with which it was
+     * obtained, until the wsu:Expires time of the token
+     */
+    @Test
+    public void testSecureConversationCache() throws Exception {
+        byte[] tempSecret = new byte[16];
+        new Random().nextBytes(tempSecret);
+        // The secret is only known by the wsu:Id of the SecurityContextToken
+        callbackHandler.addSecretKey("sctId-1", tempSecret);
+
+        SecureConversationCache cache = new SecureConversationCache();
+        RequestData requestData = new RequestData();
+        requestData.setCallbackHandler(callbackHandler);
+        requestData.setSigVerCrypto(crypto);
+        requestData.setSecureConversationCache(cache);
+
+        Instant expires = Instant.now().plusSeconds(3600L);
+        secEngine.processSecurityHeader(createSCTKDKTSignedMessage(tempSecret, expires), requestData);
+        assertEquals(1, cache.size());
+        assertNull(cache.getSecret("urn:uuid:sct-1"));
+        assertArrayEquals(tempSecret, cache.getSecret("sctId-1"));
+
+        // The cached secret is used for the next message
+        callbackHandler.addSecretKey("sctId-1", new byte[16]);
+        secEngine.processSecurityHeader(createSCTKDKTSignedMessage(tempSecret, expires), requestData);
+        assertEquals(1, cache.size());
+
+        // The session is removed when a token which has expired is received
+        callbackHandler.addSecretKey("sctId-1", tempSecret);
+        secEngine.processSecurityHeader(
+            createSCTKDKTSignedMessage(tempSecret, Instant.now().minusSeconds(60L)), requestData
+        );
+        assertEquals(0, cache.size());
+    }
+
+    private Document createSCTKDKTSignedMessage(byte[] secret, Instant expires) throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSecurityContextToken sctBuilder = new WSSecSecurityContextToken(secHeader, null);
+        sctBuilder.setWscVersion(ConversationConstants.VERSION_05_12);
+        sctBuilder.setIdentifier("urn:uuid:sct-1");
+        sctBuilder.setSctId("sctId-1");
+        sctBuilder.prepare(crypto);
+
+        Element expiresElement =
+            doc.createElementNS(WSConstants.WSU_NS, WSConstants.WSU_PREFIX + ":" + WSConstants.EXPIRES_LN);
+        expiresElement.setTextContent(expires.toString());
+        sctBuilder.getSct().getElement().appendChild(expiresElement);
+
+        WSSecDKSign sigBuilder = new WSSecDKSign(secHeader);
+        sigBuilder.setTokenIdentifier(sctBuilder.getSctId());
+        sigBuilder.setSignatureAlgorithm(WSConstants.HMAC_SHA1);
+        sigBuilder.build(secret);
+
+        sctBuilder.prependSCTElementToHeader();
+        return doc;
+    }
+
     /**
      * Verifies the soap envelope <p/>
      *
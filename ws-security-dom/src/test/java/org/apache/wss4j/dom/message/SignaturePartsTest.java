@@ -26,6 +26,7 @@ import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.common.CustomHandler;
+import org.apache.wss4j.dom.common.ParallelProcessingUtil;
 import org.apache.wss4j.dom.common.SAML1CallbackHandler;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
@@ -56,11 +57,15 @@ import java.io.InputStream;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.namespace.QName;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -557,6 +562,104 @@ public class SignaturePartsTest {
         verify(signedDoc);
     }
 
+    /**
+     * Test validating the References of a Signature with a signature verification Executor, which
+     * must give the same results as validating them one after the other.
+     */
+    @Test
+    public void testParallelReferenceDigests() throws Exception {
+        String signedString = XMLUtils.prettyDocumentToString(signMultiple(null));
+
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(
+                verify(SOAPUtil.toSOAPPart(signedString), executor), WSConstants.SIGN
+            )
+        );
+        assertEquals(4, dataRefs.size());
+
+        // Now modify one of the signed elements
+        String modifiedString = signedString.replace(">asf2<", ">asf3<");
+        assertNotEquals(signedString, modifiedString);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            verify(SOAPUtil.toSOAPPart(modifiedString), executor);
+            fail("Failure expected on a modified element");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.ErrorCode.FAILED_CHECK);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test validating the References of a Signature with an Executor which rejects the digests,
+     * which must then be calculated on the calling thread.
+     */
+    @Test
+    public void testRejectedParallelReferenceDigests() throws Exception {
+        String signedString = XMLUtils.prettyDocumentToString(signMultiple(null));
+
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(
+                verify(SOAPUtil.toSOAPPart(signedString), executor), WSConstants.SIGN
+            ),
+            ParallelProcessingUtil.newRejectingExecutor()
+        );
+        assertEquals(4, dataRefs.size());
+
+        String modifiedString = signedString.replace(">asf2<", ">asf3<");
+        try {
+            verify(SOAPUtil.toSOAPPart(modifiedString), ParallelProcessingUtil.newRejectingExecutor());
+            fail("Failure expected on a modified element");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.ErrorCode.FAILED_CHECK);
+        }
+    }
+
+    @Test
+    public void testParallelSigning() throws Exception {
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(verify(signMultiple(executor)), WSConstants.SIGN)
+        );
+        assertEquals(4, dataRefs.size());
+    }
+
+    /**
+     * Test signing with an Executor which rejects the digests, which must then be calculated on
+     * the calling thread.
+     */
+    @Test
+    public void testRejectedParallelSigning() throws Exception {
+        List<WSDataRef> dataRefs = ParallelProcessingUtil.processSerialAndParallel(
+            executor -> ParallelProcessingUtil.getDataRefs(verify(signMultiple(executor)), WSConstants.SIGN),
+            ParallelProcessingUtil.newRejectingExecutor()
+        );
+        assertEquals(4, dataRefs.size());
+    }
+
+    /**
+     * Sign SOAPMSG_MULTIPLE with predictable Ids, so that the digests are the same for every message
+     */
+    private Document signMultiple(Executor executor) throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG_MULTIPLE);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.setDigestAlgo(WSConstants.SHA256);
+        sign.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", ""));
+        sign.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+        sign.getParts().add(
+            new WSEncryptionPart("testMethod", "http://axis/service/security/test6/LogTestService8", "")
+        );
+        sign.setIdAllocator(ParallelProcessingUtil.newIdAllocator());
+        sign.setExecutor(executor);
+
+        return sign.build(crypto);
+    }
+
     @Test
     public void testSignedKeyInfo() throws Exception {
         Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
@@ -679,4 +782,11 @@ public class SignaturePartsTest {
         return results;
     }
 
+    private WSHandlerResult verify(Document doc, Executor signatureVerificationExecutor) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setSigVerCrypto(crypto);
+        requestData.setSignatureVerificationExecutor(signatureVerificationExecutor);
+        return secEngine.processSecurityHeader(doc, requestData);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.security.PublicKey;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.crypto.Data;
+import javax.xml.crypto.URIDereferencer;
+import javax.xml.crypto.URIReference;
+import javax.xml.crypto.URIReferenceException;
+import javax.xml.crypto.XMLCryptoContext;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.util.SOAPUtil;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that the References of a Signature are only digested on the signature verification
+ * Executor if JSR-105 would find the same element.
+ */
+public class ReferenceDigestVerifierTest {
+
+    private static final String SOAPMSG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:foo=\"urn:foo.bar\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "   <soapenv:Header>" +
+        "       <foo:foobar>baz</foo:foobar>" +
+        "   </soapenv:Header>" +
+        "   <soapenv:Body>" +
+        "      <ns1:testMethod xmlns:ns1=\"http://axis/service/security/test6/LogTestService8\">asf1</ns1:testMethod>" +
+        "   </soapenv:Body>" +
+        "</soapenv:Envelope>";
+
+    private static final String USER = "16c73ab6-b892-458f-abf5-2f875f74882e";
+
+    private final Crypto crypto;
+
+    public ReferenceDigestVerifierTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    @Test
+    public void testParallelReferenceDigests() throws Exception {
+        Document signedDoc = signMessage();
+
+        AtomicInteger executedTasks = new AtomicInteger();
+        DOMValidateContext context = createValidateContext(signedDoc);
+        ReferenceDigestVerifier verifier =
+            new ReferenceDigestVerifier(unmarshalSignature(context), context, countingExecutor(executedTasks));
+
+        assertTrue(verifier.validate());
+        assertEquals(2, executedTasks.get());
+        assertEquals(2, verifier.getDigestedElements().size());
+    }
+
+    /**
+     * A custom URIDereferencer may resolve a Reference to another element than the one with the
+     * Id, so all the References must then be validated by JSR-105, through the URIDereferencer.
+     */
+    @Test
+    public void testCustomURIDereferencer() throws Exception {
+        Document signedDoc = signMessage();
+
+        AtomicInteger executedTasks = new AtomicInteger();
+        DOMValidateContext context = createValidateContext(signedDoc);
+        CountingURIDereferencer uriDereferencer = new CountingURIDereferencer();
+        context.setURIDereferencer(uriDereferencer);
+        ReferenceDigestVerifier verifier =
+            new ReferenceDigestVerifier(unmarshalSignature(context), context, countingExecutor(executedTasks));
+
+        assertTrue(verifier.validate());
+        assertEquals(0, executedTasks.get());
+        assertEquals(2, uriDereferencer.count.get());
+        assertTrue(verifier.getDigestedElements().isEmpty());
+
+        // Now modify one of the signed elements
+        signedDoc = signMessage();
+        signedDoc.getElementsByTagNameNS("urn:foo.bar", "foobar").item(0).setTextContent("bar");
+        context = createValidateContext(signedDoc);
+        context.setURIDereferencer(new CountingURIDereferencer());
+        verifier = new ReferenceDigestVerifier(unmarshalSignature(context), context, countingExecutor(executedTasks));
+
+        assertFalse(verifier.validate());
+        assertEquals(0, executedTasks.get());
+    }
+
+    private Document signMessage() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo(USER, "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.setDigestAlgo(WSConstants.SHA256);
+        sign.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", ""));
+        sign.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+
+        return sign.build(crypto);
+    }
+
+    private DOMValidateContext createValidateContext(Document signedDoc) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(USER);
+        PublicKey publicKey = crypto.getX509Certificates(cryptoType)[0].getPublicKey();
+
+        Element signatureElement =
+            (Element) signedDoc.getElementsByTagNameNS(WSConstants.SIG_NS, "Signature").item(0);
+        DOMValidateContext context = new DOMValidateContext(publicKey, signatureElement);
+        NodeList elements = signedDoc.getElementsByTagNameNS("*", "*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            if (element.hasAttributeNS(WSConstants.WSU_NS, "Id")) {
+                context.setIdAttributeNS(element, WSConstants.WSU_NS, "Id");
+            }
+        }
+        return context;
+    }
+
+    private static XMLSignature unmarshalSignature(DOMValidateContext context) throws Exception {
+        return XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context);
+    }
+
+    private static Executor countingExecutor(AtomicInteger executedTasks) {
+        return command -> {
+            executedTasks.incrementAndGet();
+            command.run();
+        };
+    }
+
+    private static class CountingURIDereferencer implements URIDereferencer {
+
+        private final URIDereferencer defaultDereferencer =
+            XMLSignatureFactory.getInstance("DOM").getURIDereferencer();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Data dereference(URIReference uriReference, XMLCryptoContext context)
+            throws URIReferenceException {
+            count.incrementAndGet();
+            return defaultDereferencer.dereference(uriReference, context);
+        }
+    }
+}
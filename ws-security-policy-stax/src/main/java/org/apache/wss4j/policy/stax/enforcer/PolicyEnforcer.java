@@ -18,23 +18,20 @@
  */
 package org.apache.wss4j.policy.stax.enforcer;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.xml.namespace.QName;
 
 import org.apache.neethi.Assertion;
-import org.apache.neethi.ExactlyOne;
 import org.apache.neethi.Policy;
-import org.apache.neethi.PolicyComponent;
-import org.apache.neethi.PolicyContainingAssertion;
-import org.apache.neethi.PolicyOperator;
-import org.apache.neethi.builders.PrimitiveAssertion;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.policy.SPConstants;
 import org.apache.wss4j.common.WSSPolicyException;
@@ -131,9 +128,15 @@ public class PolicyEnforcer implements SecurityEventListener {
     private static final QName SOAP12_FAULT = new QName(WSSConstants.NS_SOAP12, "Fault");
 
     private final List<OperationPolicy> operationPolicies;
+    private final Map<OperationPolicy, PolicyEnforcerTemplate> policyTemplates;
     private OperationPolicy effectivePolicy;
-    private final List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMap;
-    private final List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> failedAssertionStateMap;
+    // the assertion states of every alternative, and the assertions they were created for
+    private Assertable[][] alternativeAssertables = new Assertable[0][];
+    private Assertion[][] alternativeAssertions = new Assertion[0][];
+    // event type -> the interested assertion states of each alternative (null if there are none)
+    private final Map<SecurityEventConstants.Event, Assertable[][]> dispatchTable = new HashMap<>();
+    private final BitSet failedAlternatives = new BitSet();
+    private int remainingAlternatives;
 
     private final Deque<SecurityEvent> securityEventQueue = new LinkedList<>();
     private boolean operationSecurityEventOccured = false;
@@ -147,14 +150,21 @@ public class PolicyEnforcer implements SecurityEventListener {
 
     public PolicyEnforcer(List<OperationPolicy> operationPolicies, String soapAction, boolean initiator,
                           String actorOrRole, int attachmentCount, PolicyAsserter policyAsserter, boolean soap12
+    ) throws WSSPolicyException {
+        this(operationPolicies, Collections.<OperationPolicy, PolicyEnforcerTemplate>emptyMap(), soapAction,
+             initiator, actorOrRole, attachmentCount, policyAsserter, soap12);
+    }
+
+    PolicyEnforcer(List<OperationPolicy> operationPolicies, Map<OperationPolicy, PolicyEnforcerTemplate> policyTemplates,
+                   String soapAction, boolean initiator, String actorOrRole, int attachmentCount,
+                   PolicyAsserter policyAsserter, boolean soap12
     ) throws WSSPolicyException {
         this.operationPolicies = operationPolicies;
+        this.policyTemplates = policyTemplates;
         this.initiator = initiator;
         this.actorOrRole = actorOrRole;
         this.attachmentCount = attachmentCount;
         this.soap12 = soap12;
-        assertionStateMap = new LinkedList<>();
-        failedAssertionStateMap = new LinkedList<>();
 
         if (policyAsserter == null) {
             this.policyAsserter = new DummyPolicyAsserter();
@@ -165,7 +175,7 @@ public class PolicyEnforcer implements SecurityEventListener {
         if (soapAction != null && !soapAction.isEmpty()) {
             effectivePolicy = findPolicyBySOAPAction(operationPolicies, soapAction);
             if (effectivePolicy != null) {
-                buildAssertionStateMap(effectivePolicy.getPolicy(), assertionStateMap);
+                buildAssertionStateMap(getPolicyTemplate(effectivePolicy));
             }
         }
     }
@@ -202,87 +212,61 @@ public class PolicyEnforcer implements SecurityEventListener {
         return noNamespaceOperation;
     }
 
-    /**
-     * Precondition: Policy _must_ be normalized!
-     */
-    private void buildAssertionStateMap(
-            PolicyComponent policyComponent,
-            List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMap
-    ) throws WSSPolicyException {
-        if (policyComponent instanceof PolicyOperator) {
-            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
-            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
-            int alternative = 0;
-            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
-            while (policyComponentIterator.hasNext()) {
-                PolicyComponent curPolicyComponent = policyComponentIterator.next();
-                if (policyOperator instanceof ExactlyOne) {
-                    assertionStateMap.add(new HashMap<SecurityEventConstants.Event,
-                                          Map<Assertion, List<Assertable>>>());
-                    buildAssertionStateMap(curPolicyComponent, assertionStateMap, alternative++);
-                } else {
-                    buildAssertionStateMap(curPolicyComponent, assertionStateMap);
-                }
-            }
-        } else {
-            throw new WSSPolicyException("Invalid PolicyComponent: " + policyComponent
-                                         + " " + policyComponent.getType());
+    private PolicyEnforcerTemplate getPolicyTemplate(OperationPolicy operationPolicy) throws WSSPolicyException {
+        PolicyEnforcerTemplate policyTemplate = policyTemplates.get(operationPolicy);
+        if (policyTemplate == null) {
+            policyTemplate = PolicyEnforcerTemplate.compile(operationPolicy);
         }
+        return policyTemplate;
     }
 
-    private void buildAssertionStateMap(
-            PolicyComponent policyComponent,
-            List<Map<SecurityEventConstants.Event,
-            Map<Assertion, List<Assertable>>>> assertionStateMap,
-            int alternative
-    ) throws WSSPolicyException {
-        if (policyComponent instanceof PolicyOperator) {
-            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
-            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
-            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
-            while (policyComponentIterator.hasNext()) {
-                PolicyComponent curPolicyComponent = policyComponentIterator.next();
-                buildAssertionStateMap(curPolicyComponent, assertionStateMap, alternative);
-            }
-        } else if (policyComponent instanceof AbstractSecurityAssertion) {
-            AbstractSecurityAssertion abstractSecurityAssertion = (AbstractSecurityAssertion) policyComponent;
-
-            List<Assertable> assertablesList = getAssertableForAssertion(abstractSecurityAssertion);
-            Iterator<Assertable> assertableIterator = assertablesList.iterator();
-            while (assertableIterator.hasNext()) {
-                Assertable assertable = assertableIterator.next();
-                final Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                    assertionStateMap.get(alternative);
-                final SecurityEventConstants.Event[] securityEventType = assertable.getSecurityEventType();
-                for (int j = 0; j < securityEventType.length; j++) {
-                    SecurityEventConstants.Event event = securityEventType[j];
-                    Map<Assertion, List<Assertable>> assertables = map.get(event);
-                    if (assertables == null) {
-                        assertables = new HashMap<>();
-                        map.put(event, assertables);
+    private void buildAssertionStateMap(PolicyEnforcerTemplate policyTemplate) throws WSSPolicyException {
+        List<List<AbstractSecurityAssertion>> alternatives = policyTemplate.getAlternatives();
+        int alternativeCount = alternatives.size();
+        Map<SecurityEventConstants.Event, List<List<Assertable>>> eventAssertables = new HashMap<>();
+
+        alternativeAssertables = new Assertable[alternativeCount][];
+        alternativeAssertions = new Assertion[alternativeCount][];
+        for (int i = 0; i < alternativeCount; i++) {
+            List<Assertable> assertables = new ArrayList<>();
+            List<Assertion> assertions = new ArrayList<>();
+            for (AbstractSecurityAssertion abstractSecurityAssertion : alternatives.get(i)) {
+                for (Assertable assertable : getAssertableForAssertion(abstractSecurityAssertion)) {
+                    assertables.add(assertable);
+                    assertions.add(abstractSecurityAssertion);
+                    for (SecurityEventConstants.Event event : assertable.getSecurityEventType()) {
+                        List<List<Assertable>> interestedAssertables = eventAssertables.get(event);
+                        if (interestedAssertables == null) {
+                            interestedAssertables = new ArrayList<>(alternativeCount);
+                            for (int j = 0; j < alternativeCount; j++) {
+                                interestedAssertables.add(new ArrayList<>());
+                            }
+                            eventAssertables.put(event, interestedAssertables);
+                        }
+                        interestedAssertables.get(i).add(assertable);
                     }
-                    addAssertionState(assertables, abstractSecurityAssertion, assertable);
                 }
             }
-            if (abstractSecurityAssertion instanceof PolicyContainingAssertion) {
-                buildAssertionStateMap(((PolicyContainingAssertion) abstractSecurityAssertion).getPolicy(),
-                                       assertionStateMap, alternative);
+            alternativeAssertables[i] = assertables.toArray(new Assertable[0]);
+            alternativeAssertions[i] = assertions.toArray(new Assertion[0]);
+        }
+
+        for (Map.Entry<SecurityEventConstants.Event, List<List<Assertable>>> entry : eventAssertables.entrySet()) {
+            Assertable[][] interestedAssertables = new Assertable[alternativeCount][];
+            for (int i = 0; i < alternativeCount; i++) {
+                List<Assertable> assertables = entry.getValue().get(i);
+                if (!assertables.isEmpty()) {
+                    interestedAssertables[i] = assertables.toArray(new Assertable[0]);
+                }
             }
-        } else if (!(policyComponent instanceof PrimitiveAssertion)) {
-            throw new WSSPolicyException("Unsupported PolicyComponent: " + policyComponent
-                                         + " type: " + policyComponent.getType());
+            dispatchTable.put(entry.getKey(), interestedAssertables);
         }
+        remainingAlternatives = alternativeCount;
     }
 
-    private void addAssertionState(Map<Assertion, List<Assertable>> assertables,
-                                   Assertion keyAssertion,
-                                   Assertable assertable) {
-        List<Assertable> assertableList = assertables.get(keyAssertion);
-        if (assertableList == null) {
-            assertableList = new LinkedList<>();
-            assertables.put(keyAssertion, assertableList);
-        }
-        assertableList.add(assertable);
+    private void failAlternative(int alternative) {
+        failedAlternatives.set(alternative);
+        remainingAlternatives--;
     }
 
     // Don't return a Token that is not required
@@ -509,72 +493,31 @@ public class PolicyEnforcer implements SecurityEventListener {
      * @throws WSSPolicyException
      */
     private void verifyPolicy(SecurityEvent securityEvent) throws WSSPolicyException, XMLSecurityException {
-        // We have to check the failed assertions for logging purposes firstly...
-        if (!this.failedAssertionStateMap.isEmpty()) {
-            Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator =
-                this.failedAssertionStateMap.iterator();
-            alternative:
-                while (assertionStateMapIterator.hasNext()) {
-                    Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                        assertionStateMapIterator.next();
-                    // every list entry counts as an alternative...
-                    Map<Assertion, List<Assertable>> assertionListMap = map.get(securityEvent.getSecurityEventType());
-                    if (assertionListMap != null && !assertionListMap.isEmpty()) {
-                        Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator =
-                            assertionListMap.entrySet().iterator();
-                        while (assertionStateIterator.hasNext()) {
-                            Map.Entry<Assertion, List<Assertable>> assertionStateEntry =
-                                assertionStateIterator.next();
-                            List<Assertable> assertionStates = assertionStateEntry.getValue();
-                            Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                            while (assertableIterator.hasNext()) {
-                                Assertable assertable = assertableIterator.next();
-                                boolean asserted = assertable.assertEvent(securityEvent);
-                                // ...so if one fails, continue with the next map entry and
-                                // increment the notAssertedCount
-                                if (!asserted) {
-                                    continue alternative;
-                                }
-                            }
-                        }
-                    }
-                }
-        }
-
         String assertionMessage = null;
-        //...and then check the remaining alternatives
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator =
-            this.assertionStateMap.iterator();
-        //every map entry counts as an alternative...
-        alternative:
-            while (assertionStateMapIterator.hasNext()) {
-                Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                    assertionStateMapIterator.next();
-                Map<Assertion, List<Assertable>> assertionListMap = map.get(securityEvent.getSecurityEventType());
-                if (assertionListMap != null && !assertionListMap.isEmpty()) {
-                    Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator =
-                        assertionListMap.entrySet().iterator();
-                    while (assertionStateIterator.hasNext()) {
-                        Map.Entry<Assertion, List<Assertable>> assertionStateEntry = assertionStateIterator.next();
-                        List<Assertable> assertionStates = assertionStateEntry.getValue();
-                        Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                        while (assertableIterator.hasNext()) {
-                            Assertable assertable = assertableIterator.next();
-                            boolean asserted = assertable.assertEvent(securityEvent);
-                            //...so if one fails, continue with the next map entry and increment the notAssertedCount
-                            if (!asserted) {
-                                assertionMessage = assertable.getErrorMessage();
-                                failedAssertionStateMap.add(map);
-                                assertionStateMapIterator.remove();
-                                continue alternative;
-                            }
+        Assertable[][] interestedAssertables = dispatchTable.get(securityEvent.getSecurityEventType());
+        if (interestedAssertables != null) {
+            //every array entry counts as an alternative...
+            for (int i = 0; i < interestedAssertables.length; i++) {
+                Assertable[] assertables = interestedAssertables[i];
+                if (assertables == null) {
+                    continue;
+                }
+                for (Assertable assertable : assertables) {
+                    boolean asserted = assertable.assertEvent(securityEvent);
+                    //...so if one fails, continue with the next alternative. The alternatives which already
+                    //failed are still checked for logging purposes
+                    if (!asserted) {
+                        if (!failedAlternatives.get(i)) {
+                            assertionMessage = assertable.getErrorMessage();
+                            failAlternative(i);
                         }
+                        break;
                     }
                 }
             }
-        //if the assertionStateMap is empty (the size of the list is equal to the alternatives)
-        //then we could not satisfy any alternative
-        if (assertionStateMap.isEmpty() && !(faultOccurred && noSecurityHeader && initiator)) {
+        }
+        //if all the alternatives failed then we could not satisfy any alternative
+        if (remainingAlternatives == 0 && !(faultOccurred && noSecurityHeader && initiator)) {
             logFailedAssertions();
             throw new PolicyViolationException(assertionMessage);
         }
@@ -588,36 +531,17 @@ public class PolicyEnforcer implements SecurityEventListener {
      */
     private void verifyPolicy() throws WSSPolicyException {
         String assertionMessage = null;
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator =
-            this.assertionStateMap.iterator();
-        alternative:
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                assertionStateMapIterator.next();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> iterator =
-                map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> mapEntry =
-                    iterator.next();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator =
-                    mapEntry.getValue().entrySet().iterator();
-                while (assertionStateIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> assertionListEntry = assertionStateIterator.next();
-                    List<Assertable> assertableList = assertionListEntry.getValue();
-                    Iterator<Assertable> assertableIterator = assertableList.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-                        if (!assertable.isAsserted()) {
-                            assertionMessage = assertable.getErrorMessage();
-                            failedAssertionStateMap.add(map);
-                            assertionStateMapIterator.remove();
-                            continue alternative;
-                        }
-                    }
+        for (int i = failedAlternatives.nextClearBit(0); i < alternativeAssertables.length;
+            i = failedAlternatives.nextClearBit(i + 1)) {
+            for (Assertable assertable : alternativeAssertables[i]) {
+                if (!assertable.isAsserted()) {
+                    assertionMessage = assertable.getErrorMessage();
+                    failAlternative(i);
+                    break;
                 }
             }
         }
-        if (assertionStateMap.isEmpty() && !(faultOccurred && noSecurityHeader && initiator)) {
+        if (remainingAlternatives == 0 && !(faultOccurred && noSecurityHeader && initiator)) {
             logFailedAssertions();
             throw new WSSPolicyException(assertionMessage);
         }
@@ -632,94 +556,50 @@ public class PolicyEnforcer implements SecurityEventListener {
      */
     private void verifyPolicyAfterOperationSecurityEvent() throws WSSPolicyException {
         String assertionMessage = null;
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator =
-            this.assertionStateMap.iterator();
-        alternative:
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                assertionStateMapIterator.next();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> iterator =
-                map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> mapEntry =
-                    iterator.next();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator =
-                    mapEntry.getValue().entrySet().iterator();
-                while (assertionStateIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> assertionListEntry = assertionStateIterator.next();
-                    List<Assertable> assertableList = assertionListEntry.getValue();
-                    Iterator<Assertable> assertableIterator = assertableList.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-
-                        boolean doAssert = false;
-                        if (assertable instanceof TokenAssertionState) {
-                            TokenAssertionState tokenAssertionState = (TokenAssertionState) assertable;
-                            AbstractToken abstractToken = (AbstractToken) tokenAssertionState.getAssertion();
-                            AbstractSecurityAssertion assertion = abstractToken.getParentAssertion();
-                            //Other tokens may not be resolved yet fully therefore we skip it here
-                            if (assertion instanceof SupportingTokens
-                                || assertable instanceof HttpsTokenAssertionState
-                                || assertable instanceof RelTokenAssertionState
-                                || assertable instanceof SecurityContextTokenAssertionState
-                                || assertable instanceof SpnegoContextTokenAssertionState
-                                || assertable instanceof UsernameTokenAssertionState) {
-                                doAssert = true;
-                            }
-                        } else if (assertable instanceof TokenProtectionAssertionState
-                            || assertable instanceof SignatureConfirmationAssertionState
-                            || assertable instanceof IncludeTimeStampAssertionState
-                            || assertable instanceof RequiredPartsAssertionState
-                            || assertable instanceof SignatureProtectionAssertionState) {
-                            doAssert = true;
-                        }
-
-                        if ((doAssert || assertable.isHardFailure()) && !assertable.isAsserted()) {
-                            assertionMessage = assertable.getErrorMessage();
-                            failedAssertionStateMap.add(map);
-                            assertionStateMapIterator.remove();
-                            continue alternative;
-                        }
-                    }
+        for (int i = failedAlternatives.nextClearBit(0); i < alternativeAssertables.length;
+            i = failedAlternatives.nextClearBit(i + 1)) {
+            for (Assertable assertable : alternativeAssertables[i]) {
+                if ((isAssertedAfterOperation(assertable) || assertable.isHardFailure()) && !assertable.isAsserted()) {
+                    assertionMessage = assertable.getErrorMessage();
+                    failAlternative(i);
+                    break;
                 }
             }
         }
-        if (assertionStateMap.isEmpty() && !(faultOccurred && noSecurityHeader && initiator)) {
+        if (remainingAlternatives == 0 && !(faultOccurred && noSecurityHeader && initiator)) {
             logFailedAssertions();
             throw new WSSPolicyException(assertionMessage);
         }
     }
 
-    private void logFailedAssertions() {
-        if (this.failedAssertionStateMap.isEmpty()) {
-            return;
+    private static boolean isAssertedAfterOperation(Assertable assertable) {
+        if (assertable instanceof TokenAssertionState) {
+            TokenAssertionState tokenAssertionState = (TokenAssertionState) assertable;
+            AbstractToken abstractToken = (AbstractToken) tokenAssertionState.getAssertion();
+            AbstractSecurityAssertion assertion = abstractToken.getParentAssertion();
+            //Other tokens may not be resolved yet fully therefore we skip it here
+            return assertion instanceof SupportingTokens
+                || assertable instanceof HttpsTokenAssertionState
+                || assertable instanceof RelTokenAssertionState
+                || assertable instanceof SecurityContextTokenAssertionState
+                || assertable instanceof SpnegoContextTokenAssertionState
+                || assertable instanceof UsernameTokenAssertionState;
         }
+        return assertable instanceof TokenProtectionAssertionState
+            || assertable instanceof SignatureConfirmationAssertionState
+            || assertable instanceof IncludeTimeStampAssertionState
+            || assertable instanceof RequiredPartsAssertionState
+            || assertable instanceof SignatureProtectionAssertionState;
+    }
 
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator =
-            this.failedAssertionStateMap.iterator();
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map =
-                assertionStateMapIterator.next();
-            Set<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> entrySet = map.entrySet();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> entryIterator =
-                entrySet.iterator();
-            while (entryIterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> eventCollectionEntry =
-                    entryIterator.next();
-                Map<Assertion, List<Assertable>> assertionListMap = eventCollectionEntry.getValue();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateEntryIterator =
-                    assertionListMap.entrySet().iterator();
-                while (assertionStateEntryIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> entry = assertionStateEntryIterator.next();
-                    List<Assertable> assertionStates = entry.getValue();
-                    Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-                        if (!assertable.isAsserted() && !assertable.isLogged()) {
-                            LOG.error(entry.getKey().getName() + " not satisfied: " + assertable.getErrorMessage());
-                            assertable.setLogged(true);
-                        }
-                    }
+    private void logFailedAssertions() {
+        for (int i = failedAlternatives.nextSetBit(0); i >= 0; i = failedAlternatives.nextSetBit(i + 1)) {
+            Assertable[] assertables = alternativeAssertables[i];
+            for (int j = 0; j < assertables.length; j++) {
+                Assertable assertable = assertables[j];
+                if (!assertable.isAsserted() && !assertable.isLogged()) {
+                    LOG.error(alternativeAssertions[i][j].getName() + " not satisfied: " + assertable.getErrorMessage());
+                    assertable.setLogged(true);
                 }
             }
         }
@@ -758,7 +638,7 @@ public class PolicyEnforcer implements SecurityEventListener {
                     effectivePolicy.setPolicy(new Policy());
                 }
                 try {
-                    buildAssertionStateMap(effectivePolicy.getPolicy(), assertionStateMap);
+                    buildAssertionStateMap(getPolicyTemplate(effectivePolicy));
                 } catch (WSSPolicyException e) {
                     throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
                 }
@@ -20,7 +20,9 @@ package org.apache.wss4j.policy.stax.enforcer;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -87,6 +89,7 @@ import org.apache.wss4j.policy.builders.WSS10Builder;
 import org.apache.wss4j.policy.builders.WSS11Builder;
 import org.apache.wss4j.policy.builders.X509TokenBuilder;
 import org.apache.wss4j.policy.stax.OperationPolicy;
+import org.apache.wss4j.policy.stax.PolicyAsserter;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -94,7 +97,8 @@ import org.w3c.dom.NodeList;
 
 /**
  * PolicyEnforcerFactory builds a map of all the possible effective Policies
- * and caches them for reuse
+ * and caches them for reuse, together with a compiled PolicyEnforcerTemplate
+ * for each of them
  */
 public class PolicyEnforcerFactory {
 
@@ -105,6 +109,7 @@ public class PolicyEnforcerFactory {
 
     private Definition wsdlDefinition;
     private List<OperationPolicy> operationPolicies;
+    private Map<OperationPolicy, PolicyEnforcerTemplate> policyTemplates;
     private final Map<Element, Policy> elementPolicyCache;
 
     protected PolicyEnforcerFactory(List<AssertionBuilder<Element>> customAssertionBuilders) {
@@ -193,6 +198,7 @@ public class PolicyEnforcerFactory {
             reader.setFeature("javax.wsdl.verbose", false);
             wsdlDefinition = reader.readWSDL(wsdlUrl.toString());
             operationPolicies = findPoliciesByOperation(wsdlDefinition);
+            policyTemplates = compilePolicyTemplates(operationPolicies);
         } catch (WSDLException e) {
             throw new WSSPolicyException(e.getMessage(), e);
         }
@@ -206,6 +212,7 @@ public class PolicyEnforcerFactory {
             reader.setFeature("javax.wsdl.verbose", false);
             wsdlDefinition = reader.readWSDL(document.getDocumentURI(), document);
             operationPolicies = findPoliciesByOperation(wsdlDefinition);
+            policyTemplates = compilePolicyTemplates(operationPolicies);
         } catch (WSDLException e) {
             throw new WSSPolicyException(e.getMessage(), e);
         }
@@ -264,6 +271,22 @@ public class PolicyEnforcerFactory {
         return operationPolicyList;
     }
 
+    private Map<OperationPolicy, PolicyEnforcerTemplate> compilePolicyTemplates(List<OperationPolicy> operationPolicies) {
+        // OperationPolicy equality is based on the operation name only, which need not be unique
+        Map<OperationPolicy, PolicyEnforcerTemplate> templates = new IdentityHashMap<>();
+        for (int i = 0; i < operationPolicies.size(); i++) {
+            OperationPolicy operationPolicy = operationPolicies.get(i);
+            try {
+                templates.put(operationPolicy, PolicyEnforcerTemplate.compile(operationPolicy));
+            } catch (WSSPolicyException e) {
+                // The policy is compiled (and the error reported) again if the operation is invoked
+                LOG.debug("Cannot compile the policy of operation {}: {}",
+                          operationPolicy.getOperationName(), e.getMessage());
+            }
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
     private Policy getPolicy(Service service, Port port, Binding binding,
                              BindingOperation bindingOperation, Operation operation) throws WSSPolicyException {
         List<Policy> policies = new ArrayList<>();
@@ -438,6 +461,25 @@ public class PolicyEnforcerFactory {
     public PolicyEnforcer newPolicyEnforcer(String soapAction, boolean initiator,
                                             String roleOrActor, int attachmentCount,
                                             boolean soap12) throws WSSPolicyException {
-        return new PolicyEnforcer(this.operationPolicies, soapAction, initiator, roleOrActor, attachmentCount, null, soap12);
+        return newPolicyEnforcer(soapAction, initiator, roleOrActor, attachmentCount, soap12, null);
+    }
+
+    /**
+     * creates a new PolicyEnforcer instance
+     * @param soapAction The requested soapAction of the actual request
+     * @param initiator Boolean flag to tell the engine if it is running in client or server mode
+     * @param roleOrActor The actor or role of the security processing. Must be set to the same value
+     * as WSSSecurityProperties#setActor()
+     * @param attachmentCount The number of Attachments received in the message
+     * @param soap12 Whether we are using SOAP 1.2 or not
+     * @param policyAsserter The PolicyAsserter which is notified of the (un)asserted policies of this message
+     * @return the newly created PolicyEnforcer instance
+     * @throws WSSPolicyException
+     */
+    public PolicyEnforcer newPolicyEnforcer(String soapAction, boolean initiator,
+                                            String roleOrActor, int attachmentCount,
+                                            boolean soap12, PolicyAsserter policyAsserter) throws WSSPolicyException {
+        return new PolicyEnforcer(this.operationPolicies, this.policyTemplates, soapAction, initiator, roleOrActor,
+                                  attachmentCount, policyAsserter, soap12);
     }
 }
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.policy.stax.enforcer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.neethi.ExactlyOne;
+import org.apache.neethi.PolicyComponent;
+import org.apache.neethi.PolicyContainingAssertion;
+import org.apache.neethi.PolicyOperator;
+import org.apache.neethi.builders.PrimitiveAssertion;
+import org.apache.wss4j.common.WSSPolicyException;
+import org.apache.wss4j.policy.model.AbstractSecurityAssertion;
+import org.apache.wss4j.policy.stax.OperationPolicy;
+
+/**
+ * A compiled, immutable form of the (normalized) policy of an operation. The policy tree is
+ * walked once and flattened into the security assertions of each policy alternative, in
+ * document order. A PolicyEnforcer then only has to create the (per message) assertion states
+ * for the assertions of the template, instead of walking the policy tree for every message.
+ *
+ * The PolicyEnforcerFactory compiles a template for every operation of the WSDL, and shares them
+ * between all the PolicyEnforcer instances it creates.
+ */
+final class PolicyEnforcerTemplate {
+
+    private final OperationPolicy operationPolicy;
+    private final List<List<AbstractSecurityAssertion>> alternatives;
+
+    private PolicyEnforcerTemplate(OperationPolicy operationPolicy,
+                                   List<List<AbstractSecurityAssertion>> alternatives) {
+        this.operationPolicy = operationPolicy;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Precondition: Policy _must_ be normalized!
+     */
+    static PolicyEnforcerTemplate compile(OperationPolicy operationPolicy) throws WSSPolicyException {
+        List<List<AbstractSecurityAssertion>> alternatives = new ArrayList<>();
+        addAlternatives(operationPolicy.getPolicy(), alternatives);
+
+        List<List<AbstractSecurityAssertion>> unmodifiableAlternatives = new ArrayList<>(alternatives.size());
+        for (List<AbstractSecurityAssertion> alternative : alternatives) {
+            unmodifiableAlternatives.add(Collections.unmodifiableList(alternative));
+        }
+        return new PolicyEnforcerTemplate(operationPolicy, Collections.unmodifiableList(unmodifiableAlternatives));
+    }
+
+    OperationPolicy getOperationPolicy() {
+        return operationPolicy;
+    }
+
+    /**
+     * @return the security assertions of every policy alternative
+     */
+    List<List<AbstractSecurityAssertion>> getAlternatives() {
+        return alternatives;
+    }
+
+    private static void addAlternatives(
+        PolicyComponent policyComponent, List<List<AbstractSecurityAssertion>> alternatives
+    ) throws WSSPolicyException {
+        if (policyComponent instanceof PolicyOperator) {
+            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
+            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
+            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
+            while (policyComponentIterator.hasNext()) {
+                PolicyComponent curPolicyComponent = policyComponentIterator.next();
+                if (policyOperator instanceof ExactlyOne) {
+                    List<AbstractSecurityAssertion> alternative = new ArrayList<>();
+                    addAssertions(curPolicyComponent, alternative);
+                    alternatives.add(alternative);
+                } else {
+                    addAlternatives(curPolicyComponent, alternatives);
+                }
+            }
+        } else {
+            throw new WSSPolicyException("Invalid PolicyComponent: " + policyComponent
+                                         + " " + policyComponent.getType());
+        }
+    }
+
+    private static void addAssertions(
+        PolicyComponent policyComponent, List<AbstractSecurityAssertion> alternative
+    ) throws WSSPolicyException {
+        if (policyComponent instanceof PolicyOperator) {
+            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
+            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
+            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
+            while (policyComponentIterator.hasNext()) {
+                addAssertions(policyComponentIterator.next(), alternative);
+            }
+        } else if (policyComponent instanceof AbstractSecurityAssertion) {
+            AbstractSecurityAssertion abstractSecurityAssertion = (AbstractSecurityAssertion) policyComponent;
+            alternative.add(abstractSecurityAssertion);
+            if (abstractSecurityAssertion instanceof PolicyContainingAssertion) {
+                addAssertions(((PolicyContainingAssertion) abstractSecurityAssertion).getPolicy(), alternative);
+            }
+        } else if (!(policyComponent instanceof PrimitiveAssertion)) {
+            throw new WSSPolicyException("Unsupported PolicyComponent: " + policyComponent
+                                         + " type: " + policyComponent.getType());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.policy.stax.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.neethi.Assertion;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.policy.SPConstants;
+import org.apache.wss4j.policy.stax.PolicyAsserter;
+import org.apache.wss4j.policy.stax.PolicyViolationException;
+import org.apache.wss4j.policy.stax.enforcer.PolicyEnforcer;
+import org.apache.wss4j.policy.stax.enforcer.PolicyEnforcerFactory;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.securityEvent.OperationSecurityEvent;
+import org.apache.xml.security.stax.securityEvent.AlgorithmSuiteSecurityEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class PolicyEnforcerTest extends AbstractPolicyTestBase {
+
+    private static final String SP_NS = "http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702";
+
+    private static final String wss11AlgorithmSuitePolicyString =
+            "<wsp:All xmlns:wsp=\"http://schemas.xmlsoap.org/ws/2004/09/policy\">\n" +
+            "<sp:Wss11 xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+            "   <wsp:Policy>\n" +
+            "       <sp:MustSupportRefThumbprint/>\n" +
+            "   </wsp:Policy>\n" +
+            "</sp:Wss11>\n" +
+            "<sp:AlgorithmSuite xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+            "   <wsp:Policy>\n" +
+            "       <sp:TripleDesRsa15/>\n" +
+            "   </wsp:Policy>\n" +
+            "</sp:AlgorithmSuite>\n" +
+            "</wsp:All>";
+
+    private static final String alternativesPolicyString =
+            "<wsp:ExactlyOne xmlns:wsp=\"http://schemas.xmlsoap.org/ws/2004/09/policy\">\n" +
+            "<wsp:All>\n" +
+            "   <sp:AlgorithmSuite xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+            "       <wsp:Policy>\n" +
+            "           <sp:Basic256/>\n" +
+            "       </wsp:Policy>\n" +
+            "   </sp:AlgorithmSuite>\n" +
+            "</wsp:All>\n" +
+            "<wsp:All>\n" +
+            "   <sp:AlgorithmSuite xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+            "       <wsp:Policy>\n" +
+            "           <sp:TripleDesRsa15/>\n" +
+            "       </wsp:Policy>\n" +
+            "   </sp:AlgorithmSuite>\n" +
+            "</wsp:All>\n" +
+            "</wsp:ExactlyOne>";
+
+    private static final String TRIPLE_DES = "http://www.w3.org/2001/04/xmlenc#tripledes-cbc";
+    private static final String AES256 = "http://www.w3.org/2001/04/xmlenc#aes256-cbc";
+
+    @Test
+    public void testPolicyAlternativeFailed() throws Exception {
+        PolicyEnforcer policyEnforcer = buildAndStartPolicyEngine(alternativesPolicyString);
+
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        policyEnforcer.registerSecurityEvent(operationSecurityEvent);
+
+        // The Basic256 alternative fails, the TripleDesRsa15 alternative is still satisfied
+        policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(TRIPLE_DES, 192));
+        policyEnforcer.doFinal();
+    }
+
+    @Test
+    public void testPolicyFailedAlternativeNotRestored() throws Exception {
+        PolicyEnforcer policyEnforcer = buildAndStartPolicyEngine(alternativesPolicyString);
+
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        policyEnforcer.registerSecurityEvent(operationSecurityEvent);
+
+        policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(TRIPLE_DES, 192));
+        // The Basic256 alternative would be satisfied by this event, but it has already failed
+        try {
+            policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(AES256, 256));
+            fail("Exception expected");
+        } catch (WSSecurityException e) {
+            assertTrue(e.getCause() instanceof PolicyViolationException);
+            assertEquals(e.getFaultCode(), WSSecurityException.INVALID_SECURITY);
+        }
+    }
+
+    @Test
+    public void testPolicyAlternativeFailedByQueuedEvent() throws Exception {
+        PolicyEnforcer policyEnforcer = buildAndStartPolicyEngine(alternativesPolicyString);
+
+        // The events before the OperationSecurityEvent are queued, and replayed on it
+        policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(TRIPLE_DES, 192));
+
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        policyEnforcer.registerSecurityEvent(operationSecurityEvent);
+
+        // The Basic256 alternative has failed on the replayed event
+        try {
+            policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(AES256, 256));
+            fail("Exception expected");
+        } catch (WSSecurityException e) {
+            assertTrue(e.getCause() instanceof PolicyViolationException);
+            assertEquals(e.getFaultCode(), WSSecurityException.INVALID_SECURITY);
+        }
+    }
+
+    @Test
+    public void testPolicyQueuedEventsNegative() throws Exception {
+        PolicyEnforcer policyEnforcer = buildAndStartPolicyEngine(alternativesPolicyString);
+
+        // Each queued event fails another alternative
+        policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(TRIPLE_DES, 192));
+        policyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(AES256, 256));
+
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        try {
+            policyEnforcer.registerSecurityEvent(operationSecurityEvent);
+            fail("Exception expected");
+        } catch (WSSecurityException e) {
+            assertTrue(e.getCause() instanceof PolicyViolationException);
+            assertEquals(e.getFaultCode(), WSSecurityException.INVALID_SECURITY);
+        }
+    }
+
+    @Test
+    public void testPolicyAssertedPerMessage() throws Exception {
+        // The policy is compiled once by the factory, and shared by the PolicyEnforcers of both messages
+        PolicyEnforcerFactory policyEnforcerFactory =
+                buildPolicyEnforcerFactory(wss11AlgorithmSuitePolicyString, false, null);
+
+        RecordingPolicyAsserter firstPolicyAsserter = new RecordingPolicyAsserter();
+        PolicyEnforcer firstPolicyEnforcer =
+                policyEnforcerFactory.newPolicyEnforcer("", false, null, 0, false, firstPolicyAsserter);
+        RecordingPolicyAsserter secondPolicyAsserter = new RecordingPolicyAsserter();
+        PolicyEnforcer secondPolicyEnforcer =
+                policyEnforcerFactory.newPolicyEnforcer("", false, null, 0, false, secondPolicyAsserter);
+
+        // The first message does not meet the policy
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        firstPolicyEnforcer.registerSecurityEvent(operationSecurityEvent);
+        List<QName> expectedAsserted = new ArrayList<>();
+        expectedAsserted.add(new QName(SP_NS, SPConstants.WSS11));
+        expectedAsserted.add(new QName(SP_NS, SPConstants.MUST_SUPPORT_REF_THUMBPRINT));
+        expectedAsserted.add(new QName(SP_NS, SPConstants.ALGORITHM_SUITE));
+        expectedAsserted.add(new QName(SP_NS, "TripleDesRsa15"));
+        assertTrue(firstPolicyAsserter.asserted.containsAll(expectedAsserted));
+        assertTrue(firstPolicyAsserter.unasserted.isEmpty());
+
+        try {
+            firstPolicyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(
+                "http://www.w3.org/2001/04/xmlenc#aes192-cbc", 192));
+            fail("Exception expected");
+        } catch (WSSecurityException e) {
+            assertTrue(e.getCause() instanceof PolicyViolationException);
+        }
+        assertEquals(firstPolicyAsserter.unasserted.size(), 1);
+        assertEquals(firstPolicyAsserter.unasserted.get(0), new QName(SP_NS, SPConstants.ALGORITHM_SUITE));
+        int firstAssertedCount = firstPolicyAsserter.asserted.size();
+
+        // The second message meets the policy, and the policy is asserted again for it
+        secondPolicyEnforcer.registerSecurityEvent(operationSecurityEvent);
+        secondPolicyEnforcer.registerSecurityEvent(createAlgorithmSuiteSecurityEvent(
+            "http://www.w3.org/2001/04/xmlenc#tripledes-cbc", 192));
+        secondPolicyEnforcer.doFinal();
+
+        assertTrue(secondPolicyAsserter.asserted.containsAll(expectedAsserted));
+        assertTrue(secondPolicyAsserter.unasserted.isEmpty());
+        assertEquals(firstPolicyAsserter.asserted.size(), firstAssertedCount);
+        assertEquals(firstPolicyAsserter.unasserted.size(), 1);
+    }
+
+    private static AlgorithmSuiteSecurityEvent createAlgorithmSuiteSecurityEvent(String algorithmURI, int keyLength) {
+        AlgorithmSuiteSecurityEvent algorithmSuiteSecurityEvent = new AlgorithmSuiteSecurityEvent();
+        algorithmSuiteSecurityEvent.setAlgorithmURI(algorithmURI);
+        algorithmSuiteSecurityEvent.setKeyLength(keyLength);
+        algorithmSuiteSecurityEvent.setAlgorithmUsage(WSSConstants.Enc);
+        return algorithmSuiteSecurityEvent;
+    }
+
+    private static class RecordingPolicyAsserter implements PolicyAsserter {
+
+        private final List<QName> asserted = new ArrayList<>();
+        private final List<QName> unasserted = new ArrayList<>();
+
+        @Override
+        public void assertPolicy(Assertion assertion) {
+            asserted.add(assertion.getName());
+        }
+
+        @Override
+        public void unassertPolicy(Assertion assertion, String reason) {
+            unasserted.add(assertion.getName());
+        }
+
+        @Override
+        public void assertPolicy(QName qName) {
+            asserted.add(qName);
+        }
+
+        @Override
+        public void unassertPolicy(QName qName, String reason) {
+            unasserted.add(qName);
+        }
+    }
+}
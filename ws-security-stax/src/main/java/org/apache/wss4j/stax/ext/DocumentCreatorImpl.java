@@ -18,29 +18,33 @@
  */
 package org.apache.wss4j.stax.ext;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.wss4j.common.util.DocumentBuilderPool;
 import org.w3c.dom.Document;
 
 /**
- * A default (inefficient) implementation of DocumentCreator which creates a new DocumentBuilderFactory
- * implementation per-instance of this class. CXF instead uses a lambda to call the CXF DomUtils class
- * to create a new document, which maintains a cache of DocumentBuilders keyed off the classloader.
+ * A default implementation of DocumentCreator which creates a new DocumentBuilderFactory per-instance
+ * of this class, and creates Documents with a pool of DocumentBuilders from that factory. CXF instead
+ * uses a lambda to call the CXF DomUtils class to create a new document, which maintains a cache of
+ * DocumentBuilders keyed off the classloader.
  */
 public class DocumentCreatorImpl implements DocumentCreator {
 
-    private final DocumentBuilderFactory documentBuilderFactory;
+    private final DocumentBuilderPool documentBuilderPool;
 
     public DocumentCreatorImpl() throws ParserConfigurationException {
-        documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        documentBuilderFactory.setNamespaceAware(true);
-        documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-        documentBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        documentBuilderPool = new DocumentBuilderPool();
     }
 
     public Document newDocument() throws ParserConfigurationException {
-        return documentBuilderFactory.newDocumentBuilder().newDocument();
+        return documentBuilderPool.newDocument();
+    }
+
+    /**
+     * Get the pool of DocumentBuilders, e.g. to monitor how many DocumentBuilders are created
+     */
+    public DocumentBuilderPool getDocumentBuilderPool() {
+        return documentBuilderPool;
     }
 }
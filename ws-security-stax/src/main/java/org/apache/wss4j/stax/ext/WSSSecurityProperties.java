@@ -39,10 +39,13 @@ import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.wss4j.stax.validate.Validator;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
@@ -108,11 +111,15 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private CertPathTrustCache certPathTrustCache;
+    private SamlAssertionCache samlAssertionCache;
+    private SecureConversationCache secureConversationCache;
     private boolean validateSamlSubjectConfirmation = true;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
     private List<String> audienceRestrictions = new ArrayList<>();
     private boolean requireTimestampExpires;
+    private boolean streamSecurityHeader;
 
     private CallbackHandler attachmentCallbackHandler;
     private Object msgContext;
@@ -164,6 +171,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.timestampReplayCache = wssSecurityProperties.timestampReplayCache;
         this.nonceReplayCache = wssSecurityProperties.nonceReplayCache;
         this.samlOneTimeUseReplayCache = wssSecurityProperties.samlOneTimeUseReplayCache;
+        this.certPathTrustCache = wssSecurityProperties.certPathTrustCache;
+        this.samlAssertionCache = wssSecurityProperties.samlAssertionCache;
+        this.secureConversationCache = wssSecurityProperties.secureConversationCache;
         this.allowRSA15KeyTransportAlgorithm = wssSecurityProperties.allowRSA15KeyTransportAlgorithm;
         this.derivedKeyIterations = wssSecurityProperties.derivedKeyIterations;
         this.useDerivedKeyForMAC = wssSecurityProperties.useDerivedKeyForMAC;
@@ -177,6 +187,7 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.msgContext = wssSecurityProperties.msgContext;
         this.audienceRestrictions = wssSecurityProperties.audienceRestrictions;
         this.requireTimestampExpires = wssSecurityProperties.requireTimestampExpires;
+        this.streamSecurityHeader = wssSecurityProperties.streamSecurityHeader;
         this.soap12 = wssSecurityProperties.soap12;
         this.documentCreator = wssSecurityProperties.documentCreator;
     }
@@ -687,6 +698,51 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.enableRevocation = enableRevocation;
     }
 
+    /**
+     * Set the cache of validated certificate paths used when verifying trust in the
+     * certificate (chain) of a signature. Trust is verified on every request if it is not set.
+     */
+    public void setCertPathTrustCache(CertPathTrustCache certPathTrustCache) {
+        this.certPathTrustCache = certPathTrustCache;
+    }
+
+    /**
+     * Get the cache of validated certificate paths
+     */
+    public CertPathTrustCache getCertPathTrustCache() {
+        return certPathTrustCache;
+    }
+
+    /**
+     * Set the cache of validated SAML Assertions. Signed Assertions are fully verified on every
+     * request if it is not set.
+     */
+    public void setSamlAssertionCache(SamlAssertionCache samlAssertionCache) {
+        this.samlAssertionCache = samlAssertionCache;
+    }
+
+    /**
+     * Get the cache of validated SAML Assertions
+     */
+    public SamlAssertionCache getSamlAssertionCache() {
+        return samlAssertionCache;
+    }
+
+    /**
+     * Set the cache of WS-SecureConversation sessions. The secret of a SecurityContextToken is
+     * retrieved from the CallbackHandler, and keys are derived, for every message if it is not set.
+     */
+    public void setSecureConversationCache(SecureConversationCache secureConversationCache) {
+        this.secureConversationCache = secureConversationCache;
+    }
+
+    /**
+     * Get the cache of WS-SecureConversation sessions
+     */
+    public SecureConversationCache getSecureConversationCache() {
+        return secureConversationCache;
+    }
+
     public CertStore getCrlCertStore() {
         return crlCertStore;
     }
@@ -954,6 +1010,19 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.requireTimestampExpires = requireTimestampExpires;
     }
 
+    public boolean isStreamSecurityHeader() {
+        return streamSecurityHeader;
+    }
+
+    /**
+     * Whether to write out the elements of the security header as they are created, where their
+     * position in the security header is already known, instead of buffering the whole security
+     * header until it can be reordered. The default is false.
+     */
+    public void setStreamSecurityHeader(boolean streamSecurityHeader) {
+        this.streamSecurityHeader = streamSecurityHeader;
+    }
+
     public boolean isSoap12() {
         return soap12;
     }
@@ -136,7 +136,8 @@ public class DerivedKeyTokenInputHandler extends AbstractInputSecurityHeaderHand
                                 derivedKeyTokenType.getLength().intValue(),
                                 secret,
                                 nonce,
-                                derivedKeyTokenType.getOffset().intValue()
+                                derivedKeyTokenType.getOffset().intValue(),
+                                ((WSSSecurityProperties) securityProperties).getSecureConversationCache()
                         );
                         XMLSecurityConstants.AlgorithmUsage derivedKeyAlgorithmUsage;
                         if (WSSConstants.Enc.equals(algorithmUsage)) {
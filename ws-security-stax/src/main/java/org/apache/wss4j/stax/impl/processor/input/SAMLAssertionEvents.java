@@ -0,0 +1,478 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.stax.impl.processor.input;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
+import org.apache.wss4j.common.util.JCEInstanceFactory;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.xml.security.binding.excc14n.InclusiveNamespaces;
+import org.apache.xml.security.binding.xmldsig.CanonicalizationMethodType;
+import org.apache.xml.security.binding.xmldsig.ReferenceType;
+import org.apache.xml.security.binding.xmldsig.SignatureType;
+import org.apache.xml.security.binding.xmldsig.SignedInfoType;
+import org.apache.xml.security.binding.xmldsig.TransformType;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
+import org.apache.xml.security.stax.ext.Transformer;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.XMLSecurityUtils;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.apache.xml.security.stax.impl.XMLSecurityEventReader;
+import org.apache.xml.security.stax.impl.algorithms.SignatureAlgorithm;
+import org.apache.xml.security.stax.impl.algorithms.SignatureAlgorithmFactory;
+import org.apache.xml.security.stax.impl.transformer.canonicalizer.Canonicalizer20010315_Excl;
+import org.apache.xml.security.stax.impl.util.DigestOutputStream;
+import org.apache.xml.security.utils.UnsyncBufferedOutputStream;
+
+/**
+ * The buffered XMLSecEvents of a SAML Assertion in the security header. A single pass over the
+ * events extracts what is needed before the Assertion is converted to a DOM and unmarshalled by
+ * OpenSAML: the position of the KeyInfo of the enveloped Signature and of the subject confirmation,
+ * and the subject confirmation methods. Nested Assertions (in an Advice or Evidence) are skipped.
+ *
+ * The enveloped Signature can be verified directly on the events, as long as it follows the SAML
+ * signature profile, i.e. a single Reference to the Assertion with the enveloped signature and
+ * exclusive canonicalization transforms. Otherwise the verification is left to OpenSAML.
+ */
+final class SAMLAssertionEvents {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SAMLAssertionEvents.class);
+
+    private static final Set<String> EXCLUSIVE_C14N_ALGORITHMS = new HashSet<>(Arrays.asList(
+        XMLSecurityConstants.NS_C14N_EXCL_OMIT_COMMENTS, XMLSecurityConstants.NS_C14N_EXCL_WITH_COMMENTS
+    ));
+
+    private static final Set<String> MD5_ALGORITHMS = new HashSet<>(Arrays.asList(
+        "http://www.w3.org/2001/04/xmldsig-more#md5",
+        "http://www.w3.org/2001/04/xmldsig-more#rsa-md5",
+        "http://www.w3.org/2001/04/xmldsig-more#hmac-md5"
+    ));
+
+    private final Deque<XMLSecEvent> eventQueue;
+    private final int assertionIndex;
+    private XMLSecStartElement assertionElement;
+    private int signatureIndex = -1;
+    private int signatureEndIndex = -1;
+    private int signatureKeyInfoIndex = -1;
+    private int subjectKeyInfoIndex = -1;
+    private final List<String> confirmationMethods = new ArrayList<>();
+    private SignatureType signatureType;
+    private byte[] canonicalizedSignedInfo;
+
+    private SAMLAssertionEvents(Deque<XMLSecEvent> eventQueue, int assertionIndex) {
+        this.eventQueue = eventQueue;
+        this.assertionIndex = assertionIndex;
+    }
+
+    /**
+     * @param eventQueue the buffered events of the security header, in reverse document order
+     * @param index the index (in document order) of the start element of the Assertion
+     */
+    static SAMLAssertionEvents parse(Deque<XMLSecEvent> eventQueue, int index) throws WSSecurityException {
+        SAMLAssertionEvents samlAssertionEvents = new SAMLAssertionEvents(eventQueue, index);
+        samlAssertionEvents.scan();
+        return samlAssertionEvents;
+    }
+
+    private void scan() throws WSSecurityException {
+        Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+        int idx = 0;
+        while (idx < assertionIndex && xmlSecEventIterator.hasNext()) {
+            xmlSecEventIterator.next();
+            idx++;
+        }
+
+        // the depth below the Assertion element, and the depth at which a nested Assertion or the
+        // Signature started
+        int depth = 0;
+        int skipDepth = -1;
+        int signatureDepth = -1;
+        StringBuilder confirmationMethod = null;
+        for (; xmlSecEventIterator.hasNext(); idx++) {
+            XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
+            switch (xmlSecEvent.getEventType()) {   //NOPMD
+                case XMLStreamConstants.START_ELEMENT:
+                    XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                    QName elementName = xmlSecStartElement.getName();
+                    if (assertionElement == null) {
+                        assertionElement = xmlSecStartElement;
+                    } else if (skipDepth < 0) {
+                        if (isAssertion(elementName)) {
+                            skipDepth = depth;
+                        } else if (depth == 1 && WSSConstants.TAG_dsig_Signature.equals(elementName)
+                            && signatureIndex < 0) {
+                            signatureIndex = idx;
+                            signatureDepth = depth;
+                        } else if (WSSConstants.TAG_dsig_KeyInfo.equals(elementName)) {
+                            if (depth == 2 && signatureDepth == 1 && signatureEndIndex < 0) {
+                                if (signatureKeyInfoIndex < 0) {
+                                    signatureKeyInfoIndex = idx;
+                                }
+                            } else if (subjectKeyInfoIndex < 0 && isSubjectConfirmationKeyInfo(xmlSecStartElement)) {
+                                subjectKeyInfoIndex = idx;
+                            }
+                        } else if (isSubjectConfirmation(elementName)) {
+                            Attribute method = xmlSecStartElement.getAttributeByName(new QName("Method"));
+                            if (method != null) {
+                                confirmationMethods.add(method.getValue());
+                            }
+                        } else if (new QName(WSSConstants.NS_SAML, "ConfirmationMethod").equals(elementName)) {
+                            confirmationMethod = new StringBuilder();
+                        }
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    if (depth == skipDepth) {
+                        skipDepth = -1;
+                    } else if (depth == signatureDepth && signatureEndIndex < 0) {
+                        signatureEndIndex = idx;
+                    } else if (confirmationMethod != null) {
+                        confirmationMethods.add(confirmationMethod.toString().trim());
+                        confirmationMethod = null;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    if (confirmationMethod != null) {
+                        confirmationMethod.append(xmlSecEvent.asCharacters().getText());
+                    }
+                    break;
+            }
+            if (assertionElement != null && depth == 0) {
+                break;
+            }
+        }
+
+        if (assertionElement == null || !isAssertion(assertionElement.getName())) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "invalidSAMLsecurity");
+        }
+    }
+
+    private static boolean isAssertion(QName elementName) {
+        return WSSConstants.TAG_SAML2_ASSERTION.equals(elementName)
+            || WSSConstants.TAG_SAML_ASSERTION.equals(elementName);
+    }
+
+    private static boolean isSubjectConfirmation(QName elementName) {
+        return WSSConstants.NS_SAML2.equals(elementName.getNamespaceURI())
+            && "SubjectConfirmation".equals(elementName.getLocalPart());
+    }
+
+    private static boolean isSubjectConfirmationKeyInfo(XMLSecStartElement keyInfoElement) {
+        List<QName> elementPath = keyInfoElement.getElementPath();
+        if (elementPath.size() >= 4) {
+            int lastIndex = elementPath.size() - 2;
+            if ("SubjectConfirmationData".equals(elementPath.get(lastIndex).getLocalPart())
+                    && "SubjectConfirmation".equals(elementPath.get(lastIndex - 1).getLocalPart())
+                    && "Subject".equals(elementPath.get(lastIndex - 2).getLocalPart())) {
+                return true;
+            } else if ("SubjectConfirmation".equals(elementPath.get(lastIndex).getLocalPart())
+                    && "Subject".equals(elementPath.get(lastIndex - 1).getLocalPart())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    QName getName() {
+        return assertionElement.getName();
+    }
+
+    String getId() {
+        Attribute id = assertionElement.getAttributeByName(WSSConstants.ATT_NULL_ID);
+        if (id == null) {
+            id = assertionElement.getAttributeByName(WSSConstants.ATT_NULL_ASSERTION_ID);
+        }
+        return id == null ? null : id.getValue();
+    }
+
+    boolean isSigned() {
+        return signatureIndex >= 0;
+    }
+
+    /**
+     * @return the index of the KeyInfo element of the enveloped Signature, or -1
+     */
+    int getSignatureKeyInfoIndex() {
+        return signatureKeyInfoIndex;
+    }
+
+    /**
+     * @return the index of the KeyInfo element of the subject confirmation, or -1
+     */
+    int getSubjectKeyInfoIndex() {
+        return subjectKeyInfoIndex;
+    }
+
+    List<String> getConfirmationMethods() {
+        return Collections.unmodifiableList(confirmationMethods);
+    }
+
+    /**
+     * Verify the digest of the Assertion against the reference of the enveloped Signature on the
+     * buffered events, and canonicalize its SignedInfo, so that the signature value can then be
+     * verified with {@link #verifySignatureValue(Key)}.
+     *
+     * @param securityProperties the security properties (for unmarshalling the Signature)
+     * @return false if the Signature does not follow the SAML signature profile and must be
+     *         verified by OpenSAML instead
+     * @throws WSSecurityException if the digest of the Assertion is invalid
+     */
+    boolean verifyReferences(XMLSecurityProperties securityProperties) throws WSSecurityException {
+        signatureType = unmarshalSignature(securityProperties);
+        SignedInfoType signedInfo = signatureType.getSignedInfo();
+        CanonicalizationMethodType canonicalizationMethod = signedInfo.getCanonicalizationMethod();
+        String signatureAlgorithm = signedInfo.getSignatureMethod().getAlgorithm();
+        if (!EXCLUSIVE_C14N_ALGORITHMS.contains(canonicalizationMethod.getAlgorithm())
+            || MD5_ALGORITHMS.contains(signatureAlgorithm)) {
+            LOG.debug("The SAML Signature is verified by OpenSAML as it uses {} and {}",
+                      canonicalizationMethod.getAlgorithm(), signatureAlgorithm);
+            return false;
+        }
+
+        List<ReferenceType> references = signedInfo.getReference();
+        if (references.size() != 1) {
+            LOG.debug("The SAML Signature is verified by OpenSAML as it has {} references", references.size());
+            return false;
+        }
+        ReferenceType reference = references.get(0);
+        TransformType canonicalizationTransform = getCanonicalizationTransform(reference);
+        String id = getId();
+        String uri = reference.getURI();
+        if (canonicalizationTransform == null || id == null || uri == null
+            || !(uri.isEmpty() || uri.equals("#" + id))
+            || reference.getDigestMethod() == null
+            || MD5_ALGORITHMS.contains(reference.getDigestMethod().getAlgorithm())) {
+            LOG.debug("The SAML Signature is verified by OpenSAML as its reference {} is not supported", uri);
+            return false;
+        }
+
+        if (signatureType.getSignatureValue() == null) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
+                    "empty", new Object[] {"no signature to validate"});
+        }
+
+        verifyDigest(reference, canonicalizationTransform);
+        canonicalizedSignedInfo = canonicalizeSignedInfo(canonicalizationMethod);
+        return true;
+    }
+
+    /**
+     * @return the digest used to look up the Assertion in a SamlAssertionCache, once the references
+     *         were verified by {@link #verifyReferences(XMLSecurityProperties)}
+     */
+    byte[] getSignatureDigest() {
+        return SamlAssertionCache.getSignatureDigest(
+            canonicalizedSignedInfo, signatureType.getSignatureValue().getValue());
+    }
+
+    private SignatureType unmarshalSignature(XMLSecurityProperties securityProperties) throws WSSecurityException {
+        Object object = null;
+        try {
+            Unmarshaller unmarshaller = WSSConstants.getJaxbUnmarshaller(securityProperties.isDisableSchemaValidation());
+            object = unmarshaller.unmarshal(new XMLSecurityEventReader(eventQueue, signatureIndex));
+        } catch (JAXBException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
+        }
+        if (object instanceof JAXBElement) {
+            object = ((JAXBElement<?>) object).getValue();
+        }
+        if (!(object instanceof SignatureType)) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
+                    "empty", new Object[] {"no signature to validate"});
+        }
+        return (SignatureType) object;
+    }
+
+    // Returns the exclusive canonicalization transform if the transforms follow the SAML signature profile
+    private static TransformType getCanonicalizationTransform(ReferenceType reference) {
+        if (reference.getTransforms() == null) {
+            return null;
+        }
+        boolean enveloped = false;
+        TransformType canonicalizationTransform = null;
+        for (TransformType transform : reference.getTransforms().getTransform()) {
+            if (XMLSecurityConstants.NS_XMLDSIG_ENVELOPED_SIGNATURE.equals(transform.getAlgorithm()) && !enveloped) {
+                enveloped = true;
+            } else if (EXCLUSIVE_C14N_ALGORITHMS.contains(transform.getAlgorithm())
+                && canonicalizationTransform == null) {
+                canonicalizationTransform = transform;
+            } else {
+                return null;
+            }
+        }
+        return enveloped ? canonicalizationTransform : null;
+    }
+
+    private void verifyDigest(ReferenceType reference, TransformType canonicalizationTransform)
+        throws WSSecurityException {
+        String digestAlgorithm = reference.getDigestMethod().getAlgorithm();
+        String jceName = JCEAlgorithmMapper.translateURItoJCEID(digestAlgorithm);
+        if (jceName == null) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "unknownAlgorithm",
+                                          new Object[] {digestAlgorithm});
+        }
+        MessageDigest messageDigest = null;
+        try {
+            messageDigest = JCEInstanceFactory.getMessageDigest(
+                jceName, JCEAlgorithmMapper.getJCEProviderFromURI(digestAlgorithm));
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "unknownAlgorithm",
+                                          new Object[] {digestAlgorithm});
+        }
+        try {
+            DigestOutputStream digestOutputStream = new DigestOutputStream(messageDigest);
+
+            // The events of the Assertion, without the enveloped Signature
+            Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+            int idx = 0;
+            int depth = 0;
+            try (OutputStream outputStream = new UnsyncBufferedOutputStream(digestOutputStream)) {
+                Transformer transformer = getCanonicalizer(canonicalizationTransform.getAlgorithm(),
+                                                           canonicalizationTransform.getContent(), outputStream);
+                for (; xmlSecEventIterator.hasNext(); idx++) {
+                    XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
+                    if (idx < assertionIndex || idx >= signatureIndex && idx <= signatureEndIndex) {
+                        continue;
+                    }
+                    transformer.transform(xmlSecEvent);
+                    if (xmlSecEvent.isStartElement()) {
+                        depth++;
+                    } else if (xmlSecEvent.isEndElement() && --depth == 0) {
+                        break;
+                    }
+                }
+                transformer.doFinal();
+            } catch (XMLStreamException | IOException | XMLSecurityException e) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e,
+                                              "empty", new Object[] {"SAML signature validation failed"});
+            }
+
+            if (!MessageDigest.isEqual(digestOutputStream.getDigestValue(), reference.getDigestValue())) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                                              "empty", new Object[] {"SAML signature validation failed"});
+            }
+        } finally {
+            JCEInstanceFactory.releaseMessageDigest(messageDigest);
+        }
+    }
+
+    private byte[] canonicalizeSignedInfo(CanonicalizationMethodType canonicalizationMethod)
+        throws WSSecurityException {
+        // The events of the SignedInfo element of the enveloped Signature
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try {
+            Transformer transformer = getCanonicalizer(canonicalizationMethod.getAlgorithm(),
+                                                       canonicalizationMethod.getContent(), byteArrayOutputStream);
+            Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+            int idx = 0;
+            int depth = 0;
+            for (; xmlSecEventIterator.hasNext() && idx <= signatureEndIndex; idx++) {
+                XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
+                if (idx < signatureIndex || depth == 0 && !(xmlSecEvent.isStartElement()
+                    && WSSConstants.TAG_dsig_SignedInfo.equals(xmlSecEvent.asStartElement().getName()))) {
+                    continue;
+                }
+                transformer.transform(xmlSecEvent);
+                if (xmlSecEvent.isStartElement()) {
+                    depth++;
+                } else if (xmlSecEvent.isEndElement() && --depth == 0) {
+                    break;
+                }
+            }
+            transformer.doFinal();
+        } catch (XMLStreamException | XMLSecurityException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e,
+                                          "empty", new Object[] {"SAML signature validation failed"});
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Verify the signature value over the SignedInfo that was canonicalized by
+     * {@link #verifyReferences(XMLSecurityProperties)}.
+     *
+     * @param key the key to verify the signature with
+     * @throws WSSecurityException if the signature is invalid
+     */
+    void verifySignatureValue(Key key) throws WSSecurityException {
+        boolean verified = false;
+        try {
+            SignatureAlgorithm signatureAlgorithm =
+                SignatureAlgorithmFactory.getInstance().getSignatureAlgorithm(
+                    signatureType.getSignedInfo().getSignatureMethod().getAlgorithm());
+            signatureAlgorithm.engineInitVerify(key);
+            signatureAlgorithm.engineUpdate(canonicalizedSignedInfo);
+            verified = signatureAlgorithm.engineVerify(signatureType.getSignatureValue().getValue());
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | XMLSecurityException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e,
+                                          "empty", new Object[] {"SAML signature validation failed"});
+        }
+        if (!verified) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                                          "empty", new Object[] {"SAML signature validation failed"});
+        }
+    }
+
+    private static Transformer getCanonicalizer(String algorithm, List<Object> content, OutputStream outputStream)
+        throws XMLSecurityException {
+        Map<String, Object> transformerProperties = null;
+        InclusiveNamespaces inclusiveNamespacesType =
+            XMLSecurityUtils.getQNameType(content, XMLSecurityConstants.TAG_c14nExcl_InclusiveNamespaces);
+        if (inclusiveNamespacesType != null) {
+            transformerProperties = new HashMap<>();
+            transformerProperties.put(Canonicalizer20010315_Excl.INCLUSIVE_NAMESPACES_PREFIX_LIST,
+                                      inclusiveNamespacesType.getPrefixList());
+        }
+        return XMLSecurityUtils.getTransformer(null, outputStream, transformerProperties, algorithm,
+                                               XMLSecurityConstants.DIRECTION.IN);
+    }
+}
@@ -44,6 +44,8 @@ import org.apache.wss4j.binding.wss10.ObjectFactory;
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.saml.SAMLKeyInfo;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -103,73 +105,74 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
     public void handle(final InputProcessorChain inputProcessorChain, final XMLSecurityProperties securityProperties,
                        Deque<XMLSecEvent> eventQueue, Integer index) throws XMLSecurityException {
 
-        final Document samlTokenDocument = (Document) parseStructure(eventQueue, index, securityProperties);
-
         final WSSSecurityProperties wssSecurityProperties = (WSSSecurityProperties) securityProperties;
         final WSInboundSecurityContext wsInboundSecurityContext = (WSInboundSecurityContext) inputProcessorChain.getSecurityContext();
-        final Element samlElement = samlTokenDocument.getDocumentElement();
-        final SamlAssertionWrapper samlAssertionWrapper = new SamlAssertionWrapper(samlElement);
+        final SAMLAssertionEvents samlAssertionEvents = SAMLAssertionEvents.parse(eventQueue, index);
 
-        SamlTokenValidator samlTokenValidator =
-            wssSecurityProperties.getValidator(new QName(samlElement.getNamespaceURI(), samlElement.getLocalName()));
+        SamlTokenValidator samlTokenValidator = wssSecurityProperties.getValidator(samlAssertionEvents.getName());
         if (samlTokenValidator == null) {
             samlTokenValidator = new SamlTokenValidatorImpl();
         }
 
         //important: check the signature before we do other processing...
-        if (samlAssertionWrapper.isSigned()) {
-            Signature signature = samlAssertionWrapper.getSignature();
-            if (signature == null) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
-                        "empty", new Object[] {"no signature to validate"});
-            }
-
-            int sigKeyInfoIdx = getSignatureKeyInfoIndex(eventQueue);
+        InboundSecurityToken sigSecurityToken = null;
+        boolean signatureVerified = false;
+        boolean signatureCached = false;
+        byte[] signatureDigest = null;
+        final SamlAssertionCache samlAssertionCache = wssSecurityProperties.getSamlAssertionCache();
+        if (samlAssertionEvents.isSigned()) {
+            int sigKeyInfoIdx = samlAssertionEvents.getSignatureKeyInfoIndex();
             if (sigKeyInfoIdx < 0) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "noKeyInSAMLToken");
             }
-            InboundSecurityToken sigSecurityToken = parseKeyInfo(inputProcessorChain, securityProperties, eventQueue, sigKeyInfoIdx);
+            sigSecurityToken = parseKeyInfo(inputProcessorChain, securityProperties, eventQueue, sigKeyInfoIdx);
 
             if (sigSecurityToken == null) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "noKeyInSAMLToken");
             }
 
-            samlTokenValidator.validate(sigSecurityToken, wssSecurityProperties);
-
-            BasicCredential credential = null;
+            PublicKey key = null;
             if (sigSecurityToken.getX509Certificates() != null) {
-                credential = new BasicX509Credential(sigSecurityToken.getX509Certificates()[0]);
+                key = sigSecurityToken.getX509Certificates()[0].getPublicKey();
             } else if (sigSecurityToken.getPublicKey() != null) {
-                credential = new BasicCredential(sigSecurityToken.getPublicKey());
+                key = sigSecurityToken.getPublicKey();
             } else {
                 throw new WSSecurityException(
                         WSSecurityException.ErrorCode.FAILURE, "invalidSAMLsecurity",
                         new Object[] {"cannot get certificate or key"}
                 );
             }
-            try {
-                SignatureValidator.validate(signature, credential);
-            } catch (SignatureException ex) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        ex, "empty", new Object[] {"SAML signature validation failed"});
+
+            // verify the enveloped signature on the buffered events, unless it needs OpenSAML. The
+            // signature value and the trust in the signing key are not verified again if the
+            // Assertion was previously validated
+            signatureVerified = samlAssertionEvents.verifyReferences(securityProperties);
+            if (signatureVerified && samlAssertionCache != null) {
+                signatureDigest = samlAssertionEvents.getSignatureDigest();
+                signatureCached = samlAssertionCache.contains(
+                    wssSecurityProperties.getSignatureVerificationCrypto(), samlAssertionEvents.getId(),
+                    signatureDigest, key);
+            }
+            if (!signatureCached) {
+                samlTokenValidator.validate(sigSecurityToken, wssSecurityProperties);
+                if (signatureVerified) {
+                    samlAssertionEvents.verifySignatureValue(key);
+                }
             }
         }
 
         final InboundSecurityToken subjectSecurityToken;
 
-        List<String> methods = samlAssertionWrapper.getConfirmationMethods();
         boolean holderOfKey = false;
-        if (methods != null) {
-            for (String method : methods) {
-                if (OpenSAMLUtil.isMethodHolderOfKey(method)) {
-                    holderOfKey = true;
-                    break;
-                }
+        for (String method : samlAssertionEvents.getConfirmationMethods()) {
+            if (OpenSAMLUtil.isMethodHolderOfKey(method)) {
+                holderOfKey = true;
+                break;
             }
         }
 
         if (holderOfKey) {
-            int subjectKeyInfoIndex = getSubjectKeyInfoIndex(eventQueue);
+            int subjectKeyInfoIndex = samlAssertionEvents.getSubjectKeyInfoIndex();
             if (subjectKeyInfoIndex < 0) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "noKeyInSAMLToken");
             }
@@ -182,6 +185,33 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
             subjectSecurityToken = null;
         }
 
+        // The Assertion is only converted to a DOM and unmarshalled by OpenSAML once the signature
+        // and the keys have been verified
+        final Document samlTokenDocument = (Document) parseStructure(eventQueue, index, securityProperties);
+        final Element samlElement = samlTokenDocument.getDocumentElement();
+        final SamlAssertionWrapper samlAssertionWrapper = new SamlAssertionWrapper(samlElement);
+
+        if (sigSecurityToken != null && !signatureVerified) {
+            Signature signature = samlAssertionWrapper.getSignature();
+            if (signature == null) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
+                        "empty", new Object[] {"no signature to validate"});
+            }
+
+            BasicCredential credential = null;
+            if (sigSecurityToken.getX509Certificates() != null) {
+                credential = new BasicX509Credential(sigSecurityToken.getX509Certificates()[0]);
+            } else {
+                credential = new BasicCredential(sigSecurityToken.getPublicKey());
+            }
+            try {
+                SignatureValidator.validate(signature, credential);
+            } catch (SignatureException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                        ex, "empty", new Object[] {"SAML signature validation failed"});
+            }
+        }
+
         final List<XMLSecEvent> xmlSecEvents = getResponsibleXMLSecEvents(eventQueue, index);
         final List<QName> elementPath = getElementPath(eventQueue);
         final TokenContext tokenContext =
@@ -190,6 +220,17 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
         final SamlSecurityToken samlSecurityToken =
                 samlTokenValidator.validate(samlAssertionWrapper, subjectSecurityToken, tokenContext);
 
+        if (signatureDigest != null && !signatureCached) {
+            SAMLKeyInfo samlKeyInfo;
+            if (sigSecurityToken.getX509Certificates() != null) {
+                samlKeyInfo = new SAMLKeyInfo(sigSecurityToken.getX509Certificates());
+            } else {
+                samlKeyInfo = new SAMLKeyInfo(sigSecurityToken.getPublicKey());
+            }
+            samlAssertionWrapper.cacheSignature(samlAssertionCache,
+                wssSecurityProperties.getSignatureVerificationCrypto(), signatureDigest, samlKeyInfo);
+        }
+
         SecurityTokenProvider<InboundSecurityToken> subjectSecurityTokenProvider =
                 new SecurityTokenProvider<InboundSecurityToken>() {
 
@@ -226,56 +267,6 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
         }
     }
 
-    private int getSubjectKeyInfoIndex(Deque<XMLSecEvent> eventQueue) {
-        int idx = -1;
-        Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
-        while (xmlSecEventIterator.hasNext()) {
-            XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
-            idx++;
-            if (XMLStreamConstants.START_ELEMENT == xmlSecEvent.getEventType()) {
-                QName elementName = xmlSecEvent.asStartElement().getName();
-                if (WSSConstants.TAG_dsig_KeyInfo.equals(elementName)) {
-                    List<QName> elementPath = xmlSecEvent.asStartElement().getElementPath();
-                    if (elementPath.size() >= 4) {
-                        int lastIndex = elementPath.size() - 2;
-                        if ("SubjectConfirmationData".equals(elementPath.get(lastIndex).getLocalPart())
-                                && "SubjectConfirmation".equals(elementPath.get(lastIndex - 1).getLocalPart())
-                                && "Subject".equals(elementPath.get(lastIndex - 2).getLocalPart())) {
-                            return idx;
-                        } else if ("SubjectConfirmation".equals(elementPath.get(lastIndex).getLocalPart())
-                                && "Subject".equals(elementPath.get(lastIndex - 1).getLocalPart())) {
-                            return idx;
-                        }
-                    }
-                }
-            }
-        }
-        return idx;
-    }
-
-    private int getSignatureKeyInfoIndex(Deque<XMLSecEvent> eventQueue) {
-        int idx = -1;
-        Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
-        while (xmlSecEventIterator.hasNext()) {
-            XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
-            idx++;
-            if (XMLStreamConstants.START_ELEMENT == xmlSecEvent.getEventType()) {
-                QName elementName = xmlSecEvent.asStartElement().getName();
-                if (WSSConstants.TAG_dsig_KeyInfo.equals(elementName)) {
-                    List<QName> elementPath = xmlSecEvent.asStartElement().getElementPath();
-                    if (elementPath.size() >= 4) {
-                        int lastIndex = elementPath.size() - 2;
-                        if ("Signature".equals(elementPath.get(lastIndex).getLocalPart())
-                                && "Assertion".equals(elementPath.get(lastIndex - 1).getLocalPart())) {
-                            return idx;
-                        }
-                    }
-                }
-            }
-        }
-        return idx;
-    }
-
     private InboundSecurityToken parseKeyInfo(InputProcessorChain inputProcessorChain, XMLSecurityProperties securityProperties,
                                        Deque<XMLSecEvent> eventQueue, int index) throws XMLSecurityException {
         XMLSecEvent xmlSecEvent = null;
@@ -50,6 +50,11 @@ import org.apache.xml.security.stax.impl.processor.output.FinalOutputProcessor;
  * means that the timestamp is below the signature in the sec-header. Because of the highly dynamic nature
  * of the processor chain (and encryption makes it far more worse) we have to order the headers afterwards.
  * So that is what this processor does, the final header reordering...
+ *
+ * By default every element of the security header is buffered until the end of the security header.
+ * If {@link WSSSecurityProperties#isStreamSecurityHeader()} is set, the elements of the last configured
+ * action (which are output first) are written out as they are created, except for encrypted elements and
+ * signatures, and only the elements which have to be inserted behind them are buffered.
  */
 public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
 
@@ -58,6 +63,10 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
 
     private int securityHeaderIndex;
     private Deque<XMLSecEvent> currentDeque;
+    private XMLSecurityConstants.Action streamedAction;
+    private boolean streamedEncryptAction;
+    private int bufferedEvents;
+    private int peakBufferedEvents;
 
     public SecurityHeaderReorderProcessor() throws XMLSecurityException {
         super();
@@ -84,6 +93,19 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                 }
             }));
         }
+
+        // The (non-encrypted, non-signature) elements of the last action are output first, so they
+        // can be written out directly, as no element which is created afterwards is placed before them
+        if (((WSSSecurityProperties) getSecurityProperties()).isStreamSecurityHeader() && !outActions.isEmpty()) {
+            streamedAction = outActions.get(outActions.size() - 1);
+        }
+    }
+
+    /**
+     * @return the maximum number of security header events which were buffered at the same time
+     */
+    public int getPeakBufferedEvents() {
+        return peakBufferedEvents;
     }
 
     @Override
@@ -109,7 +131,8 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                 while (iterator.hasNext()) {
                     Map.Entry<XMLSecurityConstants.Action, Map<SecurityHeaderOrder, Deque<XMLSecEvent>>> next = iterator.next();
 
-                    boolean encryptAction = false;
+                    //an encrypt action stops here as well if its headers were already written out
+                    boolean encryptAction = streamedEncryptAction && next.getKey().equals(streamedAction);
                     Iterator<Map.Entry<SecurityHeaderOrder, Deque<XMLSecEvent>>> entryIterator = next.getValue().entrySet().iterator();
                     while (entryIterator.hasNext()) {
                         Map.Entry<SecurityHeaderOrder, Deque<XMLSecEvent>> entry = entryIterator.next();
@@ -118,6 +141,7 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                             Deque<XMLSecEvent> xmlSecEvents = entry.getValue();
                             while (!xmlSecEvents.isEmpty()) {
                                 XMLSecEvent event = xmlSecEvents.pop();
+                                bufferedEvents--;
                                 subOutputProcessorChain.reset();
                                 subOutputProcessorChain.processEvent(event);
                             }
@@ -144,11 +168,14 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                         Deque<XMLSecEvent> xmlSecEvents = entry.getValue();
                         while (!xmlSecEvents.isEmpty()) {
                             XMLSecEvent event = xmlSecEvents.pop();
+                            bufferedEvents--;
                             subOutputProcessorChain.reset();
                             subOutputProcessorChain.processEvent(event);
                         }
                     }
                 }
+                outputProcessorChain.getSecurityContext().put(
+                    WSSConstants.PROP_SECURITY_HEADER_PEAK_BUFFERED_EVENTS, peakBufferedEvents);
                 outputProcessorChain.removeProcessor(this);
             }
             outputProcessorChain.processEvent(xmlSecEvent);
@@ -168,12 +195,27 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                                 + " but got " + xmlSecStartElement.getName()});
             }
 
-            Map<SecurityHeaderOrder, Deque<XMLSecEvent>> map = actionEventMap.get(securityHeaderOrder.getAction());
-            currentDeque = new ArrayDeque<>();
-            map.put(securityHeaderOrder, currentDeque);
-
             securityHeaderIndex++;
+
+            if (securityHeaderOrder.getAction().equals(streamedAction) && !securityHeaderOrder.isEncrypted()
+                && !WSSConstants.TAG_dsig_Signature.equals(securityHeaderOrder.getSecurityHeaderElementName())) {
+                currentDeque = null;
+                if (securityHeaderOrder.getAction().getName().contains("Encrypt")) {
+                    streamedEncryptAction = true;
+                }
+            } else {
+                Map<SecurityHeaderOrder, Deque<XMLSecEvent>> map = actionEventMap.get(securityHeaderOrder.getAction());
+                currentDeque = new ArrayDeque<>();
+                map.put(securityHeaderOrder, currentDeque);
+            }
+        }
+        if (currentDeque == null) {
+            outputProcessorChain.processEvent(xmlSecEvent);
+            return;
         }
         currentDeque.offer(xmlSecEvent);
+        if (++bufferedEvents > peakBufferedEvents) {
+            peakBufferedEvents = bufferedEvents;
+        }
     }
 }
@@ -28,6 +28,7 @@ import java.util.regex.Pattern;
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
 
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
@@ -114,12 +115,19 @@ public abstract class X509SecurityTokenImpl
             boolean enableRevocation = false;
             Collection<Pattern> subjectCertConstraints = null;
             Collection<Pattern> issuerCertConstraints = null;
+            CertPathTrustCache certPathTrustCache = null;
             if (securityProperties != null) {
                 enableRevocation = securityProperties.isEnableRevocation();
                 subjectCertConstraints = securityProperties.getSubjectCertConstraints();
                 issuerCertConstraints = securityProperties.getIssuerDNConstraints();
+                certPathTrustCache = securityProperties.getCertPathTrustCache();
+            }
+            if (certPathTrustCache != null) {
+                certPathTrustCache.verifyTrust(getCrypto(), x509Certificates, enableRevocation,
+                                               subjectCertConstraints, issuerCertConstraints);
+            } else {
+                getCrypto().verifyTrust(x509Certificates, enableRevocation, subjectCertConstraints, issuerCertConstraints);
             }
-            getCrypto().verifyTrust(x509Certificates, enableRevocation, subjectCertConstraints, issuerCertConstraints);
         }
     }
 
@@ -32,11 +32,14 @@ import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.ConfigurationConstants;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.crypto.CertPathTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.JasyptPasswordEncryptor;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SamlAssertionCache;
 import org.apache.wss4j.common.util.Loader;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSConstants.UsernameTokenPasswordType;
@@ -467,6 +470,10 @@ public final class ConfigurationConverter {
         boolean requireTimestampExpires =
             decodeBooleanConfigValue(ConfigurationConstants.REQUIRE_TIMESTAMP_EXPIRES, false, config);
         properties.setRequireTimestampExpires(requireTimestampExpires);
+
+        boolean streamSecurityHeader =
+            decodeBooleanConfigValue(ConfigurationConstants.STREAM_SECURITY_HEADER, false, config);
+        properties.setStreamSecurityHeader(streamSecurityHeader);
     }
 
     public static void parseNonBooleanProperties(
@@ -594,6 +601,21 @@ public final class ConfigurationConverter {
             properties.setSamlOneTimeUseReplayCache(samlOneTimeUseCache);
         }
 
+        Object certPathTrustCache = config.get(ConfigurationConstants.CERT_PATH_TRUST_CACHE_INSTANCE);
+        if (certPathTrustCache instanceof CertPathTrustCache) {
+            properties.setCertPathTrustCache((CertPathTrustCache)certPathTrustCache);
+        }
+
+        Object samlAssertionCache = config.get(ConfigurationConstants.SAML_ASSERTION_CACHE_INSTANCE);
+        if (samlAssertionCache instanceof SamlAssertionCache) {
+            properties.setSamlAssertionCache((SamlAssertionCache)samlAssertionCache);
+        }
+
+        Object secureConversationCache = config.get(ConfigurationConstants.SECURE_CONVERSATION_CACHE_INSTANCE);
+        if (secureConversationCache instanceof SecureConversationCache) {
+            properties.setSecureConversationCache((SecureConversationCache)secureConversationCache);
+        }
+
         String derivedSignatureKeyLength = getString(ConfigurationConstants.DERIVED_SIGNATURE_KEY_LENGTH, config);
         if (derivedSignatureKeyLength != null) {
             int sigLength = Integer.parseInt(derivedSignatureKeyLength);
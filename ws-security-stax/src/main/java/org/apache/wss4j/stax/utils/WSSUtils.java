@@ -40,6 +40,7 @@ import javax.xml.stream.events.Attribute;
 
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceFactory;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.securityEvent.DerivedKeyTokenSecurityEvent;
@@ -307,8 +308,13 @@ public class WSSUtils extends XMLSecurityUtils {
                                                                    WSSConstants.TAG_WSSE_KEY_IDENTIFIER,
                                                                    false, attributes);
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            byte[] data = sha.digest(x509Certificates[0].getEncoded());
+            MessageDigest sha = JCEInstanceFactory.getMessageDigest("SHA-1");
+            byte[] data;
+            try {
+                data = sha.digest(x509Certificates[0].getEncoded());
+            } finally {
+                JCEInstanceFactory.releaseMessageDigest(sha);
+            }
             abstractOutputProcessor.createCharactersAndOutputAsEvent(outputProcessorChain,
                                                                      XMLUtils.encodeToString(data));
         } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
@@ -322,8 +328,13 @@ public class WSSUtils extends XMLSecurityUtils {
             throws XMLStreamException, XMLSecurityException {
 
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            byte[] data = sha.digest(key.getEncoded());
+            MessageDigest sha = JCEInstanceFactory.getMessageDigest("SHA-1");
+            byte[] data;
+            try {
+                data = sha.digest(key.getEncoded());
+            } finally {
+                JCEInstanceFactory.releaseMessageDigest(sha);
+            }
             createEncryptedKeySha1IdentifierStructure(abstractOutputProcessor, outputProcessorChain,
                                                       XMLUtils.encodeToString(data));
         } catch (NoSuchAlgorithmException e) {
@@ -19,17 +19,24 @@
 package org.apache.wss4j.stax.validate;
 
 import org.apache.wss4j.binding.wssc.AbstractSecurityContextTokenType;
+import org.apache.wss4j.binding.wsu10.AttributedDateTime;
+import org.apache.wss4j.common.derivedKey.SecureConversationCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.wss4j.stax.utils.WSSUtils;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+import org.apache.xml.security.stax.ext.XMLSecurityUtils;
 import org.apache.xml.security.stax.impl.securityToken.AbstractInboundSecurityToken;
 import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
 
 import java.security.Key;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -58,16 +65,38 @@ public class SecurityContextTokenValidatorImpl implements SecurityContextTokenVa
                     return key;
                 }
 
-                WSPasswordCallback passwordCallback = new WSPasswordCallback(
-                        identifier, WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
-                WSSUtils.doSecretKeyCallback(
-                        tokenContext.getWssSecurityProperties().getCallbackHandler(), passwordCallback);
-                if (passwordCallback.getKey() == null) {
-                    throw new WSSecurityException(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE,
-                            "noKey", new Object[] {securityContextTokenType.getId()});
+                // The secret of the session might be cached from a previous message
+                SecureConversationCache secureConversationCache =
+                    tokenContext.getWssSecurityProperties().getSecureConversationCache();
+                Instant expires = null;
+                if (secureConversationCache != null) {
+                    expires = getExpires(securityContextTokenType);
+                    if (expires != null && !expires.isAfter(Instant.now())) {
+                        // The session has expired
+                        secureConversationCache.cancel(identifier);
+                        secureConversationCache = null;
+                    }
+                }
+                byte[] secret = null;
+                if (secureConversationCache != null) {
+                    secret = secureConversationCache.getSecret(identifier);
+                }
+                if (secret == null) {
+                    WSPasswordCallback passwordCallback = new WSPasswordCallback(
+                            identifier, WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
+                    WSSUtils.doSecretKeyCallback(
+                            tokenContext.getWssSecurityProperties().getCallbackHandler(), passwordCallback);
+                    secret = passwordCallback.getKey();
+                    if (secret == null) {
+                        throw new WSSecurityException(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE,
+                                "noKey", new Object[] {securityContextTokenType.getId()});
+                    }
+                    if (secureConversationCache != null) {
+                        secureConversationCache.putSecret(identifier, secret, expires);
+                    }
                 }
                 String keyAlgorithm = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
-                key = new SecretKeySpec(passwordCallback.getKey(), keyAlgorithm);
+                key = new SecretKeySpec(secret, keyAlgorithm);
                 setSecretKey(algorithmURI, key);
                 return key;
             }
@@ -83,4 +112,18 @@ public class SecurityContextTokenValidatorImpl implements SecurityContextTokenVa
 
         return securityContextToken;
     }
+
+    private static Instant getExpires(AbstractSecurityContextTokenType securityContextTokenType)
+        throws WSSecurityException {
+        AttributedDateTime expires =
+            XMLSecurityUtils.getQNameType(securityContextTokenType.getAny(), WSSConstants.TAG_WSU_EXPIRES);
+        if (expires == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(expires.getValue()).toInstant();
+        } catch (DateTimeParseException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.test.saml;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Signs the (unsigned) SAML 2 Assertion of a message with the "samlissuer" key, with the given
+ * SignedInfo canonicalization, digest algorithm and references, so that signatures which do not
+ * follow the defaults of OpenSAML can be tested.
+ */
+final class AssertionSigner {
+
+    private AssertionSigner() {
+        // complete
+    }
+
+    static String getAssertionId(Document securedDocument) {
+        return getAssertion(securedDocument).getAttributeNS(null, "ID");
+    }
+
+    /**
+     * @param securedDocument the message with an unsigned SAML 2 Assertion
+     * @param c14nAlgorithm the canonicalization algorithm of the SignedInfo
+     * @param digestAlgorithm the digest algorithm of the references
+     * @param referenceURIs the URIs of the references (with the enveloped signature and exclusive
+     * canonicalization transforms)
+     */
+    static void sign(
+        Document securedDocument, String c14nAlgorithm, String digestAlgorithm, String... referenceURIs
+    ) throws Exception {
+        Element assertionElement = getAssertion(securedDocument);
+
+        // The Assertion is signed on its own, as it would be by the issuer, so that URI="" refers to it
+        Document assertionDocument = securedDocument.getImplementation().createDocument(null, null, null);
+        Element assertion = (Element) assertionDocument.importNode(assertionElement, true);
+        assertionDocument.appendChild(assertion);
+        assertion.setIdAttributeNS(null, "ID", true);
+
+        KeyStore keyStore = KeyStore.getInstance("jks");
+        try (InputStream input = AssertionSigner.class.getClassLoader().getResourceAsStream("saml/issuer.jks")) {
+            keyStore.load(input, "default".toCharArray());
+        }
+        X509Certificate cert = (X509Certificate) keyStore.getCertificate("samlissuer");
+        PrivateKey privateKey = (PrivateKey) keyStore.getKey("samlissuer", "default".toCharArray());
+
+        XMLSignature signature = new XMLSignature(
+            assertionDocument, null, XMLSignature.ALGO_ID_SIGNATURE_RSA_SHA256, c14nAlgorithm
+        );
+        // The Signature must follow the Issuer
+        Element issuer = XMLUtils.getDirectChildElement(assertion, "Issuer", WSConstants.SAML2_NS);
+        assertion.insertBefore(signature.getElement(), issuer.getNextSibling());
+        for (String referenceURI : referenceURIs) {
+            Transforms transforms = new Transforms(assertionDocument);
+            transforms.addTransform(Transforms.TRANSFORM_ENVELOPED_SIGNATURE);
+            transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
+            signature.addDocument(referenceURI, transforms, digestAlgorithm);
+        }
+        signature.addKeyInfo(cert);
+        signature.sign(privateKey);
+
+        assertionElement.getParentNode().replaceChild(securedDocument.importNode(assertion, true), assertionElement);
+    }
+
+    private static Element getAssertion(Document securedDocument) {
+        return (Element) securedDocument.getElementsByTagNameNS(WSConstants.SAML2_NS, "Assertion").item(0);
+    }
+}
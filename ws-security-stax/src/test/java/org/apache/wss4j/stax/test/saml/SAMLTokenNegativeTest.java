@@ -21,6 +21,9 @@ package org.apache.wss4j.stax.test.saml;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
 import java.util.Properties;
 
 import javax.xml.stream.XMLStreamException;
@@ -28,6 +31,9 @@ import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.common.saml.builder.SAML1Constants;
 import org.apache.wss4j.common.saml.builder.SAML2Constants;
 import org.apache.wss4j.dom.WSConstants;
@@ -38,6 +44,9 @@ import org.apache.wss4j.stax.setup.InboundWSSec;
 import org.apache.wss4j.stax.setup.WSSec;
 import org.apache.wss4j.stax.test.AbstractTestBase;
 import org.apache.wss4j.stax.test.utils.StAX2DOM;
+import org.apache.wss4j.stax.validate.SamlTokenValidatorImpl;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.utils.Constants;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -273,4 +282,155 @@ public class SAMLTokenNegativeTest extends AbstractTestBase {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSAML2SignedAssertionModified() throws Exception {
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        getElement(securedDocument, WSConstants.SAML2_NS, "NameID").setTextContent("uid=bob");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedAssertionEmptyURIModified() throws Exception {
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1, "");
+        getElement(securedDocument, WSConstants.SAML2_NS, "Issuer").setTextContent("www.example.org");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedInfoModified() throws Exception {
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        // The digest of the Assertion is still valid, but the signature value is not
+        getElement(securedDocument, WSConstants.SIG_NS, "SignedInfo").setAttributeNS(null, "Id", "SignedInfo-1");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedAssertionWrongKey() throws Exception {
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+
+        // Replace the certificate of the issuer with another (trusted) certificate
+        KeyStore keyStore = KeyStore.getInstance("jks");
+        try (InputStream input = this.getClass().getClassLoader().getResourceAsStream("transmitter.jks")) {
+            keyStore.load(input, "default".toCharArray());
+        }
+        X509Certificate cert = (X509Certificate) keyStore.getCertificate("transmitter");
+        getElement(securedDocument, WSConstants.SIG_NS, "X509Certificate").setTextContent(
+            Base64.getMimeEncoder().encodeToString(cert.getEncoded()));
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedAdviceAssertionModified() throws Exception {
+        // Create a signed "Advice" Assertion first
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("www.example.com");
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper samlAssertion = new SamlAssertionWrapper(samlCallback);
+        samlAssertion.signAssertion(samlCallback.getIssuerKeyName(), samlCallback.getIssuerKeyPassword(),
+                                    samlCallback.getIssuerCrypto(), false);
+        Element adviceElement = samlAssertion.toDOM(documentBuilderFactory.newDocumentBuilder().newDocument());
+
+        // The signature of the outer Assertion covers the Advice, including its Signature
+        Document securedDocument = createBearerAssertionMessage(adviceElement);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+
+        NodeList nodeList = securedDocument.getElementsByTagNameNS(WSConstants.SAML2_NS, "Assertion");
+        assertEquals(nodeList.getLength(), 2);
+        Element adviceAssertion = (Element) nodeList.item(1);
+        adviceAssertion.getElementsByTagNameNS(WSConstants.SIG_NS, "SignatureValue").item(0).setTextContent(
+            Base64.getMimeEncoder().encodeToString(new byte[256]));
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2InclusiveC14NModified() throws Exception {
+        // The signature is verified by OpenSAML, as the SignedInfo is not canonicalized exclusively
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        getElement(securedDocument, WSConstants.SAML2_NS, "NameID").setTextContent("uid=bob");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2TwoReferencesModified() throws Exception {
+        // The signature is verified by OpenSAML, as it has more than one reference
+        Document securedDocument = createBearerAssertionMessage(null);
+        String uri = "#" + AssertionSigner.getAssertionId(securedDocument);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             uri, uri);
+        getElement(securedDocument, WSConstants.SAML2_NS, "NameID").setTextContent("uid=bob");
+
+        SamlTokenValidatorImpl validator = new SamlTokenValidatorImpl();
+        validator.setValidateSignatureAgainstProfile(false);
+        processBearerAssertionMessage(securedDocument, validator);
+    }
+
+    @Test
+    public void testSAML2MD5DigestModified() throws Exception {
+        // The signature is verified by OpenSAML, as the reference uses MD5
+        Document securedDocument = createBearerAssertionMessage(null);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS,
+                             "http://www.w3.org/2001/04/xmldsig-more#md5",
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        getElement(securedDocument, WSConstants.SAML2_NS, "NameID").setTextContent("uid=bob");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    /**
+     * Create a message with an unsigned SAML 2 bearer Assertion, to be signed by the test
+     */
+    private Document createBearerAssertionMessage(Element adviceElement) throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.AUTHN);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("www.example.com");
+        callbackHandler.setSignAssertion(false);
+        callbackHandler.setAssertionAdviceElement(adviceElement);
+
+        InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+        Properties properties = new Properties();
+        properties.put(WSHandlerConstants.SAML_CALLBACK_REF, callbackHandler);
+        return doOutboundSecurityWithWSS4J(sourceDocument, WSHandlerConstants.SAML_TOKEN_UNSIGNED, properties);
+    }
+
+    private static Element getElement(Document document, String namespace, String localName) {
+        return (Element) document.getElementsByTagNameNS(namespace, localName).item(0);
+    }
+
+    // The message must be rejected
+    private void processBearerAssertionMessage(Document securedDocument, SamlTokenValidatorImpl validator)
+        throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        if (validator != null) {
+            securityProperties.addValidator(WSSConstants.TAG_SAML2_ASSERTION, validator);
+        }
+        InboundWSSec wsSecIn = WSSec.getInboundWSSec(securityProperties);
+        XMLStreamReader xmlStreamReader = wsSecIn.processInMessage(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+
+        try {
+            StAX2DOM.readDoc(documentBuilderFactory.newDocumentBuilder(), xmlStreamReader);
+            fail("XMLStreamException expected");
+        } catch (XMLStreamException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+}
@@ -67,12 +67,14 @@ import org.apache.wss4j.stax.test.AbstractTestBase;
 import org.apache.wss4j.stax.test.utils.StAX2DOM;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
 import org.apache.wss4j.stax.validate.SamlTokenValidatorImpl;
+import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.encryption.EncryptedData;
 import org.apache.xml.security.encryption.EncryptedKey;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.keys.KeyInfo;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.utils.Constants;
 import org.junit.jupiter.api.Test;
 import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.XMLObjectBuilderFactory;
@@ -1188,6 +1190,120 @@ public class SAMLTokenTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testSAML2SignedAssertionReferenceURIs() throws Exception {
+        // A reference to the ID of the Assertion
+        Document securedDocument = createBearerAssertionMessage();
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        processBearerAssertionMessage(securedDocument, null);
+
+        // An empty reference, to the Assertion itself
+        securedDocument = createBearerAssertionMessage();
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1, "");
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedAssertionInclusiveC14N() throws Exception {
+        // The signature is verified by OpenSAML, as the SignedInfo is not canonicalized exclusively
+        Document securedDocument = createBearerAssertionMessage();
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             "#" + AssertionSigner.getAssertionId(securedDocument));
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    @Test
+    public void testSAML2SignedAssertionTwoReferences() throws Exception {
+        // The signature is verified by OpenSAML, as it has more than one reference
+        Document securedDocument = createBearerAssertionMessage();
+        String uri = "#" + AssertionSigner.getAssertionId(securedDocument);
+        AssertionSigner.sign(securedDocument, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS, Constants.ALGO_ID_DIGEST_SHA1,
+                             uri, uri);
+
+        // This does not follow the SAML signature profile
+        try {
+            processBearerAssertionMessage(securedDocument, null);
+            fail("Failure expected on a signature with two references");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getCause() instanceof XMLSecurityException);
+        }
+
+        SamlTokenValidatorImpl validator = new SamlTokenValidatorImpl();
+        validator.setValidateSignatureAgainstProfile(false);
+        processBearerAssertionMessage(securedDocument, validator);
+    }
+
+    @Test
+    public void testSAML2SignedAdviceAssertion() throws Exception {
+        // Create a signed "Advice" Assertion first
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("www.example.com");
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper samlAssertion = new SamlAssertionWrapper(samlCallback);
+        samlAssertion.signAssertion(samlCallback.getIssuerKeyName(), samlCallback.getIssuerKeyPassword(),
+                                    samlCallback.getIssuerCrypto(), false);
+        Element adviceElement = samlAssertion.toDOM(documentBuilderFactory.newDocumentBuilder().newDocument());
+
+        // Now create a signed SAML Assertion that contains the signed Advice Assertion
+        callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.AUTHN);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("www.example.com");
+        callbackHandler.setAssertionAdviceElement(adviceElement);
+
+        InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+        Properties properties = new Properties();
+        properties.put(WSHandlerConstants.SAML_CALLBACK_REF, callbackHandler);
+        Document securedDocument =
+            doOutboundSecurityWithWSS4J(sourceDocument, WSHandlerConstants.SAML_TOKEN_UNSIGNED, properties);
+
+        NodeList nodeList = securedDocument.getElementsByTagNameNS(WSConstants.SAML2_NS, "Assertion");
+        assertEquals(nodeList.getLength(), 2);
+        nodeList = securedDocument.getElementsByTagNameNS(WSSConstants.TAG_dsig_Signature.getNamespaceURI(), WSSConstants.TAG_dsig_Signature.getLocalPart());
+        assertEquals(nodeList.getLength(), 2);
+
+        // The signature of the outer Assertion is verified
+        processBearerAssertionMessage(securedDocument, null);
+    }
+
+    /**
+     * Create a message with an unsigned SAML 2 bearer Assertion, to be signed by the test
+     */
+    private Document createBearerAssertionMessage() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.AUTHN);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("www.example.com");
+        callbackHandler.setSignAssertion(false);
+
+        InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+        Properties properties = new Properties();
+        properties.put(WSHandlerConstants.SAML_CALLBACK_REF, callbackHandler);
+        return doOutboundSecurityWithWSS4J(sourceDocument, WSHandlerConstants.SAML_TOKEN_UNSIGNED, properties);
+    }
+
+    private void processBearerAssertionMessage(Document securedDocument, SamlTokenValidatorImpl validator)
+        throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        if (validator != null) {
+            securityProperties.addValidator(WSSConstants.TAG_SAML2_ASSERTION, validator);
+        }
+        InboundWSSec wsSecIn = WSSec.getInboundWSSec(securityProperties);
+        XMLStreamReader xmlStreamReader = wsSecIn.processInMessage(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+
+        StAX2DOM.readDoc(documentBuilderFactory.newDocumentBuilder(), xmlStreamReader);
+    }
+
     private void encryptElement(
         Document document,
         Element elementToEncrypt,